@@ -27,7 +27,7 @@ public class DefaultEdgeDictionaryProvider implements EdgeDictionaryProvider {
     
     @Override
     public EdgeDictionaryBase<?,? extends MetadataBase<?>> getEdgeDictionary(Query settings, String metadataTableName) {
-        final DatawaveUserDetails currentUser = queryStorageCache.getQueryStatus(settings.getId().toString()).getCurrentUser();
+        final DatawaveUserDetails currentUser = queryStorageCache.getCachedQueryStatus(settings.getId().toString()).getCurrentUser();
         
         final String bearerHeader = "Bearer " + jwtTokenHandler.createTokenFromUsers(currentUser.getPrimaryUser().getName(), currentUser.getProxiedUsers());
         
@@ -0,0 +1,152 @@
+package datawave.microservice.query.messaging;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the positions (e.g. kafka offsets or rabbitmq delivery tags) of the results which have been delivered to a listener but not yet settled, grouped by
+ * the unit which the broker acknowledges cumulatively (e.g. a kafka partition or a rabbitmq channel). Results may be acknowledged in any order, but the broker
+ * can only be told about the highest position for which every lower position in the group has also been settled. That position is the watermark.
+ *
+ * @param <G>
+ *            the group type
+ * @param <V>
+ *            the type of value associated with each position
+ */
+public class AcknowledgementTracker<G,V> {
+    
+    private final Map<G,TreeMap<Long,Position<V>>> groups = new ConcurrentHashMap<>();
+    
+    /**
+     * Record that a result was delivered
+     *
+     * @param group
+     *            the group
+     * @param position
+     *            the position within the group
+     * @param value
+     *            the value associated with the position
+     */
+    public void delivered(G group, long position, V value) {
+        TreeMap<Long,Position<V>> positions = groups.computeIfAbsent(group, g -> new TreeMap<>());
+        synchronized (positions) {
+            positions.put(position, new Position<>(value));
+        }
+    }
+    
+    /**
+     * Record a result which was settled as soon as it was delivered (e.g. a record for another query which shares a kafka partition). It is only tracked while
+     * an earlier position in the group is still outstanding.
+     *
+     * @param group
+     *            the group
+     * @param position
+     *            the position within the group
+     * @param value
+     *            the value associated with the position
+     * @return the value for the new watermark, or null if the watermark did not advance
+     */
+    public V settled(G group, long position, V value) {
+        TreeMap<Long,Position<V>> positions = groups.computeIfAbsent(group, g -> new TreeMap<>());
+        synchronized (positions) {
+            if (positions.isEmpty()) {
+                return value;
+            }
+            Position<V> entry = new Position<>(value);
+            entry.acknowledged = true;
+            positions.put(position, entry);
+            return advance(positions);
+        }
+    }
+    
+    /**
+     * Record that a result was acknowledged, advancing the watermark if possible
+     *
+     * @param group
+     *            the group
+     * @param position
+     *            the position within the group
+     * @return the value for the new watermark, or null if the watermark did not advance
+     */
+    public V acknowledge(G group, long position) {
+        TreeMap<Long,Position<V>> positions = groups.get(group);
+        if (positions != null) {
+            synchronized (positions) {
+                Position<V> entry = positions.get(position);
+                if (entry != null) {
+                    entry.acknowledged = true;
+                    return advance(positions);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Stop tracking a result which was settled without an acknowledgement (e.g. it was rejected and will be redelivered)
+     *
+     * @param group
+     *            the group
+     * @param position
+     *            the position within the group
+     * @return the value for the new watermark, or null if the watermark did not advance
+     */
+    public V discard(G group, long position) {
+        TreeMap<Long,Position<V>> positions = groups.get(group);
+        if (positions != null) {
+            synchronized (positions) {
+                if (positions.remove(position) != null) {
+                    return advance(positions);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Stop tracking every result in a group, e.g. when a kafka partition is revoked and its records will be redelivered to another consumer
+     *
+     * @param group
+     *            the group
+     */
+    public void discardAll(G group) {
+        groups.remove(group);
+    }
+    
+    /**
+     * Get the number of results which have been delivered but not yet passed by the watermark
+     *
+     * @return the number of outstanding results
+     */
+    public int getOutstanding() {
+        int outstanding = 0;
+        for (TreeMap<Long,Position<V>> positions : groups.values()) {
+            synchronized (positions) {
+                outstanding += positions.size();
+            }
+        }
+        return outstanding;
+    }
+    
+    public void clear() {
+        groups.clear();
+    }
+    
+    private V advance(TreeMap<Long,Position<V>> positions) {
+        V watermark = null;
+        while (!positions.isEmpty() && positions.firstEntry().getValue().acknowledged) {
+            watermark = positions.pollFirstEntry().getValue().value;
+        }
+        return watermark;
+    }
+    
+    private static class Position<V> {
+        private final V value;
+        private boolean acknowledged = false;
+        
+        private Position(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -1,13 +1,118 @@
 package datawave.microservice.query.messaging;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Stores the payloads of results which are too large to send through the messaging backend. Each payload is checked under its result id, and claimed by the
+ * listener which receives the result.
+ */
 public interface ClaimCheck {
-    <T> void check(String queryId, T data) throws InterruptedException, JsonProcessingException;
+    /**
+     * Check the payload for a result
+     *
+     * @param queryId
+     *            the query id
+     * @param resultId
+     *            the result id
+     * @param data
+     *            the payload
+     * @throws InterruptedException
+     *             if interrupted while storing the payload
+     * @throws IOException
+     *             if the payload could not be stored
+     */
+    <T> void check(String queryId, String resultId, T data) throws InterruptedException, IOException;
+    
+    /**
+     * Claim the payload for a result in the background. The future fails with an {@link IOException} if the payload isn't available within the claim timeout.
+     *
+     * @param queryId
+     *            the query id
+     * @param resultId
+     *            the result id
+     * @return the payload
+     */
+    <T> CompletableFuture<T> claimAsync(String queryId, String resultId);
+    
+    /**
+     * Claim the payload for a result, waiting up to the claim timeout for it to be available
+     *
+     * @param queryId
+     *            the query id
+     * @param resultId
+     *            the result id
+     * @return the payload
+     * @throws InterruptedException
+     *             if interrupted while waiting for the payload
+     * @throws IOException
+     *             if the payload could not be claimed
+     */
+    default <T> T claim(String queryId, String resultId) throws InterruptedException, IOException {
+        return await(claimAsync(queryId, resultId));
+    }
     
-    <T> T claim(String queryId) throws InterruptedException, JsonProcessingException;
+    /**
+     * Start claiming the payload for a result as soon as the result is buffered, so that it is ready by the time the result is consumed
+     *
+     * @param queryId
+     *            the query id
+     * @param resultId
+     *            the result id
+     * @return a callback which waits for the payload
+     */
+    default ClaimCheckCallback prefetch(String queryId, String resultId) {
+        CompletableFuture<Object> payload = claimAsync(queryId, resultId);
+        return () -> await(payload);
+    }
+    
+    /**
+     * Discard the payload for a result once the result has been acknowledged
+     *
+     * @param queryId
+     *            the query id
+     * @param resultId
+     *            the result id
+     */
+    void release(String queryId, String resultId);
     
     void empty(String queryId);
     
     void delete(String queryId);
+    
+    /**
+     * Wait for a claimed payload, unwrapping the failure if it could not be claimed
+     *
+     * @param future
+     *            the claimed payload
+     * @return the payload
+     * @throws InterruptedException
+     *             if interrupted while waiting for the payload
+     * @throws IOException
+     *             if the payload could not be claimed
+     */
+    static <T> T await(CompletableFuture<T> future) throws InterruptedException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        }
+    }
+    
+    /**
+     * Wraps a checked payload so that its type is recorded when it is serialized
+     */
+    class DataWrapper<T> {
+        @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS)
+        public T data;
+        
+        public DataWrapper(@JsonProperty("data") T data) {
+            this.data = data;
+        }
+    }
 }
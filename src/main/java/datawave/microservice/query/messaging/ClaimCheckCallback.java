@@ -1,11 +1,11 @@
 package datawave.microservice.query.messaging;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
 
 /**
  * This callback is used to retrieve a result payload from the ClaimCheck
  */
 public interface ClaimCheckCallback {
     
-    Object getPayload() throws InterruptedException, JsonProcessingException;
+    Object getPayload() throws InterruptedException, IOException;
 }
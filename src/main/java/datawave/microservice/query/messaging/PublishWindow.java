@@ -0,0 +1,160 @@
+package datawave.microservice.query.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the results which a publisher has sent, but which have not yet been acknowledged by the broker. The number of unacknowledged results is bounded by
+ * the window size, and callers will only block when the window is full. This is thread-safe so that multiple executor threads can share a single publisher.
+ */
+public class PublishWindow {
+    
+    private final int size;
+    private final Semaphore permits;
+    private final Map<String,CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    
+    public PublishWindow(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The publish window size must be positive");
+        }
+        this.size = size;
+        this.permits = new Semaphore(size);
+    }
+    
+    /**
+     * Get a correlation id for a result which is unique within this window, even if the same result id is published more than once
+     *
+     * @param resultId
+     *            the result id
+     * @return a unique correlation id
+     */
+    public String nextCorrelationId(String resultId) {
+        return resultId + ':' + sequence.incrementAndGet();
+    }
+    
+    /**
+     * Reserve a slot in the window for a result, waiting for room if the window is full. The slot is released when the returned future is completed.
+     *
+     * @param correlationId
+     *            the correlation id used to acknowledge the result
+     * @param interval
+     *            the amount of time to wait for room in the window
+     * @param timeUnit
+     *            the time unit
+     * @return a future to be completed with the broker acknowledgement, or null if there was no room in the window within the interval
+     * @throws InterruptedException
+     *             if interrupted while waiting for room in the window
+     */
+    public CompletableFuture<Boolean> acquire(String correlationId, long interval, TimeUnit timeUnit) throws InterruptedException {
+        if (!permits.tryAcquire(interval, timeUnit)) {
+            return null;
+        }
+        
+        CompletableFuture<Boolean> ack = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(correlationId, ack) != null) {
+            permits.release();
+            throw new IllegalArgumentException("Correlation id " + correlationId + " is already in flight");
+        }
+        ack.whenComplete((acked, throwable) -> {
+            inFlight.remove(correlationId, ack);
+            permits.release();
+        });
+        return ack;
+    }
+    
+    /**
+     * Acknowledge a result which is in flight
+     *
+     * @param correlationId
+     *            the correlation id
+     * @param acked
+     *            whether the broker accepted the result
+     * @return true if the result was in flight, false otherwise
+     */
+    public boolean complete(String correlationId, boolean acked) {
+        CompletableFuture<Boolean> ack = inFlight.get(correlationId);
+        return ack != null && ack.complete(acked);
+    }
+    
+    /**
+     * Fail all of the results which are in flight, releasing the window
+     */
+    public void cancelAll() {
+        for (CompletableFuture<Boolean> ack : new ArrayList<>(inFlight.values())) {
+            ack.complete(false);
+        }
+    }
+    
+    /**
+     * Wait for all of the results which are in flight to be acknowledged
+     *
+     * @param interval
+     *            the amount of time to wait
+     * @param timeUnit
+     *            the time unit
+     * @return true if the window drained within the interval, false otherwise
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitEmpty(long interval, TimeUnit timeUnit) throws InterruptedException {
+        if (permits.tryAcquire(size, interval, timeUnit)) {
+            permits.release(size);
+            return true;
+        }
+        return false;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public int getInFlight() {
+        return size - permits.availablePermits();
+    }
+    
+    /**
+     * Get the deadline for an interval, saturating at {@link Long#MAX_VALUE}
+     *
+     * @param interval
+     *            the interval
+     * @param timeUnit
+     *            the time unit
+     * @return the deadline in epoch milliseconds
+     */
+    public static long deadline(long interval, TimeUnit timeUnit) {
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(interval);
+        return (deadline < 0) ? Long.MAX_VALUE : deadline;
+    }
+    
+    /**
+     * Get the number of milliseconds remaining until a deadline
+     *
+     * @param deadline
+     *            the deadline in epoch milliseconds
+     * @return the remaining milliseconds
+     */
+    public static long remaining(long deadline) {
+        return (deadline == Long.MAX_VALUE) ? Long.MAX_VALUE : Math.max(0L, deadline - System.currentTimeMillis());
+    }
+    
+    /**
+     * Combine the acknowledgements for a batch of results
+     *
+     * @param acks
+     *            the acknowledgements
+     * @return a future which will be completed with true if every result was acknowledged, false otherwise
+     */
+    public static CompletableFuture<Boolean> allAcked(List<CompletableFuture<Boolean>> acks) {
+        // @formatter:off
+        return CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0]))
+                .handle((v, throwable) -> throwable == null && acks.stream().allMatch(CompletableFuture::join));
+        // @formatter:on
+    }
+}
@@ -0,0 +1,298 @@
+package datawave.microservice.query.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * A reference-counted pool of publishers, keyed by query id. The executor threads working on a query share a single publisher, along with its template and
+ * publish window, rather than each creating their own. Closing a publisher obtained from the pool releases it, and the underlying publisher is closed once it
+ * has gone unused for the idle timeout, or when the query is evicted from the pool. Callers still holding the publisher of an evicted query get an
+ * {@link IllegalStateException} if they try to use it.
+ */
+public class PublisherPool implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final Function<String,QueryResultsPublisher> publisherFactory;
+    private final long idleTimeoutMillis;
+    private final Map<String,PooledPublisher> publishers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    
+    private final Counter created;
+    private final Counter reused;
+    private final Counter idleEvictions;
+    private final Counter queryEvictions;
+    
+    /**
+     * Create a publisher pool
+     *
+     * @param backend
+     *            the messaging backend, used to tag the metrics
+     * @param publisherFactory
+     *            creates a new publisher for a query id
+     * @param idleTimeoutMillis
+     *            how long an unused publisher is kept open, or zero to close publishers as soon as they are unused
+     * @param meterRegistry
+     *            the meter registry
+     */
+    public PublisherPool(String backend, Function<String,QueryResultsPublisher> publisherFactory, long idleTimeoutMillis, MeterRegistry meterRegistry) {
+        this.publisherFactory = publisherFactory;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        
+        // @formatter:off
+        Gauge.builder("query.messaging.publisher.pool.size", publishers, Map::size)
+                .description("The number of pooled query results publishers")
+                .tag("backend", backend)
+                .register(meterRegistry);
+        this.created = Counter.builder("query.messaging.publisher.pool.requests")
+                .description("The number of query results publishers requested from the pool")
+                .tag("backend", backend)
+                .tag("result", "created")
+                .register(meterRegistry);
+        this.reused = Counter.builder("query.messaging.publisher.pool.requests")
+                .description("The number of query results publishers requested from the pool")
+                .tag("backend", backend)
+                .tag("result", "reused")
+                .register(meterRegistry);
+        this.idleEvictions = Counter.builder("query.messaging.publisher.pool.evictions")
+                .description("The number of query results publishers closed by the pool")
+                .tag("backend", backend)
+                .tag("reason", "idle")
+                .register(meterRegistry);
+        this.queryEvictions = Counter.builder("query.messaging.publisher.pool.evictions")
+                .description("The number of query results publishers closed by the pool")
+                .tag("backend", backend)
+                .tag("reason", "query")
+                .register(meterRegistry);
+        // @formatter:on
+        
+        if (idleTimeoutMillis > 0) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "query-publisher-pool-" + backend);
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(idleTimeoutMillis / 2, 1L);
+            this.evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+    
+    /**
+     * Get the publisher for a query, creating it if necessary. The returned publisher must be closed when the caller is done with it.
+     *
+     * @param queryId
+     *            the query id
+     * @return a publisher which releases the pooled publisher when closed
+     */
+    public QueryResultsPublisher acquire(String queryId) {
+        // the publisher is created outside of the map update, since creating it may wait on the broker. Concurrent callers for the same query wait for it.
+        boolean[] creating = new boolean[1];
+        PooledPublisher pooled = publishers.compute(queryId, (id, existing) -> {
+            if (existing == null) {
+                created.increment();
+                creating[0] = true;
+                existing = new PooledPublisher();
+            } else {
+                reused.increment();
+            }
+            existing.refCount++;
+            return existing;
+        });
+        
+        if (creating[0]) {
+            try {
+                pooled.publisher.complete(publisherFactory.apply(queryId));
+            } catch (RuntimeException e) {
+                publishers.remove(queryId, pooled);
+                pooled.publisher.completeExceptionally(e);
+                throw e;
+            }
+            // the query may have been evicted while its publisher was being created
+            if (pooled.closed) {
+                pooled.closePublisher();
+            }
+        }
+        
+        try {
+            pooled.publisher.join();
+        } catch (CompletionException e) {
+            throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+        }
+        return new Lease(queryId, pooled);
+    }
+    
+    private void release(String queryId, PooledPublisher pooled) {
+        List<PooledPublisher> evicted = new ArrayList<>(1);
+        publishers.computeIfPresent(queryId, (id, existing) -> {
+            if (existing == pooled && --existing.refCount == 0) {
+                existing.lastReleasedMillis = System.currentTimeMillis();
+                if (idleTimeoutMillis <= 0) {
+                    evicted.add(existing);
+                    return null;
+                }
+            }
+            return existing;
+        });
+        closeAll(evicted, idleEvictions);
+    }
+    
+    /**
+     * Close the pooled publisher for a query, whether or not it is still in use. This is used when the query is deleted.
+     *
+     * @param queryId
+     *            the query id
+     */
+    public void evict(String queryId) {
+        PooledPublisher pooled = publishers.remove(queryId);
+        if (pooled != null) {
+            closeAll(Collections.singletonList(pooled), queryEvictions);
+        }
+    }
+    
+    /**
+     * Close the pooled publishers which have been unused for longer than the idle timeout
+     *
+     * @return the number of publishers closed
+     */
+    int evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledPublisher> evicted = new ArrayList<>();
+        for (String queryId : publishers.keySet()) {
+            publishers.computeIfPresent(queryId, (id, existing) -> {
+                if (existing.refCount == 0 && now - existing.lastReleasedMillis >= idleTimeoutMillis) {
+                    evicted.add(existing);
+                    return null;
+                }
+                return existing;
+            });
+        }
+        closeAll(evicted, idleEvictions);
+        return evicted.size();
+    }
+    
+    private void closeAll(List<PooledPublisher> evicted, Counter evictions) {
+        for (PooledPublisher pooled : evicted) {
+            evictions.increment();
+            pooled.closed = true;
+            // a publisher which is still being created is closed by its creator once it is ready
+            if (pooled.publisher.isDone()) {
+                pooled.closePublisher();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of pooled publishers
+     *
+     * @return the pool size
+     */
+    public int size() {
+        return publishers.size();
+    }
+    
+    /**
+     * Close all of the pooled publishers and stop the idle eviction
+     */
+    @Override
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        for (String queryId : new ArrayList<>(publishers.keySet())) {
+            evict(queryId);
+        }
+    }
+    
+    private class PooledPublisher {
+        private final CompletableFuture<QueryResultsPublisher> publisher = new CompletableFuture<>();
+        private final AtomicBoolean publisherClosed = new AtomicBoolean();
+        
+        // set once the publisher has been evicted, so that callers still holding it fail clearly
+        private volatile boolean closed;
+        
+        // guarded by the pool's map
+        private int refCount;
+        private long lastReleasedMillis;
+        
+        private QueryResultsPublisher get() {
+            return publisher.join();
+        }
+        
+        private void closePublisher() {
+            if (!publisher.isCompletedExceptionally() && publisherClosed.compareAndSet(false, true)) {
+                try {
+                    publisher.join().close();
+                } catch (Exception e) {
+                    log.warn("Failed to close pooled publisher", e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * A caller's reference to a pooled publisher
+     */
+    private class Lease implements QueryResultsPublisher {
+        private final String queryId;
+        private final PooledPublisher pooled;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        private Lease(String queryId, PooledPublisher pooled) {
+            this.queryId = queryId;
+            this.pooled = pooled;
+        }
+        
+        @Override
+        public boolean publish(Result result, long interval, TimeUnit timeUnit) {
+            ensureOpen();
+            return pooled.get().publish(result, interval, timeUnit);
+        }
+        
+        @Override
+        public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+            ensureOpen();
+            return pooled.get().publish(results, interval, timeUnit);
+        }
+        
+        @Override
+        public CompletableFuture<Boolean> publishAsync(List<Result> results) {
+            ensureOpen();
+            return pooled.get().publishAsync(results);
+        }
+        
+        private void ensureOpen() {
+            if (closed.get()) {
+                throw new IllegalStateException("The publisher for query " + queryId + " has been closed");
+            }
+            if (pooled.closed) {
+                throw new IllegalStateException("The publisher for query " + queryId + " was evicted from the pool, e.g. because the query was deleted");
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                release(queryId, pooled);
+            }
+        }
+    }
+}
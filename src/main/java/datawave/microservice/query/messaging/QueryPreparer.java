@@ -0,0 +1,119 @@
+package datawave.microservice.query.messaging;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the broker resources for queries in the background, on a small dedicated pool of threads so that the blocking admin calls don't tie up the common
+ * fork join pool. A query may be deleted while it is being prepared, in which case a preparation which has not started yet is skipped, and one which is already
+ * running is undone once it completes so that it doesn't leave behind the resources which the delete just removed.
+ */
+public class QueryPreparer implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final ExecutorService executor;
+    private final Map<String,Preparation> preparations = new ConcurrentHashMap<>();
+    
+    /**
+     * Create a query preparer
+     *
+     * @param backend
+     *            the messaging backend, used to name the threads
+     * @param threads
+     *            the number of threads preparing queries
+     */
+    public QueryPreparer(String backend, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "query-preparer-" + backend + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Prepare the resources for a query in the background
+     *
+     * @param queryId
+     *            the query id
+     * @param prepare
+     *            creates the resources for the query
+     * @param undo
+     *            deletes the resources again if the query was deleted while they were being created
+     * @return a future which completes when the resources have been prepared, or the preparation was skipped
+     */
+    public CompletableFuture<Void> prepare(String queryId, Runnable prepare, Runnable undo) {
+        Preparation preparation = new Preparation(queryId, prepare, undo);
+        preparations.put(queryId, preparation);
+        return CompletableFuture.runAsync(preparation, executor);
+    }
+    
+    /**
+     * Note that a query was deleted, skipping or undoing any preparation for it which is pending
+     *
+     * @param queryId
+     *            the query id
+     */
+    public void deleted(String queryId) {
+        Preparation preparation = preparations.remove(queryId);
+        if (preparation != null) {
+            preparation.cancel();
+        }
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+    
+    private class Preparation implements Runnable {
+        private final String queryId;
+        private final Runnable prepare;
+        private final Runnable undo;
+        private boolean cancelled = false;
+        
+        private Preparation(String queryId, Runnable prepare, Runnable undo) {
+            this.queryId = queryId;
+            this.prepare = prepare;
+            this.undo = undo;
+        }
+        
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skipped preparing deleted query {}", queryId);
+                }
+                return;
+            }
+            
+            try {
+                prepare.run();
+            } finally {
+                preparations.remove(queryId, this);
+                // the query may have been deleted while it was being prepared
+                if (isCancelled()) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Undoing the preparation of deleted query {}", queryId);
+                    }
+                    undo.run();
+                }
+            }
+        }
+        
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+        
+        private synchronized void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package datawave.microservice.query.messaging;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public interface QueryResultsListener extends Closeable {
@@ -32,6 +35,43 @@ public interface QueryResultsListener extends Closeable {
      */
     Result receive(long interval, TimeUnit timeUnit);
     
+    /**
+     * Receive up to maxResults messages, waiting for the first one to become available. Any additional results which are already available will be returned
+     * without waiting.
+     *
+     * @param maxResults
+     *            The maximum number of results to return
+     * @param interval
+     *            The time to wait for the first available result
+     * @param timeUnit
+     *            The time unit
+     * @return the results, which will be empty if the timeout interval is reached
+     */
+    default List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        List<Result> results = new ArrayList<>();
+        Result result = receive(interval, timeUnit);
+        while (result != null) {
+            results.add(result);
+            result = (results.size() < maxResults) ? receive(0L, TimeUnit.MILLISECONDS) : null;
+        }
+        return results;
+    }
+    
+    /**
+     * Acknowledge a batch of results. Implementations should settle the batch with as few broker calls as possible. The default implementation acknowledges
+     * the results one at a time.
+     *
+     * @param results
+     *            The results to acknowledge
+     * @param status
+     *            The acknowledgement status
+     */
+    default void acknowledge(Collection<Result> results, AcknowledgementCallback.Status status) {
+        for (Result result : results) {
+            result.acknowledge(status);
+        }
+    }
+    
     /**
      * Do we have any results pending
      * 
@@ -1,5 +1,7 @@
 package datawave.microservice.query.messaging;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * This is the interface for a query results manager which handles sending and listening for query task notifications
  */
@@ -25,6 +27,29 @@ public interface QueryResultsManager {
      */
     QueryResultsPublisher createPublisher(String queryId);
     
+    /**
+     * Prepare the broker resources for a query ahead of its first publisher or listener, so that creating them doesn't have to wait on the broker. This is a
+     * hint, and creating a publisher or listener will still create any resources which are missing.
+     *
+     * @param queryId
+     *            the query ID
+     * @return a future which completes when the resources have been prepared
+     */
+    default CompletableFuture<Void> prepareQuery(String queryId) {
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    /**
+     * Initialize the state for a query which must be in place before any of its results are published, such as the offset that its consumer group starts
+     * from. This is called synchronously when the query is created, before any of its tasks are dispatched.
+     *
+     * @param queryId
+     *            the query ID
+     */
+    default void initializeQuery(String queryId) {
+        // nothing to do by default
+    }
+    
     /**
      * Delete a queue for a query
      * 
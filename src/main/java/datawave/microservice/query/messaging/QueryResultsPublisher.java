@@ -1,6 +1,9 @@
 package datawave.microservice.query.messaging;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface QueryResultsPublisher extends Closeable {
@@ -28,4 +31,71 @@ public interface QueryResultsPublisher extends Closeable {
      * @return true if successful, false otherwise
      */
     boolean publish(Result result, long interval, TimeUnit timeUnit);
+    
+    /**
+     * Publishes a batch of results for the query
+     *
+     * @param results
+     *            the results to publish
+     * @return true if all of the results were published successfully, false otherwise
+     */
+    default boolean publish(List<Result> results) {
+        return publish(results, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Publishes a batch of results for the query. Implementations should send all of the results before waiting for the publish responses so that the batch
+     * costs a single round-trip rather than one per result. The default implementation publishes the results one at a time.
+     *
+     * @param results
+     *            the results to publish
+     * @param interval
+     *            the amount of time to wait for all of the publish responses
+     * @param timeUnit
+     *            the time unit
+     * @return true if all of the results were published successfully, false otherwise
+     */
+    default boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(interval);
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        for (Result result : results) {
+            long remaining = (deadline == Long.MAX_VALUE) ? Long.MAX_VALUE : Math.max(0L, deadline - System.currentTimeMillis());
+            if (!publish(result, remaining, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Asynchronously publishes a result for the query
+     *
+     * @param result
+     *            the result to publish
+     * @return a future which will be completed with true if the result was published successfully, false otherwise
+     */
+    default CompletableFuture<Boolean> publishAsync(Result result) {
+        return publishAsync(Collections.singletonList(result));
+    }
+    
+    /**
+     * Asynchronously publishes a batch of results for the query. Publishers which track a bounded window of unacknowledged results will only block the caller
+     * when that window is full. The default implementation publishes synchronously in the calling thread and returns a completed future, which avoids tying
+     * up a shared pool thread for the duration of a blocking publish.
+     *
+     * @param results
+     *            the results to publish
+     * @return a future which will be completed with true if all of the results were published successfully, false otherwise
+     */
+    default CompletableFuture<Boolean> publishAsync(List<Result> results) {
+        CompletableFuture<Boolean> published = new CompletableFuture<>();
+        try {
+            published.complete(publish(results));
+        } catch (RuntimeException e) {
+            published.completeExceptionally(e);
+        }
+        return published;
+    }
 }
@@ -1,8 +1,9 @@
 package datawave.microservice.query.messaging;
 
+import java.io.IOException;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.core.JsonProcessingException;
 
 public class Result {
     
@@ -29,7 +30,7 @@ public class Result {
         return id;
     }
     
-    public Object getPayload() throws InterruptedException, JsonProcessingException {
+    public Object getPayload() throws InterruptedException, IOException {
         // if the payload is checked, claim it
         if (payload == null && claimCheckCallback != null) {
             payload = claimCheckCallback.getPayload();
@@ -0,0 +1,103 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A reusable byte array output stream which fails as soon as more than a limit of bytes has been written. Used with a streaming encoder, this measures the
+ * encoded size of a result without buffering any more than the limit, and lets the caller abandon an oversized result as early as possible.
+ */
+public class BoundedByteArrayOutputStream extends ByteArrayOutputStream {
+    
+    private final int initialSize;
+    private long limit = Long.MAX_VALUE;
+    
+    public BoundedByteArrayOutputStream(int initialSize) {
+        super(initialSize);
+        this.initialSize = initialSize;
+    }
+    
+    /**
+     * Discard the contents of this stream and set the limit for the next use
+     *
+     * @param limit
+     *            the maximum number of bytes which may be written
+     */
+    public void reset(long limit) {
+        reset();
+        this.limit = limit;
+    }
+    
+    /**
+     * Release the internal buffer if it has grown larger than the given size, so that one very large result doesn't pin the memory for the life of the stream
+     *
+     * @param maxRetainedBytes
+     *            the largest buffer to keep for reuse
+     */
+    public void trim(int maxRetainedBytes) {
+        reset();
+        if (buf.length > maxRetainedBytes) {
+            buf = new byte[initialSize];
+        }
+    }
+    
+    public long getLimit() {
+        return limit;
+    }
+    
+    @Override
+    public void write(int b) {
+        ensureWithinLimit(1);
+        super.write(b);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureWithinLimit(len);
+        super.write(b, off, len);
+    }
+    
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+    
+    private void ensureWithinLimit(int len) {
+        if ((long) count + len > limit) {
+            throw new LimitExceededException(limit);
+        }
+    }
+    
+    /**
+     * Thrown when writing to the stream would exceed the limit. This is unchecked since the methods of {@link ByteArrayOutputStream} don't declare
+     * {@link IOException}, but encoders which wrap it in an {@link IOException} can be unwrapped with {@link #isLimitExceeded(Throwable)}.
+     */
+    public static class LimitExceededException extends RuntimeException {
+        private final long limit;
+        
+        public LimitExceededException(long limit) {
+            super("Exceeded the limit of " + limit + " bytes");
+            this.limit = limit;
+        }
+        
+        public long getLimit() {
+            return limit;
+        }
+    }
+    
+    /**
+     * Determine whether a throwable was caused by exceeding the limit of a bounded stream
+     *
+     * @param throwable
+     *            the throwable
+     * @return true if the limit was exceeded, false otherwise
+     */
+    public static boolean isLimitExceeded(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LimitExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
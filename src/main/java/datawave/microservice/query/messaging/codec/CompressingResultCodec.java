@@ -0,0 +1,78 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import datawave.microservice.query.messaging.Result;
+
+/**
+ * A result codec which compresses the output of another codec. Every service wraps its codec with this one, so that any service can read what any other
+ * service wrote regardless of how compression is configured on either side. When compression is disabled the results are written unframed, exactly as the
+ * wrapped codec writes them, which keeps them readable by services that predate compression. When decoding, unframed results are recognized by their first
+ * byte, which for the Jackson codecs can never be a compression id.
+ */
+public class CompressingResultCodec implements ResultCodec {
+    
+    // the framed payloads may be compressed, so they are no longer of the wrapped codec's content type
+    public static final String FRAMED_CONTENT_TYPE = "application/octet-stream";
+    
+    private final ResultCodec delegate;
+    private final PayloadCompressor compressor;
+    
+    public CompressingResultCodec(ResultCodec delegate, PayloadCompressor compressor) {
+        this.delegate = delegate;
+        this.compressor = compressor;
+    }
+    
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+    
+    @Override
+    public String getContentType() {
+        return isFraming() ? FRAMED_CONTENT_TYPE : delegate.getContentType();
+    }
+    
+    @Override
+    public byte[] encode(Result result) throws IOException {
+        return isFraming() ? compressor.compress(delegate.encode(result)) : delegate.encode(result);
+    }
+    
+    /**
+     * Encode a result to a stream. When compression is disabled the wrapped codec streams the result directly, so a bounded stream can still abort an
+     * oversized result early. A compressed result has to be fully encoded before it can be compressed, so it is only checked against the bound once it is
+     * written.
+     *
+     * @param result
+     *            the result to encode
+     * @param out
+     *            the stream to write the encoded result to
+     * @throws IOException
+     *             if the result could not be encoded
+     */
+    @Override
+    public void encode(Result result, OutputStream out) throws IOException {
+        if (isFraming()) {
+            out.write(compressor.compress(delegate.encode(result)));
+        } else {
+            delegate.encode(result, out);
+        }
+    }
+    
+    @Override
+    public Result decode(byte[] data) throws IOException {
+        if (data.length > 0 && !Compression.isId(data[0])) {
+            return delegate.decode(data);
+        }
+        return delegate.decode(compressor.decompress(data));
+    }
+    
+    public PayloadCompressor getCompressor() {
+        return compressor;
+    }
+    
+    private boolean isFraming() {
+        return compressor.getCompression() != Compression.NONE;
+    }
+}
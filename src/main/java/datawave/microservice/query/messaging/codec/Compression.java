@@ -0,0 +1,188 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.xerial.snappy.Snappy;
+
+import com.github.luben.zstd.Zstd;
+
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * The compression algorithms which may be applied to encoded payloads. Each algorithm is identified on the wire by its id, so that a reader can always
+ * decompress a payload regardless of how it is configured itself. The ids must never be reassigned.
+ */
+public enum Compression {
+    NONE(0) {
+        @Override
+        byte[] compress(byte[] data) {
+            return data;
+        }
+        
+        @Override
+        void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) {
+            System.arraycopy(src, srcOffset, dest, 0, dest.length);
+        }
+    },
+    DEFLATE(1) {
+        @Override
+        byte[] compress(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                
+                // incompressible data can grow slightly, so leave some room before growing the buffer
+                byte[] buffer = new byte[data.length + (data.length >> 6) + 64];
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+                return Arrays.copyOf(buffer, length);
+            } finally {
+                deflater.end();
+            }
+        }
+        
+        @Override
+        void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) throws IOException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(src, srcOffset, srcLength);
+                int length = 0;
+                while (length < dest.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(dest, length, dest.length - length);
+                    if (inflated == 0) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != dest.length) {
+                    throw new IOException("Expected " + dest.length + " bytes but inflated " + length);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Unable to inflate payload", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    },
+    LZ4(2) {
+        @Override
+        byte[] compress(byte[] data) {
+            return LZ4Factory.fastestInstance().fastCompressor().compress(data);
+        }
+        
+        @Override
+        void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) throws IOException {
+            try {
+                LZ4Factory.fastestInstance().fastDecompressor().decompress(src, srcOffset, dest, 0, dest.length);
+            } catch (RuntimeException e) {
+                throw new IOException("Unable to decompress LZ4 payload", e);
+            }
+        }
+    },
+    SNAPPY(3) {
+        @Override
+        byte[] compress(byte[] data) throws IOException {
+            return Snappy.compress(data);
+        }
+        
+        @Override
+        void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) throws IOException {
+            Snappy.uncompress(src, srcOffset, srcLength, dest, 0);
+        }
+    },
+    ZSTD(4) {
+        @Override
+        byte[] compress(byte[] data) {
+            return Zstd.compress(data);
+        }
+        
+        @Override
+        void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) throws IOException {
+            long result = Zstd.decompressByteArray(dest, 0, dest.length, src, srcOffset, srcLength);
+            if (Zstd.isError(result)) {
+                throw new IOException("Unable to decompress Zstd payload: " + Zstd.getErrorName(result));
+            }
+        }
+    };
+    
+    private final byte id;
+    
+    Compression(int id) {
+        this.id = (byte) id;
+    }
+    
+    public byte getId() {
+        return id;
+    }
+    
+    /**
+     * Get the compression algorithm with the given wire id
+     *
+     * @param id
+     *            the wire id
+     * @return the compression algorithm
+     * @throws IOException
+     *             if the id is not recognized
+     */
+    public static Compression forId(byte id) throws IOException {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IOException("Unknown compression id: " + id);
+    }
+    
+    /**
+     * Determine if a byte is the wire id of a compression algorithm
+     *
+     * @param id
+     *            the byte to check
+     * @return true if the byte is a known wire id, false otherwise
+     */
+    public static boolean isId(byte id) {
+        for (Compression compression : values()) {
+            if (compression.id == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Compress the data
+     *
+     * @param data
+     *            the data to compress
+     * @return the compressed data
+     * @throws IOException
+     *             if the data could not be compressed
+     */
+    abstract byte[] compress(byte[] data) throws IOException;
+    
+    /**
+     * Decompress the data into a buffer sized to the uncompressed length
+     *
+     * @param src
+     *            the compressed data
+     * @param srcOffset
+     *            the offset of the compressed data
+     * @param srcLength
+     *            the length of the compressed data
+     * @param dest
+     *            the buffer to decompress into, which is exactly the uncompressed length
+     * @throws IOException
+     *             if the data could not be decompressed
+     */
+    abstract void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest) throws IOException;
+}
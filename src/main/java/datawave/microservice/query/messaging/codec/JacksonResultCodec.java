@@ -0,0 +1,102 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.locationtech.jts.geom.Geometry;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.util.GeometryDeserializer;
+import datawave.microservice.query.util.GeometrySerializer;
+
+/**
+ * A result codec backed by Jackson. JSON is human-readable and is the default, while Smile is a binary encoding of the same data model which is smaller and
+ * considerably cheaper to produce and parse. The object reader and writer are created once and shared, since they are immutable and thread-safe.
+ */
+public class JacksonResultCodec implements ResultCodec {
+    
+    public static final String JSON = "json";
+    public static final String SMILE = "smile";
+    
+    private final String name;
+    private final String contentType;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    
+    public JacksonResultCodec(String name, String contentType, ObjectMapper objectMapper) {
+        this.name = name;
+        this.contentType = contentType;
+        
+        this.reader = objectMapper.readerFor(Result.class);
+        this.writer = objectMapper.writerFor(Result.class);
+    }
+    
+    public static JacksonResultCodec json() {
+        return new JacksonResultCodec(JSON, "application/json", createObjectMapper(new JsonFactory()));
+    }
+    
+    public static JacksonResultCodec smile() {
+        return new JacksonResultCodec(SMILE, "application/x-jackson-smile", createObjectMapper(new SmileFactory()));
+    }
+    
+    private static ObjectMapper createObjectMapper(JsonFactory jsonFactory) {
+        ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+        
+        // set a custom module for (de)serializing Geometry objects as WKT
+        SimpleModule geometryModule = new SimpleModule(Geometry.class.getName());
+        geometryModule.addSerializer(Geometry.class, new GeometrySerializer());
+        geometryModule.addDeserializer(Geometry.class, new GeometryDeserializer());
+        objectMapper.registerModule(geometryModule);
+        return objectMapper;
+    }
+    
+    /**
+     * Create the codec with the given name
+     *
+     * @param name
+     *            the codec name
+     * @return the codec
+     * @throws IllegalArgumentException
+     *             if the codec name is not recognized
+     */
+    public static JacksonResultCodec forName(String name) {
+        if (JSON.equalsIgnoreCase(name)) {
+            return json();
+        } else if (SMILE.equalsIgnoreCase(name)) {
+            return smile();
+        }
+        throw new IllegalArgumentException("Unknown result codec: " + name);
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+    
+    @Override
+    public byte[] encode(Result result) throws IOException {
+        return writer.writeValueAsBytes(result);
+    }
+    
+    @Override
+    public void encode(Result result, OutputStream out) throws IOException {
+        writer.writeValue(out, result);
+    }
+    
+    @Override
+    public Result decode(byte[] data) throws IOException {
+        return reader.readValue(data);
+    }
+}
@@ -0,0 +1,169 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Compresses encoded payloads which are at least as large as the configured threshold. Every payload is prefixed with the id of the compression algorithm
+ * used, and compressed payloads are also prefixed with their uncompressed length, so small payloads and payloads which didn't shrink are sent as-is with a
+ * single byte of overhead. The compression ratio and the time spent compressing and decompressing are recorded so that the threshold can be tuned.
+ */
+public class PayloadCompressor {
+    
+    private static final int HEADER_BYTES = 1;
+    private static final int LENGTH_BYTES = 4;
+    
+    private final Compression compression;
+    private final int thresholdBytes;
+    private final String source;
+    private final MeterRegistry meterRegistry;
+    
+    private final DistributionSummary compressionRatio;
+    private final Counter skipped;
+    private final Timer compressTimer;
+    private final Map<Compression,Timer> decompressTimers = new ConcurrentHashMap<>();
+    
+    /**
+     * Create a payload compressor
+     *
+     * @param compression
+     *            the compression algorithm
+     * @param thresholdBytes
+     *            the minimum payload size to compress
+     * @param source
+     *            the source of the payloads (e.g. results or claimCheck), used to tag the metrics
+     * @param meterRegistry
+     *            the registry for the compression metrics
+     */
+    public PayloadCompressor(Compression compression, int thresholdBytes, String source, MeterRegistry meterRegistry) {
+        this.compression = compression;
+        this.thresholdBytes = thresholdBytes;
+        this.source = source;
+        this.meterRegistry = meterRegistry;
+        
+        // @formatter:off
+        this.compressionRatio = DistributionSummary.builder("query.messaging.compression.ratio")
+                .description("The ratio of uncompressed to compressed payload size")
+                .tag("source", source)
+                .tag("algorithm", compression.name())
+                .register(meterRegistry);
+        this.skipped = Counter.builder("query.messaging.compression.skipped")
+                .description("The number of payloads which were smaller than the threshold, or which didn't shrink when compressed")
+                .tag("source", source)
+                .tag("algorithm", compression.name())
+                .register(meterRegistry);
+        this.compressTimer = timer("compress", compression);
+        // @formatter:on
+    }
+    
+    public Compression getCompression() {
+        return compression;
+    }
+    
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+    
+    /**
+     * Compress the payload if it is at least as large as the threshold
+     *
+     * @param data
+     *            the encoded payload
+     * @return the framed payload
+     * @throws IOException
+     *             if the payload could not be compressed
+     */
+    public byte[] compress(byte[] data) throws IOException {
+        if (compression != Compression.NONE && data.length >= thresholdBytes) {
+            long start = System.nanoTime();
+            byte[] compressed = compression.compress(data);
+            compressTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            
+            if (compressed.length + LENGTH_BYTES < data.length) {
+                compressionRatio.record((double) data.length / compressed.length);
+                
+                byte[] framed = new byte[HEADER_BYTES + LENGTH_BYTES + compressed.length];
+                framed[0] = compression.getId();
+                writeLength(framed, data.length);
+                System.arraycopy(compressed, 0, framed, HEADER_BYTES + LENGTH_BYTES, compressed.length);
+                return framed;
+            }
+        }
+        
+        skipped.increment();
+        byte[] framed = new byte[HEADER_BYTES + data.length];
+        framed[0] = Compression.NONE.getId();
+        System.arraycopy(data, 0, framed, HEADER_BYTES, data.length);
+        return framed;
+    }
+    
+    /**
+     * Decompress a framed payload, using whichever algorithm it was compressed with
+     *
+     * @param framed
+     *            the framed payload
+     * @return the encoded payload
+     * @throws IOException
+     *             if the payload could not be decompressed
+     */
+    public byte[] decompress(byte[] framed) throws IOException {
+        if (framed.length < HEADER_BYTES) {
+            throw new IOException("Payload is missing the compression header");
+        }
+        
+        Compression payloadCompression = Compression.forId(framed[0]);
+        if (payloadCompression == Compression.NONE) {
+            byte[] data = new byte[framed.length - HEADER_BYTES];
+            System.arraycopy(framed, HEADER_BYTES, data, 0, data.length);
+            return data;
+        }
+        
+        if (framed.length < HEADER_BYTES + LENGTH_BYTES) {
+            throw new IOException("Compressed payload is missing the uncompressed length");
+        }
+        int length = readLength(framed);
+        if (length < 0) {
+            throw new IOException("Invalid uncompressed length: " + length);
+        }
+        
+        long start = System.nanoTime();
+        byte[] data = new byte[length];
+        payloadCompression.decompress(framed, HEADER_BYTES + LENGTH_BYTES, framed.length - HEADER_BYTES - LENGTH_BYTES, data);
+        decompressTimers.computeIfAbsent(payloadCompression, c -> timer("decompress", c)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return data;
+    }
+    
+    private Timer timer(String operation, Compression compression) {
+        // @formatter:off
+        return Timer.builder("query.messaging.compression.time")
+                .description("The time spent compressing or decompressing payloads")
+                .tag("source", source)
+                .tag("algorithm", compression.name())
+                .tag("operation", operation)
+                .register(meterRegistry);
+        // @formatter:on
+    }
+    
+    private static void writeLength(byte[] framed, int length) {
+        framed[HEADER_BYTES] = (byte) (length >>> 24);
+        framed[HEADER_BYTES + 1] = (byte) (length >>> 16);
+        framed[HEADER_BYTES + 2] = (byte) (length >>> 8);
+        framed[HEADER_BYTES + 3] = (byte) length;
+    }
+    
+    private static int readLength(byte[] framed) {
+        // @formatter:off
+        return ((framed[HEADER_BYTES] & 0xff) << 24)
+                | ((framed[HEADER_BYTES + 1] & 0xff) << 16)
+                | ((framed[HEADER_BYTES + 2] & 0xff) << 8)
+                | (framed[HEADER_BYTES + 3] & 0xff);
+        // @formatter:on
+    }
+}
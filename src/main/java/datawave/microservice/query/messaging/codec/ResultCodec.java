@@ -0,0 +1,63 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import datawave.microservice.query.messaging.Result;
+
+/**
+ * Encodes query results to the bytes which are sent through the messaging backend, and decodes them again on the other side
+ */
+public interface ResultCodec {
+    
+    /**
+     * Get the name of this codec, as configured via datawave.query.messaging.codec
+     *
+     * @return the codec name
+     */
+    String getName();
+    
+    /**
+     * Get the MIME content type of the encoded results
+     *
+     * @return the content type
+     */
+    String getContentType();
+    
+    /**
+     * Encode a result
+     *
+     * @param result
+     *            the result to encode
+     * @return the encoded result
+     * @throws IOException
+     *             if the result could not be encoded
+     */
+    byte[] encode(Result result) throws IOException;
+    
+    /**
+     * Encode a result to a stream. Codecs which can encode incrementally should override this, so that a bounded stream can abort an oversized result
+     * before it has been fully encoded.
+     *
+     * @param result
+     *            the result to encode
+     * @param out
+     *            the stream to write the encoded result to
+     * @throws IOException
+     *             if the result could not be encoded
+     */
+    default void encode(Result result, OutputStream out) throws IOException {
+        out.write(encode(result));
+    }
+    
+    /**
+     * Decode a result
+     *
+     * @param data
+     *            the encoded result
+     * @return the decoded result
+     * @throws IOException
+     *             if the result could not be decoded
+     */
+    Result decode(byte[] data) throws IOException;
+}
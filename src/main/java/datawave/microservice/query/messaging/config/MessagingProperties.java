@@ -1,5 +1,6 @@
 package datawave.microservice.query.messaging.config;
 
+import static datawave.microservice.query.messaging.codec.JacksonResultCodec.JSON;
 import static datawave.microservice.query.messaging.config.MessagingProperties.AutoOffsetReset.EARLIEST;
 import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResultsManager.HAZELCAST;
 import static datawave.microservice.query.messaging.kafka.KafkaQueryResultsManager.KAFKA;
@@ -14,10 +15,12 @@ import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import datawave.microservice.query.messaging.codec.Compression;
+
 @Validated
 @ConfigurationProperties(prefix = "datawave.query.messaging")
 public class MessagingProperties {
-    // rabbit, kafka, or hazelcast
+    // rabbit, kafka, hazelcast, hazelcast-ringbuffer, local, or disk
     @NotEmpty
     private String backend = KAFKA;
     
@@ -25,6 +28,26 @@ public class MessagingProperties {
     @Positive
     private int concurrency = 1;
     
+    // the maximum number of results a publisher may have awaiting a broker acknowledgement before publishing blocks (applicable to kafka and rabbitmq only)
+    @Positive
+    private int publishWindowSize = 1000;
+    
+    // how long a query's pooled publisher is kept open after it was last released, or zero to close it as soon as it is unused
+    @PositiveOrZero
+    private long publisherIdleTimeoutMillis = 60000L;
+    
+    // the number of threads preparing the topics or queues for new queries in the background (applicable to kafka and rabbitmq only)
+    @Positive
+    private int preparerThreads = 2;
+    
+    // the codec used to encode results for the messaging backend (json or smile)
+    @NotEmpty
+    private String codec = JSON;
+    
+    // the compression applied to encoded results and claim checked payloads
+    @Valid
+    private CompressionProperties compression = new CompressionProperties();
+    
     @Valid
     private KafkaProperties kafka = new KafkaProperties();
     
@@ -34,6 +57,13 @@ public class MessagingProperties {
     @Valid
     private HazelcastProperties hazelcast = new HazelcastProperties();
     
+    @Valid
+    private LocalProperties local = new LocalProperties();
+    
+    @Valid
+    private DiskProperties disk = new DiskProperties();
+    
+    @Valid
     private ClaimCheckProperties claimCheck = new ClaimCheckProperties();
     
     public String getBackend() {
@@ -52,6 +82,46 @@ public class MessagingProperties {
         this.concurrency = concurrency;
     }
     
+    public int getPublishWindowSize() {
+        return publishWindowSize;
+    }
+    
+    public void setPublishWindowSize(int publishWindowSize) {
+        this.publishWindowSize = publishWindowSize;
+    }
+    
+    public long getPublisherIdleTimeoutMillis() {
+        return publisherIdleTimeoutMillis;
+    }
+    
+    public void setPublisherIdleTimeoutMillis(long publisherIdleTimeoutMillis) {
+        this.publisherIdleTimeoutMillis = publisherIdleTimeoutMillis;
+    }
+    
+    public int getPreparerThreads() {
+        return preparerThreads;
+    }
+    
+    public void setPreparerThreads(int preparerThreads) {
+        this.preparerThreads = preparerThreads;
+    }
+    
+    public String getCodec() {
+        return codec;
+    }
+    
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+    
+    public CompressionProperties getCompression() {
+        return compression;
+    }
+    
+    public void setCompression(CompressionProperties compression) {
+        this.compression = compression;
+    }
+    
     public KafkaProperties getKafka() {
         return kafka;
     }
@@ -76,6 +146,22 @@ public class MessagingProperties {
         this.hazelcast = hazelcast;
     }
     
+    public LocalProperties getLocal() {
+        return local;
+    }
+    
+    public void setLocal(LocalProperties local) {
+        this.local = local;
+    }
+    
+    public DiskProperties getDisk() {
+        return disk;
+    }
+    
+    public void setDisk(DiskProperties disk) {
+        this.disk = disk;
+    }
+    
     public ClaimCheckProperties getClaimCheck() {
         return claimCheck;
     }
@@ -84,6 +170,32 @@ public class MessagingProperties {
         this.claimCheck = claimCheck;
     }
     
+    public static final class CompressionProperties {
+        // none, deflate, lz4, snappy, or zstd
+        @NotNull
+        private Compression algorithm = Compression.NONE;
+        
+        // payloads smaller than this are sent uncompressed
+        @PositiveOrZero
+        private int thresholdBytes = 4096;
+        
+        public Compression getAlgorithm() {
+            return algorithm;
+        }
+        
+        public void setAlgorithm(Compression algorithm) {
+            this.algorithm = algorithm;
+        }
+        
+        public int getThresholdBytes() {
+            return thresholdBytes;
+        }
+        
+        public void setThresholdBytes(int thresholdBytes) {
+            this.thresholdBytes = thresholdBytes;
+        }
+    }
+    
     public static final class KafkaProperties {
         // max time to block in the consumer waiting for records
         @PositiveOrZero
@@ -97,6 +209,20 @@ public class MessagingProperties {
         
         private int replicas = -1;
         
+        // the maximum number of records a listener may have delivered but not yet acknowledged before it stops polling
+        @Positive
+        private int maxUnacknowledgedRecords = 1000;
+        
+        // whether to publish results to a fixed pool of shared topics keyed by query id, rather than creating a topic per query
+        private boolean useSharedTopics = false;
+        
+        // the number of shared topics, and the number of partitions in each (applicable to shared topics only)
+        @Positive
+        private int sharedTopicCount = 4;
+        
+        @Positive
+        private int sharedTopicPartitions = 10;
+        
         private boolean useDedicatedInstance = false;
         private KafkaInstanceSettings instanceSettings = new KafkaInstanceSettings();
         
@@ -132,6 +258,38 @@ public class MessagingProperties {
             this.replicas = replicas;
         }
         
+        public int getMaxUnacknowledgedRecords() {
+            return maxUnacknowledgedRecords;
+        }
+        
+        public void setMaxUnacknowledgedRecords(int maxUnacknowledgedRecords) {
+            this.maxUnacknowledgedRecords = maxUnacknowledgedRecords;
+        }
+        
+        public boolean isUseSharedTopics() {
+            return useSharedTopics;
+        }
+        
+        public void setUseSharedTopics(boolean useSharedTopics) {
+            this.useSharedTopics = useSharedTopics;
+        }
+        
+        public int getSharedTopicCount() {
+            return sharedTopicCount;
+        }
+        
+        public void setSharedTopicCount(int sharedTopicCount) {
+            this.sharedTopicCount = sharedTopicCount;
+        }
+        
+        public int getSharedTopicPartitions() {
+            return sharedTopicPartitions;
+        }
+        
+        public void setSharedTopicPartitions(int sharedTopicPartitions) {
+            this.sharedTopicPartitions = sharedTopicPartitions;
+        }
+        
         public boolean isUseDedicatedInstance() {
             return useDedicatedInstance;
         }
@@ -158,6 +316,10 @@ public class MessagingProperties {
         @Positive
         private long maxMessageSizeBytes = 536870912L;
         
+        // the maximum number of messages each consumer may have delivered but not yet acknowledged
+        @Positive
+        private int prefetchCount = 250;
+        
         private boolean useDedicatedInstance = false;
         private RabbitMQInstanceSettings instanceSettings = new RabbitMQInstanceSettings();
         
@@ -177,6 +339,14 @@ public class MessagingProperties {
             this.maxMessageSizeBytes = maxMessageSizeBytes;
         }
         
+        public int getPrefetchCount() {
+            return prefetchCount;
+        }
+        
+        public void setPrefetchCount(int prefetchCount) {
+            this.prefetchCount = prefetchCount;
+        }
+        
         public boolean isUseDedicatedInstance() {
             return useDedicatedInstance;
         }
@@ -317,6 +487,14 @@ public class MessagingProperties {
         @PositiveOrZero
         private int backupCount = 1;
         
+        // the capacity of each query's results ringbuffer, which bounds the number of results awaiting acknowledgement (hazelcast-ringbuffer backend only)
+        @Positive
+        private int ringbufferCapacity = 10000;
+        
+        // how long a listener may hold results from the ringbuffer without acknowledging them before they are redelivered (hazelcast-ringbuffer backend only)
+        @Positive
+        private long ackTimeoutMillis = 300000L;
+        
         public int getBackupCount() {
             return backupCount;
         }
@@ -324,15 +502,109 @@ public class MessagingProperties {
         public void setBackupCount(int backupCount) {
             this.backupCount = backupCount;
         }
+        
+        public int getRingbufferCapacity() {
+            return ringbufferCapacity;
+        }
+        
+        public void setRingbufferCapacity(int ringbufferCapacity) {
+            this.ringbufferCapacity = ringbufferCapacity;
+        }
+        
+        public long getAckTimeoutMillis() {
+            return ackTimeoutMillis;
+        }
+        
+        public void setAckTimeoutMillis(long ackTimeoutMillis) {
+            this.ackTimeoutMillis = ackTimeoutMillis;
+        }
+    }
+    
+    public final static class LocalProperties {
+        // the maximum number of results buffered for each query, which is rounded up to a power of two
+        @Positive
+        private int capacity = 16384;
+        
+        public int getCapacity() {
+            return capacity;
+        }
+        
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+    
+    public final static class DiskProperties {
+        // the directory under which each service instance creates its own results directory, defaulting to the system temp directory
+        private String directory = null;
+        
+        // the size of each memory-mapped segment file
+        @Positive
+        private int segmentSizeBytes = 67108864;
+        
+        // the maximum number of results read ahead from disk into the heap for each query
+        @Positive
+        private int headBufferSize = 1000;
+        
+        // the maximum bytes of results written to disk but not yet read for each query, after which publishing waits for room
+        @Positive
+        private long maxUnreadBytes = 1073741824L;
+        
+        public String getDirectory() {
+            return directory;
+        }
+        
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+        
+        public int getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+        
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+        
+        public int getHeadBufferSize() {
+            return headBufferSize;
+        }
+        
+        public void setHeadBufferSize(int headBufferSize) {
+            this.headBufferSize = headBufferSize;
+        }
+        
+        public long getMaxUnreadBytes() {
+            return maxUnreadBytes;
+        }
+        
+        public void setMaxUnreadBytes(long maxUnreadBytes) {
+            this.maxUnreadBytes = maxUnreadBytes;
+        }
     }
     
     public final static class ClaimCheckProperties {
         // whether claim check should be used for large messages
         private boolean enabled = true;
         
-        // the backend to use for a claim check
+        // the backend to use for a claim check (hazelcast or filesystem)
         private String backend = HAZELCAST;
         
+        // the directory shared by every publisher and listener which the filesystem backend stores payloads under, defaulting to the system temp directory
+        private String directory = null;
+        
+        // how long a checked payload is kept if it is never claimed and released
+        @Positive
+        private int ttlSeconds = 86400;
+        
+        // payloads larger than this are stored as separate chunks, which are written and read concurrently
+        @Positive
+        private int chunkSizeBytes = 1048576;
+        
+        // how long to wait for a payload to be checked or claimed
+        @Positive
+        private long timeoutMillis = 60000L;
+        
         public boolean isEnabled() {
             return enabled;
         }
@@ -348,5 +620,37 @@ public class MessagingProperties {
         public void setBackend(String backend) {
             this.backend = backend;
         }
+        
+        public String getDirectory() {
+            return directory;
+        }
+        
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+        
+        public int getTtlSeconds() {
+            return ttlSeconds;
+        }
+        
+        public void setTtlSeconds(int ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+        
+        public int getChunkSizeBytes() {
+            return chunkSizeBytes;
+        }
+        
+        public void setChunkSizeBytes(int chunkSizeBytes) {
+            this.chunkSizeBytes = chunkSizeBytes;
+        }
+        
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+        
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
     }
 }
@@ -1,8 +1,66 @@
 package datawave.microservice.query.messaging.config;
 
+import static datawave.microservice.query.messaging.hazelcast.HazelcastRingbufferQueryResultsManager.HAZELCAST_RINGBUFFER;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.config.Config;
+
+import datawave.microservice.query.messaging.codec.CompressingResultCodec;
+import datawave.microservice.query.messaging.codec.JacksonResultCodec;
+import datawave.microservice.query.messaging.codec.PayloadCompressor;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+import datawave.microservice.query.messaging.hazelcast.RingbufferSerializers;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
 @Configuration
 @EnableConfigurationProperties(MessagingProperties.class)
-public class QueryMessagingConfiguration {}
+public class QueryMessagingConfiguration {
+    
+    @Bean
+    @ConditionalOnMissingBean
+    public ResultCodec resultCodec(MessagingProperties messagingProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+        // the codec is always wrapped, even without compression, so that compressed results from other services can still be decoded
+        MessagingProperties.CompressionProperties compression = messagingProperties.getCompression();
+        // @formatter:off
+        return new CompressingResultCodec(
+                JacksonResultCodec.forName(messagingProperties.getCodec()),
+                new PayloadCompressor(
+                        compression.getAlgorithm(),
+                        compression.getThresholdBytes(),
+                        "results",
+                        meterRegistry.getIfAvailable(() -> Metrics.globalRegistry)));
+        // @formatter:on
+    }
+    
+    /**
+     * Registers the ringbuffer cursor serializers with any hazelcast member or client configuration defined in the application context before the hazelcast
+     * instance is created.
+     * 
+     * @return the bean post processor
+     */
+    @Bean
+    @ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = HAZELCAST_RINGBUFFER)
+    public static BeanPostProcessor ringbufferSerializerRegistrar() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof Config) {
+                    RingbufferSerializers.register(((Config) bean).getSerializationConfig());
+                } else if (bean instanceof ClientConfig) {
+                    RingbufferSerializers.register(((ClientConfig) bean).getSerializationConfig());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package datawave.microservice.query.messaging.disk;
+
+import static datawave.microservice.query.messaging.disk.DiskQueryResultsManager.DISK;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+
+/**
+ * A query results manager which spills each query's results to memory-mapped files on local disk, so that results buffered for slowly paged queries don't
+ * occupy the heap. Like the local backend, this requires the query executors and the query service to share a JVM, since the streams are only reachable
+ * in-process; sharing a host is not enough. It is not a spill layer for the clustered backends, so it does not relieve the memory pressure of results queued in
+ * a Hazelcast cluster. Each service instance writes under its own directory, which is deleted when the manager is closed.
+ * <p>
+ * The bytes of each query's results which have been written but not yet read are capped by {@code datawave.query.messaging.disk.max-unread-bytes}, and
+ * publishers wait for room once a query reaches the cap, so a slow consumer can't fill the disk.
+ */
+@Component
+@ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = DISK)
+public class DiskQueryResultsManager implements QueryResultsManager, AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    public static final String DISK = "disk";
+    
+    private final MessagingProperties messagingProperties;
+    private final ResultCodec resultCodec;
+    private final Path directory;
+    private final Map<String,DiskResultStream> streams = new ConcurrentHashMap<>();
+    
+    public DiskQueryResultsManager(MessagingProperties messagingProperties, ResultCodec resultCodec) throws IOException {
+        this.messagingProperties = messagingProperties;
+        this.resultCodec = resultCodec;
+        
+        String baseDirectory = messagingProperties.getDisk().getDirectory();
+        if (baseDirectory == null) {
+            baseDirectory = System.getProperty("java.io.tmpdir");
+        }
+        this.directory = Files.createTempDirectory(Files.createDirectories(Paths.get(baseDirectory)), "queryResults-");
+        log.info("Writing query results to {}", directory);
+    }
+    
+    @Override
+    public QueryResultsListener createListener(String listenerId, String queryId) {
+        return new DiskQueryResultsListener(getOrCreateStream(queryId), listenerId);
+    }
+    
+    @Override
+    public QueryResultsPublisher createPublisher(String queryId) {
+        return new DiskQueryResultsPublisher(getOrCreateStream(queryId));
+    }
+    
+    private DiskResultStream getOrCreateStream(String queryId) {
+        return streams.computeIfAbsent(queryId, id -> {
+            Path queryDirectory = directory.resolve(id).normalize();
+            if (!directory.equals(queryDirectory.getParent())) {
+                throw new IllegalArgumentException("Invalid query id " + id);
+            }
+            try {
+                MessagingProperties.DiskProperties diskProperties = messagingProperties.getDisk();
+                return new DiskResultStream(queryDirectory, diskProperties.getSegmentSizeBytes(), diskProperties.getHeadBufferSize(),
+                                diskProperties.getMaxUnreadBytes(), resultCodec);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to create the results directory for query " + id, e);
+            }
+        });
+    }
+    
+    @Override
+    public void deleteQuery(String queryId) {
+        DiskResultStream stream = streams.remove(queryId);
+        if (stream != null) {
+            stream.close();
+        }
+    }
+    
+    @Override
+    public void emptyQuery(String queryId) {
+        DiskResultStream stream = streams.get(queryId);
+        if (stream != null) {
+            stream.clear();
+        }
+    }
+    
+    /**
+     * Get the number of results left to be consumed for a query, including results which have been received but not yet acknowledged
+     *
+     * @param queryId
+     *            The query Id
+     * @return the number of remaining results
+     */
+    @Override
+    public int getNumResultsRemaining(String queryId) {
+        DiskResultStream stream = streams.get(queryId);
+        return (stream != null) ? (int) Math.min(stream.getNumResultsRemaining(), Integer.MAX_VALUE) : 0;
+    }
+    
+    /**
+     * Delete the results for every query along with this instance's results directory
+     */
+    @Override
+    public void close() {
+        for (String queryId : new ArrayList<>(streams.keySet())) {
+            deleteQuery(queryId);
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", directory, e);
+        }
+    }
+    
+    Path getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,59 @@
+package datawave.microservice.query.messaging.disk;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+
+/**
+ * Publishes results by appending them to the query's segment files. Publishing waits for up to the interval when the query's unread results are at the
+ * configured cap, and fails if no room is made in that time.
+ */
+public class DiskQueryResultsPublisher implements QueryResultsPublisher {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final DiskResultStream stream;
+    
+    DiskQueryResultsPublisher(DiskResultStream stream) {
+        this.stream = stream;
+    }
+    
+    @Override
+    public boolean publish(Result result, long interval, TimeUnit timeUnit) {
+        return publish(Collections.singletonList(result), interval, timeUnit);
+    }
+    
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        boolean success = false;
+        try {
+            success = stream.append(results, interval, timeUnit);
+            if (!success) {
+                log.error("Unable to write {} results to disk within the interval because the unread results are at the cap", results.size());
+            }
+        } catch (IOException e) {
+            log.error("Unable to write results to disk", e);
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for room to write results to disk", e);
+            Thread.currentThread().interrupt();
+        }
+        return success;
+    }
+    
+    @Override
+    public CompletableFuture<Boolean> publishAsync(List<Result> results) {
+        return CompletableFuture.completedFuture(publish(results));
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
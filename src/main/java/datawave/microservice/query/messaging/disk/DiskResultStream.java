@@ -0,0 +1,533 @@
+package datawave.microservice.query.messaging.disk;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+
+/**
+ * The results for a single query in the disk backend. Encoded results are appended to a sequence of memory-mapped segment files, and each segment file is
+ * deleted as soon as every result in it has been read. Only a small head buffer of results read ahead from disk, along with the results which have been
+ * delivered but not yet acknowledged, are held in the heap.
+ * <p>
+ * The bytes which have been appended but not yet read are capped, so a slow consumer can't grow the segment files without limit. Appending waits for room
+ * under the cap, except that a batch is always accepted when nothing is waiting to be read, so a batch larger than the cap can still make progress.
+ * <p>
+ * Each record is a 4 byte length followed by the encoded result. A length of -1, or fewer than 4 bytes remaining, marks the end of a segment.
+ */
+class DiskResultStream {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private static final int END_OF_SEGMENT = -1;
+    
+    private final Path directory;
+    private final int segmentSizeBytes;
+    private final int headBufferSize;
+    private final long maxUnreadBytes;
+    private final ResultCodec resultCodec;
+    
+    // the mapped segments which have not been fully read
+    private final Map<Integer,MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    
+    // guards the write position
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private int writeSegment = -1;
+    private MappedByteBuffer writeBuffer;
+    private long bytesWritten = 0;
+    
+    // guards the read position and the head buffer
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final Condition notEmpty = readLock.newCondition();
+    private final AtomicInteger waitingListeners = new AtomicInteger();
+    private int readSegment = -1;
+    private ByteBuffer readBuffer;
+    private long numRead = 0;
+    private long bytesRead = 0;
+    private final Deque<byte[]> head = new ArrayDeque<>();
+    
+    // guards the bytes which have been reserved by publishers and not yet read
+    private final ReentrantLock spaceLock = new ReentrantLock();
+    private final Condition notFull = spaceLock.newCondition();
+    private long unreadBytes = 0;
+    
+    // the number of results appended, and the number taken from the head buffer
+    private volatile long numWritten = 0;
+    private final AtomicLong numTaken = new AtomicLong();
+    
+    // results which were negatively acknowledged, and the results awaiting acknowledgement
+    private final Queue<byte[]> redeliveries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numRedeliveries = new AtomicInteger();
+    private final AtomicInteger numUnacknowledged = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    
+    // the results which were dropped because they could not be decoded
+    private final AtomicLong numUndecodable = new AtomicLong();
+    
+    private volatile boolean closed = false;
+    
+    DiskResultStream(Path directory, int segmentSizeBytes, int headBufferSize, long maxUnreadBytes, ResultCodec resultCodec) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.headBufferSize = headBufferSize;
+        this.maxUnreadBytes = maxUnreadBytes;
+        this.resultCodec = resultCodec;
+    }
+    
+    /**
+     * Append a batch of results to the stream, waiting for room if the unread results are at the cap
+     *
+     * @param results
+     *            the results
+     * @param interval
+     *            the amount of time to wait for room
+     * @param timeUnit
+     *            the time unit
+     * @return true if the results were appended, false if there was no room for them within the interval
+     * @throws IOException
+     *             if a result could not be encoded or written
+     * @throws InterruptedException
+     *             if interrupted while waiting for room
+     */
+    boolean append(List<Result> results, long interval, TimeUnit timeUnit) throws IOException, InterruptedException {
+        // encode outside of the lock
+        List<byte[]> records = new ArrayList<>(results.size());
+        long batchBytes = 0;
+        for (Result result : results) {
+            byte[] record = resultCodec.encode(result);
+            records.add(record);
+            batchBytes += Integer.BYTES + record.length;
+        }
+        
+        if (!reserve(batchBytes, timeUnit.toNanos(interval))) {
+            return false;
+        }
+        boolean appended = false;
+        try {
+            write(records);
+            appended = true;
+        } finally {
+            if (!appended) {
+                release(batchBytes);
+            }
+        }
+        return true;
+    }
+    
+    private boolean reserve(long bytes, long nanos) throws IOException, InterruptedException {
+        spaceLock.lockInterruptibly();
+        try {
+            while (unreadBytes > 0 && unreadBytes + bytes > maxUnreadBytes && !closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            if (closed) {
+                throw new IOException("The results for " + directory.getFileName() + " have been deleted");
+            }
+            unreadBytes += bytes;
+            return true;
+        } finally {
+            spaceLock.unlock();
+        }
+    }
+    
+    private void release(long bytes) {
+        if (bytes > 0) {
+            spaceLock.lock();
+            try {
+                unreadBytes -= bytes;
+                notFull.signalAll();
+            } finally {
+                spaceLock.unlock();
+            }
+        }
+    }
+    
+    private void write(List<byte[]> records) throws IOException {
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IOException("The results for " + directory.getFileName() + " have been deleted");
+            }
+            for (byte[] record : records) {
+                int recordSize = Integer.BYTES + record.length;
+                if (writeBuffer == null || writeBuffer.remaining() < recordSize) {
+                    if (writeBuffer != null && writeBuffer.remaining() >= Integer.BYTES) {
+                        writeBuffer.putInt(END_OF_SEGMENT);
+                    }
+                    // an oversized result gets a segment of its own
+                    writeBuffer = createSegment(writeSegment + 1, Math.max(segmentSizeBytes, recordSize));
+                    writeSegment++;
+                }
+                writeBuffer.putInt(record.length);
+                writeBuffer.put(record);
+                bytesWritten += recordSize;
+                
+                // publish the record to the readers
+                numWritten++;
+            }
+        } finally {
+            writeLock.unlock();
+            signalListeners();
+        }
+    }
+    
+    private MappedByteBuffer createSegment(int segment, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), CREATE_NEW, READ, WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            segments.put(segment, buffer);
+            return buffer;
+        }
+    }
+    
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("segment-%010d", segment));
+    }
+    
+    /**
+     * Take the next result from the stream, waiting for one if the stream is empty
+     *
+     * @param interval
+     *            the amount of time to wait for a result
+     * @param timeUnit
+     *            the time unit
+     * @return the result, or null if no result was available within the interval or the stream has been closed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    Result poll(long interval, TimeUnit timeUnit) throws InterruptedException {
+        Result result = tryDeliver();
+        if (result == null) {
+            long nanos = timeUnit.toNanos(interval);
+            if (nanos <= 0 || closed) {
+                return null;
+            }
+            
+            readLock.lockInterruptibly();
+            waitingListeners.incrementAndGet();
+            try {
+                // the count of waiting listeners is raised before trying again, so a publisher which appends after this attempt will signal us
+                while ((result = tryDeliver()) == null && !closed && nanos > 0) {
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waitingListeners.decrementAndGet();
+                readLock.unlock();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Take up to maxResults results from the stream, waiting only for the first one
+     *
+     * @param maxResults
+     *            the maximum number of results
+     * @param interval
+     *            the amount of time to wait for the first result
+     * @param timeUnit
+     *            the time unit
+     * @return the results, which will be empty if no result was available within the interval
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    List<Result> poll(int maxResults, long interval, TimeUnit timeUnit) throws InterruptedException {
+        List<Result> results = new ArrayList<>();
+        Result result = poll(interval, timeUnit);
+        while (result != null) {
+            results.add(result);
+            if (results.size() >= maxResults) {
+                break;
+            }
+            result = tryDeliver();
+        }
+        return results;
+    }
+    
+    /**
+     * Deliver the next result which can be decoded, without waiting. Records which can't be decoded are counted and skipped, so that they don't end a page
+     * early.
+     *
+     * @return the result, or null if no result is available
+     */
+    private Result tryDeliver() {
+        byte[] record;
+        while ((record = tryPoll()) != null) {
+            Result result = deliver(record);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+    
+    private byte[] tryPoll() {
+        if (closed) {
+            return null;
+        }
+        
+        byte[] record = redeliveries.poll();
+        if (record != null) {
+            numRedeliveries.decrementAndGet();
+            return record;
+        }
+        
+        readLock.lock();
+        try {
+            if (head.isEmpty()) {
+                fillHead();
+            }
+            record = head.poll();
+            if (record != null) {
+                numTaken.incrementAndGet();
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return record;
+    }
+    
+    /**
+     * Read ahead up to the head buffer size of records from the mapped segments. Must be called with the read lock held.
+     */
+    private void fillHead() {
+        long readFrom = bytesRead;
+        long available = numWritten - numRead;
+        while (available > 0 && head.size() < headBufferSize) {
+            if (readBuffer == null || readBuffer.remaining() < Integer.BYTES) {
+                nextReadSegment();
+                continue;
+            }
+            
+            int length = readBuffer.getInt();
+            if (length == END_OF_SEGMENT) {
+                nextReadSegment();
+                continue;
+            }
+            
+            byte[] record = new byte[length];
+            readBuffer.get(record);
+            head.add(record);
+            numRead++;
+            bytesRead += Integer.BYTES + length;
+            available--;
+        }
+        
+        // the records in the head buffer no longer count against the cap
+        release(bytesRead - readFrom);
+    }
+    
+    private void nextReadSegment() {
+        if (readSegment >= 0) {
+            // every result in the segment has been read
+            segments.remove(readSegment);
+            deleteSegment(readSegment);
+        }
+        readSegment++;
+        readBuffer = segments.get(readSegment).duplicate();
+        readBuffer.clear();
+    }
+    
+    private void deleteSegment(int segment) {
+        try {
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            log.warn("Unable to delete segment {} of {}", segment, directory, e);
+        }
+    }
+    
+    private Result deliver(byte[] record) {
+        try {
+            Result result = resultCodec.decode(record);
+            numUnacknowledged.incrementAndGet();
+            result.setAcknowledgementCallback(new Delivery(record, generation.get()));
+            return result;
+        } catch (IOException e) {
+            long dropped = numUndecodable.incrementAndGet();
+            log.error("Unable to deserialize result from {}, {} results have been dropped", directory, dropped, e);
+            return null;
+        }
+    }
+    
+    private void signalListeners() {
+        if (waitingListeners.get() > 0) {
+            readLock.lock();
+            try {
+                notEmpty.signalAll();
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of results which have not been consumed, including those which have been delivered but not yet acknowledged
+     *
+     * @return the number of results remaining
+     */
+    long getNumResultsRemaining() {
+        return (numWritten - numTaken.get()) + numRedeliveries.get() + numUnacknowledged.get();
+    }
+    
+    /**
+     * Get the number of results which were dropped because they could not be decoded
+     *
+     * @return the number of undecodable results
+     */
+    long getNumUndecodable() {
+        return numUndecodable.get();
+    }
+    
+    /**
+     * Determine whether there are results waiting to be delivered
+     *
+     * @return true if there are results waiting
+     */
+    boolean hasResults() {
+        return numWritten > numTaken.get() || numRedeliveries.get() > 0;
+    }
+    
+    /**
+     * Discard the results which are waiting to be delivered, and delete the segments which hold them. Results which are awaiting acknowledgement will not be
+     * redelivered.
+     */
+    void clear() {
+        readLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                generation.incrementAndGet();
+                redeliveries.clear();
+                numRedeliveries.set(0);
+                numUnacknowledged.set(0);
+                head.clear();
+                
+                // move the read position up to the write position, deleting the segments in between
+                for (int segment = Math.max(readSegment, 0); segment < writeSegment; segment++) {
+                    segments.remove(segment);
+                    deleteSegment(segment);
+                }
+                if (writeBuffer != null) {
+                    readSegment = writeSegment;
+                    // the duplicate starts at the current write position
+                    readBuffer = writeBuffer.duplicate();
+                }
+                numRead = numWritten;
+                numTaken.set(numWritten);
+                
+                // give back the room held by the discarded records
+                release(bytesWritten - bytesRead);
+                bytesRead = bytesWritten;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Discard the results, delete the segment files, and wake up any waiting listeners
+     */
+    void close() {
+        readLock.lock();
+        try {
+            writeLock.lock();
+            try {
+                closed = true;
+                generation.incrementAndGet();
+                redeliveries.clear();
+                head.clear();
+                segments.clear();
+                writeBuffer = null;
+                readBuffer = null;
+            } finally {
+                writeLock.unlock();
+            }
+            notEmpty.signalAll();
+        } finally {
+            readLock.unlock();
+        }
+        
+        // wake up any publishers waiting for room
+        spaceLock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            spaceLock.unlock();
+        }
+        
+        // the mappings are released when the buffers are garbage collected, but the files can be unlinked now
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Unable to delete {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", directory, e);
+        }
+    }
+    
+    boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Settles a single delivery of a result. Only the first acknowledgement counts, and it is ignored if the stream has been cleared since the delivery.
+     */
+    private class Delivery implements AcknowledgementCallback {
+        private final byte[] record;
+        private final int deliveryGeneration;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        
+        private Delivery(byte[] record, int deliveryGeneration) {
+            this.record = record;
+            this.deliveryGeneration = deliveryGeneration;
+        }
+        
+        @Override
+        public void acknowledge(Status status) {
+            if (settled.compareAndSet(false, true) && deliveryGeneration == generation.get()) {
+                if (status == Status.NACK) {
+                    numRedeliveries.incrementAndGet();
+                    redeliveries.add(record);
+                    signalListeners();
+                }
+                numUnacknowledged.decrementAndGet();
+            }
+        }
+    }
+}
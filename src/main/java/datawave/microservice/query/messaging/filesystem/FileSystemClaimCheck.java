@@ -0,0 +1,297 @@
+package datawave.microservice.query.messaging.filesystem;
+
+import static datawave.microservice.query.messaging.filesystem.FileSystemClaimCheck.FILESYSTEM;
+import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResultsManager.HAZELCAST;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import datawave.microservice.query.messaging.ClaimCheck;
+import datawave.microservice.query.messaging.codec.Compression;
+import datawave.microservice.query.messaging.codec.PayloadCompressor;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * A claim check which writes each payload to its own file under a directory shared by the publishers and listeners (e.g. a network mount), so that oversized
+ * results don't have to be held in cluster memory. Only the result id travels through the broker. Payloads are written to a temporary file and renamed into
+ * place, so a listener never reads a partial payload, and uncompressed payloads are deserialized straight from a read-only mapping of the file without being
+ * copied onto the heap. Files which are never released are deleted once they are older than the configured time to live.
+ */
+@Component
+@ConditionalOnExpression("${datawave.query.messaging.claimCheck.enabled:true} and ${datawave.query.messaging.claimCheck.backend:'" + HAZELCAST + "'} == '"
+                + FILESYSTEM + "'")
+public class FileSystemClaimCheck implements ClaimCheck, AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    public static final String FILESYSTEM = "filesystem";
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    private static final long MAX_RETRY_DELAY_MILLIS = 1000L;
+    
+    private final MessagingProperties messagingProperties;
+    private final Path directory;
+    
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final PayloadCompressor compressor;
+    private final ScheduledExecutorService executor;
+    
+    public FileSystemClaimCheck(MessagingProperties messagingProperties, ObjectProvider<MeterRegistry> meterRegistry) throws IOException {
+        this.messagingProperties = messagingProperties;
+        
+        String baseDirectory = messagingProperties.getClaimCheck().getDirectory();
+        if (baseDirectory == null) {
+            baseDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "queryClaimCheck").toString();
+        }
+        this.directory = Files.createDirectories(Paths.get(baseDirectory));
+        
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.reader = objectMapper.readerFor(DataWrapper.class);
+        this.writer = objectMapper.writerFor(DataWrapper.class);
+        
+        // @formatter:off
+        this.compressor = new PayloadCompressor(
+                messagingProperties.getCompression().getAlgorithm(),
+                messagingProperties.getCompression().getThresholdBytes(),
+                "claimCheck",
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        // @formatter:on
+        
+        // claims are read in parallel so that the payloads for a page of buffered results can be prefetched together
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "claim-check-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        long sweepIntervalSeconds = Math.max(1L, messagingProperties.getClaimCheck().getTtlSeconds() / 2);
+        executor.scheduleWithFixedDelay(this::deleteExpired, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    @Override
+    public <T> void check(String queryId, String resultId, T data) throws InterruptedException, IOException {
+        if (log.isTraceEnabled()) {
+            log.trace("Checking large payload for result {} of query {}", resultId, queryId);
+        }
+        
+        byte[] bytes = compressor.compress(writer.writeValueAsBytes(new DataWrapper<>(data)));
+        Path queryDirectory = Files.createDirectories(getQueryDirectory(queryId));
+        Path path = queryDirectory.resolve(encode(resultId));
+        Path temp = Files.createTempFile(queryDirectory, path.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            move(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    private void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Claims the payload on one of the claim check threads. If the payload hasn't been checked yet, the claim is retried with a growing delay until the claim
+     * timeout passes.
+     */
+    @Override
+    public <T> CompletableFuture<T> claimAsync(String queryId, String resultId) {
+        if (log.isTraceEnabled()) {
+            log.trace("Claiming large payload for result {} of query {}", resultId, queryId);
+        }
+        
+        CompletableFuture<T> claimed = new CompletableFuture<>();
+        long timeoutMillis = messagingProperties.getClaimCheck().getTimeoutMillis();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Path path = getQueryDirectory(queryId).resolve(encode(resultId));
+        executor.execute(() -> claim(path, deadline, 1L, claimed, () -> "Timed out after " + timeoutMillis + "ms claiming payload for result " + resultId
+                        + " of query " + queryId));
+        return claimed;
+    }
+    
+    private <T> void claim(Path path, long deadline, long retryDelayMillis, CompletableFuture<T> claimed, Supplier<String> timeoutMessage) {
+        try {
+            claimed.complete(read(path));
+        } catch (NoSuchFileException e) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                claimed.completeExceptionally(new IOException(timeoutMessage.get()));
+            } else {
+                executor.schedule(() -> claim(path, deadline, Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS), claimed, timeoutMessage),
+                                Math.min(retryDelayMillis, remaining), TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException | RuntimeException e) {
+            claimed.completeExceptionally(e);
+        }
+    }
+    
+    private <T> T read(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        
+        DataWrapper<T> wrapper;
+        if (mapped.hasRemaining() && mapped.get(0) == Compression.NONE.getId()) {
+            // skip the compression header and parse directly from the mapping
+            mapped.position(1);
+            wrapper = reader.readValue(new ByteBufferBackedInputStream(mapped));
+        } else {
+            byte[] framed = new byte[mapped.remaining()];
+            mapped.get(framed);
+            wrapper = reader.readValue(compressor.decompress(framed));
+        }
+        return wrapper.data;
+    }
+    
+    @Override
+    public void release(String queryId, String resultId) {
+        if (log.isTraceEnabled()) {
+            log.trace("Releasing large payload for result {} of query {}", resultId, queryId);
+        }
+        
+        Path path = getQueryDirectory(queryId).resolve(encode(resultId));
+        executor.execute(() -> {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Unable to release payload for result {} of query {}", resultId, queryId, e);
+            }
+        });
+    }
+    
+    @Override
+    public void empty(String queryId) {
+        if (log.isTraceEnabled()) {
+            log.trace("Emptying claim check directory for query {}", queryId);
+        }
+        
+        Path queryDirectory = getQueryDirectory(queryId);
+        if (Files.isDirectory(queryDirectory)) {
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(queryDirectory)) {
+                for (Path path : paths) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                log.error("Unable to empty claim check directory for query {}", queryId, e);
+            }
+        }
+    }
+    
+    @Override
+    public void delete(String queryId) {
+        if (log.isTraceEnabled()) {
+            log.trace("Deleting claim check directory for query {}", queryId);
+        }
+        
+        Path queryDirectory = getQueryDirectory(queryId);
+        if (Files.isDirectory(queryDirectory)) {
+            try (Stream<Path> paths = Files.walk(queryDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(this::deleteQuietly);
+            } catch (IOException e) {
+                log.error("Unable to delete claim check directory for query {}", queryId, e);
+            }
+        }
+    }
+    
+    /**
+     * Delete the payloads which are older than the time to live, along with any query directories which are left empty
+     */
+    void deleteExpired() {
+        long expiredMillis = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(messagingProperties.getClaimCheck().getTtlSeconds());
+        try (DirectoryStream<Path> queryDirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path queryDirectory : queryDirectories) {
+                try (DirectoryStream<Path> paths = Files.newDirectoryStream(queryDirectory)) {
+                    for (Path path : paths) {
+                        if (Files.getLastModifiedTime(path).toMillis() < expiredMillis) {
+                            deleteQuietly(path);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.debug("Unable to sweep claim check directory {}", queryDirectory, e);
+                }
+                if (Files.getLastModifiedTime(queryDirectory).toMillis() < expiredMillis) {
+                    try {
+                        Files.deleteIfExists(queryDirectory);
+                    } catch (IOException e) {
+                        // the directory isn't empty yet
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to delete expired payloads from {}", directory, e);
+        }
+    }
+    
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", path, e);
+        }
+    }
+    
+    private Path getQueryDirectory(String queryId) {
+        return directory.resolve(encode(queryId));
+    }
+    
+    /**
+     * Encode an id as a file name which can't escape the claim check directory
+     */
+    private static String encode(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(UTF_8));
+    }
+    
+    Path getDirectory() {
+        return directory;
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -1,103 +1,247 @@
 package datawave.microservice.query.messaging.hazelcast;
 
 import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResultsManager.HAZELCAST;
-import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResultsManager.QUEUE_PREFIX;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonTypeInfo;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.hazelcast.collection.IQueue;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
 
 import datawave.microservice.query.messaging.ClaimCheck;
+import datawave.microservice.query.messaging.codec.PayloadCompressor;
 import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
+/**
+ * A claim check which stores each query's payloads in a Hazelcast map keyed by result id, so that every result claims its own payload regardless of the order
+ * in which results are consumed. Payloads larger than the chunk size are split into chunks which are written and read concurrently, and the number of chunks
+ * is written under the result id only once every chunk has been stored. Payloads which are never released are evicted after the configured time to live.
+ */
 @Component
 @ConditionalOnExpression("${datawave.query.messaging.claimCheck.enabled:true} and ${datawave.query.messaging.claimCheck.backend:'" + HAZELCAST + "'} == '"
                 + HAZELCAST + "'")
-public class HazelcastClaimCheck implements ClaimCheck {
+public class HazelcastClaimCheck implements ClaimCheck, AutoCloseable {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
+    static final String CLAIM_CHECK_PREFIX = "queryClaimCheck.";
+    
+    private static final long MAX_RETRY_DELAY_MILLIS = 1000L;
+    
     private final MessagingProperties messagingProperties;
     private final HazelcastInstance hazelcastInstance;
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private final Map<String,IQueue<String>> claimCheckMap = new ConcurrentHashMap<>();
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+    private final PayloadCompressor compressor;
+    private final Map<String,IMap<String,Object>> claimCheckMap = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
     
-    public HazelcastClaimCheck(MessagingProperties messagingProperties, HazelcastInstance hazelcastInstance) {
+    public HazelcastClaimCheck(MessagingProperties messagingProperties, HazelcastInstance hazelcastInstance, ObjectProvider<MeterRegistry> meterRegistry) {
         this.messagingProperties = messagingProperties;
         this.hazelcastInstance = hazelcastInstance;
+        
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.reader = objectMapper.readerFor(DataWrapper.class);
+        this.writer = objectMapper.writerFor(DataWrapper.class);
+        
+        // @formatter:off
+        this.compressor = new PayloadCompressor(
+                messagingProperties.getCompression().getAlgorithm(),
+                messagingProperties.getCompression().getThresholdBytes(),
+                "claimCheck",
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        // @formatter:on
+        
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "claim-check-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
     @Override
-    public <T> void check(String queryId, T data) throws InterruptedException, JsonProcessingException {
+    public <T> void check(String queryId, String resultId, T data) throws InterruptedException, IOException {
         if (log.isTraceEnabled()) {
-            log.trace("Checking large payload for query {}", queryId);
+            log.trace("Checking large payload for result {} of query {}", resultId, queryId);
         }
         
-        String stringData = objectMapper.writeValueAsString(new DataWrapper<>(data));
-        getQueueForQueryId(QUEUE_PREFIX + queryId).put(stringData);
+        byte[] bytes = compressor.compress(writer.writeValueAsBytes(new DataWrapper<>(data)));
+        IMap<String,Object> map = getMapForQueryId(queryId);
+        int chunkSize = messagingProperties.getClaimCheck().getChunkSizeBytes();
+        if (bytes.length <= chunkSize) {
+            await(map.setAsync(resultId, bytes).toCompletableFuture(), resultId, queryId);
+        } else {
+            int numChunks = (bytes.length + chunkSize - 1) / chunkSize;
+            List<CompletableFuture<Void>> chunks = new ArrayList<>(numChunks);
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                byte[] chunkBytes = Arrays.copyOfRange(bytes, chunk * chunkSize, Math.min((chunk + 1) * chunkSize, bytes.length));
+                chunks.add(map.setAsync(chunkKey(resultId, chunk), chunkBytes).toCompletableFuture());
+            }
+            await(CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])), resultId, queryId);
+            
+            // the chunk count is written last so that a claim never sees a partial payload
+            await(map.setAsync(resultId, numChunks).toCompletableFuture(), resultId, queryId);
+        }
     }
     
+    private void await(CompletableFuture<Void> future, String resultId, String queryId) throws InterruptedException, IOException {
+        try {
+            future.get(messagingProperties.getClaimCheck().getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to check payload for result " + resultId + " of query " + queryId, e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out checking payload for result " + resultId + " of query " + queryId, e);
+        }
+    }
+    
+    /**
+     * Claims the payload without blocking. If the payload hasn't been checked yet, the claim is retried with a growing delay until the claim timeout passes.
+     */
     @Override
-    public <T> T claim(String queryId) throws InterruptedException, JsonProcessingException {
+    public <T> CompletableFuture<T> claimAsync(String queryId, String resultId) {
         if (log.isTraceEnabled()) {
-            log.trace("Claiming large payload for query {}", queryId);
+            log.trace("Claiming large payload for result {} of query {}", resultId, queryId);
         }
         
-        String stringData = getQueueForQueryId(QUEUE_PREFIX + queryId).take();
-        DataWrapper<T> wrapper = objectMapper.readerFor(DataWrapper.class).readValue(stringData);
-        return wrapper.data;
+        CompletableFuture<T> claimed = new CompletableFuture<>();
+        long timeoutMillis = messagingProperties.getClaimCheck().getTimeoutMillis();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> claimed.completeExceptionally(
+                        new IOException("Timed out after " + timeoutMillis + "ms claiming payload for result " + resultId + " of query " + queryId)),
+                        timeoutMillis, TimeUnit.MILLISECONDS);
+        claimed.whenComplete((payload, throwable) -> timeout.cancel(false));
+        
+        claim(getMapForQueryId(queryId), resultId, 1L, claimed);
+        return claimed;
     }
     
-    private IQueue<String> getQueueForQueryId(String queryId) {
+    private <T> void claim(IMap<String,Object> map, String resultId, long retryDelayMillis, CompletableFuture<T> claimed) {
+        map.getAsync(resultId).thenCompose(value -> {
+            if (value == null) {
+                if (!claimed.isDone()) {
+                    scheduler.schedule(() -> claim(map, resultId, Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS), claimed), retryDelayMillis,
+                                    TimeUnit.MILLISECONDS);
+                }
+                return CompletableFuture.<Void> completedFuture(null);
+            }
+            return readChunks(map, resultId, value).thenAccept(bytes -> {
+                try {
+                    DataWrapper<T> wrapper = reader.readValue(compressor.decompress(bytes));
+                    claimed.complete(wrapper.data);
+                } catch (IOException e) {
+                    claimed.completeExceptionally(e);
+                }
+            });
+        }).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                claimed.completeExceptionally((throwable instanceof CompletionException) ? throwable.getCause() : throwable);
+            }
+        });
+    }
+    
+    private CompletableFuture<byte[]> readChunks(IMap<String,Object> map, String resultId, Object value) {
+        if (value instanceof byte[]) {
+            return CompletableFuture.completedFuture((byte[]) value);
+        }
+        
+        int numChunks = (Integer) value;
+        List<CompletableFuture<Object>> chunks = new ArrayList<>(numChunks);
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            chunks.add(map.getAsync(chunkKey(resultId, chunk)).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (CompletableFuture<Object> chunk : chunks) {
+                byte[] chunkBytes = (byte[]) chunk.join();
+                if (chunkBytes == null) {
+                    // e.g. the chunk was evicted
+                    throw new IllegalStateException("Missing a chunk of the payload for result " + resultId);
+                }
+                bytes.write(chunkBytes, 0, chunkBytes.length);
+            }
+            return bytes.toByteArray();
+        });
+    }
+    
+    @Override
+    public void release(String queryId, String resultId) {
+        if (log.isTraceEnabled()) {
+            log.trace("Releasing large payload for result {} of query {}", resultId, queryId);
+        }
+        
+        IMap<String,Object> map = getMapForQueryId(queryId);
+        map.removeAsync(resultId).whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                log.warn("Unable to release payload for result {} of query {}", resultId, queryId, throwable);
+            } else if (value instanceof Integer) {
+                for (int chunk = 0; chunk < (Integer) value; chunk++) {
+                    map.deleteAsync(chunkKey(resultId, chunk));
+                }
+            }
+        });
+    }
+    
+    private static String chunkKey(String resultId, int chunk) {
+        return resultId + "#" + chunk;
+    }
+    
+    private IMap<String,Object> getMapForQueryId(String queryId) {
         // @formatter:off
         return claimCheckMap.computeIfAbsent(
-                QUEUE_PREFIX + queryId,
-                key -> HazelcastMessagingUtils.getOrCreateQueue(
+                queryId,
+                key -> HazelcastMessagingUtils.getOrCreateMap(
                         hazelcastInstance,
                         messagingProperties.getHazelcast().getBackupCount(),
-                        key));
+                        messagingProperties.getClaimCheck().getTtlSeconds(),
+                        CLAIM_CHECK_PREFIX + key));
         // @formatter:on
     }
     
     public void empty(String queryId) {
         if (log.isTraceEnabled()) {
-            log.trace("Emptying claim check queue for query {}", queryId);
+            log.trace("Emptying claim check map for query {}", queryId);
         }
         
-        IQueue<?> queue = claimCheckMap.remove(QUEUE_PREFIX + queryId);
-        if (queue != null) {
-            queue.clear();
-        }
+        getMapForQueryId(queryId).clear();
     }
     
     public void delete(String queryId) {
         if (log.isTraceEnabled()) {
-            log.trace("Deleting claim check queue for query {}", queryId);
+            log.trace("Deleting claim check map for query {}", queryId);
         }
         
-        IQueue<?> queue = claimCheckMap.remove(QUEUE_PREFIX + queryId);
-        if (queue != null) {
-            queue.destroy();
+        IMap<?,?> map = claimCheckMap.remove(queryId);
+        if (map == null) {
+            map = hazelcastInstance.getMap(CLAIM_CHECK_PREFIX + queryId);
         }
+        map.destroy();
     }
     
-    static class DataWrapper<T> {
-        @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS)
-        public T data;
-        
-        public DataWrapper(@JsonProperty("data") T data) {
-            this.data = data;
-        }
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
     }
 }
@@ -3,8 +3,12 @@ package datawave.microservice.query.messaging.hazelcast;
 import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResultsManager.SPLIT_BRAIN_PROTECTION_NAME;
 
 import com.hazelcast.collection.IQueue;
+import com.hazelcast.config.MapConfig;
 import com.hazelcast.config.QueueConfig;
+import com.hazelcast.config.RingbufferConfig;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.Ringbuffer;
 
 public class HazelcastMessagingUtils {
     
@@ -20,4 +24,36 @@ public class HazelcastMessagingUtils {
         
         return hazelcastInstance.getQueue(queryId);
     }
+    
+    static <T> Ringbuffer<T> getOrCreateRingbuffer(HazelcastInstance hazelcastInstance, int backupCount, int capacity, String name) {
+        RingbufferConfig ringbufferConfig = new RingbufferConfig(name);
+        ringbufferConfig.setSplitBrainProtectionName(SPLIT_BRAIN_PROTECTION_NAME);
+        ringbufferConfig.setCapacity(capacity);
+        
+        if (backupCount >= 0) {
+            ringbufferConfig.setBackupCount(backupCount);
+        }
+        
+        hazelcastInstance.getConfig().addRingBufferConfig(ringbufferConfig);
+        
+        return hazelcastInstance.getRingbuffer(name);
+    }
+    
+    static <K,V> IMap<K,V> getOrCreateMap(HazelcastInstance hazelcastInstance, int backupCount, String name) {
+        return getOrCreateMap(hazelcastInstance, backupCount, 0, name);
+    }
+    
+    static <K,V> IMap<K,V> getOrCreateMap(HazelcastInstance hazelcastInstance, int backupCount, int timeToLiveSeconds, String name) {
+        MapConfig mapConfig = new MapConfig(name);
+        mapConfig.setSplitBrainProtectionName(SPLIT_BRAIN_PROTECTION_NAME);
+        mapConfig.setTimeToLiveSeconds(timeToLiveSeconds);
+        
+        if (backupCount >= 0) {
+            mapConfig.setBackupCount(backupCount);
+        }
+        
+        hazelcastInstance.getConfig().addMapConfig(mapConfig);
+        
+        return hazelcastInstance.getMap(name);
+    }
 }
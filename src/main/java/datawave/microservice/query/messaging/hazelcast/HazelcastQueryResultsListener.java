@@ -1,31 +1,32 @@
 package datawave.microservice.query.messaging.hazelcast;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hazelcast.collection.IQueue;
 import com.hazelcast.spi.exception.DistributedObjectDestroyedException;
 
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 
 public class HazelcastQueryResultsListener implements QueryResultsListener {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
-    private final IQueue<String> queue;
-    private final ObjectMapper objectMapper;
+    private final IQueue<byte[]> queue;
+    private final ResultCodec resultCodec;
     private final String listenerId;
     
     private boolean stopped = false;
     
-    public HazelcastQueryResultsListener(IQueue<String> queue, ObjectMapper objectMapper, String listenerId) {
+    public HazelcastQueryResultsListener(IQueue<byte[]> queue, ResultCodec resultCodec, String listenerId) {
         this.queue = queue;
-        this.objectMapper = objectMapper;
+        this.resultCodec = resultCodec;
         this.listenerId = listenerId;
     }
     
@@ -39,13 +40,13 @@ public class HazelcastQueryResultsListener implements QueryResultsListener {
         Result result = null;
         if (!stopped) {
             try {
-                String data = queue.poll(interval, timeUnit);
+                byte[] data = queue.poll(interval, timeUnit);
                 if (data != null) {
-                    result = objectMapper.readerFor(Result.class).readValue(data);
+                    result = resultCodec.decode(data);
                 }
             } catch (InterruptedException e) {
                 log.debug("Interrupted while waiting for query results");
-            } catch (JsonProcessingException e) {
+            } catch (IOException e) {
                 log.debug("Unable to deserialize result");
             } catch (DistributedObjectDestroyedException e) {
                 log.debug("Unable to poll results from destroyed queue");
@@ -54,6 +55,33 @@ public class HazelcastQueryResultsListener implements QueryResultsListener {
         return result;
     }
     
+    @Override
+    public List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        List<Result> results = new ArrayList<>();
+        if (!stopped) {
+            try {
+                byte[] data = queue.poll(interval, timeUnit);
+                if (data != null) {
+                    List<byte[]> batch = new ArrayList<>();
+                    batch.add(data);
+                    queue.drainTo(batch, maxResults - 1);
+                    for (byte[] item : batch) {
+                        try {
+                            results.add(resultCodec.decode(item));
+                        } catch (IOException e) {
+                            log.debug("Unable to deserialize result");
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for query results");
+            } catch (DistributedObjectDestroyedException e) {
+                log.debug("Unable to poll results from destroyed queue");
+            }
+        }
+        return results;
+    }
+    
     @Override
     public boolean hasResults() {
         return !queue.isEmpty();
@@ -4,20 +4,24 @@ import static datawave.microservice.query.messaging.hazelcast.HazelcastQueryResu
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hazelcast.core.HazelcastInstance;
 
+import datawave.microservice.query.messaging.PublisherPool;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.QueryResultsManager;
 import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 @Component
 @ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = HAZELCAST)
-public class HazelcastQueryResultsManager implements QueryResultsManager {
+public class HazelcastQueryResultsManager implements QueryResultsManager, AutoCloseable {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     public static final String HAZELCAST = "hazelcast";
@@ -28,27 +32,37 @@ public class HazelcastQueryResultsManager implements QueryResultsManager {
     
     private final MessagingProperties messagingProperties;
     private final HazelcastInstance hazelcastInstance;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ResultCodec resultCodec;
+    private final PublisherPool publisherPool;
     
-    public HazelcastQueryResultsManager(MessagingProperties messagingProperties, HazelcastInstance hazelcastInstance) {
+    public HazelcastQueryResultsManager(MessagingProperties messagingProperties, HazelcastInstance hazelcastInstance, ResultCodec resultCodec,
+                    ObjectProvider<MeterRegistry> meterRegistry) {
         this.messagingProperties = messagingProperties;
         this.hazelcastInstance = hazelcastInstance;
+        this.resultCodec = resultCodec;
+        this.publisherPool = new PublisherPool(HAZELCAST, this::newPublisher, messagingProperties.getPublisherIdleTimeoutMillis(),
+                        meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
     }
     
     @Override
     public QueryResultsListener createListener(String listenerId, String queryId) {
         return new HazelcastQueryResultsListener(HazelcastMessagingUtils.getOrCreateQueue(hazelcastInstance,
-                        messagingProperties.getHazelcast().getBackupCount(), QUEUE_PREFIX + queryId), objectMapper, listenerId);
+                        messagingProperties.getHazelcast().getBackupCount(), QUEUE_PREFIX + queryId), resultCodec, listenerId);
     }
     
     @Override
     public QueryResultsPublisher createPublisher(String queryId) {
+        return publisherPool.acquire(queryId);
+    }
+    
+    private QueryResultsPublisher newPublisher(String queryId) {
         return new HazelcastQueryResultsPublisher(HazelcastMessagingUtils.getOrCreateQueue(hazelcastInstance,
-                        messagingProperties.getHazelcast().getBackupCount(), QUEUE_PREFIX + queryId), objectMapper);
+                        messagingProperties.getHazelcast().getBackupCount(), QUEUE_PREFIX + queryId), resultCodec);
     }
     
     @Override
     public void deleteQuery(String queryId) {
+        publisherPool.evict(queryId);
         try {
             hazelcastInstance.getQueue(QUEUE_PREFIX + queryId).destroy();
         } catch (Exception e) {
@@ -69,4 +83,9 @@ public class HazelcastQueryResultsManager implements QueryResultsManager {
     public int getNumResultsRemaining(String queryId) {
         return hazelcastInstance.getQueue(QUEUE_PREFIX + queryId).size();
     }
+    
+    @Override
+    public void close() {
+        publisherPool.close();
+    }
 }
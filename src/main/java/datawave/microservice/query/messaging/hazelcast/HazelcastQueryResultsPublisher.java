@@ -1,27 +1,30 @@
 package datawave.microservice.query.messaging.hazelcast;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hazelcast.collection.IQueue;
 
 import datawave.microservice.query.messaging.QueryResultsPublisher;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 
 public class HazelcastQueryResultsPublisher implements QueryResultsPublisher {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
-    private final IQueue<String> queue;
-    private final ObjectMapper objectMapper;
+    private static final long MAX_BACKOFF_MILLIS = 100L;
     
-    public HazelcastQueryResultsPublisher(IQueue<String> queue, ObjectMapper objectMapper) {
+    private final IQueue<byte[]> queue;
+    private final ResultCodec resultCodec;
+    
+    public HazelcastQueryResultsPublisher(IQueue<byte[]> queue, ResultCodec resultCodec) {
         this.queue = queue;
-        this.objectMapper = objectMapper;
+        this.resultCodec = resultCodec;
     }
     
     @Override
@@ -32,8 +35,8 @@ public class HazelcastQueryResultsPublisher implements QueryResultsPublisher {
         
         boolean success = false;
         try {
-            success = queue.offer(objectMapper.writeValueAsString(result), interval, timeUnit);
-        } catch (JsonProcessingException e) {
+            success = queue.offer(resultCodec.encode(result), interval, timeUnit);
+        } catch (IOException e) {
             log.error("Unable to serialize result", e);
         } catch (InterruptedException e) {
             log.error("Interrupted waiting for hazelcast offer", e);
@@ -41,6 +44,66 @@ public class HazelcastQueryResultsPublisher implements QueryResultsPublisher {
         return success;
     }
     
+    /**
+     * Publishes the results with a single {@link IQueue#addAll} call. {@code addAll} does not block waiting for capacity, and rejects the batch as a whole when
+     * the queue is full, so it is retried with a backoff until the interval elapses. A batch which is larger than the queue could ever hold falls back to timed
+     * offers of each result, in which case a failure may leave part of the batch published.
+     */
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing " + results.size() + " messages to " + queue.getName());
+        }
+        
+        boolean success = false;
+        try {
+            List<byte[]> messages = new ArrayList<>(results.size());
+            for (Result result : results) {
+                messages.add(resultCodec.encode(result));
+            }
+            success = addAll(messages, System.currentTimeMillis() + timeUnit.toMillis(interval));
+        } catch (IOException e) {
+            log.error("Unable to serialize result", e);
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for hazelcast queue capacity", e);
+            Thread.currentThread().interrupt();
+        }
+        return success;
+    }
+    
+    private boolean addAll(List<byte[]> messages, long deadline) throws InterruptedException {
+        long backoff = 1L;
+        while (true) {
+            try {
+                return queue.addAll(messages);
+            } catch (IllegalStateException e) {
+                // the queue is full, and will be until listeners have received more results
+            }
+            
+            if (messages.size() > queue.size() + queue.remainingCapacity()) {
+                return offerAll(messages, deadline);
+            }
+            
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                log.error("Unable to add {} results to hazelcast queue {} before the interval elapsed", messages.size(), queue.getName());
+                return false;
+            }
+            Thread.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+    
+    private boolean offerAll(List<byte[]> messages, long deadline) throws InterruptedException {
+        for (byte[] message : messages) {
+            if (!queue.offer(message, Math.max(deadline - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS)) {
+                log.error("Unable to add results to hazelcast queue {} before the interval elapsed", queue.getName());
+                return false;
+            }
+        }
+        return true;
+    }
+    
     @Override
     public void close() throws IOException {
         // do nothing
@@ -0,0 +1,280 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import static datawave.microservice.query.messaging.AcknowledgementCallback.Status.ACK;
+import static datawave.microservice.query.messaging.hazelcast.HazelcastRingbufferQueryResultsPublisher.MAX_BATCH_SIZE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.ReadResultSet;
+import com.hazelcast.ringbuffer.Ringbuffer;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+
+/**
+ * Receives results from a query's ringbuffer in batches with {@link Ringbuffer#readManyAsync}, and claims them on the query's {@link RingbufferCursor} so that
+ * competing listeners never deliver the same result. Claimed results are redelivered if they are negatively acknowledged, if this listener is closed before
+ * acknowledging them, or if they are not acknowledged within the acknowledgement timeout (e.g. because this listener's service died).
+ */
+public class HazelcastRingbufferQueryResultsListener implements QueryResultsListener {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final Ringbuffer<byte[]> ringbuffer;
+    private final IMap<String,RingbufferCursor> cursors;
+    private final String queryId;
+    private final ResultCodec resultCodec;
+    private final String listenerId;
+    private final long ackTimeoutMillis;
+    
+    // the claimed results which have not been settled
+    private final Map<Result,Delivery> deliveries = new ConcurrentHashMap<>();
+    
+    // the sequence to read from next, or -1 until the cursor has been consulted
+    private long nextSequence = -1L;
+    
+    // a read which timed out, kept so that the next receive can pick it up rather than starting another one
+    private volatile CompletableFuture<ReadResultSet<byte[]>> pendingRead;
+    private volatile long pendingReadFrom;
+    
+    private volatile boolean redeliveryPending = false;
+    private volatile boolean stopped = false;
+    
+    public HazelcastRingbufferQueryResultsListener(Ringbuffer<byte[]> ringbuffer, IMap<String,RingbufferCursor> cursors, String queryId,
+                    ResultCodec resultCodec, String listenerId, long ackTimeoutMillis) {
+        this.ringbuffer = ringbuffer;
+        this.cursors = cursors;
+        this.queryId = queryId;
+        this.resultCodec = resultCodec;
+        this.listenerId = listenerId;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+    }
+    
+    @Override
+    public String getListenerId() {
+        return listenerId;
+    }
+    
+    @Override
+    public Result receive(long interval, TimeUnit timeUnit) {
+        List<Result> results = receive(1, interval, timeUnit);
+        return results.isEmpty() ? null : results.get(0);
+    }
+    
+    @Override
+    public synchronized List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        int batchSize = Math.min(maxResults, MAX_BATCH_SIZE);
+        List<Result> results = new ArrayList<>();
+        long deadline = System.nanoTime() + timeUnit.toNanos(interval);
+        try {
+            while (!stopped && results.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                
+                // don't wait for new results before finding out where to read from, or while there may be results to redeliver
+                boolean wait = remaining > 0 && nextSequence >= 0 && !redeliveryPending;
+                redeliveryPending = false;
+                
+                long readFrom = nextSequence;
+                ReadResultSet<byte[]> read = (readFrom >= 0) ? read(readFrom, batchSize, wait ? remaining : 0L) : null;
+                
+                RingbufferClaim claim = claim(readFrom, read, batchSize);
+                nextSequence = claim.getNextSequence();
+                deliver(claim, read, results);
+                
+                // stop once the interval has passed or a wait came up empty, but always read at least once
+                if ((remaining <= 0 && readFrom >= 0) || (wait && read == null)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for query results");
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Unable to receive results for query {}", queryId, e);
+        }
+        return results;
+    }
+    
+    /**
+     * Read up to maxResults results starting at a sequence, waiting for the first one
+     *
+     * @return the results read, or null if the read timed out or failed
+     */
+    private ReadResultSet<byte[]> read(long readFrom, int maxResults, long waitNanos) throws InterruptedException {
+        CompletableFuture<ReadResultSet<byte[]>> future = pendingRead;
+        pendingRead = null;
+        try {
+            if (future != null && pendingReadFrom == readFrom) {
+                return (waitNanos > 0 || future.isDone()) ? future.get(waitNanos, TimeUnit.NANOSECONDS) : awaitLater(future, readFrom);
+            } else if (waitNanos > 0) {
+                future = ringbuffer.readManyAsync(readFrom, 1, maxResults, null).toCompletableFuture();
+                return future.get(waitNanos, TimeUnit.NANOSECONDS);
+            } else {
+                // without any time to wait, only ask for the results which are already there
+                return ringbuffer.readManyAsync(readFrom, 0, maxResults, null).toCompletableFuture().get();
+            }
+        } catch (TimeoutException e) {
+            return awaitLater(future, readFrom);
+        } catch (ExecutionException e) {
+            // e.g. the results were emptied and the cursor moved past the tail of the ringbuffer
+            log.debug("Unable to read from hazelcast ringbuffer {}", ringbuffer.getName(), e);
+            return null;
+        }
+    }
+    
+    private ReadResultSet<byte[]> awaitLater(CompletableFuture<ReadResultSet<byte[]>> future, long readFrom) {
+        pendingRead = future;
+        pendingReadFrom = readFrom;
+        return null;
+    }
+    
+    private RingbufferClaim claim(long readFrom, ReadResultSet<byte[]> read, int maxResults) {
+        long from = readFrom;
+        long to = readFrom;
+        if (read != null && read.size() > 0) {
+            from = read.getSequence(0);
+            to = read.getSequence(read.size() - 1) + 1;
+        }
+        
+        return cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Claim(listenerId, from, to, maxResults, ackTimeoutMillis));
+    }
+    
+    private void deliver(RingbufferClaim claim, ReadResultSet<byte[]> read, List<Result> results) throws InterruptedException {
+        List<Long> unreadable = new ArrayList<>();
+        
+        // redeliveries are usually runs of consecutive sequences (e.g. a rejected batch), so read each run at once
+        long[] redeliveries = claim.getRedeliveries();
+        for (int start = 0, end; start < redeliveries.length; start = end) {
+            end = start + 1;
+            while (end < redeliveries.length && redeliveries[end] == redeliveries[end - 1] + 1) {
+                end++;
+            }
+            ReadResultSet<byte[]> run = contains(read, redeliveries[start], redeliveries[end - 1]) ? read : readRun(redeliveries[start], end - start);
+            for (int i = start; i < end; i++) {
+                if (run != null) {
+                    deliver(claim.getGeneration(), redeliveries[i], run.get((int) (redeliveries[i] - run.getSequence(0))), results, unreadable);
+                } else {
+                    unreadable.add(redeliveries[i]);
+                }
+            }
+        }
+        
+        for (long sequence = claim.getFrom(); sequence < claim.getTo(); sequence++) {
+            deliver(claim.getGeneration(), sequence, read.get((int) (sequence - read.getSequence(0))), results, unreadable);
+        }
+        
+        // a result which can't be read or decoded would fail every time it was redelivered
+        if (!unreadable.isEmpty()) {
+            log.error("Discarding {} unreadable results for query {}", unreadable.size(), queryId);
+            settle(claim.getGeneration(), unreadable, true);
+        }
+    }
+    
+    private void deliver(int generation, long sequence, byte[] data, List<Result> results, List<Long> unreadable) {
+        try {
+            Result result = resultCodec.decode(data);
+            deliveries.put(result, new Delivery(generation, sequence));
+            result.setAcknowledgementCallback(status -> acknowledge(Collections.singletonList(result), status));
+            results.add(result);
+        } catch (IOException e) {
+            log.debug("Unable to deserialize result");
+            unreadable.add(sequence);
+        }
+    }
+    
+    private boolean contains(ReadResultSet<byte[]> read, long first, long last) {
+        return read != null && read.size() > 0 && first >= read.getSequence(0) && last <= read.getSequence(read.size() - 1);
+    }
+    
+    private ReadResultSet<byte[]> readRun(long first, int count) throws InterruptedException {
+        try {
+            ReadResultSet<byte[]> run = ringbuffer.readManyAsync(first, count, count, null).toCompletableFuture().get();
+            return (run.size() == count && run.getSequence(0) == first) ? run : null;
+        } catch (ExecutionException e) {
+            log.debug("Unable to read redelivered results from hazelcast ringbuffer {}", ringbuffer.getName(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * Settles the batch with a single call to the cursor for each claim generation in the batch
+     */
+    @Override
+    public void acknowledge(Collection<Result> results, AcknowledgementCallback.Status status) {
+        Map<Integer,List<Long>> sequences = new HashMap<>();
+        for (Result result : results) {
+            Delivery delivery = deliveries.remove(result);
+            if (delivery != null) {
+                sequences.computeIfAbsent(delivery.generation, generation -> new ArrayList<>()).add(delivery.sequence);
+            }
+        }
+        
+        for (Map.Entry<Integer,List<Long>> entry : sequences.entrySet()) {
+            settle(entry.getKey(), entry.getValue(), status == ACK);
+        }
+        if (status != ACK && !sequences.isEmpty()) {
+            redeliveryPending = true;
+        }
+    }
+    
+    private void settle(int generation, List<Long> sequenceList, boolean acknowledged) {
+        long[] sequences = sequenceList.stream().mapToLong(Long::longValue).toArray();
+        try {
+            cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Settle(listenerId, generation, sequences, acknowledged));
+        } catch (Exception e) {
+            // the results will be redelivered once the acknowledgement timeout passes
+            log.error("Unable to settle {} results for query {}", sequences.length, queryId, e);
+        }
+    }
+    
+    @Override
+    public boolean hasResults() {
+        CompletableFuture<ReadResultSet<byte[]>> read = pendingRead;
+        if (read != null && read.isDone() && !read.isCompletedExceptionally() && read.join().size() > 0) {
+            return true;
+        }
+        RingbufferCursor cursor = cursors.get(queryId);
+        return cursor != null && cursor.hasResults();
+    }
+    
+    /**
+     * Stops receiving, and hands any results which were received but not settled back for redelivery
+     */
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+        deliveries.clear();
+        
+        try {
+            cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Release(listenerId));
+        } catch (Exception e) {
+            log.error("Unable to release the unsettled results of listener {} for query {}", listenerId, queryId, e);
+        }
+    }
+    
+    private static class Delivery {
+        private final int generation;
+        private final long sequence;
+        
+        private Delivery(int generation, long sequence) {
+            this.generation = generation;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import static datawave.microservice.query.messaging.hazelcast.HazelcastRingbufferQueryResultsManager.HAZELCAST_RINGBUFFER;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.Ringbuffer;
+
+import datawave.microservice.query.messaging.PublisherPool;
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * An alternative Hazelcast backend which stores each query's results in a {@link Ringbuffer} rather than a queue. Listeners read results in batches and
+ * acknowledge them, and the delivery state shared by a query's publishers and listeners is kept in a {@link RingbufferCursor} per query. Results are delivered
+ * at least once, and publishers wait for room once the ringbuffer capacity's worth of results is unacknowledged.
+ * <p>
+ * The cursors and the operations applied to them are written with the {@link RingbufferSerializers}, which must be registered on every member of the cluster.
+ */
+@Component
+@ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = HAZELCAST_RINGBUFFER)
+public class HazelcastRingbufferQueryResultsManager implements QueryResultsManager, AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    public static final String HAZELCAST_RINGBUFFER = "hazelcast-ringbuffer";
+    
+    static final String RINGBUFFER_PREFIX = "queryResultsRingbuffer.";
+    
+    static final String CURSOR_MAP_NAME = "queryResultsCursors";
+    
+    private final MessagingProperties messagingProperties;
+    private final HazelcastInstance hazelcastInstance;
+    private final ResultCodec resultCodec;
+    private final PublisherPool publisherPool;
+    private final IMap<String,RingbufferCursor> cursors;
+    
+    public HazelcastRingbufferQueryResultsManager(MessagingProperties messagingProperties, HazelcastInstance hazelcastInstance, ResultCodec resultCodec,
+                    ObjectProvider<MeterRegistry> meterRegistry) {
+        this.messagingProperties = messagingProperties;
+        this.hazelcastInstance = hazelcastInstance;
+        this.resultCodec = resultCodec;
+        this.publisherPool = new PublisherPool(HAZELCAST_RINGBUFFER, this::newPublisher, messagingProperties.getPublisherIdleTimeoutMillis(),
+                        meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+        this.cursors = HazelcastMessagingUtils.getOrCreateMap(hazelcastInstance, messagingProperties.getHazelcast().getBackupCount(), CURSOR_MAP_NAME);
+    }
+    
+    @Override
+    public QueryResultsListener createListener(String listenerId, String queryId) {
+        return new HazelcastRingbufferQueryResultsListener(getRingbuffer(queryId), cursors, queryId, resultCodec, listenerId,
+                        messagingProperties.getHazelcast().getAckTimeoutMillis());
+    }
+    
+    @Override
+    public QueryResultsPublisher createPublisher(String queryId) {
+        return publisherPool.acquire(queryId);
+    }
+    
+    private QueryResultsPublisher newPublisher(String queryId) {
+        return new HazelcastRingbufferQueryResultsPublisher(getRingbuffer(queryId), cursors, queryId, resultCodec,
+                        messagingProperties.getHazelcast().getRingbufferCapacity());
+    }
+    
+    private Ringbuffer<byte[]> getRingbuffer(String queryId) {
+        MessagingProperties.HazelcastProperties hazelcastProperties = messagingProperties.getHazelcast();
+        return HazelcastMessagingUtils.getOrCreateRingbuffer(hazelcastInstance, hazelcastProperties.getBackupCount(),
+                        hazelcastProperties.getRingbufferCapacity(), RINGBUFFER_PREFIX + queryId);
+    }
+    
+    @Override
+    public void deleteQuery(String queryId) {
+        publisherPool.evict(queryId);
+        try {
+            hazelcastInstance.getRingbuffer(RINGBUFFER_PREFIX + queryId).destroy();
+            cursors.delete(queryId);
+        } catch (Exception e) {
+            log.error("Failed to delete ringbuffer {}", queryId, e);
+        }
+    }
+    
+    /**
+     * Empties the query by moving its cursor past every published result. A ringbuffer can't be cleared, so the discarded results stay in it until they are
+     * overwritten, but they no longer count against its capacity.
+     */
+    @Override
+    public void emptyQuery(String queryId) {
+        try {
+            cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Clear());
+        } catch (Exception e) {
+            log.error("Unable to empty ringbuffer {}", queryId, e);
+        }
+    }
+    
+    /**
+     * Get the number of results left to be consumed for a query, including results which have been received but not yet acknowledged
+     *
+     * @param queryId
+     *            The query Id
+     * @return the number of remaining results
+     */
+    @Override
+    public int getNumResultsRemaining(String queryId) {
+        RingbufferCursor cursor = cursors.get(queryId);
+        return (cursor != null) ? (int) Math.min(cursor.getNumResultsRemaining(), Integer.MAX_VALUE) : 0;
+    }
+    
+    @Override
+    public void close() {
+        publisherPool.close();
+    }
+}
@@ -0,0 +1,123 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.map.IMap;
+import com.hazelcast.ringbuffer.OverflowPolicy;
+import com.hazelcast.ringbuffer.Ringbuffer;
+
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+
+/**
+ * Publishes results to a query's ringbuffer. Room for each batch is reserved on the query's {@link RingbufferCursor} before it is added, and the publisher
+ * backs off until the interval elapses while the ringbuffer is full of unacknowledged results.
+ */
+public class HazelcastRingbufferQueryResultsPublisher implements QueryResultsPublisher {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private static final long MAX_BACKOFF_MILLIS = 100L;
+    
+    // the most items hazelcast will add to a ringbuffer in one call
+    static final int MAX_BATCH_SIZE = 1000;
+    
+    private final Ringbuffer<byte[]> ringbuffer;
+    private final IMap<String,RingbufferCursor> cursors;
+    private final String queryId;
+    private final ResultCodec resultCodec;
+    private final int capacity;
+    
+    public HazelcastRingbufferQueryResultsPublisher(Ringbuffer<byte[]> ringbuffer, IMap<String,RingbufferCursor> cursors, String queryId,
+                    ResultCodec resultCodec, int capacity) {
+        this.ringbuffer = ringbuffer;
+        this.cursors = cursors;
+        this.queryId = queryId;
+        this.resultCodec = resultCodec;
+        this.capacity = capacity;
+    }
+    
+    @Override
+    public boolean publish(Result result, long interval, TimeUnit timeUnit) {
+        return publish(Collections.singletonList(result), interval, timeUnit);
+    }
+    
+    /**
+     * Publishes the results with one reservation and one {@link Ringbuffer#addAllAsync} call per batch, where a batch is limited by both the ringbuffer
+     * capacity and the most results hazelcast will add at once
+     */
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing " + results.size() + " messages to " + ringbuffer.getName());
+        }
+        
+        List<byte[]> messages = new ArrayList<>(results.size());
+        try {
+            for (Result result : results) {
+                messages.add(resultCodec.encode(result));
+            }
+        } catch (IOException e) {
+            log.error("Unable to serialize result", e);
+            return false;
+        }
+        
+        int batchSize = Math.min(capacity, MAX_BATCH_SIZE);
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(interval);
+        try {
+            for (int start = 0; start < messages.size(); start += batchSize) {
+                List<byte[]> batch = messages.subList(start, Math.min(start + batchSize, messages.size()));
+                if (!reserve(batch.size(), deadline)) {
+                    return false;
+                }
+                try {
+                    ringbuffer.addAllAsync(batch, OverflowPolicy.OVERWRITE).toCompletableFuture().get();
+                } catch (ExecutionException e) {
+                    log.error("Unable to add results to hazelcast ringbuffer", e);
+                    unreserve(batch.size());
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for hazelcast ringbuffer", e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+    
+    private boolean reserve(int count, long deadline) throws InterruptedException {
+        int capacity = this.capacity;
+        long backoff = 1L;
+        while (!Boolean.TRUE.equals(cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Reserve(count, capacity)))) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        return true;
+    }
+    
+    private void unreserve(int count) {
+        try {
+            cursors.executeOnKey(queryId, new RingbufferCursorEntryProcessor.Unreserve(count));
+        } catch (Exception e) {
+            log.error("Unable to release reserved room in hazelcast ringbuffer {}", ringbuffer.getName(), e);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
@@ -0,0 +1,63 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.Serializable;
+
+/**
+ * The results claimed by a listener from a query's results ringbuffer
+ */
+public class RingbufferClaim implements Serializable {
+    private static final long serialVersionUID = 7790512339418530461L;
+    
+    private final int generation;
+    private final long[] redeliveries;
+    private final long from;
+    private final long to;
+    private final long nextSequence;
+    
+    public RingbufferClaim(int generation, long[] redeliveries, long from, long to, long nextSequence) {
+        this.generation = generation;
+        this.redeliveries = redeliveries;
+        this.from = from;
+        this.to = to;
+        this.nextSequence = nextSequence;
+    }
+    
+    /**
+     * @return the generation of the cursor when the results were claimed, which must be passed back when they are settled
+     */
+    public int getGeneration() {
+        return generation;
+    }
+    
+    /**
+     * @return the previously delivered sequences which were claimed for redelivery
+     */
+    public long[] getRedeliveries() {
+        return redeliveries;
+    }
+    
+    /**
+     * @return the first newly claimed sequence
+     */
+    public long getFrom() {
+        return from;
+    }
+    
+    /**
+     * @return one past the last newly claimed sequence
+     */
+    public long getTo() {
+        return to;
+    }
+    
+    /**
+     * @return the sequence the listener should read from next
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+    
+    public int size() {
+        return redeliveries.length + (int) (to - from);
+    }
+}
@@ -0,0 +1,33 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.microservice.query.storage.serialization.VersionedStreamSerializer;
+
+/**
+ * A versioned serializer for the results claimed by a listener
+ */
+public class RingbufferClaimSerializer extends VersionedStreamSerializer<RingbufferClaim> {
+    public static final int VERSION = 1;
+    
+    public RingbufferClaimSerializer() {
+        super(RingbufferSerializers.RINGBUFFER_CLAIM_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, RingbufferClaim claim) throws IOException {
+        out.writeInt(claim.getGeneration());
+        out.writeLongArray(claim.getRedeliveries());
+        out.writeLong(claim.getFrom());
+        out.writeLong(claim.getTo());
+        out.writeLong(claim.getNextSequence());
+    }
+    
+    @Override
+    protected RingbufferClaim readData(ObjectDataInput in, byte version) throws IOException {
+        return new RingbufferClaim(in.readInt(), in.readLongArray(), in.readLong(), in.readLong(), in.readLong());
+    }
+}
@@ -0,0 +1,347 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The delivery state shared by every publisher and listener of a query's results ringbuffer. It is stored in a Hazelcast map and only modified by
+ * {@link RingbufferCursorEntryProcessor}s on the member which owns it, so each operation is atomic.
+ * <p>
+ * Listeners claim the sequences they deliver, and each claim is held until it is acknowledged. Negatively acknowledged claims, claims released by a closed
+ * listener, and claims which are not settled within the acknowledgement timeout are redelivered. Publishers reserve room before adding results, and room is
+ * only given back as the oldest outstanding sequence is settled, so unacknowledged results are never overwritten.
+ * <p>
+ * The cursor is rewritten by every operation, so claims and redeliveries are kept as ranges of sequences rather than one entry per sequence. A listener which
+ * acknowledges its results in order keeps a single range per claim no matter how many results it settles.
+ */
+public class RingbufferCursor implements Serializable {
+    private static final long serialVersionUID = 2871149366403120358L;
+    
+    // the number of results which publishers have reserved room for
+    private long reserved = 0L;
+    
+    // the lowest sequence which has not yet been claimed by a listener
+    private long nextSequence = 0L;
+    
+    // incremented whenever the results are emptied, so that settlements of earlier deliveries are ignored
+    private int generation = 0;
+    
+    // the claimed ranges which have not been settled by each listener, keyed by the first sequence of each range
+    private final Map<String,TreeMap<Long,ClaimedRange>> claims = new HashMap<>();
+    private long numClaimed = 0L;
+    private long oldestClaimMillis = Long.MAX_VALUE;
+    
+    // the ranges which are waiting to be redelivered, from the first sequence to one past the last
+    private final TreeMap<Long,Long> redeliveries = new TreeMap<>();
+    private long numRedeliveries = 0L;
+    
+    public RingbufferCursor() {}
+    
+    RingbufferCursor(long reserved, long nextSequence, int generation) {
+        this.reserved = reserved;
+        this.nextSequence = nextSequence;
+        this.generation = generation;
+    }
+    
+    /**
+     * Reserve room for a publisher to add results to the ringbuffer
+     *
+     * @param count
+     *            the number of results
+     * @param capacity
+     *            the capacity of the ringbuffer
+     * @return true if the room was reserved, false if the ringbuffer does not have room until more results are settled
+     */
+    public boolean reserve(int count, int capacity) {
+        if (reserved + count - getLowWatermark() <= capacity) {
+            reserved += count;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Give back room which was reserved for results that could not be added
+     *
+     * @param count
+     *            the number of results
+     */
+    public void unreserve(int count) {
+        reserved = Math.max(reserved - count, nextSequence);
+    }
+    
+    /**
+     * Claim results for a listener. Results waiting to be redelivered are claimed first, followed by any unclaimed sequences in the range which the listener
+     * has already read from the ringbuffer.
+     *
+     * @param listenerId
+     *            the listener id
+     * @param readFrom
+     *            the first sequence read by the listener
+     * @param readTo
+     *            one past the last sequence read by the listener
+     * @param maxResults
+     *            the maximum number of results to claim
+     * @param ackTimeoutMillis
+     *            how long a claim may go unsettled before it is redelivered
+     * @return the claim
+     */
+    public RingbufferClaim claim(String listenerId, long readFrom, long readTo, int maxResults, long ackTimeoutMillis) {
+        long now = System.currentTimeMillis();
+        if (now - oldestClaimMillis >= ackTimeoutMillis) {
+            expireClaims(now - ackTimeoutMillis);
+        }
+        
+        List<Long> redelivered = new ArrayList<>();
+        while (redelivered.size() < maxResults && !redeliveries.isEmpty()) {
+            Map.Entry<Long,Long> range = redeliveries.pollFirstEntry();
+            long end = Math.min(range.getValue(), range.getKey() + maxResults - redelivered.size());
+            if (end < range.getValue()) {
+                redeliveries.put(end, range.getValue());
+            }
+            numRedeliveries -= end - range.getKey();
+            addClaim(listenerId, range.getKey(), end, now);
+            for (long sequence = range.getKey(); sequence < end; sequence++) {
+                redelivered.add(sequence);
+            }
+        }
+        
+        long from = Math.max(nextSequence, readFrom);
+        long to = Math.max(from, Math.min(readTo, from + maxResults - redelivered.size()));
+        if (from < to) {
+            addClaim(listenerId, from, to, now);
+        }
+        nextSequence = to;
+        
+        return new RingbufferClaim(generation, redelivered.stream().mapToLong(Long::longValue).toArray(), from, to, nextSequence);
+    }
+    
+    private void expireClaims(long expiredMillis) {
+        long oldest = Long.MAX_VALUE;
+        Iterator<TreeMap<Long,ClaimedRange>> listeners = claims.values().iterator();
+        while (listeners.hasNext()) {
+            TreeMap<Long,ClaimedRange> listenerClaims = listeners.next();
+            Iterator<ClaimedRange> ranges = listenerClaims.values().iterator();
+            while (ranges.hasNext()) {
+                ClaimedRange range = ranges.next();
+                if (range.claimedMillis <= expiredMillis) {
+                    ranges.remove();
+                    numClaimed -= range.size();
+                    addRedelivery(range.from, range.to);
+                } else {
+                    oldest = Math.min(oldest, range.claimedMillis);
+                }
+            }
+            if (listenerClaims.isEmpty()) {
+                listeners.remove();
+            }
+        }
+        oldestClaimMillis = oldest;
+    }
+    
+    /**
+     * Settle a listener's claims. Sequences which are no longer claimed by the listener (e.g. they were redelivered after the acknowledgement timeout), or
+     * which were claimed before the results were emptied, are ignored.
+     *
+     * @param listenerId
+     *            the listener id
+     * @param claimGeneration
+     *            the generation of the claim
+     * @param sequences
+     *            the sequences to settle
+     * @param acknowledged
+     *            true if the results were acknowledged, false if they should be redelivered
+     */
+    public void settle(String listenerId, int claimGeneration, long[] sequences, boolean acknowledged) {
+        TreeMap<Long,ClaimedRange> listenerClaims = claims.get(listenerId);
+        if (claimGeneration != generation || listenerClaims == null) {
+            return;
+        }
+        
+        // settle each run of consecutive sequences at once
+        long[] sorted = sequences.clone();
+        Arrays.sort(sorted);
+        for (int start = 0, end; start < sorted.length; start = end) {
+            end = start + 1;
+            while (end < sorted.length && sorted[end] <= sorted[end - 1] + 1) {
+                end++;
+            }
+            settle(listenerClaims, sorted[start], sorted[end - 1] + 1, acknowledged);
+        }
+        
+        if (listenerClaims.isEmpty()) {
+            claims.remove(listenerId);
+        }
+    }
+    
+    private void settle(TreeMap<Long,ClaimedRange> listenerClaims, long from, long to, boolean acknowledged) {
+        Map.Entry<Long,ClaimedRange> entry = listenerClaims.floorEntry(from);
+        if (entry == null || entry.getValue().to <= from) {
+            entry = listenerClaims.higherEntry(from);
+        }
+        while (entry != null && entry.getKey() < to) {
+            ClaimedRange range = entry.getValue();
+            long settledFrom = Math.max(range.from, from);
+            long settledTo = Math.min(range.to, to);
+            
+            // keep whatever is left of the range on either side of the settled sequences
+            listenerClaims.remove(range.from);
+            if (range.from < settledFrom) {
+                listenerClaims.put(range.from, new ClaimedRange(range.from, settledFrom, range.claimedMillis));
+            }
+            if (settledTo < range.to) {
+                listenerClaims.put(settledTo, new ClaimedRange(settledTo, range.to, range.claimedMillis));
+            }
+            
+            numClaimed -= settledTo - settledFrom;
+            if (!acknowledged) {
+                addRedelivery(settledFrom, settledTo);
+            }
+            entry = listenerClaims.ceilingEntry(settledTo);
+        }
+    }
+    
+    /**
+     * Redeliver every result claimed by a listener which is closing
+     *
+     * @param listenerId
+     *            the listener id
+     */
+    public void release(String listenerId) {
+        TreeMap<Long,ClaimedRange> listenerClaims = claims.remove(listenerId);
+        if (listenerClaims != null) {
+            for (ClaimedRange range : listenerClaims.values()) {
+                numClaimed -= range.size();
+                addRedelivery(range.from, range.to);
+            }
+        }
+    }
+    
+    /**
+     * Discard every result which has been published, including those which are claimed or waiting to be redelivered
+     */
+    public void clear() {
+        generation++;
+        claims.clear();
+        numClaimed = 0L;
+        oldestClaimMillis = Long.MAX_VALUE;
+        redeliveries.clear();
+        numRedeliveries = 0L;
+        nextSequence = reserved;
+    }
+    
+    void addClaim(String listenerId, long from, long to, long claimedMillis) {
+        claims.computeIfAbsent(listenerId, id -> new TreeMap<>()).put(from, new ClaimedRange(from, to, claimedMillis));
+        numClaimed += to - from;
+        oldestClaimMillis = Math.min(oldestClaimMillis, claimedMillis);
+    }
+    
+    void addRedelivery(long from, long to) {
+        numRedeliveries += to - from;
+        
+        // merge the range with its neighbours so that a rejected batch stays a single range
+        Map.Entry<Long,Long> lower = redeliveries.floorEntry(from);
+        if (lower != null && lower.getValue() == from) {
+            redeliveries.remove(lower.getKey());
+            from = lower.getKey();
+        }
+        Long higherTo = redeliveries.remove(to);
+        if (higherTo != null) {
+            to = higherTo;
+        }
+        redeliveries.put(from, to);
+    }
+    
+    /**
+     * Get the lowest sequence which is still needed, which is the oldest claimed or redelivered sequence, or the next sequence if there are none
+     *
+     * @return the low watermark
+     */
+    public long getLowWatermark() {
+        long lowWatermark = nextSequence;
+        for (TreeMap<Long,ClaimedRange> listenerClaims : claims.values()) {
+            lowWatermark = Math.min(lowWatermark, listenerClaims.firstKey());
+        }
+        if (!redeliveries.isEmpty()) {
+            lowWatermark = Math.min(lowWatermark, redeliveries.firstKey());
+        }
+        return lowWatermark;
+    }
+    
+    /**
+     * Get the number of results which have not been acknowledged, including results which are still being added by publishers
+     *
+     * @return the number of results remaining
+     */
+    public long getNumResultsRemaining() {
+        return (reserved - nextSequence) + numClaimed + numRedeliveries;
+    }
+    
+    /**
+     * Determine whether there are results waiting to be claimed, including results which are still being added by publishers
+     *
+     * @return true if there are results waiting
+     */
+    public boolean hasResults() {
+        return reserved > nextSequence || !redeliveries.isEmpty();
+    }
+    
+    long getReserved() {
+        return reserved;
+    }
+    
+    public long getNextSequence() {
+        return nextSequence;
+    }
+    
+    public int getGeneration() {
+        return generation;
+    }
+    
+    Map<String,TreeMap<Long,ClaimedRange>> getClaims() {
+        return claims;
+    }
+    
+    TreeMap<Long,Long> getRedeliveries() {
+        return redeliveries;
+    }
+    
+    /**
+     * A range of sequences claimed by a listener at the same time
+     */
+    static class ClaimedRange implements Serializable {
+        private static final long serialVersionUID = -6405523367213650921L;
+        
+        private final long from;
+        private final long to;
+        private final long claimedMillis;
+        
+        ClaimedRange(long from, long to, long claimedMillis) {
+            this.from = from;
+            this.to = to;
+            this.claimedMillis = claimedMillis;
+        }
+        
+        long getFrom() {
+            return from;
+        }
+        
+        long getTo() {
+            return to;
+        }
+        
+        long getClaimedMillis() {
+            return claimedMillis;
+        }
+        
+        long size() {
+            return to - from;
+        }
+    }
+}
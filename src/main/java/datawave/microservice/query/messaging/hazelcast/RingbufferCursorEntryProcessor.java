@@ -0,0 +1,217 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which applies an operation to a query's ringbuffer cursor on the member which owns it, creating the cursor if it does not exist
+ * yet. Each operation is a named subclass so that it can be written by {@link RingbufferCursorEntryProcessorSerializer}.
+ *
+ * @param <R>
+ *            the result type
+ */
+public abstract class RingbufferCursorEntryProcessor<R> implements EntryProcessor<String,RingbufferCursor,R> {
+    private static final long serialVersionUID = 5937202855102417741L;
+    
+    /**
+     * Apply the operation to the cursor
+     *
+     * @param entry
+     *            the cursor entry
+     * @return the result of the operation
+     */
+    @Override
+    public R process(Map.Entry<String,RingbufferCursor> entry) {
+        RingbufferCursor cursor = entry.getValue();
+        if (cursor == null) {
+            cursor = new RingbufferCursor();
+        }
+        R result = apply(cursor);
+        entry.setValue(cursor);
+        return result;
+    }
+    
+    /**
+     * Apply this operation to the cursor
+     *
+     * @param cursor
+     *            the cursor to update
+     * @return the result of the operation
+     */
+    protected abstract R apply(RingbufferCursor cursor);
+    
+    /**
+     * Reserves room for a publisher, see {@link RingbufferCursor#reserve(int, int)}
+     */
+    public static class Reserve extends RingbufferCursorEntryProcessor<Boolean> {
+        private static final long serialVersionUID = -3395867617330961870L;
+        
+        private final int count;
+        private final int capacity;
+        
+        public Reserve(int count, int capacity) {
+            this.count = count;
+            this.capacity = capacity;
+        }
+        
+        @Override
+        protected Boolean apply(RingbufferCursor cursor) {
+            return cursor.reserve(count, capacity);
+        }
+        
+        public int getCount() {
+            return count;
+        }
+        
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+    
+    /**
+     * Gives back room which a publisher could not use, see {@link RingbufferCursor#unreserve(int)}
+     */
+    public static class Unreserve extends RingbufferCursorEntryProcessor<Void> {
+        private static final long serialVersionUID = 1824440381846517204L;
+        
+        private final int count;
+        
+        public Unreserve(int count) {
+            this.count = count;
+        }
+        
+        @Override
+        protected Void apply(RingbufferCursor cursor) {
+            cursor.unreserve(count);
+            return null;
+        }
+        
+        public int getCount() {
+            return count;
+        }
+    }
+    
+    /**
+     * Claims results for a listener, see {@link RingbufferCursor#claim(String, long, long, int, long)}
+     */
+    public static class Claim extends RingbufferCursorEntryProcessor<RingbufferClaim> {
+        private static final long serialVersionUID = 6604178229315703352L;
+        
+        private final String listenerId;
+        private final long readFrom;
+        private final long readTo;
+        private final int maxResults;
+        private final long ackTimeoutMillis;
+        
+        public Claim(String listenerId, long readFrom, long readTo, int maxResults, long ackTimeoutMillis) {
+            this.listenerId = listenerId;
+            this.readFrom = readFrom;
+            this.readTo = readTo;
+            this.maxResults = maxResults;
+            this.ackTimeoutMillis = ackTimeoutMillis;
+        }
+        
+        @Override
+        protected RingbufferClaim apply(RingbufferCursor cursor) {
+            return cursor.claim(listenerId, readFrom, readTo, maxResults, ackTimeoutMillis);
+        }
+        
+        public String getListenerId() {
+            return listenerId;
+        }
+        
+        public long getReadFrom() {
+            return readFrom;
+        }
+        
+        public long getReadTo() {
+            return readTo;
+        }
+        
+        public int getMaxResults() {
+            return maxResults;
+        }
+        
+        public long getAckTimeoutMillis() {
+            return ackTimeoutMillis;
+        }
+    }
+    
+    /**
+     * Settles a listener's claims, see {@link RingbufferCursor#settle(String, int, long[], boolean)}
+     */
+    public static class Settle extends RingbufferCursorEntryProcessor<Void> {
+        private static final long serialVersionUID = -8830916325176414839L;
+        
+        private final String listenerId;
+        private final int generation;
+        private final long[] sequences;
+        private final boolean acknowledged;
+        
+        public Settle(String listenerId, int generation, long[] sequences, boolean acknowledged) {
+            this.listenerId = listenerId;
+            this.generation = generation;
+            this.sequences = sequences;
+            this.acknowledged = acknowledged;
+        }
+        
+        @Override
+        protected Void apply(RingbufferCursor cursor) {
+            cursor.settle(listenerId, generation, sequences, acknowledged);
+            return null;
+        }
+        
+        public String getListenerId() {
+            return listenerId;
+        }
+        
+        public int getGeneration() {
+            return generation;
+        }
+        
+        public long[] getSequences() {
+            return sequences;
+        }
+        
+        public boolean isAcknowledged() {
+            return acknowledged;
+        }
+    }
+    
+    /**
+     * Hands back the claims of a listener which is closing, see {@link RingbufferCursor#release(String)}
+     */
+    public static class Release extends RingbufferCursorEntryProcessor<Void> {
+        private static final long serialVersionUID = 4191505472604035667L;
+        
+        private final String listenerId;
+        
+        public Release(String listenerId) {
+            this.listenerId = listenerId;
+        }
+        
+        @Override
+        protected Void apply(RingbufferCursor cursor) {
+            cursor.release(listenerId);
+            return null;
+        }
+        
+        public String getListenerId() {
+            return listenerId;
+        }
+    }
+    
+    /**
+     * Discards every published result, see {@link RingbufferCursor#clear()}
+     */
+    public static class Clear extends RingbufferCursorEntryProcessor<Void> {
+        private static final long serialVersionUID = -1459271386627412806L;
+        
+        @Override
+        protected Void apply(RingbufferCursor cursor) {
+            cursor.clear();
+            return null;
+        }
+    }
+}
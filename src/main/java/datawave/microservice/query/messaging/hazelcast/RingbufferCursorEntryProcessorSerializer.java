@@ -0,0 +1,84 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.microservice.query.storage.serialization.VersionedStreamSerializer;
+
+/**
+ * A versioned serializer for the ringbuffer cursor entry processors. Each operation is written as an id followed by its arguments, so adding an operation
+ * requires a new id, and changing the arguments of one requires a schema version bump.
+ */
+@SuppressWarnings("rawtypes")
+public class RingbufferCursorEntryProcessorSerializer extends VersionedStreamSerializer<RingbufferCursorEntryProcessor> {
+    public static final int VERSION = 1;
+    
+    private static final byte RESERVE = 1;
+    private static final byte UNRESERVE = 2;
+    private static final byte CLAIM = 3;
+    private static final byte SETTLE = 4;
+    private static final byte RELEASE = 5;
+    private static final byte CLEAR = 6;
+    
+    public RingbufferCursorEntryProcessorSerializer() {
+        super(RingbufferSerializers.RINGBUFFER_CURSOR_ENTRY_PROCESSOR_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, RingbufferCursorEntryProcessor processor) throws IOException {
+        if (processor instanceof RingbufferCursorEntryProcessor.Reserve) {
+            RingbufferCursorEntryProcessor.Reserve reserve = (RingbufferCursorEntryProcessor.Reserve) processor;
+            out.writeByte(RESERVE);
+            out.writeInt(reserve.getCount());
+            out.writeInt(reserve.getCapacity());
+        } else if (processor instanceof RingbufferCursorEntryProcessor.Unreserve) {
+            out.writeByte(UNRESERVE);
+            out.writeInt(((RingbufferCursorEntryProcessor.Unreserve) processor).getCount());
+        } else if (processor instanceof RingbufferCursorEntryProcessor.Claim) {
+            RingbufferCursorEntryProcessor.Claim claim = (RingbufferCursorEntryProcessor.Claim) processor;
+            out.writeByte(CLAIM);
+            out.writeString(claim.getListenerId());
+            out.writeLong(claim.getReadFrom());
+            out.writeLong(claim.getReadTo());
+            out.writeInt(claim.getMaxResults());
+            out.writeLong(claim.getAckTimeoutMillis());
+        } else if (processor instanceof RingbufferCursorEntryProcessor.Settle) {
+            RingbufferCursorEntryProcessor.Settle settle = (RingbufferCursorEntryProcessor.Settle) processor;
+            out.writeByte(SETTLE);
+            out.writeString(settle.getListenerId());
+            out.writeInt(settle.getGeneration());
+            out.writeLongArray(settle.getSequences());
+            out.writeBoolean(settle.isAcknowledged());
+        } else if (processor instanceof RingbufferCursorEntryProcessor.Release) {
+            out.writeByte(RELEASE);
+            out.writeString(((RingbufferCursorEntryProcessor.Release) processor).getListenerId());
+        } else if (processor instanceof RingbufferCursorEntryProcessor.Clear) {
+            out.writeByte(CLEAR);
+        } else {
+            throw new IOException("Unknown ringbuffer cursor operation " + processor.getClass().getName());
+        }
+    }
+    
+    @Override
+    protected RingbufferCursorEntryProcessor readData(ObjectDataInput in, byte version) throws IOException {
+        byte operation = in.readByte();
+        switch (operation) {
+            case RESERVE:
+                return new RingbufferCursorEntryProcessor.Reserve(in.readInt(), in.readInt());
+            case UNRESERVE:
+                return new RingbufferCursorEntryProcessor.Unreserve(in.readInt());
+            case CLAIM:
+                return new RingbufferCursorEntryProcessor.Claim(in.readString(), in.readLong(), in.readLong(), in.readInt(), in.readLong());
+            case SETTLE:
+                return new RingbufferCursorEntryProcessor.Settle(in.readString(), in.readInt(), in.readLongArray(), in.readBoolean());
+            case RELEASE:
+                return new RingbufferCursorEntryProcessor.Release(in.readString());
+            case CLEAR:
+                return new RingbufferCursorEntryProcessor.Clear();
+            default:
+                throw new IOException("Unknown ringbuffer cursor operation " + operation + ", which was probably written by a newer version");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.microservice.query.storage.serialization.VersionedStreamSerializer;
+
+/**
+ * A versioned serializer for the ringbuffer cursor, which writes the claimed and redelivered ranges rather than java serializing the maps that hold them
+ */
+public class RingbufferCursorSerializer extends VersionedStreamSerializer<RingbufferCursor> {
+    public static final int VERSION = 1;
+    
+    public RingbufferCursorSerializer() {
+        super(RingbufferSerializers.RINGBUFFER_CURSOR_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, RingbufferCursor cursor) throws IOException {
+        out.writeLong(cursor.getReserved());
+        out.writeLong(cursor.getNextSequence());
+        out.writeInt(cursor.getGeneration());
+        Map<String,TreeMap<Long,RingbufferCursor.ClaimedRange>> claims = cursor.getClaims();
+        out.writeInt(claims.size());
+        for (Map.Entry<String,TreeMap<Long,RingbufferCursor.ClaimedRange>> entry : claims.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (RingbufferCursor.ClaimedRange range : entry.getValue().values()) {
+                out.writeLong(range.getFrom());
+                out.writeLong(range.getTo());
+                out.writeLong(range.getClaimedMillis());
+            }
+        }
+        TreeMap<Long,Long> redeliveries = cursor.getRedeliveries();
+        out.writeInt(redeliveries.size());
+        for (Map.Entry<Long,Long> entry : redeliveries.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+    
+    @Override
+    protected RingbufferCursor readData(ObjectDataInput in, byte version) throws IOException {
+        RingbufferCursor cursor = new RingbufferCursor(in.readLong(), in.readLong(), in.readInt());
+        int listeners = in.readInt();
+        for (int i = 0; i < listeners; i++) {
+            String listenerId = in.readString();
+            int ranges = in.readInt();
+            for (int j = 0; j < ranges; j++) {
+                cursor.addClaim(listenerId, in.readLong(), in.readLong(), in.readLong());
+            }
+        }
+        int redeliveries = in.readInt();
+        for (int i = 0; i < redeliveries; i++) {
+            cursor.addRedelivery(in.readLong(), in.readLong());
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,47 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+
+/**
+ * The compact serializers for the ringbuffer cursors and the operations applied to them. These must be registered on every Hazelcast member and client which
+ * uses the ringbuffer backend, since the entry processors run on the member which owns each cursor.
+ */
+public class RingbufferSerializers {
+    public static final int RINGBUFFER_CURSOR_TYPE_ID = 7411;
+    public static final int RINGBUFFER_CURSOR_ENTRY_PROCESSOR_TYPE_ID = 7412;
+    public static final int RINGBUFFER_CLAIM_TYPE_ID = 7413;
+    
+    private RingbufferSerializers() {}
+    
+    /**
+     * Get the serializer configurations for the ringbuffer cursors
+     *
+     * @return the serializer configurations
+     */
+    public static List<SerializerConfig> getSerializerConfigs() {
+        // @formatter:off
+        return Arrays.asList(
+                new SerializerConfig().setTypeClass(RingbufferCursor.class).setImplementation(new RingbufferCursorSerializer()),
+                new SerializerConfig().setTypeClass(RingbufferCursorEntryProcessor.class).setImplementation(new RingbufferCursorEntryProcessorSerializer()),
+                new SerializerConfig().setTypeClass(RingbufferClaim.class).setImplementation(new RingbufferClaimSerializer()));
+        // @formatter:on
+    }
+    
+    /**
+     * Register the ringbuffer serializers with a Hazelcast member or client serialization config
+     *
+     * @param serializationConfig
+     *            the serialization config
+     * @return the serialization config
+     */
+    public static SerializationConfig register(SerializationConfig serializationConfig) {
+        for (SerializerConfig serializerConfig : getSerializerConfigs()) {
+            serializationConfig.addSerializerConfig(serializerConfig);
+        }
+        return serializationConfig;
+    }
+}
@@ -4,62 +4,91 @@ import static datawave.microservice.query.messaging.AcknowledgementCallback.Stat
 import static datawave.microservice.query.messaging.AcknowledgementCallback.Status.NACK;
 import static datawave.microservice.query.messaging.kafka.KafkaQueryResultsManager.TOPIC_PREFIX;
 
-import java.util.concurrent.CountDownLatch;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.listener.AbstractMessageListenerContainer;
 import org.springframework.kafka.listener.AcknowledgingMessageListener;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.KafkaMessageListenerContainer;
 import org.springframework.kafka.support.Acknowledgment;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.kafka.support.TopicPartitionOffset;
 
 import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.AcknowledgementTracker;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
 
 /**
- * A listener for Kafka Query Results
+ * A listener for Kafka Query Results. When reading from a per-query topic the listener subscribes to the topic with the query's consumer group. When reading
+ * from a shared topic it is assigned the query's partition directly instead, so that it neither fetches the partitions of other queries nor triggers a
+ * rebalance of the group. The group's committed offsets are still used, but since an assigned partition is not shared out among the group only one listener
+ * should be reading a query's results at a time.
  */
-class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMessageListener<String,String> {
+class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMessageListener<String,byte[]> {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     private final LinkedBlockingQueue<Result> resultQueue = new LinkedBlockingQueue<>();
-    private final AbstractMessageListenerContainer<String,String> container;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Result,Delivery> deliveries = new ConcurrentHashMap<>();
+    private final AcknowledgementTracker<TopicPartition,Delivery> acknowledgementTracker = new AcknowledgementTracker<>();
+    private final AbstractMessageListenerContainer<String,byte[]> container;
+    private final ResultCodec resultCodec;
     private final String queryId;
-    private boolean stopped = false;
+    private final int maxUnacknowledgedRecords;
+    
+    // when reading from a shared topic, records which are not keyed by our query id belong to other queries
+    private final boolean filterByKey;
+    private volatile boolean stopped = false;
     
-    public KafkaQueryResultsListener(MessagingProperties messagingProperties, ConsumerFactory<String,String> kafkaConsumerFactory, String listenerId,
-                    String queryId) {
+    public KafkaQueryResultsListener(MessagingProperties messagingProperties, ConsumerFactory<String,byte[]> kafkaConsumerFactory,
+                    ResultCodec resultCodec, String listenerId, String queryId, String topic, TopicPartition assignedPartition, boolean filterByKey) {
         if (log.isTraceEnabled()) {
             log.trace("Creating kafka query results listener for " + queryId + " with listenerId " + listenerId);
         }
         this.queryId = queryId;
-        ContainerProperties containerProps = new ContainerProperties(TOPIC_PREFIX + queryId);
+        this.resultCodec = resultCodec;
+        this.maxUnacknowledgedRecords = messagingProperties.getKafka().getMaxUnacknowledgedRecords();
+        this.filterByKey = filterByKey;
+        ContainerProperties containerProps;
+        if (assignedPartition != null) {
+            containerProps = new ContainerProperties(new TopicPartitionOffset(assignedPartition.topic(), assignedPartition.partition()));
+        } else {
+            containerProps = new ContainerProperties(topic);
+        }
         containerProps.setClientId(listenerId);
         
-        // use the topicId (i.e. queryId) as the groupId. this makes it possible
-        // to get the size of the queue later on using just the query id
+        // use the per-query topic name (i.e. TOPIC_PREFIX + queryId) as the groupId, even when reading from a shared topic.
+        // this makes it possible to get the size of the queue later on using just the query id
         containerProps.setGroupId(TOPIC_PREFIX + queryId);
         
         containerProps.setMessageListener(this);
-        containerProps.setAckMode(ContainerProperties.AckMode.MANUAL_IMMEDIATE);
+        // records are acknowledged from the caller's thread, so the container queues the acks and commits them asynchronously between polls
+        containerProps.setAckMode(ContainerProperties.AckMode.MANUAL);
+        containerProps.setSyncCommits(false);
         containerProps.setPollTimeout(messagingProperties.getKafka().getPollTimeoutMillis());
         containerProps.setIdleBetweenPolls(messagingProperties.getKafka().getIdleBetweenPollsMillis());
+        containerProps.setConsumerRebalanceListener(new RevocationListener());
         
         if (messagingProperties.getConcurrency() > 1) {
-            ConcurrentMessageListenerContainer<String,String> concurrentContainer = new ConcurrentMessageListenerContainer<>(kafkaConsumerFactory,
+            ConcurrentMessageListenerContainer<String,byte[]> concurrentContainer = new ConcurrentMessageListenerContainer<>(kafkaConsumerFactory,
                             containerProps);
             concurrentContainer.setConcurrency(messagingProperties.getConcurrency());
             container = concurrentContainer;
@@ -121,6 +150,75 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
         return result;
     }
     
+    @Override
+    public List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        List<Result> results = new ArrayList<>();
+        try {
+            Result result = resultQueue.poll(interval, timeUnit);
+            if (result != null) {
+                results.add(result);
+                resultQueue.drainTo(results, maxResults - 1);
+            }
+        } catch (InterruptedException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Interrupted while waiting for query results");
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Acknowledges a batch of results with a single offset commit per partition. Results may be acknowledged in any order, and the committed offset for a
+     * partition advances once every earlier record in that partition has been acknowledged. Results which were not received from this listener, or which
+     * have already been acknowledged, are ignored.
+     *
+     * @param results
+     *            The results to acknowledge
+     * @param status
+     *            The acknowledgement status
+     */
+    @Override
+    public void acknowledge(Collection<Result> results, AcknowledgementCallback.Status status) {
+        Map<TopicPartition,Delivery> watermarks = new HashMap<>();
+        for (Result result : results) {
+            if (status == ACK) {
+                Delivery delivery = deliveries.remove(result);
+                if (delivery != null) {
+                    Delivery watermark = acknowledgementTracker.acknowledge(delivery.partition, delivery.offset);
+                    if (watermark != null) {
+                        watermarks.put(delivery.partition, watermark);
+                    }
+                }
+            } else if (deliveries.containsKey(result)) {
+                // a nack can't seek the partition from this thread, so the record is either redelivered locally, or left uncommitted so that it will be
+                // redelivered to another consumer once this container stops
+                synchronized (resultQueue) {
+                    if (!stopped) {
+                        resultQueue.add(result);
+                        if (log.isTraceEnabled()) {
+                            log.trace("Query {} Requeueing record {} because the record was rejected", queryId, result.getId());
+                        }
+                    } else {
+                        deliveries.remove(result);
+                    }
+                }
+            }
+        }
+        
+        // committing the offset of the watermark record also commits every record before it in the partition
+        for (Delivery watermark : watermarks.values()) {
+            watermark.acknowledgment.acknowledge();
+            if (log.isTraceEnabled()) {
+                log.trace("Query {} Acking records from topic {} and partition {} through offset {}", queryId, watermark.partition.topic(),
+                                watermark.partition.partition(), watermark.offset);
+            }
+        }
+        
+        if (container.isPauseRequested() && deliveries.size() < maxUnacknowledgedRecords) {
+            container.resume();
+        }
+    }
+    
     /**
      * Invoked with data from kafka. The default implementation throws {@link UnsupportedOperationException}.
      *
@@ -130,18 +228,19 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
      *            the acknowledgment.
      */
     @Override
-    public void onMessage(ConsumerRecord<String,String> data, final Acknowledgment acknowledgment) {
-        if (!stopped) {
+    public void onMessage(ConsumerRecord<String,byte[]> data, final Acknowledgment acknowledgment) {
+        if (filterByKey && !queryId.equals(data.key())) {
+            skip(data, acknowledgment);
+        } else if (!stopped) {
             if (log.isTraceEnabled()) {
                 log.trace("Query " + queryId + " Listener " + getListenerId() + " got message " + data.key());
             }
             
-            Result result;
-            final CountDownLatch latch = new CountDownLatch(1);
-            final AtomicReference<AcknowledgementCallback.Status> ackStatus = new AtomicReference<>();
+            final Result result;
+            final Delivery delivery = new Delivery(new TopicPartition(data.topic(), data.partition()), data.offset(), acknowledgment);
             String resultId = null;
             try {
-                result = objectMapper.readerFor(Result.class).readValue(data.value());
+                result = resultCodec.decode(data.value());
                 resultId = result.getId();
                 
                 if (log.isTraceEnabled()) {
@@ -149,11 +248,8 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
                                     data.offset());
                 }
                 
-                result.setAcknowledgementCallback(status -> {
-                    ackStatus.set(status);
-                    latch.countDown();
-                });
-            } catch (JsonProcessingException e) {
+                result.setAcknowledgementCallback(status -> acknowledge(Collections.singletonList(result), status));
+            } catch (IOException e) {
                 acknowledgment.nack(0);
                 if (log.isTraceEnabled()) {
                     log.trace("Query {} Nacking record from topic {} and partition {} at offset {} because the result could not be deserialized", queryId,
@@ -162,6 +258,9 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
                 throw new RuntimeException("Unable to deserialize results for " + queryId, e);
             }
             
+            deliveries.put(result, delivery);
+            acknowledgementTracker.delivered(delivery.partition, delivery.offset, delivery);
+            
             // add the result if we're still running, otherwise nack it right away
             synchronized (resultQueue) {
                 if (!stopped) {
@@ -172,26 +271,11 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
                 }
             }
             
-            try {
-                latch.await();
-                if (ackStatus.get() == ACK) {
-                    acknowledgment.acknowledge();
-                    if (log.isTraceEnabled()) {
-                        log.trace("Query {} Acking record {} from topic {} and partition {} at offset {}", queryId, resultId, data.topic(), data.partition(),
-                                        data.offset());
-                    }
-                } else if (ackStatus.get() == NACK) {
-                    acknowledgment.nack(0);
-                    if (log.isTraceEnabled()) {
-                        log.trace("Query {} Nacking record {} from topic {} and partition {} at offset {} because the record was rejected", queryId, resultId,
-                                        data.topic(), data.partition(), data.offset());
-                    }
-                }
-            } catch (InterruptedException ie) {
-                acknowledgment.nack(0);
+            // the consumer thread doesn't wait for the result to be acknowledged, so stop polling once too many records are unacknowledged
+            if (deliveries.size() >= maxUnacknowledgedRecords && !container.isPauseRequested()) {
+                container.pause();
                 if (log.isTraceEnabled()) {
-                    log.trace("Query {} Nacking record {} from topic {} and partition {} at offset {} because the latch was interrupted", queryId, resultId,
-                                    data.topic(), data.partition(), data.offset());
+                    log.trace("Query {} Listener {} paused with {} unacknowledged records", queryId, getListenerId(), maxUnacknowledgedRecords);
                 }
             }
         } else {
@@ -202,4 +286,80 @@ class KafkaQueryResultsListener implements QueryResultsListener, AcknowledgingMe
             }
         }
     }
+    
+    /**
+     * Passes over a record which belongs to another query. The record is settled right away, and its offset is committed as soon as every earlier record for
+     * this query in the partition has been acknowledged. It is not counted towards the unacknowledged records which pause the container.
+     *
+     * @param data
+     *            the record to skip
+     * @param acknowledgment
+     *            the acknowledgment
+     */
+    private void skip(ConsumerRecord<String,byte[]> data, Acknowledgment acknowledgment) {
+        TopicPartition partition = new TopicPartition(data.topic(), data.partition());
+        Delivery watermark = acknowledgementTracker.settled(partition, data.offset(), new Delivery(partition, data.offset(), acknowledgment));
+        if (watermark != null) {
+            watermark.acknowledgment.acknowledge();
+        }
+    }
+    
+    /**
+     * Forgets the records from partitions which are no longer assigned to this listener. Those records will be redelivered to whichever consumer the partition
+     * was assigned to, so they are removed from the result queue, and any that were already received are no longer tracked. Otherwise they would be counted
+     * as unacknowledged forever and hold the container paused.
+     *
+     * @param partitions
+     *            the revoked partitions
+     */
+    private void revoked(Collection<TopicPartition> partitions) {
+        if (partitions.isEmpty()) {
+            return;
+        }
+        
+        synchronized (resultQueue) {
+            deliveries.entrySet().removeIf(entry -> {
+                if (partitions.contains(entry.getValue().partition)) {
+                    resultQueue.remove(entry.getKey());
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (TopicPartition partition : partitions) {
+            acknowledgementTracker.discardAll(partition);
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Query {} Listener {} discarded the records for revoked partitions {}", queryId, getListenerId(), partitions);
+        }
+        
+        if (container.isPauseRequested() && deliveries.size() < maxUnacknowledgedRecords) {
+            container.resume();
+        }
+    }
+    
+    private class RevocationListener implements ConsumerAwareRebalanceListener {
+        @Override
+        public void onPartitionsRevokedAfterCommit(Consumer<?,?> consumer, Collection<TopicPartition> partitions) {
+            revoked(partitions);
+        }
+        
+        @Override
+        public void onPartitionsLost(Consumer<?,?> consumer, Collection<TopicPartition> partitions) {
+            revoked(partitions);
+        }
+    }
+    
+    private static class Delivery {
+        private final TopicPartition partition;
+        private final long offset;
+        private final Acknowledgment acknowledgment;
+        
+        private Delivery(TopicPartition partition, long offset, Acknowledgment acknowledgment) {
+            this.partition = partition;
+            this.offset = offset;
+            this.acknowledgment = acknowledgment;
+        }
+    }
 }
@@ -1,17 +1,25 @@
 package datawave.microservice.query.messaging.kafka;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.DeleteRecordsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
 import org.apache.kafka.clients.admin.RecordsToDelete;
 import org.apache.kafka.clients.admin.TopicDescription;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.config.TopicBuilder;
@@ -19,29 +27,56 @@ import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
 
+import datawave.microservice.query.messaging.PublishWindow;
+import datawave.microservice.query.messaging.PublisherPool;
+import datawave.microservice.query.messaging.QueryPreparer;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.QueryResultsManager;
 import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 
-public class KafkaQueryResultsManager implements QueryResultsManager {
+/**
+ * A query results manager backed by Kafka. By default each query gets its own topic, which is created on demand and deleted with the query. Alternatively,
+ * results may be published to a fixed pool of shared topics, which avoids creating and deleting topics on the query path. In that case each query is hashed to
+ * a single partition of one of the shared topics, its results are keyed by query id, and its listeners are assigned that partition and skip over the records of
+ * any other queries which share it.
+ * <p>
+ * The topics which this manager has prepared are remembered, so that only the first publisher or listener for a query has to wait on the admin client.
+ * Per-query topics are forgotten when the query is deleted. When using shared topics, each query's consumer group is seeded with the end offset of its
+ * partition once, when the query is created, and is never moved forward after that other than to empty the query. The executor threads publishing for a query
+ * share a pooled publisher.
+ */
+public class KafkaQueryResultsManager implements QueryResultsManager, AutoCloseable {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     public static final String KAFKA = "kafka";
     
     static final String TOPIC_PREFIX = "queryResults.";
+    static final String SHARED_TOPIC_PREFIX = TOPIC_PREFIX + "shared.";
     
     private final MessagingProperties messagingProperties;
     private final AdminClient adminClient;
-    private final ProducerFactory<String,String> kafkaProducerFactory;
-    private final ConsumerFactory<String,String> kafkaConsumerFactory;
+    private final ProducerFactory<String,byte[]> kafkaProducerFactory;
+    private final ConsumerFactory<String,byte[]> kafkaConsumerFactory;
+    private final ResultCodec resultCodec;
+    private final PublisherPool publisherPool;
+    private final QueryPreparer queryPreparer;
+    
+    private final Set<String> createdTopics = ConcurrentHashMap.newKeySet();
+    private final Map<String,Integer> sharedTopicPartitionCounts = new ConcurrentHashMap<>();
     
     public KafkaQueryResultsManager(MessagingProperties messagingProperties, AdminClient queryKafkaAdminClient,
-                    ProducerFactory<String,String> queryKafkaProducerFactory, ConsumerFactory<String,String> queryKafkaConsumerFactory) {
+                    ProducerFactory<String,byte[]> queryKafkaProducerFactory, ConsumerFactory<String,byte[]> queryKafkaConsumerFactory,
+                    ResultCodec resultCodec, MeterRegistry meterRegistry) {
         this.messagingProperties = messagingProperties;
         this.adminClient = queryKafkaAdminClient;
         this.kafkaProducerFactory = queryKafkaProducerFactory;
         this.kafkaConsumerFactory = queryKafkaConsumerFactory;
+        this.resultCodec = resultCodec;
+        this.publisherPool = new PublisherPool(KAFKA, this::newPublisher, messagingProperties.getPublisherIdleTimeoutMillis(), meterRegistry);
+        this.queryPreparer = new QueryPreparer(KAFKA, messagingProperties.getPreparerThreads());
     }
     
     /**
@@ -53,12 +88,15 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
      */
     @Override
     public QueryResultsListener createListener(String listenerId, String queryId) {
-        createTopic(TOPIC_PREFIX + queryId);
-        return new KafkaQueryResultsListener(messagingProperties, kafkaConsumerFactory, listenerId, queryId);
+        String topic = prepareTopic(queryId);
+        TopicPartition partition = (isUseSharedTopics() ? getSharedTopicPartition(queryId) : null);
+        return new KafkaQueryResultsListener(messagingProperties, kafkaConsumerFactory, resultCodec, listenerId, queryId, topic, partition,
+                        isUseSharedTopics());
     }
     
     /**
-     * Create a publisher for a specific query id.
+     * Get a publisher for a specific query id. The publisher is shared with any other callers publishing for the same query, and must be closed when the
+     * caller is done with it.
      *
      * @param queryId
      *            The query ID to publish to
@@ -66,10 +104,50 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
      */
     @Override
     public QueryResultsPublisher createPublisher(String queryId) {
-        createTopic(TOPIC_PREFIX + queryId);
-        KafkaTemplate<String,String> kafkaTemplate = new KafkaTemplate<>(kafkaProducerFactory);
-        kafkaTemplate.setDefaultTopic(TOPIC_PREFIX + queryId);
-        return new KafkaQueryResultsPublisher(kafkaTemplate);
+        return publisherPool.acquire(queryId);
+    }
+    
+    private QueryResultsPublisher newPublisher(String queryId) {
+        String topic = prepareTopic(queryId);
+        KafkaTemplate<String,byte[]> kafkaTemplate = new KafkaTemplate<>(kafkaProducerFactory);
+        kafkaTemplate.setDefaultTopic(topic);
+        
+        String key = null;
+        Integer partition = null;
+        if (isUseSharedTopics()) {
+            key = queryId;
+            partition = partitionFor(queryId, kafkaTemplate.partitionsFor(topic).size());
+        }
+        return new KafkaQueryResultsPublisher(kafkaTemplate, resultCodec, new PublishWindow(messagingProperties.getPublishWindowSize()), key, partition);
+    }
+    
+    /**
+     * Create the topic for a query in the background. If the query is deleted in the meantime then the topic is not created, or is deleted again.
+     *
+     * @param queryId
+     *            the query ID
+     * @return a future which completes when the topic has been prepared
+     */
+    @Override
+    public CompletableFuture<Void> prepareQuery(String queryId) {
+        return queryPreparer.prepare(queryId, () -> prepareTopic(queryId), () -> deleteQueryResources(queryId));
+    }
+    
+    /**
+     * When using shared topics, create the query's shared topic and seed its consumer group with the current end offset of the query's partition, so that
+     * its listeners don't read the shared partition from the beginning. This runs when the query is created, before any of its tasks are dispatched, so none
+     * of its results can have been published yet. A group which already has a committed offset is left alone, since its partition may already hold the
+     * query's results.
+     *
+     * @param queryId
+     *            the query ID
+     */
+    @Override
+    public void initializeQuery(String queryId) {
+        if (isUseSharedTopics()) {
+            createTopic(getSharedTopic(queryId), messagingProperties.getKafka().getSharedTopicPartitions());
+            initializeConsumerGroup(queryId);
+        }
     }
     
     /**
@@ -80,7 +158,19 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
      */
     @Override
     public void deleteQuery(String queryId) {
-        deleteTopic(TOPIC_PREFIX + queryId);
+        queryPreparer.deleted(queryId);
+        publisherPool.evict(queryId);
+        deleteQueryResources(queryId);
+    }
+    
+    private void deleteQueryResources(String queryId) {
+        if (isUseSharedTopics()) {
+            // the shared topic lives on, and the query's remaining records will age out with the topic's retention
+            deleteConsumerGroup(TOPIC_PREFIX + queryId);
+        } else {
+            createdTopics.remove(TOPIC_PREFIX + queryId);
+            deleteTopic(TOPIC_PREFIX + queryId);
+        }
     }
     
     private void deleteTopic(String topic) {
@@ -99,14 +189,50 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
         }
     }
     
-    private void createTopic(String topic) {
+    private void deleteConsumerGroup(String groupId) {
+        try {
+            // @formatter:off
+            adminClient
+                    .deleteConsumerGroups(Collections.singleton(groupId))
+                    .all()
+                    .get();
+            // @formatter:on
+        } catch (InterruptedException | ExecutionException e) {
+            log.debug("Failed to delete consumer group " + groupId, e);
+        }
+    }
+    
+    /**
+     * Ensure that the topic for a query exists
+     *
+     * @param queryId
+     *            the query id
+     * @return the topic name
+     */
+    private String prepareTopic(String queryId) {
+        String topic;
+        if (isUseSharedTopics()) {
+            topic = getSharedTopic(queryId);
+            createTopic(topic, messagingProperties.getKafka().getSharedTopicPartitions());
+        } else {
+            topic = TOPIC_PREFIX + queryId;
+            createTopic(topic, messagingProperties.getKafka().getPartitions());
+        }
+        return topic;
+    }
+    
+    private void createTopic(String topic, int partitions) {
+        if (createdTopics.contains(topic)) {
+            return;
+        }
+        
         try {
             if (!adminClient.listTopics().names().get().contains(topic)) {
                 // @formatter:off
                 adminClient
                         .createTopics(Collections.singleton(TopicBuilder
                                 .name(topic)
-                                .partitions(messagingProperties.getKafka().getPartitions())
+                                .partitions(partitions)
                                 .replicas(messagingProperties.getKafka().getReplicas())
                                 .build()))
                         .values()
@@ -114,15 +240,52 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
                         .get();
                 // @formatter:on
             }
+            createdTopics.add(topic);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TopicExistsException) {
+                // another publisher or listener created it first
+                createdTopics.add(topic);
+            } else {
+                log.error("Failed to create topic " + topic, e);
+            }
+        } catch (InterruptedException e) {
+            log.error("Failed to create topic " + topic, e);
+        }
+    }
+    
+    /**
+     * Commit the current end offset of a query's shared topic partition for its new consumer group. If this fails, the listeners fall back on the configured
+     * auto offset reset, and will still only return the results for their own query.
+     *
+     * @param queryId
+     *            the query id
+     */
+    private void initializeConsumerGroup(String queryId) {
+        String groupId = TOPIC_PREFIX + queryId;
+        TopicPartition partition = getSharedTopicPartition(queryId);
+        if (partition == null) {
+            log.warn("Unable to initialize offsets for consumer group " + groupId + " because its shared topic could not be described");
+            return;
+        }
+        
+        try {
+            if (adminClient.listConsumerGroupOffsets(groupId).partitionsToOffsetAndMetadata().get().isEmpty()) {
+                long endOffset = adminClient.listOffsets(Collections.singletonMap(partition, OffsetSpec.latest())).partitionResult(partition).get().offset();
+                adminClient.alterConsumerGroupOffsets(groupId, Collections.singletonMap(partition, new OffsetAndMetadata(endOffset))).all().get();
+            }
         } catch (InterruptedException | ExecutionException e) {
-            log.error("Failed to delete topic " + topic, e);
+            log.warn("Unable to initialize offsets for consumer group " + groupId, e);
         }
     }
     
     @Override
     public void emptyQuery(String name) {
-        emptyTopic(TOPIC_PREFIX + name);
-        
+        if (isUseSharedTopics()) {
+            // the records can't be deleted from a shared topic, so skip the group past them instead
+            skipToEnd(name);
+        } else {
+            emptyTopic(TOPIC_PREFIX + name);
+        }
     }
     
     private void emptyTopic(String topic) {
@@ -143,30 +306,64 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
         }
     }
     
+    private void skipToEnd(String queryId) {
+        String groupId = TOPIC_PREFIX + queryId;
+        TopicPartition partition = getSharedTopicPartition(queryId);
+        if (partition != null) {
+            try {
+                long endOffset = adminClient.listOffsets(Collections.singletonMap(partition, OffsetSpec.latest())).partitionResult(partition).get().offset();
+                adminClient.alterConsumerGroupOffsets(groupId, Collections.singletonMap(partition, new OffsetAndMetadata(endOffset))).all().get();
+            } catch (InterruptedException | ExecutionException e) {
+                // offsets can't be altered while the group has active listeners
+                log.debug("Unable to empty query for consumer group " + groupId, e);
+            }
+        }
+    }
+    
+    /**
+     * Get the number of results left to be consumed for a query. When using shared topics, this is the lag of the query's partition, which is an upper bound
+     * since it includes the records of any other queries which share the partition.
+     *
+     * @param queryId
+     *            The query Id
+     * @return the number of remaining results
+     */
     @Override
     public int getNumResultsRemaining(final String queryId) {
-        return getNumResultsRemainingFromTopic(TOPIC_PREFIX + queryId);
+        if (isUseSharedTopics()) {
+            TopicPartition partition = getSharedTopicPartition(queryId);
+            if (partition == null) {
+                return 0;
+            }
+            return getNumResultsRemainingFromGroup(TOPIC_PREFIX + queryId, Collections.singleton(partition));
+        }
+        return getNumResultsRemainingFromGroup(TOPIC_PREFIX + queryId, null);
     }
     
-    private int getNumResultsRemainingFromTopic(final String topic) {
+    private int getNumResultsRemainingFromGroup(final String groupId, final Set<TopicPartition> partitions) {
         Map<TopicPartition,Long> consumerOffsetMap = new HashMap<>();
         try {
             // @formatter:off
             adminClient
-                    .listConsumerGroupOffsets(topic)
+                    .listConsumerGroupOffsets(groupId)
                     .partitionsToOffsetAndMetadata()
                     .get()
-                    .forEach((key, value) -> consumerOffsetMap.putIfAbsent(new TopicPartition(key.topic(), key.partition()), value.offset()));
+                    .forEach((key, value) -> {
+                        TopicPartition partition = new TopicPartition(key.topic(), key.partition());
+                        if (partitions == null || partitions.contains(partition)) {
+                            consumerOffsetMap.putIfAbsent(partition, value.offset());
+                        }
+                    });
             // @formatter:on
         } catch (InterruptedException | ExecutionException e) {
-            log.warn("Unable to list consumer group offsets " + topic, e);
+            log.warn("Unable to list consumer group offsets " + groupId, e);
         }
         
         long combinedLag = 0L;
         if (!consumerOffsetMap.isEmpty()) {
             Map<TopicPartition,Long> endOffsetMap = new HashMap<>();
             
-            try (Consumer<String,String> consumer = kafkaConsumerFactory.createConsumer()) {
+            try (Consumer<String,byte[]> consumer = kafkaConsumerFactory.createConsumer()) {
                 // @formatter:off
                 consumer.endOffsets(consumerOffsetMap.keySet())
                         .forEach((key, value) -> endOffsetMap.putIfAbsent(new TopicPartition(key.topic(), key.partition()), value));
@@ -201,4 +398,62 @@ public class KafkaQueryResultsManager implements QueryResultsManager {
         }
         return topicDesc;
     }
+    
+    /**
+     * Close the pooled publishers, and stop preparing queries
+     */
+    @Override
+    public void close() {
+        queryPreparer.close();
+        publisherPool.close();
+    }
+    
+    private boolean isUseSharedTopics() {
+        return messagingProperties.getKafka().isUseSharedTopics();
+    }
+    
+    /**
+     * Get the shared topic for a query
+     *
+     * @param queryId
+     *            the query id
+     * @return the shared topic name
+     */
+    String getSharedTopic(String queryId) {
+        return SHARED_TOPIC_PREFIX + Math.floorMod(queryId.hashCode(), messagingProperties.getKafka().getSharedTopicCount());
+    }
+    
+    /**
+     * Get the partition of the shared topic which holds a query's results. The number of partitions in each shared topic is only looked up once.
+     *
+     * @param queryId
+     *            the query id
+     * @return the partition, or null if the shared topic could not be described
+     */
+    private TopicPartition getSharedTopicPartition(String queryId) {
+        String topic = getSharedTopic(queryId);
+        Integer numPartitions = sharedTopicPartitionCounts.get(topic);
+        if (numPartitions == null) {
+            TopicDescription topicDesc = describeTopic(topic);
+            if (topicDesc == null) {
+                return null;
+            }
+            numPartitions = topicDesc.partitions().size();
+            sharedTopicPartitionCounts.put(topic, numPartitions);
+        }
+        return new TopicPartition(topic, partitionFor(queryId, numPartitions));
+    }
+    
+    /**
+     * Get the partition of a shared topic for a query, using the same hash as the default kafka partitioner
+     *
+     * @param queryId
+     *            the query id
+     * @param numPartitions
+     *            the number of partitions in the shared topic
+     * @return the partition
+     */
+    static int partitionFor(String queryId, int numPartitions) {
+        return Utils.toPositive(Utils.murmur2(queryId.getBytes(StandardCharsets.UTF_8))) % numPartitions;
+    }
 }
@@ -1,62 +1,132 @@
 package datawave.microservice.query.messaging.kafka;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.integration.support.MessageBuilder;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.support.SendResult;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import datawave.microservice.query.messaging.PublishWindow;
 import datawave.microservice.query.messaging.QueryResultsPublisher;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 
 class KafkaQueryResultsPublisher implements QueryResultsPublisher {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
-    private final KafkaTemplate<String,String> kafkaTemplate;
+    private final KafkaTemplate<String,byte[]> kafkaTemplate;
+    
+    // tracks the results awaiting a send result, which may be shared by multiple executor threads
+    private final PublishWindow publishWindow;
     
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ResultCodec resultCodec;
     
-    public KafkaQueryResultsPublisher(KafkaTemplate<String,String> kafkaTemplate) {
+    // when publishing to a shared topic, every result is keyed by the query id and sent to the query's partition
+    private final String key;
+    private final Integer partition;
+    
+    public KafkaQueryResultsPublisher(KafkaTemplate<String,byte[]> kafkaTemplate, ResultCodec resultCodec, PublishWindow publishWindow, String key,
+                    Integer partition) {
         this.kafkaTemplate = kafkaTemplate;
+        this.resultCodec = resultCodec;
+        this.publishWindow = publishWindow;
+        this.key = key;
+        this.partition = partition;
     }
     
     @Override
     public boolean publish(Result result, long interval, TimeUnit timeUnit) {
-        if (log.isDebugEnabled()) {
-            log.debug("Publishing message to " + kafkaTemplate.getDefaultTopic());
-        }
+        return publish(Collections.singletonList(result), interval, timeUnit);
+    }
+    
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        long deadline = PublishWindow.deadline(interval, timeUnit);
         
         boolean success = false;
+        List<CompletableFuture<Boolean>> acks = send(results, deadline);
         try {
-            // @formatter:off
-            SendResult<String,String> sendResult = kafkaTemplate
-                    .send(MessageBuilder.withPayload(objectMapper.writeValueAsString(result)).build())
-                    .get(interval, timeUnit);
-            if (log.isTraceEnabled()) {
-                log.trace("Send result: " + sendResult);
-            }
-            // @formatter:on
-            success = true;
-        } catch (JsonProcessingException e) {
-            log.error("Unable to serialize result", e);
+            success = PublishWindow.allAcked(acks).get(PublishWindow.remaining(deadline), TimeUnit.MILLISECONDS);
         } catch (TimeoutException e) {
-            log.error("Timed out waiting for kafka send result", e);
+            log.error("Timed out waiting for kafka send results", e);
         } catch (InterruptedException e) {
-            log.error("Interrupted waiting for kafka send result", e);
+            log.error("Interrupted waiting for kafka send results", e);
         } catch (ExecutionException e) {
-            log.error("Execution exception waiting for kafka send result", e);
+            log.error("Execution exception waiting for kafka send results", e);
         }
         return success;
     }
     
+    @Override
+    public CompletableFuture<Boolean> publishAsync(List<Result> results) {
+        return PublishWindow.allAcked(send(results, Long.MAX_VALUE));
+    }
+    
+    /**
+     * Sends the results without waiting for the send results, blocking only while the publish window is full
+     *
+     * @param results
+     *            the results to send
+     * @param deadline
+     *            the deadline in epoch milliseconds to wait for room in the publish window
+     * @return the pending send results
+     */
+    private List<CompletableFuture<Boolean>> send(List<Result> results, long deadline) {
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing " + results.size() + " messages to " + kafkaTemplate.getDefaultTopic());
+        }
+        
+        // serialize the entire batch up front so that a bad result doesn't leave part of the batch in flight
+        List<byte[]> messages = new ArrayList<>(results.size());
+        try {
+            for (Result result : results) {
+                messages.add(resultCodec.encode(result));
+            }
+        } catch (IOException e) {
+            log.error("Unable to serialize result", e);
+            return Collections.singletonList(CompletableFuture.completedFuture(false));
+        }
+        
+        List<CompletableFuture<Boolean>> acks = new ArrayList<>(messages.size());
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                CompletableFuture<Boolean> ack = publishWindow.acquire(publishWindow.nextCorrelationId(results.get(i).getId()),
+                                PublishWindow.remaining(deadline), TimeUnit.MILLISECONDS);
+                if (ack == null) {
+                    log.error("Timed out waiting for room in the publish window");
+                    acks.add(CompletableFuture.completedFuture(false));
+                    break;
+                }
+                acks.add(ack);
+                
+                try {
+                    kafkaTemplate.sendDefault(partition, key, messages.get(i)).completable().whenComplete((sendResult, throwable) -> {
+                        if (throwable != null) {
+                            log.error("Execution exception waiting for kafka send result", throwable);
+                        } else if (log.isTraceEnabled()) {
+                            log.trace("Send result: " + sendResult);
+                        }
+                        ack.complete(throwable == null);
+                    });
+                } catch (RuntimeException e) {
+                    ack.complete(false);
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for room in the publish window", e);
+            acks.add(CompletableFuture.completedFuture(false));
+        }
+        return acks;
+    }
+    
     @Override
     public void close() throws IOException {
         kafkaTemplate.flush();
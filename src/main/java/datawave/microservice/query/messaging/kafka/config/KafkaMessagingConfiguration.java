@@ -10,8 +10,11 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
@@ -23,8 +26,11 @@ import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.kafka.core.ProducerFactory;
 
 import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
 import datawave.microservice.query.messaging.kafka.KafkaQueryResultsManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 @Configuration
 @ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = KAFKA)
@@ -33,14 +39,17 @@ public class KafkaMessagingConfiguration {
     @Bean
     public QueryResultsManager kafkaQueryResultsManager(MessagingProperties messagingProperties, @Autowired(required = false) KafkaAdmin kafkaAdmin,
                     @Autowired(required = false) ProducerFactory<String,String> kafkaProducerFactory,
-                    @Autowired(required = false) ConsumerFactory<String,String> kafkaConsumerFactory) {
+                    @Autowired(required = false) ConsumerFactory<String,String> kafkaConsumerFactory, ResultCodec resultCodec,
+                    ObjectProvider<MeterRegistry> meterRegistry) {
         Map<String,Object> kafkaConfigProps = createKafkaConfigProps(messagingProperties);
         // @formatter:off
         return new KafkaQueryResultsManager(
                 messagingProperties,
                 createAdminClient(messagingProperties, kafkaConfigProps, kafkaAdmin),
                 createProducerFactory(messagingProperties, kafkaConfigProps, kafkaProducerFactory),
-                createConsumerFactory(messagingProperties, kafkaConfigProps, kafkaConsumerFactory));
+                createConsumerFactory(messagingProperties, kafkaConfigProps, kafkaConsumerFactory),
+                resultCodec,
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
         // @formatter:on
     }
     
@@ -79,37 +88,49 @@ public class KafkaMessagingConfiguration {
         return finalClient;
     }
     
-    public ProducerFactory<String,String> createProducerFactory(MessagingProperties messagingProperties, Map<String,Object> queryKafkaConfigProps,
+    public ProducerFactory<String,byte[]> createProducerFactory(MessagingProperties messagingProperties, Map<String,Object> queryKafkaConfigProps,
                     ProducerFactory<String,String> kafkaProducerFactory) {
-        ProducerFactory<String,String> finalKafkaProducerFactory = null;
+        ProducerFactory<String,byte[]> finalKafkaProducerFactory = null;
         
+        // results are encoded by the result codec, so the shared factory's settings are reused with a binary value serializer
         if (messagingProperties.getKafka().isUseDedicatedInstance()) {
             // @formatter:off
             finalKafkaProducerFactory = new DefaultKafkaProducerFactory<>(
                     queryKafkaConfigProps,
                     new StringSerializer(),
-                    new StringSerializer());
+                    new ByteArraySerializer());
             // @formatter:on
         } else {
-            finalKafkaProducerFactory = kafkaProducerFactory;
+            // @formatter:off
+            finalKafkaProducerFactory = new DefaultKafkaProducerFactory<>(
+                    kafkaProducerFactory.getConfigurationProperties(),
+                    new StringSerializer(),
+                    new ByteArraySerializer());
+            // @formatter:on
         }
         
         return finalKafkaProducerFactory;
     }
     
-    public ConsumerFactory<String,String> createConsumerFactory(MessagingProperties messagingProperties, Map<String,Object> queryKafkaConfigProps,
+    public ConsumerFactory<String,byte[]> createConsumerFactory(MessagingProperties messagingProperties, Map<String,Object> queryKafkaConfigProps,
                     ConsumerFactory<String,String> kafkaConsumerFactory) {
-        ConsumerFactory<String,String> finalKafkaConsumerFactory = null;
+        ConsumerFactory<String,byte[]> finalKafkaConsumerFactory = null;
         
+        // results are decoded by the result codec, so the shared factory's settings are reused with a binary value deserializer
         if (messagingProperties.getKafka().isUseDedicatedInstance()) {
             // @formatter:off
             finalKafkaConsumerFactory = new DefaultKafkaConsumerFactory<>(
                     queryKafkaConfigProps,
                     new StringDeserializer(),
-                    new StringDeserializer());
+                    new ByteArrayDeserializer());
             // @formatter:on
         } else {
-            finalKafkaConsumerFactory = kafkaConsumerFactory;
+            // @formatter:off
+            finalKafkaConsumerFactory = new DefaultKafkaConsumerFactory<>(
+                    kafkaConsumerFactory.getConfigurationProperties(),
+                    new StringDeserializer(),
+                    new ByteArrayDeserializer());
+            // @formatter:on
         }
         
         return finalKafkaConsumerFactory;
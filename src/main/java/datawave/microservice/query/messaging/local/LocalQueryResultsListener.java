@@ -0,0 +1,67 @@
+package datawave.microservice.query.messaging.local;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.Result;
+
+public class LocalQueryResultsListener implements QueryResultsListener {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final LocalResultQueue queue;
+    private final String listenerId;
+    
+    private volatile boolean stopped = false;
+    
+    LocalQueryResultsListener(LocalResultQueue queue, String listenerId) {
+        this.queue = queue;
+        this.listenerId = listenerId;
+    }
+    
+    @Override
+    public String getListenerId() {
+        return listenerId;
+    }
+    
+    @Override
+    public Result receive(long interval, TimeUnit timeUnit) {
+        Result result = null;
+        if (!stopped) {
+            try {
+                result = queue.poll(interval, timeUnit);
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for query results");
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        List<Result> results = Collections.emptyList();
+        if (!stopped) {
+            try {
+                results = queue.poll(maxResults, interval, timeUnit);
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for query results");
+            }
+        }
+        return results;
+    }
+    
+    @Override
+    public boolean hasResults() {
+        return queue.hasResults();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        stopped = true;
+    }
+}
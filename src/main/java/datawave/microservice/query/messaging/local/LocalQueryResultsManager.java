@@ -0,0 +1,75 @@
+package datawave.microservice.query.messaging.local;
+
+import static datawave.microservice.query.messaging.local.LocalQueryResultsManager.LOCAL;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+
+/**
+ * An in-process query results manager for deployments where the query executors and the query service share a JVM. Each query's results are held in a bounded
+ * ring buffer and handed from publishers to listeners as objects, so there is no broker round-trip and no serialization. Results are lost if the JVM exits.
+ */
+@Component
+@ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = LOCAL)
+public class LocalQueryResultsManager implements QueryResultsManager {
+    
+    public static final String LOCAL = "local";
+    
+    private final MessagingProperties messagingProperties;
+    private final Map<String,LocalResultQueue> queues = new ConcurrentHashMap<>();
+    
+    public LocalQueryResultsManager(MessagingProperties messagingProperties) {
+        this.messagingProperties = messagingProperties;
+    }
+    
+    @Override
+    public QueryResultsListener createListener(String listenerId, String queryId) {
+        return new LocalQueryResultsListener(getOrCreateQueue(queryId), listenerId);
+    }
+    
+    @Override
+    public QueryResultsPublisher createPublisher(String queryId) {
+        return new LocalQueryResultsPublisher(getOrCreateQueue(queryId));
+    }
+    
+    private LocalResultQueue getOrCreateQueue(String queryId) {
+        return queues.computeIfAbsent(queryId, id -> new LocalResultQueue(messagingProperties.getLocal().getCapacity()));
+    }
+    
+    @Override
+    public void deleteQuery(String queryId) {
+        LocalResultQueue queue = queues.remove(queryId);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+    
+    @Override
+    public void emptyQuery(String queryId) {
+        LocalResultQueue queue = queues.get(queryId);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+    
+    /**
+     * Get the number of results left to be consumed for a query, including results which have been received but not yet acknowledged
+     *
+     * @param queryId
+     *            The query Id
+     * @return the number of remaining results
+     */
+    @Override
+    public int getNumResultsRemaining(String queryId) {
+        LocalResultQueue queue = queues.get(queryId);
+        return (queue != null) ? queue.getNumResultsRemaining() : 0;
+    }
+}
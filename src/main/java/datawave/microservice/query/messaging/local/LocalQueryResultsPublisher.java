@@ -0,0 +1,69 @@
+package datawave.microservice.query.messaging.local;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.PublishWindow;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+
+public class LocalQueryResultsPublisher implements QueryResultsPublisher {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final LocalResultQueue queue;
+    
+    LocalQueryResultsPublisher(LocalResultQueue queue) {
+        this.queue = queue;
+    }
+    
+    @Override
+    public boolean publish(Result result, long interval, TimeUnit timeUnit) {
+        boolean success = false;
+        try {
+            success = queue.offer(result.getId(), result.getPayload(), interval, timeUnit);
+        } catch (IOException e) {
+            log.error("Unable to get result payload", e);
+        } catch (InterruptedException e) {
+            log.error("Interrupted waiting for room in the local queue", e);
+        }
+        return success;
+    }
+    
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        long deadline = PublishWindow.deadline(interval, timeUnit);
+        for (Result result : results) {
+            if (!publish(result, PublishWindow.remaining(deadline), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Publishes as many of the results as there is room for immediately, and only hands the remainder off to the common fork join pool to wait for room
+     */
+    @Override
+    public CompletableFuture<Boolean> publishAsync(List<Result> results) {
+        for (int i = 0; i < results.size(); i++) {
+            if (!publish(results.get(i), 0L, TimeUnit.MILLISECONDS)) {
+                if (queue.isClosed()) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                List<Result> remaining = results.subList(i, results.size());
+                return CompletableFuture.supplyAsync(() -> publish(remaining));
+            }
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // do nothing
+    }
+}
@@ -0,0 +1,279 @@
+package datawave.microservice.query.messaging.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.Result;
+
+/**
+ * The results for a single query in the local backend. Results are handed from publishers to listeners through a {@link RingBuffer} without being serialized.
+ * The lock is only used to park publishers while the buffer is full and listeners while it is empty, and is skipped entirely when nobody is waiting.
+ * <p>
+ * Each delivered result must be acknowledged. A negatively acknowledged result is queued for redelivery ahead of the buffered results.
+ */
+class LocalResultQueue {
+    
+    private final RingBuffer<Entry> buffer;
+    
+    // results which were negatively acknowledged, and the number of them
+    private final Queue<Entry> redeliveries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numRedeliveries = new AtomicInteger();
+    
+    // results which have been delivered but not yet acknowledged, and the generation they were delivered in
+    private final AtomicInteger numUnacknowledged = new AtomicInteger();
+    private final AtomicInteger generation = new AtomicInteger();
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingListeners = new AtomicInteger();
+    private final AtomicInteger waitingPublishers = new AtomicInteger();
+    
+    private volatile boolean closed = false;
+    
+    LocalResultQueue(int capacity) {
+        this.buffer = new RingBuffer<>(capacity);
+    }
+    
+    /**
+     * Add a result to the queue, waiting for room if the queue is full
+     *
+     * @param id
+     *            the result id
+     * @param payload
+     *            the result payload
+     * @param interval
+     *            the amount of time to wait for room in the queue
+     * @param timeUnit
+     *            the time unit
+     * @return true if the result was added, false if the queue was full for the interval or has been closed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    boolean offer(String id, Object payload, long interval, TimeUnit timeUnit) throws InterruptedException {
+        Entry entry = new Entry(id, payload);
+        if (tryOffer(entry)) {
+            return true;
+        }
+        
+        long nanos = timeUnit.toNanos(interval);
+        if (nanos <= 0 || closed) {
+            return false;
+        }
+        
+        boolean added;
+        lock.lockInterruptibly();
+        waitingPublishers.incrementAndGet();
+        try {
+            // the count of waiting publishers is raised before trying again, so a listener which frees a slot after this attempt will signal us
+            while (!(added = tryOffer(entry)) && !closed && nanos > 0) {
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } finally {
+            waitingPublishers.decrementAndGet();
+            lock.unlock();
+        }
+        return added;
+    }
+    
+    private boolean tryOffer(Entry entry) {
+        if (!closed && buffer.offer(entry)) {
+            signal(waitingListeners, notEmpty);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Take the next result from the queue, waiting for one if the queue is empty
+     *
+     * @param interval
+     *            the amount of time to wait for a result
+     * @param timeUnit
+     *            the time unit
+     * @return the result, or null if no result was available within the interval or the queue has been closed
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    Result poll(long interval, TimeUnit timeUnit) throws InterruptedException {
+        Entry entry = tryPoll();
+        if (entry == null) {
+            long nanos = timeUnit.toNanos(interval);
+            if (nanos <= 0 || closed) {
+                return null;
+            }
+            
+            lock.lockInterruptibly();
+            waitingListeners.incrementAndGet();
+            try {
+                // the count of waiting listeners is raised before trying again, so a publisher which adds a result after this attempt will signal us
+                while ((entry = tryPoll()) == null && !closed && nanos > 0) {
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waitingListeners.decrementAndGet();
+                lock.unlock();
+            }
+        }
+        return (entry != null) ? deliver(entry) : null;
+    }
+    
+    /**
+     * Take up to maxResults results from the queue, waiting only for the first one
+     *
+     * @param maxResults
+     *            the maximum number of results
+     * @param interval
+     *            the amount of time to wait for the first result
+     * @param timeUnit
+     *            the time unit
+     * @return the results, which will be empty if no result was available within the interval
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    List<Result> poll(int maxResults, long interval, TimeUnit timeUnit) throws InterruptedException {
+        List<Result> results = new ArrayList<>();
+        Result result = poll(interval, timeUnit);
+        while (result != null) {
+            results.add(result);
+            if (results.size() >= maxResults) {
+                break;
+            }
+            Entry entry = tryPoll();
+            result = (entry != null) ? deliver(entry) : null;
+        }
+        return results;
+    }
+    
+    private Entry tryPoll() {
+        if (closed) {
+            return null;
+        }
+        
+        Entry entry = redeliveries.poll();
+        if (entry != null) {
+            numRedeliveries.decrementAndGet();
+        } else {
+            entry = buffer.poll();
+            if (entry != null) {
+                signal(waitingPublishers, notFull);
+            }
+        }
+        return entry;
+    }
+    
+    private Result deliver(Entry entry) {
+        numUnacknowledged.incrementAndGet();
+        Result result = new Result(entry.id, entry.payload);
+        result.setAcknowledgementCallback(new Delivery(entry, generation.get()));
+        return result;
+    }
+    
+    private void signal(AtomicInteger waiting, Condition condition) {
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                condition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of results which have not been consumed, including those which have been delivered but not yet acknowledged
+     *
+     * @return the number of results remaining
+     */
+    int getNumResultsRemaining() {
+        return buffer.size() + numRedeliveries.get() + numUnacknowledged.get();
+    }
+    
+    /**
+     * Determine whether there are results waiting to be delivered
+     *
+     * @return true if there are results waiting
+     */
+    boolean hasResults() {
+        return !buffer.isEmpty() || numRedeliveries.get() > 0;
+    }
+    
+    /**
+     * Discard the results which are waiting to be delivered. Results which are awaiting acknowledgement will not be redelivered.
+     */
+    void clear() {
+        // acknowledgements for the results delivered before now will be ignored
+        generation.incrementAndGet();
+        numUnacknowledged.set(0);
+        while (tryPoll() != null) {
+            // discard
+        }
+    }
+    
+    /**
+     * Discard the results and wake up any waiting publishers and listeners. Publishing to or polling a closed queue fails immediately.
+     */
+    void close() {
+        closed = true;
+        generation.incrementAndGet();
+        redeliveries.clear();
+        numRedeliveries.set(0);
+        numUnacknowledged.set(0);
+        
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    boolean isClosed() {
+        return closed;
+    }
+    
+    private static final class Entry {
+        private final String id;
+        private final Object payload;
+        
+        private Entry(String id, Object payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+    
+    /**
+     * Settles a single delivery of a result. Only the first acknowledgement counts, and it is ignored if the queue has been cleared since the delivery.
+     */
+    private class Delivery implements AcknowledgementCallback {
+        private final Entry entry;
+        private final int deliveryGeneration;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        
+        private Delivery(Entry entry, int deliveryGeneration) {
+            this.entry = entry;
+            this.deliveryGeneration = deliveryGeneration;
+        }
+        
+        @Override
+        public void acknowledge(Status status) {
+            if (settled.compareAndSet(false, true) && deliveryGeneration == generation.get()) {
+                if (status == Status.NACK) {
+                    numRedeliveries.incrementAndGet();
+                    redeliveries.add(entry);
+                    signal(waitingListeners, notEmpty);
+                }
+                numUnacknowledged.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package datawave.microservice.query.messaging.local;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer ring buffer. Each slot carries a sequence number which tells producers and consumers whether the slot is
+ * free or full for their lap around the ring, so that claiming a slot takes a single compare-and-set on the head or tail. Neither operation blocks, and callers
+ * are expected to wait elsewhere when the buffer is full or empty.
+ *
+ * @param <E>
+ *            the element type
+ */
+class RingBuffer<E> {
+    
+    static final int MAX_CAPACITY = 1 << 30;
+    
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    
+    // the position of the next element to consume, and of the next slot to fill
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    
+    /**
+     * Create a ring buffer
+     *
+     * @param capacity
+     *            the minimum capacity, which is rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The ring buffer capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Add an element to the buffer if there is room
+     *
+     * @param element
+     *            the element
+     * @return true if the element was added, false if the buffer is full
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    // publish the element to consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still holds the element from the previous lap
+                return false;
+            } else {
+                // another producer claimed the slot first
+                position = tail.get();
+            }
+        }
+    }
+    
+    /**
+     * Remove the next element from the buffer
+     *
+     * @return the element, or null if the buffer is empty
+     */
+    E poll() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.set(index, null);
+                    // free the slot for the producers' next lap
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // the slot has not been filled yet
+                return null;
+            } else {
+                // another consumer claimed the slot first
+                position = head.get();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of elements in the buffer. This is exact when the buffer is quiescent, and otherwise counts the slots which producers have claimed but not
+     * yet filled.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        // read the head first, since the tail is never behind the head
+        long consumed = head.get();
+        long produced = tail.get();
+        return (int) Math.min(produced - consumed, capacity());
+    }
+    
+    boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -4,10 +4,16 @@ import static datawave.microservice.query.messaging.AcknowledgementCallback.Stat
 import static datawave.microservice.query.messaging.AcknowledgementCallback.Status.NACK;
 import static datawave.microservice.query.messaging.rabbitmq.RabbitMQQueryResultsManager.QUERY_QUEUE_PREFIX;
 
-import java.util.concurrent.CountDownLatch;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,14 +25,14 @@ import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
 import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rabbitmq.client.Channel;
 
 import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.AcknowledgementTracker;
 import datawave.microservice.query.messaging.ClaimCheck;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 
 /**
  * A listener for RabbitMQ Query Results
@@ -36,17 +42,20 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
     
     private final RabbitListenerEndpointRegistry endpointRegistry;
     private final ClaimCheck claimCheck;
+    private final ResultCodec resultCodec;
     private final String listenerId;
     private final String queryId;
     
     private final LinkedBlockingQueue<Result> resultQueue = new LinkedBlockingQueue<>();
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private boolean stopped = false;
+    private final Map<Result,Delivery> deliveries = new ConcurrentHashMap<>();
+    private final AcknowledgementTracker<Channel,Delivery> acknowledgementTracker = new AcknowledgementTracker<>();
+    private volatile boolean stopped = false;
     
     public RabbitMQQueryResultsListener(DirectRabbitListenerContainerFactory listenerContainerFactory, RabbitListenerEndpointRegistry endpointRegistry,
-                    ClaimCheck claimCheck, String listenerId, String queryId) {
+                    ClaimCheck claimCheck, ResultCodec resultCodec, String listenerId, String queryId) {
         this.endpointRegistry = endpointRegistry;
         this.claimCheck = claimCheck;
+        this.resultCodec = resultCodec;
         this.listenerId = listenerId;
         this.queryId = queryId;
         
@@ -72,9 +81,12 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
     public void close() {
         stopped = true;
         
-        // nack all of the extra messages we have received
-        for (Result result : resultQueue) {
-            result.acknowledge(NACK);
+        // synchronizing on the resultQueue to ensure onMessage() does not add anymore results
+        synchronized (resultQueue) {
+            // nack all of the extra messages we have received
+            for (Result result : resultQueue) {
+                result.acknowledge(NACK);
+            }
         }
         
         MessageListenerContainer container = endpointRegistry.unregisterListenerContainer(listenerId);
@@ -103,6 +115,82 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
         return result;
     }
     
+    @Override
+    public List<Result> receive(int maxResults, long interval, TimeUnit timeUnit) {
+        List<Result> results = new ArrayList<>();
+        try {
+            Result result = resultQueue.poll(interval, timeUnit);
+            if (result != null) {
+                results.add(result);
+                resultQueue.drainTo(results, maxResults - 1);
+            }
+        } catch (InterruptedException e) {
+            if (log.isTraceEnabled()) {
+                log.trace("Interrupted while waiting for query results");
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Acknowledges a batch of results with a single multiple ack per channel. Results may be acknowledged in any order, and the multiple ack for a channel
+     * advances once every earlier delivery on that channel has been settled. Results which were not received from this listener, or which have already been
+     * acknowledged, are ignored.
+     *
+     * @param results
+     *            The results to acknowledge
+     * @param status
+     *            The acknowledgement status
+     */
+    @Override
+    public void acknowledge(Collection<Result> results, AcknowledgementCallback.Status status) {
+        Map<Channel,Delivery> watermarks = new HashMap<>();
+        for (Result result : results) {
+            Delivery delivery = deliveries.remove(result);
+            if (delivery != null) {
+                Delivery watermark;
+                if (status == ACK) {
+                    watermark = acknowledgementTracker.acknowledge(delivery.channel, delivery.deliveryTag);
+                    
+                    // a rejected result keeps its checked payload so that it can be claimed again when redelivered
+                    if (delivery.claimChecked) {
+                        claimCheck.release(queryId, result.getId());
+                    }
+                } else {
+                    // nack before any multiple ack is sent so that the multiple ack doesn't cover this delivery
+                    nack(delivery);
+                    if (log.isTraceEnabled()) {
+                        log.trace("Query {} Nacking record {} from queue {} because the record was rejected", queryId, result.getId(), queryId);
+                    }
+                    watermark = acknowledgementTracker.discard(delivery.channel, delivery.deliveryTag);
+                }
+                if (watermark != null) {
+                    watermarks.put(delivery.channel, watermark);
+                }
+            }
+        }
+        
+        // a multiple ack of the watermark delivery tag also acks every earlier delivery on the channel
+        for (Delivery watermark : watermarks.values()) {
+            try {
+                watermark.channel.basicAck(watermark.deliveryTag, true);
+                if (log.isTraceEnabled()) {
+                    log.trace("Query {} Acking records from queue {} through delivery tag {}", queryId, queryId, watermark.deliveryTag);
+                }
+            } catch (IOException e) {
+                log.error("Query {} Unable to ack records from queue {} through delivery tag {}", queryId, queryId, watermark.deliveryTag, e);
+            }
+        }
+    }
+    
+    private void nack(Delivery delivery) {
+        try {
+            delivery.channel.basicNack(delivery.deliveryTag, false, true);
+        } catch (IOException e) {
+            log.error("Query {} Unable to nack record from queue {} with delivery tag {}", queryId, queryId, delivery.deliveryTag, e);
+        }
+    }
+    
     @Override
     public void onMessage(Message message, final Channel channel) throws Exception {
         if (!stopped) {
@@ -110,35 +198,35 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
                 log.trace("Query " + queryId + " Listener " + getListenerId() + " got a message");
             }
             
-            Result result;
-            final CountDownLatch latch = new CountDownLatch(1);
-            final AtomicReference<AcknowledgementCallback.Status> ackStatus = new AtomicReference<>();
+            final Result result;
+            final Delivery delivery = new Delivery(channel, message.getMessageProperties().getDeliveryTag());
             String resultId = null;
             try {
-                result = objectMapper.readerFor(Result.class).readValue(message.getBody());
+                result = resultCodec.decode(message.getBody());
                 resultId = result.getId();
                 
-                // if the payload is null, setup a claim check
+                // if the payload is null, start claiming it now so that it's ready by the time the result is consumed
                 if (result.getPayload() == null && claimCheck != null) {
-                    result.setClaimCheckCallback(() -> claimCheck.claim(queryId));
+                    result.setClaimCheckCallback(claimCheck.prefetch(queryId, resultId));
+                    delivery.claimChecked = true;
                 }
                 
                 if (log.isTraceEnabled()) {
                     log.trace("Query {} Received record {} from queue {}", queryId, resultId, queryId);
                 }
                 
-                result.setAcknowledgementCallback(status -> {
-                    ackStatus.set(status);
-                    latch.countDown();
-                });
-            } catch (JsonProcessingException e) {
+                result.setAcknowledgementCallback(status -> acknowledge(Collections.singletonList(result), status));
+            } catch (IOException e) {
                 channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
                 if (log.isTraceEnabled()) {
-                    log.trace("Query {} Nacking record {} from queue {} because the latch was interrupted", queryId, resultId, queryId);
+                    log.trace("Query {} Nacking record {} from queue {} because it could not be decoded", queryId, resultId, queryId);
                 }
                 throw new RuntimeException("Unable to deserialize results for " + queryId, e);
             }
             
+            deliveries.put(result, delivery);
+            acknowledgementTracker.delivered(channel, delivery.deliveryTag, delivery);
+            
             // add the result if we're still running, otherwise nack it right away
             synchronized (resultQueue) {
                 if (!stopped) {
@@ -149,25 +237,7 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
                 }
             }
             
-            try {
-                latch.await();
-                if (ackStatus.get() == ACK) {
-                    channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
-                    if (log.isTraceEnabled()) {
-                        log.trace("Query {} Acking record {} from queue {}", queryId, result.getId(), queryId);
-                    }
-                } else if (ackStatus.get() == NACK) {
-                    channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
-                    if (log.isTraceEnabled()) {
-                        log.trace("Query {} Nacking record {} from queue {} because the record was rejected", queryId, result.getId(), queryId);
-                    }
-                }
-            } catch (InterruptedException e) {
-                channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
-                if (log.isTraceEnabled()) {
-                    log.trace("Query {} Nacking record {} from queue {} because the latch was interrupted", queryId, result.getId(), queryId);
-                }
-            }
+            // the result is acked or nacked when it is acknowledged, and the channel prefetch count bounds the number of unacknowledged deliveries
         } else {
             channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
             if (log.isTraceEnabled()) {
@@ -175,4 +245,15 @@ class RabbitMQQueryResultsListener extends MessageListenerAdapter implements Que
             }
         }
     }
+    
+    private static class Delivery {
+        private final Channel channel;
+        private final long deliveryTag;
+        private boolean claimChecked = false;
+        
+        private Delivery(Channel channel, long deliveryTag) {
+            this.channel = channel;
+            this.deliveryTag = deliveryTag;
+        }
+    }
 }
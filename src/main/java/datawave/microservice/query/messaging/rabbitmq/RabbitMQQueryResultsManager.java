@@ -1,5 +1,9 @@
 package datawave.microservice.query.messaging.rabbitmq;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.AmqpIOException;
@@ -15,12 +19,22 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
 
 import datawave.microservice.query.messaging.ClaimCheck;
+import datawave.microservice.query.messaging.PublishWindow;
+import datawave.microservice.query.messaging.PublisherPool;
+import datawave.microservice.query.messaging.QueryPreparer;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.QueryResultsManager;
 import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
 
-public class RabbitMQQueryResultsManager implements QueryResultsManager {
+/**
+ * A query results manager backed by RabbitMQ. Each query gets its own queue, bound to a shared topic exchange by query id. The queues which this manager has
+ * declared are remembered until the query is deleted, so that only the first publisher or listener for a query has to wait on the broker. The executor
+ * threads publishing for a query share a pooled publisher, and with it a single template and confirm callback.
+ */
+public class RabbitMQQueryResultsManager implements QueryResultsManager, AutoCloseable {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     public static final String RABBITMQ = "rabbitmq";
@@ -32,21 +46,32 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
     private final RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
     private final CachingConnectionFactory connectionFactory;
     private final ClaimCheck claimCheck;
+    private final ResultCodec resultCodec;
     
     private final RabbitAdmin rabbitAdmin;
     private final DirectRabbitListenerContainerFactory listenerContainerFactory;
+    private final PublisherPool publisherPool;
+    private final QueryPreparer queryPreparer;
+    
+    private final Set<String> createdQueues = ConcurrentHashMap.newKeySet();
+    private volatile boolean exchangeDeclared;
     
     public RabbitMQQueryResultsManager(MessagingProperties messagingProperties, RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry,
-                    CachingConnectionFactory cachingConnectionFactory, ClaimCheck claimCheck) {
+                    CachingConnectionFactory cachingConnectionFactory, ClaimCheck claimCheck, ResultCodec resultCodec, MeterRegistry meterRegistry) {
         this.messagingProperties = messagingProperties;
         this.rabbitListenerEndpointRegistry = rabbitListenerEndpointRegistry;
         this.connectionFactory = cachingConnectionFactory;
         this.claimCheck = claimCheck;
+        this.resultCodec = resultCodec;
         
         rabbitAdmin = new RabbitAdmin(cachingConnectionFactory);
         listenerContainerFactory = new DirectRabbitListenerContainerFactory();
         listenerContainerFactory.setConnectionFactory(cachingConnectionFactory);
         listenerContainerFactory.setConsumersPerQueue(messagingProperties.getConcurrency());
+        listenerContainerFactory.setPrefetchCount(messagingProperties.getRabbitmq().getPrefetchCount());
+        
+        publisherPool = new PublisherPool(RABBITMQ, this::newPublisher, messagingProperties.getPublisherIdleTimeoutMillis(), meterRegistry);
+        queryPreparer = new QueryPreparer(RABBITMQ, messagingProperties.getPreparerThreads());
     }
     
     /**
@@ -61,11 +86,12 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
     @Override
     public QueryResultsListener createListener(String listenerId, String queryId) {
         ensureQueueCreated(queryId);
-        return new RabbitMQQueryResultsListener(listenerContainerFactory, rabbitListenerEndpointRegistry, claimCheck, listenerId, queryId);
+        return new RabbitMQQueryResultsListener(listenerContainerFactory, rabbitListenerEndpointRegistry, claimCheck, resultCodec, listenerId, queryId);
     }
     
     /**
-     * Create a publisher for a specific query id.
+     * Get a publisher for a specific query id. The publisher is shared with any other callers publishing for the same query, and must be closed when the
+     * caller is done with it.
      * 
      * @param queryId
      *            The query ID to publish to
@@ -73,8 +99,13 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
      */
     @Override
     public QueryResultsPublisher createPublisher(String queryId) {
+        return publisherPool.acquire(queryId);
+    }
+    
+    private QueryResultsPublisher newPublisher(String queryId) {
         ensureQueueCreated(queryId);
-        return new RabbitMQQueryResultsPublisher(messagingProperties.getRabbitmq(), new RabbitTemplate(connectionFactory), claimCheck, queryId);
+        return new RabbitMQQueryResultsPublisher(messagingProperties.getRabbitmq(), new RabbitTemplate(connectionFactory), claimCheck, resultCodec, queryId,
+                        new PublishWindow(messagingProperties.getPublishWindowSize()));
     }
     
     /**
@@ -84,9 +115,13 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
      *            The query id to use to create the exchange and queue
      */
     private void ensureQueueCreated(String queryId) {
-        QueueInformation queueInfo = rabbitAdmin.getQueueInfo(queryId);
+        if (createdQueues.contains(queryId)) {
+            return;
+        }
+        
+        QueueInformation queueInfo = rabbitAdmin.getQueueInfo(QUERY_QUEUE_PREFIX + queryId);
         if (queueInfo == null) {
-            if (log.isInfoEnabled()) {
+            if (log.isDebugEnabled()) {
                 log.debug("Creating exchange/queue " + queryId);
             }
             
@@ -94,14 +129,42 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
             Queue queue = new Queue(QUERY_QUEUE_PREFIX + queryId, messagingProperties.getRabbitmq().isDurable(), false, false);
             Binding binding = BindingBuilder.bind(queue).to(exchange).with(queryId);
             
-            rabbitAdmin.declareExchange(exchange);
+            // the exchange is shared by all queries, so it only needs to be declared once
+            if (!exchangeDeclared) {
+                rabbitAdmin.declareExchange(exchange);
+                exchangeDeclared = true;
+            }
             rabbitAdmin.declareQueue(queue);
             rabbitAdmin.declareBinding(binding);
         }
+        createdQueues.add(queryId);
+    }
+    
+    /**
+     * Declare the queue for a query in the background. If the query is deleted in the meantime then the queue is not declared, or is deleted again.
+     *
+     * @param queryId
+     *            the query ID
+     * @return a future which completes when the queue has been declared
+     */
+    @Override
+    public CompletableFuture<Void> prepareQuery(String queryId) {
+        return queryPreparer.prepare(queryId, () -> ensureQueueCreated(queryId), () -> deleteQueue(queryId));
     }
     
     @Override
     public void deleteQuery(String queryId) {
+        queryPreparer.deleted(queryId);
+        publisherPool.evict(queryId);
+        deleteQueue(queryId);
+        
+        if (claimCheck != null) {
+            claimCheck.delete(queryId);
+        }
+    }
+    
+    private void deleteQueue(String queryId) {
+        createdQueues.remove(queryId);
         try {
             if (rabbitAdmin.getQueueInfo(QUERY_QUEUE_PREFIX + queryId) != null) {
                 rabbitAdmin.deleteQueue(QUERY_QUEUE_PREFIX + queryId);
@@ -109,10 +172,6 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
         } catch (AmqpIOException e) {
             log.error("Failed to delete queue " + queryId, e);
         }
-        
-        if (claimCheck != null) {
-            claimCheck.delete(queryId);
-        }
     }
     
     @Override
@@ -137,4 +196,13 @@ public class RabbitMQQueryResultsManager implements QueryResultsManager {
         }
         return 0;
     }
+    
+    /**
+     * Close the pooled publishers, and stop preparing queries
+     */
+    @Override
+    public void close() {
+        queryPreparer.close();
+        publisherPool.close();
+    }
 }
@@ -3,29 +3,28 @@ package datawave.microservice.query.messaging.rabbitmq;
 import static datawave.microservice.query.messaging.rabbitmq.RabbitMQQueryResultsManager.QUERY_RESULTS_EXCHANGE;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import datawave.microservice.query.messaging.ClaimCheck;
+import datawave.microservice.query.messaging.PublishWindow;
 import datawave.microservice.query.messaging.QueryResultsPublisher;
 import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.BoundedByteArrayOutputStream;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
-import datawave.microservice.query.util.GeometryDeserializer;
-import datawave.microservice.query.util.GeometrySerializer;
 
 class RabbitMQQueryResultsPublisher implements QueryResultsPublisher {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -34,107 +33,204 @@ class RabbitMQQueryResultsPublisher implements QueryResultsPublisher {
     // Reference: https://github.com/rabbitmq/rabbitmq-common/blob/v3.8.0/include/rabbit.hrl#L238
     private static final long DEFAULT_MAX_MSG_SIZE = 536870912L;
     
+    // each publishing thread reuses its own encoding buffer, but we don't hold on to the memory used by unusually large results
+    private static final int INITIAL_BUFFER_BYTES = 8192;
+    private static final int MAX_RETAINED_BUFFER_BYTES = 1048576;
+    private static final ThreadLocal<BoundedByteArrayOutputStream> ENCODE_BUFFER = ThreadLocal
+                    .withInitial(() -> new BoundedByteArrayOutputStream(INITIAL_BUFFER_BYTES));
+    
     private final MessagingProperties.RabbitMQProperties rabbitMQProperties;
     private final RabbitTemplate rabbitTemplate;
     private final ClaimCheck claimCheck;
+    private final ResultCodec resultCodec;
     private final String queryId;
     
-    private final Map<String,CountDownLatch> latchMap = new HashMap<>();
-    private final Map<String,Boolean> ackMap = new HashMap<>();
+    // tracks the results awaiting a publisher confirm, which may be shared by multiple executor threads
+    private final PublishWindow publishWindow;
     
     public RabbitMQQueryResultsPublisher(MessagingProperties.RabbitMQProperties rabbitMQProperties, RabbitTemplate rabbitTemplate, ClaimCheck claimCheck,
-                    String queryId) {
+                    ResultCodec resultCodec, String queryId, PublishWindow publishWindow) {
         this.rabbitMQProperties = rabbitMQProperties;
         this.rabbitTemplate = rabbitTemplate;
         this.claimCheck = claimCheck;
+        this.resultCodec = resultCodec;
         this.queryId = queryId;
+        this.publishWindow = publishWindow;
         
         this.rabbitTemplate.setExchange(QUERY_RESULTS_EXCHANGE);
         this.rabbitTemplate.setRoutingKey(queryId);
         this.rabbitTemplate.setConfirmCallback((correlationData, ack, cause) -> {
-            if (correlationData != null) {
-                ackMap.put(correlationData.getId(), ack);
-                latchMap.get(correlationData.getId()).countDown();
+            if (correlationData != null && !publishWindow.complete(correlationData.getId(), ack) && log.isTraceEnabled()) {
+                log.trace("Received RabbitMQ producer confirm for {} which is no longer in flight", correlationData.getId());
             }
         });
-        
-        // set a custom module for (de)serializing Geometry objects
-        ObjectMapper objectMapper = new ObjectMapper();
-        SimpleModule geometryModule = new SimpleModule(Geometry.class.getName());
-        geometryModule.addSerializer(Geometry.class, new GeometrySerializer());
-        geometryModule.addDeserializer(Geometry.class, new GeometryDeserializer());
-        
-        this.rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter(objectMapper));
     }
     
     @Override
     public boolean publish(Result result, long interval, TimeUnit timeUnit) {
-        if (log.isDebugEnabled()) {
-            log.debug("Publishing message to " + rabbitTemplate.getExchange());
-        }
-        
-        result = resultClaimCheck(result);
+        return publish(Collections.singletonList(result), interval, timeUnit);
+    }
+    
+    @Override
+    public boolean publish(List<Result> results, long interval, TimeUnit timeUnit) {
+        long deadline = PublishWindow.deadline(interval, timeUnit);
         
         boolean success = false;
-        if (result != null) {
-            final CountDownLatch latch = new CountDownLatch(1);
-            latchMap.put(result.getId(), latch);
-            
-            try {
-                rabbitTemplate.correlationConvertAndSend(result, new CorrelationData(result.getId()));
-            } catch (Exception e) {
-                throw new RuntimeException("Unable to serialize results", e);
-            }
-            
-            try {
-                if (latch.await(interval, timeUnit) && ackMap.get(result.getId())) {
-                    success = true;
-                    if (log.isTraceEnabled()) {
-                        log.trace("Received RabbitMQ producer confirm ack for {}", result.getId());
-                    }
-                } else {
-                    log.error("Timed out while waiting for RabbitMQ producer confirm");
+        List<CompletableFuture<Boolean>> confirms = send(results, deadline);
+        try {
+            if (PublishWindow.allAcked(confirms).get(PublishWindow.remaining(deadline), TimeUnit.MILLISECONDS)) {
+                success = true;
+                if (log.isTraceEnabled()) {
+                    log.trace("Received RabbitMQ producer confirm acks for {} results", results.size());
                 }
-            } catch (InterruptedException e) {
-                log.error("Interrupted while waiting for RabbitMQ producer confirm", e);
-            } finally {
-                latchMap.remove(result.getId());
-                ackMap.remove(result.getId());
+            } else {
+                log.error("Failed to receive RabbitMQ producer confirm acks for all results");
+            }
+        } catch (TimeoutException e) {
+            log.error("Timed out while waiting for RabbitMQ producer confirm");
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for RabbitMQ producer confirm", e);
+        } catch (ExecutionException e) {
+            log.error("Execution exception while waiting for RabbitMQ producer confirm", e);
+        } finally {
+            // give up on any confirms which are still outstanding so that they don't hold the window
+            for (CompletableFuture<Boolean> confirm : confirms) {
+                confirm.complete(false);
             }
         }
-        
         return success;
     }
     
-    private Result resultClaimCheck(Result result) {
-        Result finalResult = null;
+    @Override
+    public CompletableFuture<Boolean> publishAsync(List<Result> results) {
+        try {
+            return PublishWindow.allAcked(send(results, Long.MAX_VALUE));
+        } catch (RuntimeException e) {
+            // report a failed send through the future rather than throwing at the caller
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+    
+    /**
+     * Sends the results without waiting for the publisher confirms, blocking only while the publish window is full
+     *
+     * @param results
+     *            the results to send
+     * @param deadline
+     *            the deadline in epoch milliseconds to wait for room in the publish window
+     * @return the pending publisher confirms
+     */
+    private List<CompletableFuture<Boolean>> send(List<Result> results, long deadline) {
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing " + results.size() + " messages to " + rabbitTemplate.getExchange());
+        }
+        
+        List<CompletableFuture<Boolean>> confirms = new ArrayList<>(results.size());
+        try {
+            for (Result result : results) {
+                Message message = toMessage(result);
+                if (message == null) {
+                    confirms.add(CompletableFuture.completedFuture(false));
+                    continue;
+                }
+                
+                String correlationId = publishWindow.nextCorrelationId(result.getId());
+                CompletableFuture<Boolean> confirm = publishWindow.acquire(correlationId, PublishWindow.remaining(deadline), TimeUnit.MILLISECONDS);
+                if (confirm == null) {
+                    log.error("Timed out while waiting for room in the publish window");
+                    confirms.add(CompletableFuture.completedFuture(false));
+                    break;
+                }
+                confirms.add(confirm);
+                
+                try {
+                    rabbitTemplate.send(QUERY_RESULTS_EXCHANGE, queryId, message, new CorrelationData(correlationId));
+                } catch (Exception e) {
+                    confirm.complete(false);
+                    throw new RuntimeException("Unable to send result " + result.getId() + " to " + QUERY_RESULTS_EXCHANGE, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for room in the publish window", e);
+            confirms.add(CompletableFuture.completedFuture(false));
+        }
+        return confirms;
+    }
+    
+    /**
+     * Encodes the result as a message, checking the payload if the encoded result exceeds the max message size. The result is encoded once, directly into a
+     * reusable buffer which aborts the encoding as soon as the max message size is exceeded.
+     *
+     * @param result
+     *            the result to encode
+     * @return the message to send, or null if the result could not be sent
+     */
+    private Message toMessage(Result result) {
+        Message message = null;
+        long maxMessageSize = Math.min(rabbitMQProperties.getMaxMessageSizeBytes(), DEFAULT_MAX_MSG_SIZE);
+        BoundedByteArrayOutputStream buffer = ENCODE_BUFFER.get();
         try {
-            Object payload = result.getPayload();
-            byte[] resultBytes = this.rabbitTemplate.getMessageConverter().toMessage(result, new MessageProperties()).getBody();
-            
             // if the message size exceeds our limit, check the payload and reencode
-            long maxMessageSize = Math.min(rabbitMQProperties.getMaxMessageSizeBytes(), DEFAULT_MAX_MSG_SIZE);
-            if (resultBytes.length > maxMessageSize) {
+            if (!encode(result, buffer, maxMessageSize)) {
                 if (claimCheck != null) {
-                    finalResult = new Result(result.getId(), null);
-                    claimCheck.check(queryId, payload);
+                    claimCheck.check(queryId, result.getId(), result.getPayload());
+                    encode(new Result(result.getId(), null), buffer, Long.MAX_VALUE);
                 } else {
-                    log.error("Result size {} exceeds max message size {} but no claim check is configured", resultBytes.length, maxMessageSize);
+                    log.error("Result size exceeds max message size {} but no claim check is configured", maxMessageSize);
+                    return null;
                 }
-            } else {
-                finalResult = result;
             }
-        } catch (JsonProcessingException e) {
+            
+            byte[] resultBytes = buffer.toByteArray();
+            MessageProperties messageProperties = new MessageProperties();
+            messageProperties.setContentType(resultCodec.getContentType());
+            messageProperties.setContentLength(resultBytes.length);
+            message = new Message(resultBytes, messageProperties);
+        } catch (IOException e) {
             log.error("Unable to serialize result", e);
         } catch (InterruptedException e) {
             log.error("Interrupted while waiting for large payload to be checked", e);
+        } finally {
+            buffer.trim(MAX_RETAINED_BUFFER_BYTES);
         }
         
-        return finalResult;
+        return message;
+    }
+    
+    /**
+     * Encodes the result into the buffer, stopping early if the limit is exceeded
+     *
+     * @param result
+     *            the result to encode
+     * @param buffer
+     *            the buffer to encode into
+     * @param limit
+     *            the maximum encoded size
+     * @return true if the result was encoded within the limit, false otherwise
+     * @throws IOException
+     *             if the result could not be encoded
+     */
+    private boolean encode(Result result, BoundedByteArrayOutputStream buffer, long limit) throws IOException {
+        buffer.reset(limit);
+        try {
+            resultCodec.encode(result, buffer);
+            return true;
+        } catch (IOException | BoundedByteArrayOutputStream.LimitExceededException e) {
+            if (BoundedByteArrayOutputStream.isLimitExceeded(e)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Result {} exceeds the max message size of {} bytes", result.getId(), limit);
+                }
+                return false;
+            }
+            throw e;
+        }
     }
     
     @Override
     public void close() throws IOException {
+        publishWindow.cancelAll();
         rabbitTemplate.destroy();
     }
 }
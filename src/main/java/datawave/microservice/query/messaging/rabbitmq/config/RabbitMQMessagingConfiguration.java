@@ -4,6 +4,7 @@ import static datawave.microservice.query.messaging.rabbitmq.RabbitMQQueryResult
 
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
@@ -13,8 +14,11 @@ import com.rabbitmq.client.ConnectionFactory;
 
 import datawave.microservice.query.messaging.ClaimCheck;
 import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.codec.ResultCodec;
 import datawave.microservice.query.messaging.config.MessagingProperties;
 import datawave.microservice.query.messaging.rabbitmq.RabbitMQQueryResultsManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 @Configuration
 @ConditionalOnProperty(name = "datawave.query.messaging.backend", havingValue = RABBITMQ)
@@ -23,13 +27,15 @@ public class RabbitMQMessagingConfiguration {
     @Bean
     public QueryResultsManager rabbitMQQueryResultsManager(MessagingProperties messagingProperties,
                     RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry, @Autowired(required = false) CachingConnectionFactory connectionFactory,
-                    @Autowired(required = false) ClaimCheck claimCheck) {
+                    @Autowired(required = false) ClaimCheck claimCheck, ResultCodec resultCodec, ObjectProvider<MeterRegistry> meterRegistry) {
         // @formatter:off
         return new RabbitMQQueryResultsManager(
                 messagingProperties,
                 rabbitListenerEndpointRegistry,
                 createCachingConnectionFactory(messagingProperties, connectionFactory),
-                claimCheck);
+                claimCheck,
+                resultCodec,
+                meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
         // @formatter:on
     }
     
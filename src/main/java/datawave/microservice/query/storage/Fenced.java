@@ -0,0 +1,22 @@
+package datawave.microservice.query.storage;
+
+/**
+ * A value in a query storage cache which records the fencing token of the last leased lock holder to write it. A write made under a lease is only stored if
+ * its fencing token is at least the stored one, so a holder whose lease expired and was acquired by somebody else can't overwrite what the new holder wrote.
+ */
+public interface Fenced {
+    /**
+     * Get the fencing token of the lease under which this value was last written
+     *
+     * @return the fencing token, or 0 if it has never been written under a lease
+     */
+    long getFencingToken();
+    
+    /**
+     * Set the fencing token of the lease under which this value is being written
+     *
+     * @param fencingToken
+     *            the fencing token
+     */
+    void setFencingToken(long fencingToken);
+}
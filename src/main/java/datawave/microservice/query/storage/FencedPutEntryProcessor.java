@@ -0,0 +1,38 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which stores a value written under a leased lock, unless the stored value was written under a newer lease. The fencing token is
+ * compared on the member which owns the entry, so the check and the write are atomic.
+ */
+public class FencedPutEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = -6838001469402218733L;
+    
+    private final long fencingToken;
+    private final Fenced value;
+    
+    public FencedPutEntryProcessor(long fencingToken, Fenced value) {
+        this.fencingToken = fencingToken;
+        this.value = value;
+    }
+    
+    /**
+     * Store the value if the stored value's fencing token is not newer than ours
+     *
+     * @param entry
+     *            the entry
+     * @return true if the value was stored, false if the stored value was written under a newer lease
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof Fenced && ((Fenced) entry.getValue()).getFencingToken() > fencingToken) {
+            return false;
+        }
+        value.setFencingToken(fencingToken);
+        entry.setValue(value);
+        return true;
+    }
+}
@@ -4,12 +4,15 @@ import static datawave.microservice.query.storage.QueryStatus.QUERY_STATE.CLOSE;
 import static datawave.microservice.query.storage.QueryStatus.QUERY_STATE.CREATE;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.accumulo.core.security.Authorizations;
@@ -26,7 +29,7 @@ import datawave.microservice.query.Query;
 import datawave.microservice.querymetric.BaseQueryMetric.Prediction;
 import datawave.webservice.query.exception.DatawaveErrorCode;
 
-public class QueryStatus implements Serializable {
+public class QueryStatus implements Serializable, Fenced {
     private static final long serialVersionUID = -1633953472983032183L;
     
     /**
@@ -90,6 +93,17 @@ public class QueryStatus implements Serializable {
     private String failureMessage;
     private String stackTrace;
     
+    // incremented whenever this query status is stored, so that a whole query status is only replaced if it has not been updated since it was read
+    private long version;
+    
+    // the fencing token of the lease under which this query status was last stored
+    private long fencingToken;
+    
+    // when the counters are stored separately, they are only loaded and overlaid onto this query status when one of them is first accessed
+    private transient Supplier<QueryStatusCounters> countersLoader;
+    // the counters as they were overlaid, so that only the changes made to them are written back (including from a copy of this query status)
+    private QueryStatusCounters loadedCounters;
+    
     public QueryStatus() {}
     
     public QueryStatus(QueryKey queryKey) {
@@ -97,22 +111,26 @@ public class QueryStatus implements Serializable {
     }
     
     public boolean isProgressIdle(long currentTimeMillis, long idleTimeoutMillis) {
+        loadCounters();
         // if we're processing a next request and haven't seen any activity in a while, the query is idle
         return activeNextCalls > 0 && (currentTimeMillis - lastUpdatedMillis) >= idleTimeoutMillis;
     }
     
     public boolean isUserIdle(long currentTimeMillis, long idleTimeoutMillis) {
+        loadCounters();
         // if we aren't processing a next request and haven't seen any activity in a while, the query is idle
         return activeNextCalls == 0 && (currentTimeMillis - lastUsedMillis) >= idleTimeoutMillis;
     }
     
     public boolean isInactive(long currentTimeMillis, long evictionTimeoutMillis) {
+        loadCounters();
         // if the query is not running and we have reached the eviction timeout, the query is inactive
         return (currentTimeMillis - Math.min(lastUsedMillis, lastUpdatedMillis)) >= evictionTimeoutMillis;
     }
     
     @JsonIgnore
     public boolean isRunning() {
+        loadCounters();
         // the query is considered to be running if it is created, or closed with an open next call
         return queryState == CREATE || (queryState == CLOSE && activeNextCalls > 0);
     }
@@ -237,54 +255,69 @@ public class QueryStatus implements Serializable {
     public void setFailure(DatawaveErrorCode errorCode, Exception failure) {
         setErrorCode(errorCode);
         setFailureMessage(failure.getMessage());
+        setStackTrace(toStackTrace(failure));
+    }
+    
+    static String toStackTrace(Exception failure) {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
         failure.printStackTrace(writer);
         writer.close();
-        setStackTrace(new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
     }
     
     public long getNumResultsReturned() {
+        loadCounters();
         return numResultsReturned;
     }
     
     public void setNumResultsReturned(long numResultsReturned) {
+        loadCounters();
         this.numResultsReturned = numResultsReturned;
     }
     
     public void incrementNumResultsReturned(long increment) {
+        loadCounters();
         this.numResultsReturned += increment;
     }
     
     public long getNumResultsConsumed() {
+        loadCounters();
         return numResultsConsumed;
     }
     
     public void setNumResultsConsumed(long numResultsConsumed) {
+        loadCounters();
         this.numResultsConsumed = numResultsConsumed;
     }
     
     public void incrementNumResultsConsumed(long increment) {
+        loadCounters();
         this.numResultsConsumed += increment;
     }
     
     public long getNumResultsGenerated() {
+        loadCounters();
         return numResultsGenerated;
     }
     
     public void setNumResultsGenerated(long numResultsGenerated) {
+        loadCounters();
         this.numResultsGenerated = numResultsGenerated;
     }
     
     public void incrementNumResultsGenerated(long increment) {
+        loadCounters();
         this.numResultsGenerated += increment;
     }
     
     public int getActiveNextCalls() {
+        loadCounters();
         return activeNextCalls;
     }
     
     public void setActiveNextCalls(int activeNextCalls) {
+        loadCounters();
         this.activeNextCalls = activeNextCalls;
     }
     
@@ -297,10 +330,12 @@ public class QueryStatus implements Serializable {
     }
     
     public long getLastPageNumber() {
+        loadCounters();
         return lastPageNumber;
     }
     
     public void setLastPageNumber(long lastPageNumber) {
+        loadCounters();
         this.lastPageNumber = lastPageNumber;
     }
     
@@ -313,26 +348,32 @@ public class QueryStatus implements Serializable {
     }
     
     public long getNextCount() {
+        loadCounters();
         return nextCount;
     }
     
     public void incrementNextCount(long increment) {
+        loadCounters();
         this.nextCount += increment;
     }
     
     public void setNextCount(long nextCount) {
+        loadCounters();
         this.nextCount = nextCount;
     }
     
     public long getSeekCount() {
+        loadCounters();
         return seekCount;
     }
     
     public void incrementSeekCount(long increment) {
+        loadCounters();
         this.seekCount += increment;
     }
     
     public void setSeekCount(long seekCount) {
+        loadCounters();
         this.seekCount = seekCount;
     }
     
@@ -345,23 +386,111 @@ public class QueryStatus implements Serializable {
     }
     
     public long getLastUsedMillis() {
+        loadCounters();
         return lastUsedMillis;
     }
     
     public void setLastUsedMillis(long lastUsedMillis) {
+        loadCounters();
         this.lastUsedMillis = lastUsedMillis;
     }
     
     public long getLastUpdatedMillis() {
+        loadCounters();
         return lastUpdatedMillis;
     }
     
     public void setLastUpdatedMillis(long lastUpdatedMillis) {
+        loadCounters();
         this.lastUpdatedMillis = lastUpdatedMillis;
     }
     
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    public void incrementVersion() {
+        version++;
+    }
+    
+    @Override
+    public long getFencingToken() {
+        return fencingToken;
+    }
+    
+    @Override
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+    
+    /**
+     * Load the separately stored counters with the given loader when one of them is first accessed
+     *
+     * @param countersLoader
+     *            the counters loader, which may return null if the counters do not exist
+     */
+    synchronized void setCountersLoader(Supplier<QueryStatusCounters> countersLoader) {
+        this.countersLoader = countersLoader;
+        this.loadedCounters = null;
+    }
+    
+    /**
+     * Whether the separately stored counters are waiting to be loaded, in which case they have not been accessed and cannot have been changed
+     *
+     * @return true if the counters have not been loaded yet
+     */
+    synchronized boolean isCountersPending() {
+        return countersLoader != null;
+    }
+    
+    /**
+     * Overlay separately stored counters onto this query status, remembering them so that only the changes made to them are written back
+     *
+     * @param counters
+     *            the counters
+     */
+    synchronized void overlayCounters(QueryStatusCounters counters) {
+        countersLoader = null;
+        counters.applyTo(this);
+        loadedCounters = new QueryStatusCounters(counters);
+    }
+    
+    /**
+     * Get the separately stored counters as they were last overlaid onto or written back from this query status
+     *
+     * @return the counters, or null if no counters were overlaid
+     */
+    synchronized QueryStatusCounters getLoadedCounters() {
+        return loadedCounters;
+    }
+    
+    synchronized void setLoadedCounters(QueryStatusCounters loadedCounters) {
+        this.loadedCounters = loadedCounters;
+    }
+    
+    private synchronized void loadCounters() {
+        if (countersLoader != null) {
+            QueryStatusCounters counters = countersLoader.get();
+            countersLoader = null;
+            if (counters != null) {
+                overlayCounters(counters);
+            }
+        }
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // the loader is not serialized, so overlay the counters before this query status is copied
+        loadCounters();
+        out.defaultWriteObject();
+    }
+    
     @Override
     public int hashCode() {
+        loadCounters();
         // @formatter:off
         return new HashCodeBuilder()
                 .append(queryKey)
@@ -390,6 +519,8 @@ public class QueryStatus implements Serializable {
     public boolean equals(Object obj) {
         if (obj instanceof QueryStatus) {
             QueryStatus other = (QueryStatus) obj;
+            loadCounters();
+            other.loadCounters();
             // @formatter:off
             return new EqualsBuilder()
                     .append(queryKey, other.queryKey)
@@ -418,6 +549,7 @@ public class QueryStatus implements Serializable {
     
     @Override
     public String toString() {
+        loadCounters();
         // @formatter:off
         return new ToStringBuilder(this)
                 .append("queryKey", queryKey)
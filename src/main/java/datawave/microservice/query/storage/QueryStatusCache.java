@@ -2,57 +2,365 @@ package datawave.microservice.query.storage;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.CachePut;
+
+import com.hazelcast.map.IMap;
 
 import datawave.core.query.logic.QueryKey;
 import datawave.microservice.cached.LockableCacheInspector;
+import datawave.microservice.query.storage.config.QueryStorageProperties;
 
 @CacheConfig(cacheNames = QueryStatusCache.CACHE_NAME)
 public class QueryStatusCache {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     public static final String CACHE_NAME = "QueryStatusCache";
+    public static final String COUNTERS_CACHE_NAME = "QueryStatusCountersCache";
     
     private final LockableCacheInspector cacheInspector;
+    private final CacheManager cacheManager;
+    private final boolean splitCounters;
+    // an optional near cache for reads that can tolerate staleness
+    private final QueryStorageNearCache<QueryStatus> nearCache;
+    private final QueryStorageLocks locks;
     
-    public QueryStatusCache(LockableCacheInspector cacheInspector) {
+    public QueryStatusCache(LockableCacheInspector cacheInspector, CacheManager cacheManager, QueryStorageProperties queryStorageProperties,
+                    QueryStorageNearCache<QueryStatus> nearCache, QueryStorageLocks locks) {
         this.cacheInspector = cacheInspector;
+        this.cacheManager = cacheManager;
+        this.splitCounters = queryStorageProperties.isSplitCounters();
+        this.nearCache = nearCache;
+        this.locks = locks;
     }
     
     /**
-     * Store the query status for a query.
+     * Store the query status for a query. If split counters are enabled, then only the changes made to the counters since they were read are applied to the
+     * stored counters (see {@link #storeQueryStatusCounters(QueryStatus)}). If the current thread holds a leased query status lock, then the write is fenced
+     * with the lease's token.
+     * <p>
+     * The query status is stored regardless of whether it has been updated since it was read, so this may overwrite a concurrent
+     * {@link #mutateQueryStatus(String, QueryStatusMutator)}. Use {@link #replaceQueryStatus(QueryStatus)} to write back a query status which was read.
      * 
      * @param queryStatus
      *            the query status
      * @return the stored query status
+     * @throws IllegalStateException
+     *             if the query status was stored under a newer lease
      */
-    @CachePut(key = "#queryStatus.getQueryKey().toUUIDKey()")
     public QueryStatus updateQueryStatus(QueryStatus queryStatus) {
-        logStatus("Storing", queryStatus, queryStatus.getQueryKey().getQueryId());
+        String queryId = queryStatus.getQueryKey().getQueryId();
+        logStatus("Storing", queryStatus, queryId);
+        queryStatus.incrementVersion();
+        put(getCache(CACHE_NAME), queryId, queryStatus);
+        if (splitCounters) {
+            storeQueryStatusCounters(queryStatus);
+        }
+        invalidateNearCache(queryId);
         return queryStatus;
     }
     
+    /**
+     * Replace the stored query status for a query only if it has not been stored or mutated since the given query status was read, so that a query status
+     * which was read, updated and written back never overwrites a concurrent {@link #mutateQueryStatus(String, QueryStatusMutator)}. When the cache is backed
+     * by Hazelcast the versions are compared by an entry processor on the member which owns the query status, and when the cache is backed by a concurrent
+     * map they are compared and set. Otherwise this falls back to locking the query status. If split counters are enabled, then only the changes made to the
+     * counters since they were read are applied to the stored counters.
+     *
+     * @param queryStatus
+     *            the query status
+     * @return true if the query status was replaced, false if it does not exist or was updated since it was read
+     */
+    public boolean replaceQueryStatus(QueryStatus queryStatus) {
+        String queryId = queryStatus.getQueryKey().getQueryId();
+        String key = QueryKey.toUUIDKey(queryId);
+        Cache cache = getCache(CACHE_NAME);
+        long expectedVersion = queryStatus.getVersion();
+        
+        boolean replaced;
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof IMap) {
+            QueryStatusReplaceEntryProcessor processor = new QueryStatusReplaceEntryProcessor(expectedVersion, queryStatus);
+            replaced = Boolean.TRUE.equals(((IMap<Object,Object>) nativeCache).executeOnKey(key, processor));
+        } else if (nativeCache instanceof ConcurrentMap && !isSerialized((ConcurrentMap<Object,Object>) nativeCache, key)) {
+            // query status equality ignores the version, so compare the versions within an atomic compute instead of using a conditional replace
+            replaced = (((ConcurrentMap<Object,Object>) nativeCache).computeIfPresent(key, (k, v) -> {
+                if (v instanceof QueryStatus && ((QueryStatus) v).getVersion() == expectedVersion) {
+                    queryStatus.setVersion(expectedVersion + 1);
+                    return queryStatus;
+                }
+                return v;
+            }) == queryStatus);
+        } else {
+            replaced = lockedReplaceQueryStatus(cache, queryStatus, expectedVersion);
+        }
+        
+        if (replaced) {
+            queryStatus.setVersion(expectedVersion + 1);
+            logStatus("Replaced", queryStatus, queryId);
+            if (splitCounters) {
+                storeQueryStatusCounters(queryStatus);
+            }
+            invalidateNearCache(queryId);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Unable to replace query status for " + queryId + " at version " + expectedVersion);
+        }
+        return replaced;
+    }
+    
+    private boolean lockedReplaceQueryStatus(Cache cache, QueryStatus queryStatus, long expectedVersion) {
+        String queryId = queryStatus.getQueryKey().getQueryId();
+        QueryStorageLock lock = getQueryStatusLock(queryId);
+        lock.lock();
+        try {
+            QueryStatus current = cacheInspector.list(CACHE_NAME, QueryStatus.class, QueryKey.toUUIDKey(queryId));
+            if (current == null || current.getVersion() != expectedVersion) {
+                return false;
+            }
+            queryStatus.setVersion(expectedVersion + 1);
+            put(cache, queryId, queryStatus);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static boolean isSerialized(ConcurrentMap<Object,Object> map, String key) {
+        Object current = map.get(key);
+        return current != null && !(current instanceof QueryStatus);
+    }
+    
+    /**
+     * Apply the changes made to the counters of a query status since they were read to the stored counters, using the counters mutation path so that
+     * concurrent counters mutations are never overwritten. The counters are created if the query status was not read from this cache (i.e. it is new), and are
+     * left alone if they were never accessed.
+     *
+     * @param queryStatus
+     *            the query status
+     */
+    private void storeQueryStatusCounters(QueryStatus queryStatus) {
+        if (queryStatus.isCountersPending()) {
+            return;
+        }
+        String queryId = queryStatus.getQueryKey().getQueryId();
+        QueryStatusCounters counters = new QueryStatusCounters(queryStatus);
+        QueryStatusCounters loadedCounters = queryStatus.getLoadedCounters();
+        if (loadedCounters == null) {
+            getCache(COUNTERS_CACHE_NAME).putIfAbsent(QueryKey.toUUIDKey(queryId), counters);
+        } else if (!counters.equals(loadedCounters)) {
+            mutateQueryStatusCounters(queryId, new QueryStatusMutators.MergeCounters(loadedCounters, counters));
+        }
+        queryStatus.setLoadedCounters(counters);
+    }
+    
+    /**
+     * Store the query status counters for a query. This is only applicable when split counters are enabled.
+     *
+     * @param counters
+     *            the query status counters
+     */
+    public void updateQueryStatusCounters(QueryStatusCounters counters) {
+        put(getCache(COUNTERS_CACHE_NAME), counters.getQueryId(), counters);
+        invalidateNearCache(counters.getQueryId());
+        if (log.isTraceEnabled()) {
+            log.trace("Storing " + counters);
+        }
+    }
+    
+    /**
+     * Return the query status counters for a query. This is only applicable when split counters are enabled.
+     *
+     * @param queryId
+     *            The query id
+     * @return The query status counters, or null if not found
+     */
+    public QueryStatusCounters getQueryStatusCounters(String queryId) {
+        return cacheInspector.list(COUNTERS_CACHE_NAME, QueryStatusCounters.class, QueryKey.toUUIDKey(queryId));
+    }
+    
+    /**
+     * Whether the query status counters are stored separately from the query status
+     *
+     * @return true if split counters are enabled
+     */
+    public boolean isSplitCounters() {
+        return splitCounters;
+    }
+    
+    /**
+     * Atomically apply a mutation to the stored query status for a query. When the cache is backed by Hazelcast the mutation is applied by an entry processor on
+     * the member which owns the query status. When the cache is backed by a concurrent map, then the mutation is applied to a copy of the query status which
+     * is stored using a compare and set loop. Otherwise this falls back to locking the query status.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status existed and was updated, false otherwise
+     */
+    public boolean mutateQueryStatus(String queryId, QueryStatusMutator mutator) {
+        String key = QueryKey.toUUIDKey(queryId);
+        Cache cache = getCache(CACHE_NAME);
+        
+        boolean updated;
+        Object nativeCache = cache.getNativeCache();
+        if (splitCounters) {
+            // the mutation may span the query status and its counters, so we have to lock
+            updated = lockedMutateQueryStatus(cache, queryId, mutator);
+        } else if (nativeCache instanceof IMap) {
+            updated = Boolean.TRUE.equals(((IMap<Object,Object>) nativeCache).executeOnKey(key, new QueryStatusEntryProcessor(mutator)));
+        } else if (nativeCache instanceof ConcurrentMap) {
+            updated = compareAndSetQueryStatus(cache, (ConcurrentMap<Object,Object>) nativeCache, queryId, mutator);
+        } else {
+            updated = lockedMutateQueryStatus(cache, queryId, mutator);
+        }
+        invalidateNearCache(queryId);
+        
+        if (log.isDebugEnabled()) {
+            log.debug((updated ? "Mutated" : "Unable to find") + " query status for " + queryId);
+        }
+        return updated;
+    }
+    
+    private boolean compareAndSetQueryStatus(Cache cache, ConcurrentMap<Object,Object> map, String queryId, QueryStatusMutator mutator) {
+        String key = QueryKey.toUUIDKey(queryId);
+        while (true) {
+            Object current = map.get(key);
+            if (current == null) {
+                return false;
+            } else if (!(current instanceof QueryStatus)) {
+                // the cache is storing serialized values, so we cannot compare and set
+                return lockedMutateQueryStatus(cache, queryId, mutator);
+            }
+            // mutate a copy so that concurrent readers of the stored instance never see a partial update
+            QueryStatus queryStatus = SerializationUtils.clone((QueryStatus) current);
+            mutator.mutate(queryStatus);
+            queryStatus.incrementVersion();
+            // query status equality ignores the version, so compare by identity instead
+            if (map.computeIfPresent(key, (k, v) -> v == current ? queryStatus : v) == queryStatus) {
+                return true;
+            }
+        }
+    }
+    
+    private boolean lockedMutateQueryStatus(Cache cache, String queryId, QueryStatusMutator mutator) {
+        QueryStorageLock lock = getQueryStatusLock(queryId);
+        lock.lock();
+        try {
+            QueryStatus queryStatus = getQueryStatus(queryId);
+            if (queryStatus == null) {
+                return false;
+            }
+            mutator.mutate(queryStatus);
+            queryStatus.incrementVersion();
+            put(cache, queryId, queryStatus);
+            if (splitCounters) {
+                storeQueryStatusCounters(queryStatus);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Atomically apply a mutation to the stored query status counters for a query. This is only applicable when split counters are enabled. When the cache is
+     * backed by Hazelcast the mutation is applied by an entry processor on the member which owns the counters. When the cache is backed by a concurrent map,
+     * then the mutation is applied to a copy of the counters which is stored using a compare and set loop. Otherwise this falls back to locking the query
+     * status.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status counters existed and were updated, false otherwise
+     */
+    public boolean mutateQueryStatusCounters(String queryId, QueryStatusCountersMutator mutator) {
+        if (!splitCounters) {
+            throw new IllegalStateException("Query status counters are only stored separately when split counters are enabled");
+        }
+        
+        String key = QueryKey.toUUIDKey(queryId);
+        Cache cache = getCache(COUNTERS_CACHE_NAME);
+        
+        boolean updated;
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof IMap) {
+            updated = Boolean.TRUE.equals(((IMap<Object,Object>) nativeCache).executeOnKey(key, new QueryStatusCountersEntryProcessor(mutator)));
+        } else if (nativeCache instanceof ConcurrentMap) {
+            updated = compareAndSetQueryStatusCounters((ConcurrentMap<Object,Object>) nativeCache, queryId, mutator);
+        } else {
+            updated = lockedMutateQueryStatusCounters(queryId, mutator);
+        }
+        invalidateNearCache(queryId);
+        
+        if (log.isDebugEnabled()) {
+            log.debug((updated ? "Mutated" : "Unable to find") + " query status counters for " + queryId);
+        }
+        return updated;
+    }
+    
+    private boolean compareAndSetQueryStatusCounters(ConcurrentMap<Object,Object> map, String queryId, QueryStatusCountersMutator mutator) {
+        String key = QueryKey.toUUIDKey(queryId);
+        while (true) {
+            Object current = map.get(key);
+            if (current == null) {
+                return false;
+            } else if (!(current instanceof QueryStatusCounters)) {
+                // the cache is storing serialized values, so we cannot compare and set
+                return lockedMutateQueryStatusCounters(queryId, mutator);
+            }
+            QueryStatusCounters counters = new QueryStatusCounters((QueryStatusCounters) current);
+            mutator.mutate(counters);
+            if (map.replace(key, current, counters)) {
+                return true;
+            }
+        }
+    }
+    
+    private boolean lockedMutateQueryStatusCounters(String queryId, QueryStatusCountersMutator mutator) {
+        QueryStorageLock lock = getQueryStatusLock(queryId);
+        lock.lock();
+        try {
+            QueryStatusCounters counters = getQueryStatusCounters(queryId);
+            if (counters == null) {
+                return false;
+            }
+            mutator.mutate(counters);
+            updateQueryStatusCounters(counters);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     /**
      * Delete the query status for a query
      * 
      * @param queryId
      *            The query id
      */
-    @CacheEvict(key = "T(datawave.core.query.logic.QueryKey).toUUIDKey(#queryId)")
+    @CacheEvict(cacheNames = {CACHE_NAME, COUNTERS_CACHE_NAME}, key = "T(datawave.core.query.logic.QueryKey).toUUIDKey(#queryId)", beforeInvocation = true)
     public void deleteQueryStatus(String queryId) {
+        invalidateNearCache(queryId);
+        locks.deleteLease(CACHE_NAME, QueryKey.toUUIDKey(queryId));
         if (log.isDebugEnabled()) {
             log.debug("Deleted query status for " + queryId);
         }
     }
     
     /**
-     * Return the query status for a query
+     * Return the query status for a query. If split counters are enabled, then the counters are only retrieved when one of them is first accessed.
      *
      * @param queryId
      *            The query id
@@ -62,6 +370,9 @@ public class QueryStatusCache {
         QueryStatus props = null;
         try {
             props = cacheInspector.list(CACHE_NAME, QueryStatus.class, QueryKey.toUUIDKey(queryId));
+            if (splitCounters && props != null) {
+                props.setCountersLoader(() -> getQueryStatusCounters(queryId));
+            }
             logStatus("Retrieved", props, queryId);
         } catch (RuntimeException e) {
             log.error("Failed to retrieve status for " + queryId, e);
@@ -70,6 +381,21 @@ public class QueryStatusCache {
         return props;
     }
     
+    /**
+     * Return the query status for a query, allowing a locally cached copy to be returned if the near cache is enabled. The query status may be stale by up to
+     * the configured max staleness, and it should not be modified.
+     *
+     * @param queryId
+     *            The query id
+     * @return The query status
+     */
+    public QueryStatus getCachedQueryStatus(String queryId) {
+        if (nearCache == null) {
+            return getQueryStatus(queryId);
+        }
+        return nearCache.get(QueryKey.toUUIDKey(queryId), key -> getQueryStatus(queryId));
+    }
+    
     /**
      * Get all of the existing query status
      * 
@@ -80,7 +406,25 @@ public class QueryStatusCache {
         if (queryStatuses == null) {
             return Collections.emptyList();
         }
-        return queryStatuses.stream().filter(o -> o instanceof QueryStatus).map(QueryStatus.class::cast).collect(Collectors.toList());
+        List<QueryStatus> statuses = queryStatuses.stream().filter(o -> o instanceof QueryStatus).map(QueryStatus.class::cast).collect(Collectors.toList());
+        if (splitCounters && !statuses.isEmpty()) {
+            List<? extends Object> queryStatusCounters = cacheInspector.listAll(COUNTERS_CACHE_NAME, Object.class);
+            if (queryStatusCounters != null) {
+                // @formatter:off
+                Map<String,QueryStatusCounters> countersByQueryId = queryStatusCounters.stream()
+                        .filter(o -> o instanceof QueryStatusCounters)
+                        .map(QueryStatusCounters.class::cast)
+                        .collect(Collectors.toMap(QueryStatusCounters::getQueryId, Function.identity(), (a, b) -> b));
+                // @formatter:on
+                for (QueryStatus status : statuses) {
+                    QueryStatusCounters counters = countersByQueryId.get(status.getQueryKey().getQueryId());
+                    if (counters != null) {
+                        status.overlayCounters(counters);
+                    }
+                }
+            }
+        }
+        return statuses;
     }
     
     /**
@@ -88,11 +432,43 @@ public class QueryStatusCache {
      *
      * @return a clear message
      */
-    @CacheEvict(allEntries = true, beforeInvocation = true)
+    @CacheEvict(cacheNames = {CACHE_NAME, COUNTERS_CACHE_NAME}, allEntries = true, beforeInvocation = true)
     public String clear() {
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
         return "Cleared " + CACHE_NAME + " cache";
     }
     
+    private void invalidateNearCache(String queryId) {
+        if (nearCache != null) {
+            nearCache.invalidate(QueryKey.toUUIDKey(queryId));
+        }
+    }
+    
+    /**
+     * Store a query status or its counters, fencing the write with the token of the query status lease if the current thread holds it
+     *
+     * @param cache
+     *            the cache
+     * @param queryId
+     *            the query id
+     * @param value
+     *            the query status or counters
+     */
+    private void put(Cache cache, String queryId, Fenced value) {
+        String key = QueryKey.toUUIDKey(queryId);
+        QueryStorageFencing.put(cache, key, value, locks.getFencingToken(CACHE_NAME, key));
+    }
+    
+    private Cache getCache(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) {
+            throw new IllegalStateException("Could not find the " + cacheName + " cache");
+        }
+        return cache;
+    }
+    
     /**
      * A convience method for logging query status
      *
@@ -119,7 +495,7 @@ public class QueryStatusCache {
      * @return a query status lock
      */
     public QueryStorageLock getQueryStatusLock(String queryId) {
-        return new QueryStatusLock(queryId);
+        return locks.getLock(CACHE_NAME, QueryKey.toUUIDKey(queryId), () -> new QueryStatusLock(queryId));
     }
     
     /**
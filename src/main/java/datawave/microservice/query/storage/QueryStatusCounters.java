@@ -0,0 +1,243 @@
+package datawave.microservice.query.storage;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The frequently updated counters and timestamps of a query status. When split counters are enabled, these are stored separately from the rest of the query
+ * status so that status heartbeats (e.g. next calls) do not have to rewrite the query, configuration, and user details.
+ */
+public class QueryStatusCounters implements Serializable, Fenced {
+    private static final long serialVersionUID = 5024806723305137712L;
+    
+    private String queryId;
+    private long numResultsReturned = 0L;
+    private long numResultsConsumed = 0L;
+    private long numResultsGenerated = 0L;
+    private int activeNextCalls = 0;
+    private long lastPageNumber = 0L;
+    private long nextCount;
+    private long seekCount;
+    private long lastUsedMillis;
+    private long lastUpdatedMillis;
+    // the fencing token of the lease under which the counters were last stored
+    private long fencingToken;
+    
+    public QueryStatusCounters() {}
+    
+    public QueryStatusCounters(QueryStatus queryStatus) {
+        this.queryId = queryStatus.getQueryKey().getQueryId();
+        this.numResultsReturned = queryStatus.getNumResultsReturned();
+        this.numResultsConsumed = queryStatus.getNumResultsConsumed();
+        this.numResultsGenerated = queryStatus.getNumResultsGenerated();
+        this.activeNextCalls = queryStatus.getActiveNextCalls();
+        this.lastPageNumber = queryStatus.getLastPageNumber();
+        this.nextCount = queryStatus.getNextCount();
+        this.seekCount = queryStatus.getSeekCount();
+        this.lastUsedMillis = queryStatus.getLastUsedMillis();
+        this.lastUpdatedMillis = queryStatus.getLastUpdatedMillis();
+    }
+    
+    public QueryStatusCounters(QueryStatusCounters other) {
+        this.queryId = other.queryId;
+        this.numResultsReturned = other.numResultsReturned;
+        this.numResultsConsumed = other.numResultsConsumed;
+        this.numResultsGenerated = other.numResultsGenerated;
+        this.activeNextCalls = other.activeNextCalls;
+        this.lastPageNumber = other.lastPageNumber;
+        this.nextCount = other.nextCount;
+        this.seekCount = other.seekCount;
+        this.lastUsedMillis = other.lastUsedMillis;
+        this.lastUpdatedMillis = other.lastUpdatedMillis;
+        this.fencingToken = other.fencingToken;
+    }
+    
+    /**
+     * Overlay these counters onto a query status
+     * 
+     * @param queryStatus
+     *            the query status to update
+     */
+    public void applyTo(QueryStatus queryStatus) {
+        queryStatus.setNumResultsReturned(numResultsReturned);
+        queryStatus.setNumResultsConsumed(numResultsConsumed);
+        queryStatus.setNumResultsGenerated(numResultsGenerated);
+        queryStatus.setActiveNextCalls(activeNextCalls);
+        queryStatus.setLastPageNumber(lastPageNumber);
+        queryStatus.setNextCount(nextCount);
+        queryStatus.setSeekCount(seekCount);
+        queryStatus.setLastUsedMillis(lastUsedMillis);
+        queryStatus.setLastUpdatedMillis(lastUpdatedMillis);
+    }
+    
+    public String getQueryId() {
+        return queryId;
+    }
+    
+    public void setQueryId(String queryId) {
+        this.queryId = queryId;
+    }
+    
+    public long getNumResultsReturned() {
+        return numResultsReturned;
+    }
+    
+    public void setNumResultsReturned(long numResultsReturned) {
+        this.numResultsReturned = numResultsReturned;
+    }
+    
+    public void incrementNumResultsReturned(long increment) {
+        this.numResultsReturned += increment;
+    }
+    
+    public long getNumResultsConsumed() {
+        return numResultsConsumed;
+    }
+    
+    public void setNumResultsConsumed(long numResultsConsumed) {
+        this.numResultsConsumed = numResultsConsumed;
+    }
+    
+    public void incrementNumResultsConsumed(long increment) {
+        this.numResultsConsumed += increment;
+    }
+    
+    public long getNumResultsGenerated() {
+        return numResultsGenerated;
+    }
+    
+    public void setNumResultsGenerated(long numResultsGenerated) {
+        this.numResultsGenerated = numResultsGenerated;
+    }
+    
+    public void incrementNumResultsGenerated(long increment) {
+        this.numResultsGenerated += increment;
+    }
+    
+    public int getActiveNextCalls() {
+        return activeNextCalls;
+    }
+    
+    public void setActiveNextCalls(int activeNextCalls) {
+        this.activeNextCalls = activeNextCalls;
+    }
+    
+    public long getLastPageNumber() {
+        return lastPageNumber;
+    }
+    
+    public void setLastPageNumber(long lastPageNumber) {
+        this.lastPageNumber = lastPageNumber;
+    }
+    
+    public long getNextCount() {
+        return nextCount;
+    }
+    
+    public void incrementNextCount(long increment) {
+        this.nextCount += increment;
+    }
+    
+    public void setNextCount(long nextCount) {
+        this.nextCount = nextCount;
+    }
+    
+    public long getSeekCount() {
+        return seekCount;
+    }
+    
+    public void incrementSeekCount(long increment) {
+        this.seekCount += increment;
+    }
+    
+    public void setSeekCount(long seekCount) {
+        this.seekCount = seekCount;
+    }
+    
+    public long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+    
+    public void setLastUsedMillis(long lastUsedMillis) {
+        this.lastUsedMillis = lastUsedMillis;
+    }
+    
+    public long getLastUpdatedMillis() {
+        return lastUpdatedMillis;
+    }
+    
+    public void setLastUpdatedMillis(long lastUpdatedMillis) {
+        this.lastUpdatedMillis = lastUpdatedMillis;
+    }
+    
+    @Override
+    public long getFencingToken() {
+        return fencingToken;
+    }
+    
+    @Override
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+    
+    @Override
+    public int hashCode() {
+        // @formatter:off
+        return new HashCodeBuilder()
+                .append(queryId)
+                .append(numResultsReturned)
+                .append(numResultsConsumed)
+                .append(numResultsGenerated)
+                .append(activeNextCalls)
+                .append(lastPageNumber)
+                .append(nextCount)
+                .append(seekCount)
+                .append(lastUsedMillis)
+                .append(lastUpdatedMillis)
+                .build();
+        // @formatter:on
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof QueryStatusCounters) {
+            QueryStatusCounters other = (QueryStatusCounters) obj;
+            // @formatter:off
+            return new EqualsBuilder()
+                    .append(queryId, other.queryId)
+                    .append(numResultsReturned, other.numResultsReturned)
+                    .append(numResultsConsumed, other.numResultsConsumed)
+                    .append(numResultsGenerated, other.numResultsGenerated)
+                    .append(activeNextCalls, other.activeNextCalls)
+                    .append(lastPageNumber, other.lastPageNumber)
+                    .append(nextCount, other.nextCount)
+                    .append(seekCount, other.seekCount)
+                    .append(lastUsedMillis, other.lastUsedMillis)
+                    .append(lastUpdatedMillis, other.lastUpdatedMillis)
+                    .build();
+            // @formatter:on
+        }
+        return false;
+    }
+    
+    @Override
+    public String toString() {
+        // @formatter:off
+        return new ToStringBuilder(this)
+                .append("queryId", queryId)
+                .append("numResultsReturned", numResultsReturned)
+                .append("numResultsConsumed", numResultsConsumed)
+                .append("numResultsGenerated", numResultsGenerated)
+                .append("activeNextCalls", activeNextCalls)
+                .append("lastPageNumber", lastPageNumber)
+                .append("nextCount", nextCount)
+                .append("seekCount", seekCount)
+                .append("lastUsed", lastUsedMillis)
+                .append("lastUpdated", lastUpdatedMillis)
+                .build();
+        // @formatter:on
+    }
+}
@@ -0,0 +1,36 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which applies a {@link QueryStatusCountersMutator} to the query status counters on the member which owns them.
+ */
+public class QueryStatusCountersEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = -2206418253396574810L;
+    
+    private final QueryStatusCountersMutator mutator;
+    
+    public QueryStatusCountersEntryProcessor(QueryStatusCountersMutator mutator) {
+        this.mutator = mutator;
+    }
+    
+    /**
+     * Apply the mutator to the query status counters
+     * 
+     * @param entry
+     *            the query status counters entry
+     * @return true if the counters existed and were updated, false otherwise
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof QueryStatusCounters) {
+            QueryStatusCounters counters = (QueryStatusCounters) entry.getValue();
+            mutator.mutate(counters);
+            entry.setValue(counters);
+            return true;
+        }
+        return false;
+    }
+}
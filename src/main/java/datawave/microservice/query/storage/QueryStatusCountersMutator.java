@@ -0,0 +1,18 @@
+package datawave.microservice.query.storage;
+
+import java.io.Serializable;
+
+/**
+ * A mutation that can be applied to the counters of a stored query status. When the counters are stored in Hazelcast, the mutator is serialized and applied on
+ * the member which owns the counters, so implementations (including any captured state) must be serializable and available on the member's classpath.
+ */
+@FunctionalInterface
+public interface QueryStatusCountersMutator extends Serializable {
+    /**
+     * Apply this mutation to the query status counters
+     * 
+     * @param counters
+     *            the counters to update
+     */
+    void mutate(QueryStatusCounters counters);
+}
@@ -0,0 +1,38 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which applies a {@link QueryStatusMutator} to a query status on the member which owns it. This avoids locking the query status and
+ * moving the entire query status over the wire for simple updates.
+ */
+public class QueryStatusEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = 3542107541813290451L;
+    
+    private final QueryStatusMutator mutator;
+    
+    public QueryStatusEntryProcessor(QueryStatusMutator mutator) {
+        this.mutator = mutator;
+    }
+    
+    /**
+     * Apply the mutator to the query status
+     * 
+     * @param entry
+     *            the query status entry
+     * @return true if the query status existed and was updated, false otherwise
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof QueryStatus) {
+            QueryStatus queryStatus = (QueryStatus) entry.getValue();
+            mutator.mutate(queryStatus);
+            queryStatus.incrementVersion();
+            entry.setValue(queryStatus);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,19 @@
+package datawave.microservice.query.storage;
+
+import java.io.Serializable;
+
+/**
+ * A mutation that can be applied to a stored query status without locking it. When the query status cache is backed by Hazelcast, the mutator is serialized
+ * and applied on the member which owns the query status, so implementations (including any captured state) must be serializable and available on the member's
+ * classpath.
+ */
+@FunctionalInterface
+public interface QueryStatusMutator extends Serializable {
+    /**
+     * Apply this mutation to the query status
+     * 
+     * @param queryStatus
+     *            the query status to update
+     */
+    void mutate(QueryStatus queryStatus);
+}
@@ -0,0 +1,160 @@
+package datawave.microservice.query.storage;
+
+import datawave.webservice.query.exception.DatawaveErrorCode;
+
+/**
+ * The query status mutations applied by the query storage cache. Each is a named class holding only serializable state, rather than a lambda, so that it can be
+ * sent to the Hazelcast member which owns the query status.
+ */
+public final class QueryStatusMutators {
+    
+    private QueryStatusMutators() {}
+    
+    /**
+     * Sets the query state, see {@link QueryStatus#setQueryState(QueryStatus.QUERY_STATE)}
+     */
+    public static class SetQueryState implements QueryStatusMutator {
+        private static final long serialVersionUID = 6227740178815529730L;
+        
+        private final QueryStatus.QUERY_STATE queryState;
+        
+        public SetQueryState(QueryStatus.QUERY_STATE queryState) {
+            this.queryState = queryState;
+        }
+        
+        @Override
+        public void mutate(QueryStatus queryStatus) {
+            queryStatus.setQueryState(queryState);
+        }
+    }
+    
+    /**
+     * Sets the query create stage, see {@link QueryStatus#setCreateStage(QueryStatus.CREATE_STAGE)}
+     */
+    public static class SetCreateStage implements QueryStatusMutator {
+        private static final long serialVersionUID = -1830279616470215254L;
+        
+        private final QueryStatus.CREATE_STAGE createStage;
+        
+        public SetCreateStage(QueryStatus.CREATE_STAGE createStage) {
+            this.createStage = createStage;
+        }
+        
+        @Override
+        public void mutate(QueryStatus queryStatus) {
+            queryStatus.setCreateStage(createStage);
+        }
+    }
+    
+    /**
+     * Fails the query. The failure is rendered when the mutator is created, so the exception itself is never serialized.
+     */
+    public static class Fail implements QueryStatusMutator {
+        private static final long serialVersionUID = 4130938361316651127L;
+        
+        private final DatawaveErrorCode errorCode;
+        private final String failureMessage;
+        private final String stackTrace;
+        
+        public Fail(DatawaveErrorCode errorCode, Exception failure) {
+            this.errorCode = errorCode;
+            this.failureMessage = failure.getMessage();
+            this.stackTrace = QueryStatus.toStackTrace(failure);
+        }
+        
+        @Override
+        public void mutate(QueryStatus queryStatus) {
+            queryStatus.setQueryState(QueryStatus.QUERY_STATE.FAIL);
+            queryStatus.setErrorCode(errorCode);
+            queryStatus.setFailureMessage(failureMessage);
+            queryStatus.setStackTrace(stackTrace);
+        }
+    }
+    
+    /**
+     * Applies another mutation and then updates the last updated time
+     */
+    public static class Timestamped implements QueryStatusMutator {
+        private static final long serialVersionUID = -2955961226530800307L;
+        
+        private final QueryStatusMutator mutator;
+        
+        public Timestamped(QueryStatusMutator mutator) {
+            this.mutator = mutator;
+        }
+        
+        @Override
+        public void mutate(QueryStatus queryStatus) {
+            mutator.mutate(queryStatus);
+            queryStatus.setLastUpdatedMillis(System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * Applies a counters mutation to a query status whose counters are not stored separately
+     */
+    public static class MutateCounters implements QueryStatusMutator {
+        private static final long serialVersionUID = 8879043658412170425L;
+        
+        private final QueryStatusCountersMutator mutator;
+        
+        public MutateCounters(QueryStatusCountersMutator mutator) {
+            this.mutator = mutator;
+        }
+        
+        @Override
+        public void mutate(QueryStatus queryStatus) {
+            QueryStatusCounters counters = new QueryStatusCounters(queryStatus);
+            mutator.mutate(counters);
+            counters.applyTo(queryStatus);
+        }
+    }
+    
+    /**
+     * Applies the changes made to a copy of the counters since it was read. The counts are adjusted by the difference, and the times take the latest value, so
+     * that mutations applied to the stored counters in the meantime are kept.
+     */
+    public static class MergeCounters implements QueryStatusCountersMutator {
+        private static final long serialVersionUID = -7312068452270419641L;
+        
+        private final QueryStatusCounters original;
+        private final QueryStatusCounters updated;
+        
+        public MergeCounters(QueryStatusCounters original, QueryStatusCounters updated) {
+            this.original = original;
+            this.updated = updated;
+        }
+        
+        @Override
+        public void mutate(QueryStatusCounters counters) {
+            counters.incrementNumResultsReturned(updated.getNumResultsReturned() - original.getNumResultsReturned());
+            counters.incrementNumResultsConsumed(updated.getNumResultsConsumed() - original.getNumResultsConsumed());
+            counters.incrementNumResultsGenerated(updated.getNumResultsGenerated() - original.getNumResultsGenerated());
+            counters.setActiveNextCalls(counters.getActiveNextCalls() + updated.getActiveNextCalls() - original.getActiveNextCalls());
+            counters.setLastPageNumber(counters.getLastPageNumber() + updated.getLastPageNumber() - original.getLastPageNumber());
+            counters.incrementNextCount(updated.getNextCount() - original.getNextCount());
+            counters.incrementSeekCount(updated.getSeekCount() - original.getSeekCount());
+            counters.setLastUsedMillis(Math.max(counters.getLastUsedMillis(), updated.getLastUsedMillis()));
+            counters.setLastUpdatedMillis(Math.max(counters.getLastUpdatedMillis(), updated.getLastUpdatedMillis()));
+        }
+    }
+    
+    /**
+     * Applies another counters mutation and then updates the last updated time
+     */
+    public static class TimestampedCounters implements QueryStatusCountersMutator {
+        private static final long serialVersionUID = 1563383720468254926L;
+        
+        private final QueryStatusCountersMutator mutator;
+        
+        public TimestampedCounters(QueryStatusCountersMutator mutator) {
+            this.mutator = mutator;
+        }
+        
+        @Override
+        public void mutate(QueryStatusCounters counters) {
+            mutator.mutate(counters);
+            counters.setLastUpdatedMillis(System.currentTimeMillis());
+        }
+    }
+}
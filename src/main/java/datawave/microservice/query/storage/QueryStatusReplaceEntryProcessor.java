@@ -0,0 +1,38 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which replaces the stored query status only if it is still at the expected version, so that a whole query status which was read,
+ * updated and written back never overwrites a mutation applied concurrently by a {@link QueryStatusEntryProcessor}.
+ */
+public class QueryStatusReplaceEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = -4417295430811863577L;
+    
+    private final long expectedVersion;
+    private final QueryStatus queryStatus;
+    
+    public QueryStatusReplaceEntryProcessor(long expectedVersion, QueryStatus queryStatus) {
+        this.expectedVersion = expectedVersion;
+        this.queryStatus = queryStatus;
+    }
+    
+    /**
+     * Replace the query status if it is at the expected version
+     * 
+     * @param entry
+     *            the query status entry
+     * @return true if the query status was replaced, false otherwise
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof QueryStatus && ((QueryStatus) entry.getValue()).getVersion() == expectedVersion) {
+            queryStatus.setVersion(expectedVersion + 1);
+            entry.setValue(queryStatus);
+            return true;
+        }
+        return false;
+    }
+}
@@ -113,13 +113,38 @@ public interface QueryStorageCache {
     List<QueryStatus> getQueryStatus();
     
     /**
-     * update the query status
+     * Get the current query status, allowing a locally cached copy which may be stale by up to the configured near cache max staleness. The returned query
+     * status should not be modified.
+     *
+     * @param queryId
+     *            the query id
+     * @return the query status
+     */
+    default QueryStatus getCachedQueryStatus(String queryId) {
+        return getQueryStatus(queryId);
+    }
+    
+    /**
+     * update the query status. If atomic updates are enabled, then the query status is only replaced if it has not been updated since it was read, since the
+     * lock free mutations may be applied at any time. Use {@link #replaceQueryStatus(QueryStatus)} to retry such a conflict.
      * 
      * @param queryStatus
      *            the query status
+     * @throws IllegalStateException
+     *             if atomic updates are enabled and the query status was updated since it was read
      */
     void updateQueryStatus(QueryStatus queryStatus);
     
+    /**
+     * Replace the query status only if it has not been updated (including by a mutation) since it was read. This will also update the last updated time in
+     * the query status.
+     *
+     * @param queryStatus
+     *            the query status
+     * @return true if the query status was replaced, false if it does not exist or was updated since it was read
+     */
+    boolean replaceQueryStatus(QueryStatus queryStatus);
+    
     /**
      * Update the query status state
      * 
@@ -150,6 +175,30 @@ public interface QueryStorageCache {
      */
     void updateFailedQueryStatus(String queryId, Exception e);
     
+    /**
+     * Apply a mutation to the query status. This will also update the last updated time in the query status. If atomic updates are enabled then the mutation
+     * is applied without taking the query status lock, otherwise the query status is locked, retrieved, mutated, and stored.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status existed and was updated, false otherwise
+     */
+    boolean updateQueryStatus(String queryId, QueryStatusMutator mutator);
+    
+    /**
+     * Apply a mutation to the query status counters (e.g. results returned, active next calls, last used time). This will also update the last updated time.
+     * If split counters are enabled then only the counters are rewritten, and if atomic updates are enabled then the query status lock is not taken.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status existed and was updated, false otherwise
+     */
+    boolean updateQueryStatusCounters(String queryId, QueryStatusCountersMutator mutator);
+    
     /**
      * Update a task state
      *
@@ -188,6 +237,18 @@ public interface QueryStorageCache {
      */
     TaskStates getTaskStates(String queryId);
     
+    /**
+     * Get the current task states, allowing a locally cached copy which may be stale by up to the configured near cache max staleness. The returned task states
+     * should not be modified.
+     *
+     * @param queryId
+     *            the query id
+     * @return the task states
+     */
+    default TaskStates getCachedTaskStates(String queryId) {
+        return getTaskStates(queryId);
+    }
+    
     /**
      * update the query status
      * 
@@ -196,6 +257,18 @@ public interface QueryStorageCache {
      */
     void updateTaskStates(TaskStates taskStates);
     
+    /**
+     * Apply a mutation to the task states. If optimistic task states are enabled then the mutation is applied with a conditional replace, only falling back to
+     * the task states lock under heavy contention. Otherwise the task states are locked, retrieved, mutated, and stored.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply, which may be applied more than once
+     * @return true if the task states existed and were changed by the mutation, false otherwise
+     */
+    boolean updateTaskStates(String queryId, TaskStatesMutator mutator);
+    
     /**
      * Create a new query task. This will create a new query task, store it.
      * 
@@ -209,6 +282,19 @@ public interface QueryStorageCache {
      */
     QueryTask createTask(QueryRequest.Method action, QueryCheckpoint checkpoint) throws IOException;
     
+    /**
+     * Create a set of new query tasks. This will allocate a contiguous range of task ids, store all of the tasks, and update the task states once.
+     *
+     * @param action
+     *            The query action
+     * @param checkpoints
+     *            The query checkpoints, all of which must be for the same query
+     * @return The new query tasks in checkpoint order
+     * @throws IOException
+     *             underlying storage error
+     */
+    List<QueryTask> createTasks(QueryRequest.Method action, List<QueryCheckpoint> checkpoints) throws IOException;
+    
     /**
      * Get a task for a given task key. This return null if the task no longer exists.
      *
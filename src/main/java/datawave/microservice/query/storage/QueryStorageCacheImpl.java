@@ -1,6 +1,7 @@
 package datawave.microservice.query.storage;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -17,8 +18,12 @@ import datawave.microservice.authorization.user.DatawaveUserDetails;
 import datawave.microservice.query.Query;
 import datawave.microservice.query.messaging.QueryResultsManager;
 import datawave.microservice.query.remote.QueryRequest;
+import datawave.microservice.query.storage.config.QueryStorageProperties;
 import datawave.webservice.query.exception.DatawaveErrorCode;
 import datawave.webservice.query.exception.QueryException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 @Service
 @ConditionalOnProperty(name = "datawave.query.storage.cache.enabled", havingValue = "true", matchIfMissing = true)
@@ -30,13 +35,26 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
     private final TaskStatesCache taskStatesCache;
     private final TaskCache taskCache;
     private final QueryResultsManager queue;
+    private final QueryStorageProperties queryStorageProperties;
+    
+    // the number of tasks created per task states update, whether made under the lock or optimistically
+    private final DistributionSummary tasksPerLock;
     
     public QueryStorageCacheImpl(QueryStatusCache queryStatusCache, TaskStatesCache taskStatesCache, TaskCache taskCache,
-                    @Autowired(required = false) QueryResultsManager queue) {
+                    @Autowired(required = false) QueryResultsManager queue, QueryStorageProperties queryStorageProperties,
+                    @Autowired(required = false) MeterRegistry meterRegistry) {
         this.queryStatusCache = queryStatusCache;
         this.taskStatesCache = taskStatesCache;
         this.taskCache = taskCache;
         this.queue = queue;
+        this.queryStorageProperties = queryStorageProperties;
+        
+        // @formatter:off
+        this.tasksPerLock = DistributionSummary.builder("query.storage.tasks.per.lock")
+                .description("The number of query tasks created per task states update")
+                .baseUnit("tasks")
+                .register(meterRegistry != null ? meterRegistry : Metrics.globalRegistry);
+        // @formatter:on
     }
     
     /**
@@ -76,7 +94,18 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
      */
     @Override
     public TaskKey createQuery(String queryPool, Query query, DatawaveUserDetails currentUser, Set<Authorizations> calculatedAuthorizations, int count) {
-        return storeQuery(queryPool, query, currentUser, calculatedAuthorizations, count, QueryStatus.QUERY_STATE.CREATE);
+        TaskKey taskKey = storeQuery(queryPool, query, currentUser, calculatedAuthorizations, count, QueryStatus.QUERY_STATE.CREATE);
+        
+        // get the results topic or queue ready while the query is being planned, so the first results don't wait on the broker
+        if (queue != null) {
+            String queryId = taskKey.getQueryId();
+            queue.prepareQuery(queryId).whenComplete((v, e) -> {
+                if (e != null) {
+                    log.warn("Failed to prepare the results queue for query " + queryId, e);
+                }
+            });
+        }
+        return taskKey;
     }
     
     /**
@@ -146,6 +175,11 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
             TaskStates taskStates = new TaskStates(queryKey, count);
             taskStatesCache.updateTaskStates(taskStates);
             
+            // the results queue must be initialized before the task is dispatched, since the executors may publish results as soon as they pick it up
+            if (queryState == QueryStatus.QUERY_STATE.CREATE && queue != null) {
+                queue.initializeQuery(queryId);
+            }
+            
             // create and store the initial task with the checkpoint
             QueryTask task = createTask(stateToMethod(queryState), checkpoint);
             return task.getTaskKey();
@@ -199,14 +233,48 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
     }
     
     /**
-     * update the query properties
+     * Get the current query properties, allowing a locally cached copy which may be stale by up to the configured near cache max staleness.
+     *
+     * @param queryId
+     *            the query id
+     * @return the query properties
+     */
+    @Override
+    public QueryStatus getCachedQueryStatus(String queryId) {
+        return queryStatusCache.getCachedQueryStatus(queryId);
+    }
+    
+    /**
+     * update the query properties. If atomic updates are enabled, then the query properties are only replaced if they have not been updated since they were
+     * read, since the lock free mutations may be applied at any time.
      * 
      * @param queryStatus
      *            the query properties
+     * @throws IllegalStateException
+     *             if atomic updates are enabled and the query properties were updated since they were read
      */
     public void updateQueryStatus(QueryStatus queryStatus) {
+        if (queryStorageProperties.isAtomicUpdates()) {
+            if (!replaceQueryStatus(queryStatus)) {
+                throw new IllegalStateException("The query status for " + queryStatus.getQueryKey().getQueryId() + " was updated since it was read");
+            }
+        } else {
+            queryStatus.setLastUpdatedMillis(System.currentTimeMillis());
+            queryStatusCache.updateQueryStatus(queryStatus);
+        }
+    }
+    
+    /**
+     * Replace the query properties only if they have not been updated since they were read. This will also update the last updated time in the query status.
+     *
+     * @param queryStatus
+     *            the query properties
+     * @return true if the query properties were replaced, false if they do not exist or were updated since they were read
+     */
+    @Override
+    public boolean replaceQueryStatus(QueryStatus queryStatus) {
         queryStatus.setLastUpdatedMillis(System.currentTimeMillis());
-        queryStatusCache.updateQueryStatus(queryStatus);
+        return queryStatusCache.replaceQueryStatus(queryStatus);
     }
     
     /**
@@ -219,15 +287,7 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
      */
     @Override
     public void updateQueryStatus(String queryId, QueryStatus.QUERY_STATE state) {
-        QueryStorageLock lock = queryStatusCache.getQueryStatusLock(queryId);
-        lock.lock();
-        try {
-            QueryStatus status = queryStatusCache.getQueryStatus(queryId);
-            status.setQueryState(state);
-            updateQueryStatus(status);
-        } finally {
-            lock.unlock();
-        }
+        updateExistingQueryStatus(queryId, new QueryStatusMutators.SetQueryState(state));
     }
     
     /**
@@ -240,39 +300,94 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
      */
     @Override
     public void updateCreateStage(String queryId, QueryStatus.CREATE_STAGE stage) {
+        updateExistingQueryStatus(queryId, new QueryStatusMutators.SetCreateStage(stage));
+    }
+    
+    /**
+     * Update the query status state
+     *
+     * @param queryId
+     *            The query id
+     * @param e
+     *            the exception
+     */
+    @Override
+    public void updateFailedQueryStatus(String queryId, Exception e) {
+        updateExistingQueryStatus(queryId, new QueryStatusMutators.Fail(getErrorCode(e), e));
+    }
+    
+    /**
+     * Apply a mutation to the query status. This will also update the last updated time in the query status.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status existed and was updated, false otherwise
+     */
+    @Override
+    public boolean updateQueryStatus(String queryId, QueryStatusMutator mutator) {
+        if (queryStorageProperties.isAtomicUpdates()) {
+            return queryStatusCache.mutateQueryStatus(queryId, new QueryStatusMutators.Timestamped(mutator));
+        }
+        
         QueryStorageLock lock = queryStatusCache.getQueryStatusLock(queryId);
         lock.lock();
         try {
             QueryStatus status = queryStatusCache.getQueryStatus(queryId);
-            status.setCreateStage(stage);
+            if (status == null) {
+                return false;
+            }
+            mutator.mutate(status);
             updateQueryStatus(status);
+            return true;
         } finally {
             lock.unlock();
         }
     }
     
     /**
-     * Update the query status state
+     * Apply a mutation to the query status counters. This will also update the last updated time.
      *
      * @param queryId
      *            The query id
-     * @param e
-     *            the exception
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the query status existed and was updated, false otherwise
      */
     @Override
-    public void updateFailedQueryStatus(String queryId, Exception e) {
+    public boolean updateQueryStatusCounters(String queryId, QueryStatusCountersMutator mutator) {
+        if (!queryStatusCache.isSplitCounters()) {
+            return updateQueryStatus(queryId, new QueryStatusMutators.MutateCounters(mutator));
+        }
+        
+        QueryStatusCountersMutator timestampedMutator = new QueryStatusMutators.TimestampedCounters(mutator);
+        
+        if (queryStorageProperties.isAtomicUpdates()) {
+            return queryStatusCache.mutateQueryStatusCounters(queryId, timestampedMutator);
+        }
+        
         QueryStorageLock lock = queryStatusCache.getQueryStatusLock(queryId);
         lock.lock();
         try {
-            QueryStatus status = queryStatusCache.getQueryStatus(queryId);
-            status.setQueryState(QueryStatus.QUERY_STATE.FAIL);
-            status.setFailure(getErrorCode(e), e);
-            updateQueryStatus(status);
+            QueryStatusCounters counters = queryStatusCache.getQueryStatusCounters(queryId);
+            if (counters == null) {
+                return false;
+            }
+            timestampedMutator.mutate(counters);
+            queryStatusCache.updateQueryStatusCounters(counters);
+            return true;
         } finally {
             lock.unlock();
         }
     }
     
+    private void updateExistingQueryStatus(String queryId, QueryStatusMutator mutator) {
+        if (!updateQueryStatus(queryId, mutator)) {
+            throw new IllegalStateException("Could not find a query status for " + queryId);
+        }
+    }
+    
     protected DatawaveErrorCode getErrorCode(Exception e) {
         DatawaveErrorCode code = DatawaveErrorCode.QUERY_EXECUTION_ERROR;
         if (e instanceof QueryException) {
@@ -291,11 +406,29 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
      */
     @Override
     public boolean updateTaskState(TaskKey taskKey, TaskStates.TASK_STATE state) {
-        QueryStorageLock lock = taskStatesCache.getTaskStatesLock(taskKey.getQueryId());
+        return updateTaskStates(taskKey.getQueryId(), states -> states.setState(taskKey.getTaskId(), state));
+    }
+    
+    /**
+     * Apply a mutation to the task states
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply, which may be applied more than once
+     * @return true if the task states existed and were changed by the mutation, false otherwise
+     */
+    @Override
+    public boolean updateTaskStates(String queryId, TaskStatesMutator mutator) {
+        if (queryStorageProperties.isOptimisticTaskStates()) {
+            return taskStatesCache.mutateTaskStates(queryId, mutator);
+        }
+        
+        QueryStorageLock lock = taskStatesCache.getTaskStatesLock(queryId);
         lock.lock();
         try {
-            TaskStates states = taskStatesCache.getTaskStates(taskKey.getQueryId());
-            if (states != null && states.setState(taskKey.getTaskId(), state)) {
+            TaskStates states = taskStatesCache.getTaskStates(queryId);
+            if (states != null && mutator.mutate(states)) {
                 updateTaskStates(states);
                 return true;
             }
@@ -341,6 +474,18 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
         return taskStatesCache.getTaskStates(queryId);
     }
     
+    /**
+     * Get the current task states, allowing a locally cached copy which may be stale by up to the configured near cache max staleness.
+     *
+     * @param queryId
+     *            the query id
+     * @return the task states
+     */
+    @Override
+    public TaskStates getCachedTaskStates(String queryId) {
+        return taskStatesCache.getCachedTaskStates(queryId);
+    }
+    
     /**
      * update the query status
      *
@@ -367,6 +512,10 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
         
         String queryId = checkpoint.getQueryKey().getQueryId();
         
+        if (queryStorageProperties.isOptimisticTaskStates()) {
+            return createTasksOptimistically(queryId, action, Collections.singletonList(checkpoint)).get(0);
+        }
+        
         QueryStorageLock lock = taskStatesCache.getTaskStatesLock(queryId);
         lock.lock();
         try {
@@ -374,6 +523,7 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
             TaskStates states = taskStatesCache.getTaskStates(queryId);
             
             int taskId = states.getAndIncrementNextTaskId();
+            reserveTaskIds(lock, states);
             
             // create a query task in the cache
             task = taskCache.addQueryTask(taskId, action, checkpoint);
@@ -381,6 +531,8 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
             states.setState(taskId, TaskStates.TASK_STATE.READY);
             
             taskStatesCache.updateTaskStates(states);
+            
+            tasksPerLock.record(1);
         } catch (Exception e) {
             log.error("Failed to add query task", e);
             throw new RuntimeException("Failed to add query task", e);
@@ -392,6 +544,149 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
         return task;
     }
     
+    /**
+     * Create a set of new query tasks. This will allocate a contiguous range of task ids, store all of the tasks with a single bulk put, and update the task
+     * states once under a single acquisition of the task states lock.
+     *
+     * @param action
+     *            The query action
+     * @param checkpoints
+     *            The query checkpoints, all of which must be for the same query
+     * @return The new query tasks in checkpoint order
+     */
+    @Override
+    public List<QueryTask> createTasks(QueryRequest.Method action, List<QueryCheckpoint> checkpoints) {
+        if (checkpoints.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        String queryId = checkpoints.get(0).getQueryKey().getQueryId();
+        for (QueryCheckpoint checkpoint : checkpoints) {
+            if (!queryId.equals(checkpoint.getQueryKey().getQueryId())) {
+                throw new IllegalArgumentException("Checkpoint query key " + checkpoint.getQueryKey() + " does not match query id " + queryId);
+            }
+        }
+        
+        List<QueryTask> tasks;
+        
+        if (queryStorageProperties.isOptimisticTaskStates()) {
+            tasks = createTasksOptimistically(queryId, action, checkpoints);
+        } else {
+            tasks = createTasksLocked(queryId, action, checkpoints);
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Created " + tasks.size() + " tasks for query " + queryId);
+        }
+        
+        // return the tasks
+        return tasks;
+    }
+    
+    private List<QueryTask> createTasksLocked(String queryId, QueryRequest.Method action, List<QueryCheckpoint> checkpoints) {
+        List<QueryTask> tasks;
+        
+        QueryStorageLock lock = taskStatesCache.getTaskStatesLock(queryId);
+        lock.lock();
+        try {
+            TaskStates states = taskStatesCache.getTaskStates(queryId);
+            if (states == null) {
+                throw new IllegalStateException("Could not find the task states for " + queryId);
+            }
+            
+            int firstTaskId = states.getAndAddNextTaskIds(checkpoints.size());
+            reserveTaskIds(lock, states);
+            
+            // create the query tasks in the cache
+            tasks = taskCache.addQueryTasks(firstTaskId, action, checkpoints);
+            
+            // Set the initial ready state in the task states
+            for (QueryTask task : tasks) {
+                states.setState(task.getTaskKey().getTaskId(), TaskStates.TASK_STATE.READY);
+            }
+            
+            taskStatesCache.updateTaskStates(states);
+            
+            tasksPerLock.record(tasks.size());
+        } catch (IllegalStateException e) {
+            log.error("Failed to add query tasks", e);
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to add query tasks", e);
+            throw new RuntimeException("Failed to add query tasks", e);
+        } finally {
+            lock.unlock();
+        }
+        return tasks;
+    }
+    
+    /**
+     * When the task states lock is a lease, store the allocated task ids with a fenced write before the tasks are stored. Otherwise a holder whose lease had
+     * expired could store its tasks over those of the next holder, which allocated the same task ids, before its task states write was rejected.
+     *
+     * @param lock
+     *            the task states lock
+     * @param states
+     *            the task states with the task ids allocated
+     */
+    private void reserveTaskIds(QueryStorageLock lock, TaskStates states) {
+        if (lock.getFencingToken() >= 0) {
+            taskStatesCache.updateTaskStates(states);
+        }
+    }
+    
+    /**
+     * Create query tasks without taking the task states lock. The task ids are reserved with one task states mutation, then the tasks are stored, and then the
+     * tasks are marked as ready with a second mutation so that a task is never ready before it has been stored. Reserved task ids are covered when the tasks
+     * for a query are deleted, and if the task states are gone by the time the tasks are marked as ready then the stored tasks are deleted here.
+     *
+     * @param queryId
+     *            The query id
+     * @param action
+     *            The query action
+     * @param checkpoints
+     *            The query checkpoints
+     * @return The new query tasks in checkpoint order
+     */
+    private List<QueryTask> createTasksOptimistically(String queryId, QueryRequest.Method action, List<QueryCheckpoint> checkpoints) {
+        try {
+            // the mutation may be retried, so only the task ids from the successful attempt are kept
+            int[] firstTaskId = new int[1];
+            if (!taskStatesCache.mutateTaskStates(queryId, states -> {
+                firstTaskId[0] = states.getAndAddNextTaskIds(checkpoints.size());
+                return true;
+            })) {
+                throw new IllegalStateException("Could not find the task states for " + queryId);
+            }
+            
+            // create the query tasks in the cache
+            List<QueryTask> tasks = taskCache.addQueryTasks(firstTaskId[0], action, checkpoints);
+            
+            // Set the initial ready state in the task states
+            if (!taskStatesCache.mutateTaskStates(queryId, states -> {
+                for (QueryTask task : tasks) {
+                    states.setState(task.getTaskId(), TaskStates.TASK_STATE.READY);
+                }
+                return true;
+            })) {
+                // the query was deleted after the task ids were reserved, so do not leave the tasks behind
+                for (QueryTask task : tasks) {
+                    taskCache.deleteTask(task.getTaskKey());
+                }
+                throw new IllegalStateException("Could not find the task states for " + queryId);
+            }
+            
+            tasksPerLock.record(tasks.size());
+            return tasks;
+        } catch (IllegalStateException e) {
+            log.error("Failed to add query tasks", e);
+            throw e;
+        } catch (Exception e) {
+            log.error("Failed to add query tasks", e);
+            throw new RuntimeException("Failed to add query tasks", e);
+        }
+    }
+    
     /**
      * Get a task for a given task key and lock it for processing. This return null if the task no longer exists. This will throw an exception if the task is
      * already locked.
@@ -444,8 +739,9 @@ public class QueryStorageCacheImpl implements QueryStorageCache {
         try {
             boolean existed = (queryStatusCache.getQueryStatus(queryId) != null);
             queryStatusCache.deleteQueryStatus(queryId);
-            taskStatesCache.deleteTaskStates(queryId);
+            // the task states are used to find the tasks, so delete the tasks first
             taskCache.deleteTasks(queryId);
+            taskStatesCache.deleteTaskStates(queryId);
             
             if (queue != null) {
                 queue.deleteQuery(queryId);
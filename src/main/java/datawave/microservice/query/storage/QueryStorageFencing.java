@@ -0,0 +1,86 @@
+package datawave.microservice.query.storage;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.cache.Cache;
+
+import com.hazelcast.map.IMap;
+
+/**
+ * Stores the values which are written while holding a query storage lock. When the lock is a lease, the write carries the lease's fencing token and is rejected
+ * if the stored value was written under a newer lease. When the cache is backed by Hazelcast the token is compared by an entry processor on the member which
+ * owns the entry, and when it is backed by a concurrent map of objects it is compared with a conditional replace. Otherwise the stored token is checked before
+ * the write, which narrows but can not close the window for a stale write.
+ */
+public class QueryStorageFencing {
+    
+    private QueryStorageFencing() {}
+    
+    /**
+     * Store a value written under a query storage lock
+     *
+     * @param cache
+     *            the cache
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param fencingToken
+     *            the fencing token of the lease held by the writer, or -1 if the lock is not a lease
+     * @throws IllegalStateException
+     *             if the stored value was written under a newer lease
+     */
+    @SuppressWarnings("unchecked")
+    public static void put(Cache cache, Object key, Fenced value, long fencingToken) {
+        if (fencingToken < 0) {
+            cache.put(key, value);
+            return;
+        }
+        
+        boolean stored;
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof IMap) {
+            stored = Boolean.TRUE.equals(((IMap<Object,Object>) nativeCache).executeOnKey(key, new FencedPutEntryProcessor(fencingToken, value)));
+        } else if (nativeCache instanceof ConcurrentMap) {
+            stored = replace(cache, (ConcurrentMap<Object,Object>) nativeCache, key, value, fencingToken);
+        } else {
+            stored = checkAndPut(cache, key, value, fencingToken);
+        }
+        
+        if (!stored) {
+            throw new IllegalStateException("Rejected a write to " + cache.getName() + " for " + key + " with fencing token " + fencingToken
+                            + " because it was written under a newer lease");
+        }
+    }
+    
+    private static boolean replace(Cache cache, ConcurrentMap<Object,Object> map, Object key, Fenced value, long fencingToken) {
+        while (true) {
+            Object current = map.get(key);
+            if (current != null && !(current instanceof Fenced)) {
+                // the cache is storing serialized values, so we cannot compare and set
+                return checkAndPut(cache, key, value, fencingToken);
+            } else if (current != null && ((Fenced) current).getFencingToken() > fencingToken) {
+                return false;
+            }
+            value.setFencingToken(fencingToken);
+            if (current == null) {
+                if (map.putIfAbsent(key, value) == null) {
+                    return true;
+                }
+            } else if (map.computeIfPresent(key, (k, v) -> v == current ? value : v) == value) {
+                // compare by identity, since the values' equality ignores the fencing token
+                return true;
+            }
+        }
+    }
+    
+    private static boolean checkAndPut(Cache cache, Object key, Fenced value, long fencingToken) {
+        Cache.ValueWrapper current = cache.get(key);
+        if (current != null && current.get() instanceof Fenced && ((Fenced) current.get()).getFencingToken() > fencingToken) {
+            return false;
+        }
+        value.setFencingToken(fencingToken);
+        cache.put(key, value);
+        return true;
+    }
+}
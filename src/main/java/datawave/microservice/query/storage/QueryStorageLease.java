@@ -0,0 +1,114 @@
+package datawave.microservice.query.storage;
+
+import java.io.Serializable;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A lease on a query storage lock. The lease is stored in a shared cache and is replaced atomically whenever it is acquired, renewed or released. The fencing
+ * token is carried over (and incremented on acquisition) so that it increases every time the lock changes hands. Expiration is based on the wall clock of the
+ * services sharing the lease, so those clocks are expected to be reasonably synchronized relative to the lease time.
+ */
+public class QueryStorageLease implements Serializable {
+    private static final long serialVersionUID = -3320487186017429853L;
+    
+    // a unique id for the holder of this lease, or null if the lease has been released
+    private final String owner;
+    private final long fencingToken;
+    private final long expirationMillis;
+    
+    public QueryStorageLease(String owner, long fencingToken, long expirationMillis) {
+        this.owner = owner;
+        this.fencingToken = fencingToken;
+        this.expirationMillis = expirationMillis;
+    }
+    
+    public String getOwner() {
+        return owner;
+    }
+    
+    public long getFencingToken() {
+        return fencingToken;
+    }
+    
+    public long getExpirationMillis() {
+        return expirationMillis;
+    }
+    
+    /**
+     * Determine if this lease is still held
+     * 
+     * @param currentTimeMillis
+     *            the current time
+     * @return true if the lease has an owner and has not expired
+     */
+    public boolean isHeld(long currentTimeMillis) {
+        return owner != null && expirationMillis > currentTimeMillis;
+    }
+    
+    /**
+     * Determine if this lease is held by the specified owner
+     * 
+     * @param owner
+     *            the owner
+     * @return true if the owner matches
+     */
+    public boolean isOwnedBy(String owner) {
+        return this.owner != null && this.owner.equals(owner);
+    }
+    
+    /**
+     * Acquire the lease for a new owner
+     * 
+     * @param owner
+     *            the new owner
+     * @param expirationMillis
+     *            the new expiration time
+     * @return the new lease
+     */
+    public QueryStorageLease acquire(String owner, long expirationMillis) {
+        return new QueryStorageLease(owner, fencingToken + 1, expirationMillis);
+    }
+    
+    /**
+     * Extend the lease for the current owner
+     * 
+     * @param expirationMillis
+     *            the new expiration time
+     * @return the renewed lease
+     */
+    public QueryStorageLease renew(long expirationMillis) {
+        return new QueryStorageLease(owner, fencingToken, expirationMillis);
+    }
+    
+    /**
+     * Release the lease, retaining the fencing token
+     * 
+     * @return the released lease
+     */
+    public QueryStorageLease release() {
+        return new QueryStorageLease(null, fencingToken, 0L);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof QueryStorageLease) {
+            QueryStorageLease other = (QueryStorageLease) o;
+            return new EqualsBuilder().append(owner, other.owner).append(fencingToken, other.fencingToken).append(expirationMillis, other.expirationMillis)
+                            .isEquals();
+        }
+        return false;
+    }
+    
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(owner).append(fencingToken).append(expirationMillis).toHashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("owner", owner).append("fencingToken", fencingToken).append("expirationMillis", expirationMillis).build();
+    }
+}
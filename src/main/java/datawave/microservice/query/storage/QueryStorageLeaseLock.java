@@ -0,0 +1,312 @@
+package datawave.microservice.query.storage;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A query storage lock implemented as a lease in a shared concurrent map. Unlike a cache lock the lease is not tied to the thread that acquired it, so when the
+ * lock is acquired without an explicit lease time a background watchdog renews the lease until the lock is released. If the holder stalls or dies the lease
+ * simply expires. Every acquisition increments a fencing token, which the query storage caches store with the values written under the lease and check on
+ * each write, so a holder which stalls past its lease can't overwrite what the next holder wrote.
+ * <p>
+ * The lock is reentrant for the thread which acquired it. Like the cache locks, a lock object is expected to be used by a single thread.
+ */
+public class QueryStorageLeaseLock implements QueryStorageLock {
+    private static final Logger log = LoggerFactory.getLogger(QueryStorageLeaseLock.class);
+    
+    private static final long MAX_BACKOFF_MILLIS = 50L;
+    
+    private final QueryStorageLocks locks;
+    private final ConcurrentMap<Object,Object> leases;
+    private final String leaseKey;
+    
+    // the hold acquired through this lock object, and the number of times this lock object acquired it
+    private Hold hold;
+    private int holdCount = 0;
+    
+    public QueryStorageLeaseLock(QueryStorageLocks locks, String leaseKey) {
+        this.locks = locks;
+        this.leases = locks.getLeases();
+        this.leaseKey = leaseKey;
+    }
+    
+    /**
+     * Acquires the lock, renewing the lease until the lock is released.
+     */
+    @Override
+    public void lock() {
+        acquireUninterruptibly(locks.getLeaseTimeMillis(), true);
+    }
+    
+    /**
+     * Acquires the lock for the specified lease time.
+     *
+     * @param leaseTimeMillis
+     *            The lease time in millis
+     */
+    @Override
+    public void lock(long leaseTimeMillis) {
+        acquireUninterruptibly(leaseTimeMillis, false);
+    }
+    
+    /**
+     * Acquires the lock if it is available, renewing the lease until the lock is released.
+     *
+     * @return true if the lock was acquired, false otherwise
+     */
+    @Override
+    public boolean tryLock() {
+        try {
+            return acquire(0L, locks.getLeaseTimeMillis(), true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Determine if the lease is currently held by anybody
+     *
+     * @return true if the lock is already acquired, false otherwise
+     */
+    @Override
+    public boolean isLocked() {
+        Object lease = leases.get(leaseKey);
+        return lease instanceof QueryStorageLease && ((QueryStorageLease) lease).isHeld(System.currentTimeMillis());
+    }
+    
+    /**
+     * Acquires the lock within a specified amount of time, renewing the lease until the lock is released.
+     *
+     * @param waitTimeMillis
+     *            The wait time in millis
+     * @return true if the lock was acquired, false if the waiting time elapsed before the lock was acquired
+     */
+    @Override
+    public boolean tryLock(long waitTimeMillis) throws InterruptedException {
+        return acquire(waitTimeMillis, locks.getLeaseTimeMillis(), true);
+    }
+    
+    /**
+     * Acquires the lock for the specified lease time. The lease is not renewed.
+     *
+     * @param waitTimeMillis
+     *            The wait time in millis
+     * @param leaseTimeMillis
+     *            Time to wait before automatically releasing the lock
+     * @return true if the lock was acquired, false if the waiting time elapsed before the lock was acquired
+     */
+    @Override
+    public boolean tryLock(long waitTimeMillis, long leaseTimeMillis) throws InterruptedException {
+        return acquire(waitTimeMillis, leaseTimeMillis, false);
+    }
+    
+    /**
+     * Releases the lock. If the lease was already lost then this does nothing.
+     */
+    @Override
+    public void unlock() {
+        Hold hold = this.hold;
+        if (hold == null) {
+            log.debug("Lease for {} was not held when unlocked", leaseKey);
+            return;
+        }
+        if (--holdCount == 0) {
+            this.hold = null;
+        }
+        if (hold.holdCount.decrementAndGet() > 0) {
+            return;
+        }
+        locks.removeHold(leaseKey, hold);
+        hold.cancelRenewal();
+        
+        Object current = leases.get(leaseKey);
+        while (current instanceof QueryStorageLease && ((QueryStorageLease) current).isOwnedBy(hold.owner)) {
+            if (leases.replace(leaseKey, current, ((QueryStorageLease) current).release())) {
+                return;
+            }
+            current = leases.get(leaseKey);
+        }
+        log.debug("Lease for {} was lost before it was unlocked", leaseKey);
+    }
+    
+    /**
+     * Releases the lease regardless of the owner.
+     */
+    @Override
+    public void forceUnlock() {
+        if (this.hold != null) {
+            locks.removeHold(leaseKey, this.hold);
+        }
+        this.hold = null;
+        this.holdCount = 0;
+        Hold hold = locks.getHold(leaseKey);
+        if (hold != null) {
+            locks.removeHold(leaseKey, hold);
+            hold.cancelRenewal();
+        }
+        Object current = leases.get(leaseKey);
+        while (current instanceof QueryStorageLease && ((QueryStorageLease) current).getOwner() != null) {
+            if (leases.replace(leaseKey, current, ((QueryStorageLease) current).release())) {
+                return;
+            }
+            current = leases.get(leaseKey);
+        }
+    }
+    
+    /**
+     * Get the fencing token for the lease held by this service
+     *
+     * @return the fencing token, or -1 if the lease is not held
+     */
+    @Override
+    public long getFencingToken() {
+        Hold hold = this.hold;
+        return (hold == null ? -1L : hold.lease.getFencingToken());
+    }
+    
+    /**
+     * Determine if the lease is still held with the same fencing token
+     *
+     * @return true if the lease is still held, false otherwise
+     */
+    @Override
+    public boolean isFencingTokenValid() {
+        Hold hold = this.hold;
+        if (hold == null) {
+            return false;
+        }
+        Object current = leases.get(leaseKey);
+        if (current instanceof QueryStorageLease) {
+            QueryStorageLease lease = (QueryStorageLease) current;
+            return lease.isOwnedBy(hold.owner) && lease.getFencingToken() == hold.lease.getFencingToken() && lease.isHeld(System.currentTimeMillis());
+        }
+        return false;
+    }
+    
+    private void acquireUninterruptibly(long leaseTimeMillis, boolean renew) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    acquire(Long.MAX_VALUE, leaseTimeMillis, renew);
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private boolean acquire(long waitTimeMillis, long leaseTimeMillis, boolean renew) throws InterruptedException {
+        Hold hold = locks.getHold(leaseKey);
+        if (hold != null && hold.thread == Thread.currentThread()) {
+            hold.holdCount.incrementAndGet();
+            held(hold);
+            return true;
+        }
+        
+        long start = System.currentTimeMillis();
+        long backoffMillis = 1L;
+        while (true) {
+            QueryStorageLease lease = tryAcquireLease(leaseTimeMillis);
+            if (lease != null) {
+                hold = new Hold(lease, leaseTimeMillis);
+                locks.addHold(leaseKey, hold);
+                if (renew) {
+                    hold.renewal = locks.scheduleRenewal(hold::renew, leaseTimeMillis);
+                }
+                held(hold);
+                return true;
+            }
+            
+            long remainingMillis = waitTimeMillis - (System.currentTimeMillis() - start);
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(backoffMillis, remainingMillis));
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+    
+    private void held(Hold hold) {
+        this.hold = hold;
+        this.holdCount++;
+    }
+    
+    private QueryStorageLease tryAcquireLease(long leaseTimeMillis) {
+        long now = System.currentTimeMillis();
+        String owner = UUID.randomUUID().toString();
+        Object current = leases.get(leaseKey);
+        if (current == null) {
+            QueryStorageLease lease = new QueryStorageLease(owner, 1L, now + leaseTimeMillis);
+            if (leases.putIfAbsent(leaseKey, lease) == null) {
+                return lease;
+            }
+        } else if (current instanceof QueryStorageLease && !((QueryStorageLease) current).isHeld(now)) {
+            QueryStorageLease lease = ((QueryStorageLease) current).acquire(owner, now + leaseTimeMillis);
+            if (leases.replace(leaseKey, current, lease)) {
+                return lease;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The state of a lease held by this service
+     */
+    class Hold {
+        private final Thread thread = Thread.currentThread();
+        private final String owner;
+        private final long leaseTimeMillis;
+        private final AtomicInteger holdCount = new AtomicInteger(1);
+        private volatile QueryStorageLease lease;
+        private volatile ScheduledFuture<?> renewal;
+        
+        Hold(QueryStorageLease lease, long leaseTimeMillis) {
+            this.owner = lease.getOwner();
+            this.lease = lease;
+            this.leaseTimeMillis = leaseTimeMillis;
+        }
+        
+        String getOwner() {
+            return owner;
+        }
+        
+        long getFencingToken() {
+            return lease.getFencingToken();
+        }
+        
+        void renew() {
+            QueryStorageLease current = lease;
+            QueryStorageLease renewed = current.renew(System.currentTimeMillis() + leaseTimeMillis);
+            try {
+                if (leases.replace(leaseKey, current, renewed)) {
+                    lease = renewed;
+                } else {
+                    log.warn("Lease for {} with fencing token {} was lost", leaseKey, current.getFencingToken());
+                    cancelRenewal();
+                }
+            } catch (RuntimeException e) {
+                // the lease may still be renewed on the next attempt
+                log.warn("Failed to renew lease for " + leaseKey, e);
+            }
+        }
+        
+        void cancelRenewal() {
+            if (renewal != null) {
+                renewal.cancel(false);
+            }
+        }
+    }
+}
@@ -63,4 +63,25 @@ public interface QueryStorageLock {
      * immediately.
      */
     void forceUnlock();
+    
+    /**
+     * Get the fencing token for the current hold of this lock. Fencing tokens increase every time the lock is acquired. The token is stored with each value
+     * written while holding the lock, and a write made with an older token than the stored one is rejected, so a holder whose lease expired can't overwrite
+     * what the next holder wrote.
+     *
+     * @return the fencing token, or -1 if this lock is not held or does not support fencing tokens
+     */
+    default long getFencingToken() {
+        return -1L;
+    }
+    
+    /**
+     * Determine if this lock is still held with the same fencing token with which it was acquired. This is a point in time check, so it can't guard a
+     * subsequent write; the writes themselves are fenced.
+     *
+     * @return true if the lock is still held, or if this lock does not support fencing tokens
+     */
+    default boolean isFencingTokenValid() {
+        return true;
+    }
 }
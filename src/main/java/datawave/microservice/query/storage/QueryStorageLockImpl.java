@@ -2,12 +2,17 @@ package datawave.microservice.query.storage;
 
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import datawave.microservice.cached.LockableCacheInspector;
 
 /**
  * A lock object for a query status
  */
 public class QueryStorageLockImpl implements QueryStorageLock {
+    private static final Logger log = LoggerFactory.getLogger(QueryStorageLockImpl.class);
+    
     private final String cacheName;
     private final String storageKey;
     private final LockableCacheInspector cacheInspector;
@@ -92,8 +97,14 @@ public class QueryStorageLockImpl implements QueryStorageLock {
      */
     @Override
     public void unlock() {
-        if (isLocked()) {
+        // unlock directly rather than checking isLocked first, which would cost an extra round trip on every unlock
+        try {
             cacheInspector.unlock(cacheName, storageKey);
+        } catch (IllegalMonitorStateException e) {
+            // the lease expired or the lock was forcibly unlocked
+            if (log.isDebugEnabled()) {
+                log.debug("Lock for " + storageKey + " in " + cacheName + " was no longer held when unlocked", e);
+            }
         }
     }
     
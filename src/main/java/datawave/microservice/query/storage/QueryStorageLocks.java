@@ -0,0 +1,176 @@
+package datawave.microservice.query.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+
+import datawave.microservice.query.storage.config.QueryStorageProperties.LockProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Creates the locks used for the query status and task states. By default these are the cache locks provided by the cache inspector. When leased locks are
+ * enabled and the lease cache is backed by a concurrent map (e.g. a Hazelcast map) then leased locks with fencing tokens are used instead, along with a
+ * watchdog which renews the leases. The fencing token of the lease held by the current thread is available to the caches, which reject a write made with a
+ * token older than the one stored with the value. If a meter registry is supplied then the lock wait and hold times are recorded for each cache.
+ */
+public class QueryStorageLocks implements AutoCloseable {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    public static final String LEASE_CACHE_NAME = "QueryStorageLeaseCache";
+    
+    private final ConcurrentMap<Object,Object> leases;
+    private final long leaseTimeMillis;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService watchdog;
+    
+    // the leases held by this service
+    private final Map<String,QueryStorageLeaseLock.Hold> holds = new ConcurrentHashMap<>();
+    // the leases held by each thread, which are kept even if the lease is lost so that the thread's writes are fenced with the token it acquired
+    private final ThreadLocal<Map<String,QueryStorageLeaseLock.Hold>> threadHolds = ThreadLocal.withInitial(HashMap::new);
+    private final Map<String,Timer> waitTimers = new ConcurrentHashMap<>();
+    private final Map<String,Timer> holdTimers = new ConcurrentHashMap<>();
+    
+    @SuppressWarnings("unchecked")
+    public QueryStorageLocks(Cache leaseCache, LockProperties lockProperties, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.leaseTimeMillis = lockProperties.getLeaseTimeMillis();
+        if (lockProperties.isLeased() && leaseCache != null && leaseCache.getNativeCache() instanceof ConcurrentMap) {
+            this.leases = (ConcurrentMap<Object,Object>) leaseCache.getNativeCache();
+            this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "query-storage-lease-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            if (lockProperties.isLeased()) {
+                log.warn("Leased locks require a lease cache backed by a concurrent map. Using cache locks instead.");
+            }
+            this.leases = null;
+            this.watchdog = null;
+        }
+    }
+    
+    /**
+     * Get a lock for an entry in a query storage cache
+     * 
+     * @param cacheName
+     *            the name of the cache
+     * @param storageKey
+     *            the key of the entry to lock
+     * @param cacheLock
+     *            supplies the cache lock to use when leased locks are not enabled
+     * @return the lock
+     */
+    public QueryStorageLock getLock(String cacheName, String storageKey, Supplier<QueryStorageLock> cacheLock) {
+        QueryStorageLock lock = (isLeased() ? new QueryStorageLeaseLock(this, toLeaseKey(cacheName, storageKey)) : cacheLock.get());
+        if (meterRegistry != null) {
+            // @formatter:off
+            Timer waitTimer = waitTimers.computeIfAbsent(cacheName, name -> Timer.builder("query.storage.lock.wait")
+                    .description("The time spent waiting to acquire a query storage lock")
+                    .tag("cache", name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            Timer holdTimer = holdTimers.computeIfAbsent(cacheName, name -> Timer.builder("query.storage.lock.hold")
+                    .description("The time a query storage lock was held")
+                    .tag("cache", name)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            // @formatter:on
+            lock = new TimedQueryStorageLock(lock, waitTimer, holdTimer);
+        }
+        return lock;
+    }
+    
+    /**
+     * Remove the lease for an entry in a query storage cache if it is not currently held by another service
+     * 
+     * @param cacheName
+     *            the name of the cache
+     * @param storageKey
+     *            the key of the entry
+     */
+    public void deleteLease(String cacheName, String storageKey) {
+        if (isLeased()) {
+            String leaseKey = toLeaseKey(cacheName, storageKey);
+            Object lease = leases.get(leaseKey);
+            QueryStorageLeaseLock.Hold hold = holds.get(leaseKey);
+            if (lease instanceof QueryStorageLease && (!((QueryStorageLease) lease).isHeld(System.currentTimeMillis())
+                            || (hold != null && ((QueryStorageLease) lease).isOwnedBy(hold.getOwner())))) {
+                leases.remove(leaseKey, lease);
+            }
+        }
+    }
+    
+    /**
+     * Get the fencing token of the lease which the current thread holds on an entry in a query storage cache
+     *
+     * @param cacheName
+     *            the name of the cache
+     * @param storageKey
+     *            the key of the entry
+     * @return the fencing token, or -1 if leased locks are not enabled or the current thread does not hold the lease
+     */
+    public long getFencingToken(String cacheName, String storageKey) {
+        if (isLeased()) {
+            QueryStorageLeaseLock.Hold hold = threadHolds.get().get(toLeaseKey(cacheName, storageKey));
+            if (hold != null) {
+                return hold.getFencingToken();
+            }
+        }
+        return -1L;
+    }
+    
+    public boolean isLeased() {
+        return leases != null;
+    }
+    
+    public long getLeaseTimeMillis() {
+        return leaseTimeMillis;
+    }
+    
+    ConcurrentMap<Object,Object> getLeases() {
+        return leases;
+    }
+    
+    QueryStorageLeaseLock.Hold getHold(String leaseKey) {
+        return holds.get(leaseKey);
+    }
+    
+    void addHold(String leaseKey, QueryStorageLeaseLock.Hold hold) {
+        holds.put(leaseKey, hold);
+        threadHolds.get().put(leaseKey, hold);
+    }
+    
+    void removeHold(String leaseKey, QueryStorageLeaseLock.Hold hold) {
+        holds.remove(leaseKey, hold);
+        threadHolds.get().remove(leaseKey, hold);
+    }
+    
+    ScheduledFuture<?> scheduleRenewal(Runnable renewal, long leaseTimeMillis) {
+        // renew well before the lease expires so that a single slow renewal does not lose the lease
+        long periodMillis = Math.max(1L, leaseTimeMillis / 3);
+        return watchdog.scheduleAtFixedRate(renewal, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private static String toLeaseKey(String cacheName, String storageKey) {
+        return cacheName + ':' + storageKey;
+    }
+    
+    @Override
+    public void close() {
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
+    }
+}
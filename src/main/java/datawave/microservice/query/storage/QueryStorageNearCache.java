@@ -0,0 +1,131 @@
+package datawave.microservice.query.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import com.hazelcast.map.listener.MapEvictedListener;
+
+import datawave.microservice.query.storage.config.QueryStorageProperties.NearCacheProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * A local near cache for query storage entries which are read often and can tolerate bounded staleness. Entries expire after the configured max staleness, and
+ * when the backing cache is a Hazelcast map they are also invalidated as soon as the entry is updated or removed anywhere in the cluster. Hit and miss metrics
+ * are published for each near cache.
+ *
+ * @param <V>
+ *            the cached value type
+ */
+public class QueryStorageNearCache<V> {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private final String name;
+    private final Cache<String,V> cache;
+    
+    public QueryStorageNearCache(String name, NearCacheProperties nearCacheProperties, MeterRegistry meterRegistry) {
+        this.name = name;
+        // @formatter:off
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(nearCacheProperties.getMaxStalenessMillis(), TimeUnit.MILLISECONDS)
+                .maximumSize(nearCacheProperties.getMaximumSize())
+                .recordStats()
+                .build();
+        // @formatter:on
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+    }
+    
+    /**
+     * Invalidate near cache entries whenever they are changed in the backing cache. This is only possible when the backing cache is a Hazelcast map, otherwise
+     * entries are only invalidated by local updates and expiration.
+     *
+     * @param backingCache
+     *            the backing spring cache
+     */
+    public void listenTo(org.springframework.cache.Cache backingCache) {
+        if (backingCache != null && backingCache.getNativeCache() instanceof IMap) {
+            ((IMap<Object,Object>) backingCache.getNativeCache()).addEntryListener(new InvalidationListener(), false);
+            if (log.isDebugEnabled()) {
+                log.debug("Invalidating the " + name + " near cache using entry events from " + backingCache.getName());
+            }
+        }
+    }
+    
+    /**
+     * Get a value from the near cache, loading it from the backing cache if not present
+     *
+     * @param key
+     *            the key
+     * @param loader
+     *            the function used to load the value from the backing cache
+     * @return the value, or null if it does not exist
+     */
+    public V get(String key, Function<String,V> loader) {
+        return cache.get(key, loader);
+    }
+    
+    /**
+     * Invalidate an entry
+     *
+     * @param key
+     *            the key
+     */
+    public void invalidate(Object key) {
+        if (key != null) {
+            cache.invalidate(key.toString());
+        }
+    }
+    
+    /**
+     * Invalidate all entries
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+    
+    private class InvalidationListener implements EntryUpdatedListener<Object,Object>, EntryRemovedListener<Object,Object>, EntryEvictedListener<Object,Object>,
+                    EntryExpiredListener<Object,Object>, MapClearedListener, MapEvictedListener {
+        @Override
+        public void entryUpdated(EntryEvent<Object,Object> event) {
+            invalidate(event.getKey());
+        }
+        
+        @Override
+        public void entryRemoved(EntryEvent<Object,Object> event) {
+            invalidate(event.getKey());
+        }
+        
+        @Override
+        public void entryEvicted(EntryEvent<Object,Object> event) {
+            invalidate(event.getKey());
+        }
+        
+        @Override
+        public void entryExpired(EntryEvent<Object,Object> event) {
+            invalidate(event.getKey());
+        }
+        
+        @Override
+        public void mapCleared(MapEvent event) {
+            invalidateAll();
+        }
+        
+        @Override
+        public void mapEvicted(MapEvent event) {
+            invalidateAll();
+        }
+    }
+}
@@ -3,17 +3,25 @@ package datawave.microservice.query.storage;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 
+import com.hazelcast.map.IMap;
+
 import datawave.core.query.logic.QueryCheckpoint;
 import datawave.core.query.logic.QueryKey;
 import datawave.microservice.cached.LockableCacheInspector;
@@ -26,9 +34,14 @@ public class TaskCache {
     public static final String CACHE_NAME = "TaskCache";
     
     private final LockableCacheInspector cacheInspector;
+    private final CacheManager cacheManager;
+    // the task states serve as an index of the tasks stored for each query
+    private final TaskStatesCache taskStatesCache;
     
-    public TaskCache(LockableCacheInspector cacheInspector) {
+    public TaskCache(LockableCacheInspector cacheInspector, CacheManager cacheManager, TaskStatesCache taskStatesCache) {
         this.cacheInspector = cacheInspector;
+        this.cacheManager = cacheManager;
+        this.taskStatesCache = taskStatesCache;
     }
     
     /**
@@ -49,6 +62,37 @@ public class TaskCache {
         return task;
     }
     
+    /**
+     * This will create and store a set of new query tasks with contiguous task ids. When the cache is backed by a Hazelcast map, then the tasks are stored
+     * using a single bulk put.
+     *
+     * @param firstTaskId
+     *            The task id of the first task
+     * @param action
+     *            The query action
+     * @param checkpoints
+     *            The query checkpoints
+     * @return The new query tasks in checkpoint order
+     */
+    public List<QueryTask> addQueryTasks(int firstTaskId, QueryRequest.Method action, List<QueryCheckpoint> checkpoints) {
+        Map<String,QueryTask> tasks = new LinkedHashMap<>();
+        int taskId = firstTaskId;
+        for (QueryCheckpoint checkpoint : checkpoints) {
+            QueryTask task = new QueryTask(taskId++, action, checkpoint);
+            logTask("Adding task", task);
+            tasks.put(task.getTaskKey().toKey(), task);
+        }
+        
+        IMap<Object,Object> map = getHazelcastMap();
+        if (map != null) {
+            map.putAll(tasks);
+        } else {
+            Cache cache = getCache();
+            tasks.forEach(cache::put);
+        }
+        return new ArrayList<>(tasks.values());
+    }
+    
     /**
      * Update a stored query task with an updated checkpoint
      * 
@@ -99,14 +143,23 @@ public class TaskCache {
     }
     
     /**
-     * Get the tasks for a query
+     * Get the tasks for a query. If the task states for the query exist, then their allocated task ids are used as an index of the query's tasks, otherwise the
+     * cache is scanned. Every allocated task id is looked up, rather than only those with a state, because a task is stored before it is marked READY and would
+     * otherwise be missed in between.
      *
      * @param queryId
      *            The query id
      * @return A list of tasks
      */
     public List<QueryTask> getTasks(String queryId) {
-        List<QueryTask> tasks = (List<QueryTask>) cacheInspector.listMatching(CACHE_NAME, QueryTask.class, QueryKey.toUUIDKey(queryId));
+        List<QueryTask> tasks;
+        TaskStates taskStates = taskStatesCache.getTaskStates(queryId);
+        if (taskStates != null) {
+            tasks = getTasks(taskStates.getAllocatedTaskKeys());
+        } else {
+            // without the task states we have to scan the cache for this query's tasks
+            tasks = (List<QueryTask>) cacheInspector.listMatching(CACHE_NAME, QueryTask.class, QueryKey.toUUIDKey(queryId));
+        }
         if (tasks == null) {
             tasks = Collections.EMPTY_LIST;
         }
@@ -124,7 +177,14 @@ public class TaskCache {
      * @return A list of tasks
      */
     public List<QueryTask> getTasks(QueryKey queryKey) {
-        List<QueryTask> tasks = (List<QueryTask>) cacheInspector.listMatching(CACHE_NAME, QueryTask.class, queryKey.toKey());
+        List<QueryTask> tasks;
+        TaskStates taskStates = taskStatesCache.getTaskStates(queryKey.getQueryId());
+        if (taskStates != null && queryKey.equals(taskStates.getQueryKey())) {
+            tasks = getTasks(taskStates.getAllocatedTaskKeys());
+        } else {
+            // without the task states we have to scan the cache for this query's tasks
+            tasks = (List<QueryTask>) cacheInspector.listMatching(CACHE_NAME, QueryTask.class, queryKey.toKey());
+        }
         if (tasks == null) {
             tasks = Collections.EMPTY_LIST;
         }
@@ -134,6 +194,40 @@ public class TaskCache {
         return tasks;
     }
     
+    /**
+     * Get the stored tasks for a set of task keys. Task keys for which there is no longer a stored task are ignored. When the cache is backed by a Hazelcast
+     * map, then the tasks are retrieved using a single bulk get.
+     *
+     * @param taskKeys
+     *            The task keys
+     * @return A list of tasks in task key order
+     */
+    private List<QueryTask> getTasks(List<TaskKey> taskKeys) {
+        List<QueryTask> tasks = new ArrayList<>();
+        IMap<Object,Object> map = getHazelcastMap();
+        if (map != null) {
+            Set<Object> keys = new LinkedHashSet<>();
+            for (TaskKey taskKey : taskKeys) {
+                keys.add(taskKey.toKey());
+            }
+            Map<Object,Object> values = map.getAll(keys);
+            for (Object key : keys) {
+                Object value = values.get(key);
+                if (value instanceof QueryTask) {
+                    tasks.add((QueryTask) value);
+                }
+            }
+        } else {
+            for (TaskKey taskKey : taskKeys) {
+                QueryTask task = cacheInspector.list(CACHE_NAME, QueryTask.class, taskKey.toKey());
+                if (task != null) {
+                    tasks.add(task);
+                }
+            }
+        }
+        return tasks;
+    }
+    
     /**
      * Get the tasks counts for a query
      *
@@ -197,14 +291,41 @@ public class TaskCache {
     }
     
     /**
-     * Delete all tasks for a query
+     * Delete all tasks for a query. If the task states for the query still exist, then every task id allocated by them is evicted, including tasks which were
+     * stored but never given a state. Otherwise the cache is scanned for the query's tasks. When the cache is backed by a Hazelcast map, then the tasks are
+     * removed with a single bulk operation.
      *
      * @param queryId
      *            the query id
-     * @return the number of items deleted
+     * @return the number of items deleted (this may be an under count if the cache cannot report whether an evicted entry existed)
      */
     public int deleteTasks(String queryId) {
-        int deleted = cacheInspector.evictMatching(CACHE_NAME, QueryTask.class, QueryKey.toUUIDKey(queryId));
+        int deleted = 0;
+        TaskStates taskStates = taskStatesCache.getTaskStates(queryId);
+        if (taskStates != null) {
+            IMap<Object,Object> map = getHazelcastMap();
+            if (map != null) {
+                Set<Object> keys = new HashSet<>();
+                for (TaskKey taskKey : taskStates.getAllocatedTaskKeys()) {
+                    keys.add(taskKey.toKey());
+                }
+                for (Boolean removed : map.executeOnKeys(keys, new TaskEvictionEntryProcessor()).values()) {
+                    if (Boolean.TRUE.equals(removed)) {
+                        deleted++;
+                    }
+                }
+            } else {
+                Cache cache = getCache();
+                for (TaskKey taskKey : taskStates.getAllocatedTaskKeys()) {
+                    if (cache.evictIfPresent(taskKey.toKey())) {
+                        deleted++;
+                    }
+                }
+            }
+        } else {
+            // without the task states we have to scan the cache for this query's tasks
+            deleted = cacheInspector.evictMatching(CACHE_NAME, QueryTask.class, QueryKey.toUUIDKey(queryId));
+        }
         if (log.isDebugEnabled()) {
             log.debug("Deleted all (" + deleted + ") tasks for query " + queryId);
         }
@@ -221,6 +342,27 @@ public class TaskCache {
         return "Cleared " + CACHE_NAME + " cache";
     }
     
+    /**
+     * Get the Hazelcast map backing this cache, if any. Neither the Spring cache abstraction nor the cache inspector expose bulk operations, so the bulk task
+     * operations use the map directly and fall back to per task operations for other cache providers.
+     *
+     * @return the backing map, or null if the cache is not backed by Hazelcast
+     */
+    @SuppressWarnings("unchecked")
+    private IMap<Object,Object> getHazelcastMap() {
+        Object nativeCache = getCache().getNativeCache();
+        // the map only ever holds task keys mapped to query tasks, which are type checked as they are read back
+        return (nativeCache instanceof IMap) ? (IMap<Object,Object>) nativeCache : null;
+    }
+    
+    private Cache getCache() {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache == null) {
+            throw new IllegalStateException("Could not find the " + CACHE_NAME + " cache");
+        }
+        return cache;
+    }
+    
     /**
      * A convenience method for logging a task
      * 
@@ -0,0 +1,29 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which removes a stored query task. This is applied to all of a query's task keys at once so that a query's tasks can be deleted
+ * without a round trip per task.
+ */
+public class TaskEvictionEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = -2786425436513364125L;
+    
+    /**
+     * Remove the query task
+     * 
+     * @param entry
+     *            the task entry
+     * @return true if a query task was removed, false otherwise
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof QueryTask) {
+            entry.setValue(null);
+            return true;
+        }
+        return false;
+    }
+}
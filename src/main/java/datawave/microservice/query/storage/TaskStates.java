@@ -1,16 +1,22 @@
 package datawave.microservice.query.storage;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -22,9 +28,25 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import datawave.core.query.logic.QueryKey;
 import datawave.util.StringUtils;
 
-public class TaskStates implements Serializable {
+public class TaskStates implements Serializable, Fenced {
     private static final long serialVersionUID = 1361359960334155427L;
     
+    // The fields written by Java serialization. The taskStates field is the map of sorted sets written before the task ids were kept as bitmaps, and is only
+    // read from older streams. It is now always written as null and followed by the compact encoding (see writeObject).
+    // @formatter:off
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("queryKey", QueryKey.class),
+            new ObjectStreamField("maxRunning", int.class),
+            new ObjectStreamField("nextTaskId", int.class),
+            new ObjectStreamField("version", long.class),
+            new ObjectStreamField("fencingToken", long.class),
+            new ObjectStreamField("taskStates", Map.class)};
+    // @formatter:on
+    
+    // binary encodings used for a set of task ids
+    private static final byte RUN_LENGTH_ENCODING = 0;
+    private static final byte BITMAP_ENCODING = 1;
+    
     /**
      * The possible task states: <br>
      * READY: ready to run <br>
@@ -39,9 +61,21 @@ public class TaskStates implements Serializable {
     private QueryKey queryKey;
     private int maxRunning = 1;
     private int nextTaskId = 1;
+    // incremented every time the task states are stored so that concurrent modifications can be detected
+    private long version = 0L;
+    // the fencing token of the lease under which the task states were last stored
+    private long fencingToken = 0L;
+    
+    // the task ids for each state are kept as bitmaps which are serialized using a compact binary form (see writeObject)
+    @JsonIgnore
+    private transient Map<TASK_STATE,BitSet> taskStates = new EnumMap<>(TASK_STATE.class);
     
+    // the state of each task indexed by task id (0 for no state, otherwise the state ordinal + 1) and the number of tasks in each state.
+    // These are derived from taskStates and rebuilt whenever the task states are replaced or deserialized.
+    @JsonIgnore
+    private transient byte[] stateIndex = new byte[0];
     @JsonIgnore
-    private Map<TASK_STATE,SortedSet<Integer>> taskStates = new HashMap<>();
+    private transient int[] stateCounts = new int[TASK_STATE.values().length];
     
     public TaskStates() {}
     
@@ -50,6 +84,25 @@ public class TaskStates implements Serializable {
         setMaxRunning(maxRunning);
     }
     
+    /**
+     * Create a deep copy of another set of task states
+     * 
+     * @param other
+     *            the task states to copy
+     */
+    public TaskStates(TaskStates other) {
+        this.queryKey = other.queryKey;
+        this.maxRunning = other.maxRunning;
+        this.nextTaskId = other.nextTaskId;
+        this.version = other.version;
+        this.fencingToken = other.fencingToken;
+        for (Map.Entry<TASK_STATE,BitSet> entry : other.taskStates.entrySet()) {
+            this.taskStates.put(entry.getKey(), (BitSet) entry.getValue().clone());
+        }
+        this.stateIndex = other.stateIndex.clone();
+        this.stateCounts = other.stateCounts.clone();
+    }
+    
     public void setQueryKey(QueryKey key) {
         this.queryKey = key;
     }
@@ -70,50 +123,322 @@ public class TaskStates implements Serializable {
     }
     
     /**
-     * Get task states in a form that is JSON serializable
+     * Allocate a contiguous range of task ids
+     * 
+     * @param count
+     *            the number of task ids to allocate
+     * @return the first task id in the range
+     */
+    @JsonIgnore
+    public int getAndAddNextTaskIds(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Cannot allocate a negative number of task ids: " + count);
+        }
+        int taskId = nextTaskId;
+        nextTaskId += count;
+        return taskId;
+    }
+    
+    /**
+     * Get task states in a form that is JSON serializable. Each set of task ids is encoded as a comma separated list of ranges (e.g. "1-5,7,9-12").
      * 
      * @return taskStates
      */
     @JsonProperty("taskStates")
     public Map<TASK_STATE,String> getTaskStatesAsStrings() {
-        return taskStates.entrySet().stream().collect(Collectors.toMap(e -> e.getKey(), e -> taskIdsToString(e.getValue())));
+        Map<TASK_STATE,String> taskStatesStrings = new EnumMap<>(TASK_STATE.class);
+        for (Map.Entry<TASK_STATE,BitSet> entry : taskStates.entrySet()) {
+            taskStatesStrings.put(entry.getKey(), taskIdsToString(entry.getValue()));
+        }
+        return taskStatesStrings;
     }
     
     /**
-     * Set task states in a form that was JSON serializable
+     * Set task states in a form that was JSON serializable. This will accept both the range encoding and a plain comma separated list of task ids.
      * 
      * @param taskStatesStrings
      */
     @JsonProperty("taskStates")
     public void setTaskStatesAsStrings(Map<TASK_STATE,String> taskStatesStrings) {
-        taskStates = taskStatesStrings.entrySet().stream().collect(Collectors.toMap(e -> e.getKey(), e -> stringToTaskIds(e.getValue())));
+        taskStates = new EnumMap<>(TASK_STATE.class);
+        for (Map.Entry<TASK_STATE,String> entry : taskStatesStrings.entrySet()) {
+            taskStates.put(entry.getKey(), stringToTaskIds(entry.getValue()));
+        }
+        rebuildStateIndex();
     }
     
-    private String taskIdsToString(Set<Integer> taskIds) {
+    /**
+     * Encode a set of task ids as a comma separated list of ranges
+     * 
+     * @param taskIds
+     *            the task ids
+     * @return the range encoded string
+     */
+    static String taskIdsToString(BitSet taskIds) {
         StringBuilder builder = new StringBuilder();
-        if (!taskIds.isEmpty()) {
-            List<Integer> sortedIds = new ArrayList<>(taskIds);
-            Collections.sort(sortedIds);
-            for (Integer i : sortedIds) {
-                builder.append(i).append(',');
+        int start = taskIds.nextSetBit(0);
+        while (start >= 0) {
+            int end = taskIds.nextClearBit(start) - 1;
+            if (builder.length() > 0) {
+                builder.append(',');
             }
-            builder.setLength(builder.length() - 1);
+            builder.append(start);
+            if (end > start) {
+                builder.append('-').append(end);
+            }
+            start = (end == Integer.MAX_VALUE ? -1 : taskIds.nextSetBit(end + 1));
         }
         return builder.toString();
     }
     
-    private SortedSet<Integer> stringToTaskIds(String bitSetStr) {
-        SortedSet<Integer> ids = new TreeSet<>();
-        for (String taskId : StringUtils.splitIterable(bitSetStr, ',')) {
-            ids.add(Integer.parseInt(taskId));
+    /**
+     * Decode a comma separated list of task ids and/or task id ranges
+     * 
+     * @param taskIdsStr
+     *            the encoded task ids
+     * @return the task ids
+     */
+    static BitSet stringToTaskIds(String taskIdsStr) {
+        BitSet ids = new BitSet();
+        for (String taskIds : StringUtils.splitIterable(taskIdsStr, ',')) {
+            if (!taskIds.isEmpty()) {
+                int rangeIndex = taskIds.indexOf('-', 1);
+                if (rangeIndex > 0) {
+                    ids.set(Integer.parseInt(taskIds.substring(0, rangeIndex)), Integer.parseInt(taskIds.substring(rangeIndex + 1)) + 1);
+                } else {
+                    ids.set(Integer.parseInt(taskIds));
+                }
+            }
         }
         return ids;
     }
     
+    /**
+     * Write a set of task ids in a compact binary form. Runs of task ids are written as variable length (gap, length) pairs unless a plain bitmap would be
+     * smaller.
+     * 
+     * @param out
+     *            the output
+     * @param taskIds
+     *            the task ids
+     * @throws IOException
+     *             if the write fails
+     */
+    static void writeTaskIds(DataOutput out, BitSet taskIds) throws IOException {
+        int runs = 0;
+        int runLengthBytes = 0;
+        int last = 0;
+        int start = taskIds.nextSetBit(0);
+        while (start >= 0) {
+            int end = taskIds.nextClearBit(start);
+            runs++;
+            runLengthBytes += varIntSize(start - last) + varIntSize(end - start);
+            last = end;
+            start = taskIds.nextSetBit(end);
+        }
+        
+        long[] words = taskIds.toLongArray();
+        if (runLengthBytes <= words.length * Long.BYTES) {
+            out.writeByte(RUN_LENGTH_ENCODING);
+            writeVarInt(out, runs);
+            last = 0;
+            start = taskIds.nextSetBit(0);
+            while (start >= 0) {
+                int end = taskIds.nextClearBit(start);
+                writeVarInt(out, start - last);
+                writeVarInt(out, end - start);
+                last = end;
+                start = taskIds.nextSetBit(end);
+            }
+        } else {
+            out.writeByte(BITMAP_ENCODING);
+            writeVarInt(out, words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+    }
+    
+    /**
+     * Read a set of task ids written by {@link #writeTaskIds(DataOutput, BitSet)}
+     * 
+     * @param in
+     *            the input
+     * @return the task ids
+     * @throws IOException
+     *             if the read fails
+     */
+    static BitSet readTaskIds(DataInput in) throws IOException {
+        byte encoding = in.readByte();
+        if (encoding == RUN_LENGTH_ENCODING) {
+            BitSet taskIds = new BitSet();
+            int runs = readVarInt(in);
+            int last = 0;
+            for (int i = 0; i < runs; i++) {
+                int start = last + readVarInt(in);
+                int end = start + readVarInt(in);
+                taskIds.set(start, end);
+                last = end;
+            }
+            return taskIds;
+        } else if (encoding == BITMAP_ENCODING) {
+            long[] words = new long[readVarInt(in)];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            return BitSet.valueOf(words);
+        }
+        throw new IOException("Unknown task id encoding " + encoding);
+    }
+    
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("queryKey", queryKey);
+        fields.put("maxRunning", maxRunning);
+        fields.put("nextTaskId", nextTaskId);
+        fields.put("version", version);
+        fields.put("fencingToken", fencingToken);
+        fields.put("taskStates", null);
+        out.writeFields();
+        writeTaskStates(out);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        queryKey = (QueryKey) fields.get("queryKey", null);
+        maxRunning = fields.get("maxRunning", 1);
+        nextTaskId = fields.get("nextTaskId", 1);
+        version = fields.get("version", 0L);
+        fencingToken = fields.get("fencingToken", 0L);
+        
+        // task states written before the bitmap encoding are read from the legacy map instead
+        Map<TASK_STATE,SortedSet<Integer>> legacyTaskStates = (Map<TASK_STATE,SortedSet<Integer>>) fields.get("taskStates", null);
+        if (legacyTaskStates != null) {
+            setTaskStates(legacyTaskStates);
+        } else {
+            readTaskStates(in);
+        }
+    }
+    
+    /**
+     * Write the task ids for each state in a compact binary form
+     * 
+     * @param out
+     *            the output
+     * @throws IOException
+     *             if the write fails
+     */
+    public void writeTaskStates(DataOutput out) throws IOException {
+        out.writeByte(taskStates.size());
+        for (Map.Entry<TASK_STATE,BitSet> entry : taskStates.entrySet()) {
+            out.writeByte(entry.getKey().ordinal());
+            writeTaskIds(out, entry.getValue());
+        }
+    }
+    
+    /**
+     * Replace the task ids for each state with those written by {@link #writeTaskStates(DataOutput)}
+     * 
+     * @param in
+     *            the input
+     * @throws IOException
+     *             if the read fails
+     */
+    public void readTaskStates(DataInput in) throws IOException {
+        taskStates = new EnumMap<>(TASK_STATE.class);
+        int numStates = in.readByte();
+        for (int i = 0; i < numStates; i++) {
+            int ordinal = in.readByte();
+            if (ordinal < 0 || ordinal >= TASK_STATE.values().length) {
+                throw new IOException("Unknown task state ordinal " + ordinal);
+            }
+            taskStates.put(TASK_STATE.values()[ordinal], readTaskIds(in));
+        }
+        rebuildStateIndex();
+    }
+    
+    /**
+     * Rebuild the per task state index and the state counts from the task state bitmaps
+     */
+    private void rebuildStateIndex() {
+        int maxTaskId = -1;
+        for (BitSet taskIds : taskStates.values()) {
+            maxTaskId = Math.max(maxTaskId, taskIds.length() - 1);
+        }
+        stateIndex = new byte[maxTaskId + 1];
+        stateCounts = new int[TASK_STATE.values().length];
+        for (Map.Entry<TASK_STATE,BitSet> entry : taskStates.entrySet()) {
+            byte stateValue = (byte) (entry.getKey().ordinal() + 1);
+            BitSet taskIds = entry.getValue();
+            for (int taskId = taskIds.nextSetBit(0); taskId >= 0; taskId = taskIds.nextSetBit(taskId + 1)) {
+                // a task should only be in one state, but if not then the state with the highest ordinal wins
+                if (stateIndex[taskId] != 0) {
+                    int previousState = stateIndex[taskId] - 1;
+                    taskStates.get(TASK_STATE.values()[previousState]).clear(taskId);
+                    stateCounts[previousState]--;
+                }
+                stateIndex[taskId] = stateValue;
+                stateCounts[entry.getKey().ordinal()]++;
+            }
+        }
+    }
+    
     public void setNextTaskId(int nextTaskId) {
         this.nextTaskId = nextTaskId;
     }
     
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    public void incrementVersion() {
+        version++;
+    }
+    
+    @Override
+    public long getFencingToken() {
+        return fencingToken;
+    }
+    
+    @Override
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+    
     public int getMaxRunning() {
         return maxRunning;
     }
@@ -141,21 +466,38 @@ public class TaskStates implements Serializable {
         return Math.min(getAvailableRunningSlots(), getReadyTaskCount());
     }
     
+    /**
+     * Get a copy of the task states as sorted sets of task ids
+     * 
+     * @return the task states
+     */
     public Map<TASK_STATE,SortedSet<Integer>> getTaskStates() {
-        return taskStates;
+        Map<TASK_STATE,SortedSet<Integer>> sortedTaskStates = new EnumMap<>(TASK_STATE.class);
+        for (Map.Entry<TASK_STATE,BitSet> entry : taskStates.entrySet()) {
+            SortedSet<Integer> taskIds = new TreeSet<>();
+            entry.getValue().stream().forEach(taskIds::add);
+            sortedTaskStates.put(entry.getKey(), taskIds);
+        }
+        return sortedTaskStates;
     }
     
     public void setTaskStates(Map<TASK_STATE,SortedSet<Integer>> taskStates) {
-        this.taskStates = taskStates;
+        this.taskStates = new EnumMap<>(TASK_STATE.class);
+        for (Map.Entry<TASK_STATE,SortedSet<Integer>> entry : taskStates.entrySet()) {
+            BitSet taskIds = new BitSet();
+            for (Integer taskId : entry.getValue()) {
+                taskIds.set(taskId);
+            }
+            this.taskStates.put(entry.getKey(), taskIds);
+        }
+        rebuildStateIndex();
     }
     
     public TASK_STATE getState(int taskId) {
-        for (TASK_STATE state : TASK_STATE.values()) {
-            if (taskStates.containsKey(state) && taskStates.get(state).contains(taskId)) {
-                return state;
-            }
+        if (taskId < 0 || taskId >= stateIndex.length || stateIndex[taskId] == 0) {
+            return null;
         }
-        return null;
+        return TASK_STATE.values()[stateIndex[taskId] - 1];
     }
     
     public boolean setState(int taskId, TASK_STATE taskState) {
@@ -170,19 +512,24 @@ public class TaskStates implements Serializable {
             }
         }
         if (currentState != null) {
-            taskStates.get(currentState).remove(taskId);
+            taskStates.get(currentState).clear(taskId);
+            stateCounts[currentState.ordinal()]--;
         }
         if (taskState != null) {
-            if (taskStates.get(taskState) == null) {
-                taskStates.put(taskState, new TreeSet<>());
+            taskStates.computeIfAbsent(taskState, k -> new BitSet()).set(taskId);
+            stateCounts[taskState.ordinal()]++;
+            if (taskId >= stateIndex.length) {
+                stateIndex = Arrays.copyOf(stateIndex, Math.max(taskId + 1, stateIndex.length * 2));
             }
-            taskStates.get(taskState).add(taskId);
+            stateIndex[taskId] = (byte) (taskState.ordinal() + 1);
+        } else if (currentState != null) {
+            stateIndex[taskId] = 0;
         }
         return true;
     }
     
     public int getTaskCountForState(TASK_STATE state) {
-        return taskStates.containsKey(state) ? taskStates.get(state).size() : 0;
+        return stateCounts[state.ordinal()];
     }
     
     @JsonIgnore
@@ -206,7 +553,7 @@ public class TaskStates implements Serializable {
     }
     
     public boolean hasTasksForState(TASK_STATE state) {
-        return taskStates.containsKey(state) && !taskStates.get(state).isEmpty();
+        return stateCounts[state.ordinal()] > 0;
     }
     
     @JsonIgnore
@@ -240,36 +587,87 @@ public class TaskStates implements Serializable {
             @Override
             public Iterator<TaskKey> iterator() {
                 // creating a copy to avoid concurrent modification exceptions while using this task iterator
-                List<Integer> states = (taskStates.containsKey(state) ? new ArrayList<>(taskStates.get(state)) : Collections.emptyList());
-                final Iterator<Integer> statesIterator = states.iterator();
+                final int[] taskIds = (taskStates.containsKey(state) ? taskStates.get(state).stream().toArray() : new int[0]);
                 return new Iterator<TaskKey>() {
+                    private int index = 0;
+                    
                     @Override
                     public boolean hasNext() {
-                        return statesIterator.hasNext();
+                        return index < taskIds.length;
                     }
                     
                     @Override
                     public TaskKey next() {
                         if (hasNext()) {
-                            return new TaskKey(statesIterator.next(), queryKey);
+                            return new TaskKey(taskIds[index++], queryKey);
                         }
-                        return null;
+                        throw new NoSuchElementException();
                     }
                 };
             }
         };
     }
     
+    /**
+     * Get the keys of all tasks that have a state, in task id order. This serves as an index of the tasks stored for this query.
+     * 
+     * @return the task keys
+     */
+    @JsonIgnore
+    public List<TaskKey> getTaskKeys() {
+        List<TaskKey> taskKeys = new ArrayList<>();
+        for (int taskId = 0; taskId < stateIndex.length; taskId++) {
+            if (stateIndex[taskId] != 0) {
+                taskKeys.add(new TaskKey(taskId, queryKey));
+            }
+        }
+        return taskKeys;
+    }
+    
+    /**
+     * Get the keys of every task id allocated for this query, whether or not the task has been given a state yet. Every task stored for this query has one of
+     * these keys. Task ids are allocated starting at 1.
+     * 
+     * @return the task keys
+     */
+    @JsonIgnore
+    public List<TaskKey> getAllocatedTaskKeys() {
+        // the state index grows ahead of the task ids, so only go past the next task id for tasks which were given a state directly
+        int maxTaskId = stateIndex.length;
+        while (maxTaskId > nextTaskId && stateIndex[maxTaskId - 1] == 0) {
+            maxTaskId--;
+        }
+        maxTaskId = Math.max(maxTaskId, nextTaskId);
+        List<TaskKey> taskKeys = new ArrayList<>(Math.max(maxTaskId - 1, 0));
+        for (int taskId = 1; taskId < maxTaskId; taskId++) {
+            taskKeys.add(new TaskKey(taskId, queryKey));
+        }
+        return taskKeys;
+    }
+    
+    private BitSet getTaskIds(TASK_STATE state) {
+        BitSet taskIds = taskStates.get(state);
+        return taskIds != null ? taskIds : new BitSet();
+    }
+    
     @Override
     public int hashCode() {
-        return new HashCodeBuilder().append(queryKey).append(maxRunning).append(taskStates).build();
+        HashCodeBuilder builder = new HashCodeBuilder().append(queryKey).append(maxRunning);
+        for (TASK_STATE state : TASK_STATE.values()) {
+            builder.append(getTaskIds(state));
+        }
+        return builder.build();
     }
     
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof TaskStates) {
             TaskStates other = (TaskStates) obj;
-            return new EqualsBuilder().append(queryKey, other.queryKey).append(maxRunning, other.maxRunning).append(taskStates, other.taskStates).build();
+            EqualsBuilder builder = new EqualsBuilder().append(queryKey, other.queryKey).append(maxRunning, other.maxRunning);
+            for (TASK_STATE state : TASK_STATE.values()) {
+                builder.append(getTaskIds(state), other.getTaskIds(state));
+            }
+            return builder.build();
         }
         return false;
     }
@@ -1,13 +1,22 @@
 package datawave.microservice.query.storage;
 
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.CachePut;
+
+import com.hazelcast.map.IMap;
 
 import datawave.core.query.logic.QueryKey;
 import datawave.microservice.cached.LockableCacheInspector;
+import datawave.microservice.query.storage.config.QueryStorageProperties;
 
 @CacheConfig(cacheNames = TaskStatesCache.CACHE_NAME)
 public class TaskStatesCache {
@@ -15,33 +24,186 @@ public class TaskStatesCache {
     
     public static final String CACHE_NAME = "TaskStatesCache";
     
+    // the outcome of a single attempt to mutate the task states
+    private enum MutationResult {
+        UPDATED, UNCHANGED, NOT_FOUND, CONFLICT, UNSUPPORTED
+    }
+    
     private final LockableCacheInspector cacheInspector;
+    private final CacheManager cacheManager;
+    private final int optimisticAttempts;
+    // an optional near cache for reads that can tolerate staleness
+    private final QueryStorageNearCache<TaskStates> nearCache;
+    private final QueryStorageLocks locks;
     
-    public TaskStatesCache(LockableCacheInspector cacheInspector) {
+    public TaskStatesCache(LockableCacheInspector cacheInspector, CacheManager cacheManager, QueryStorageProperties queryStorageProperties,
+                    QueryStorageNearCache<TaskStates> nearCache, QueryStorageLocks locks) {
         this.cacheInspector = cacheInspector;
+        this.cacheManager = cacheManager;
+        this.optimisticAttempts = queryStorageProperties.getOptimisticAttempts();
+        this.nearCache = nearCache;
+        this.locks = locks;
     }
     
     /**
-     * Store the task states for a query.
+     * Store the task states for a query. If the current thread holds a leased task states lock, then the write is fenced with the lease's token.
      * 
      * @param taskStates
      *            the task states
      * @return the stored task states
+     * @throws IllegalStateException
+     *             if the task states were stored under a newer lease
      */
-    @CachePut(key = "#taskStates.getQueryKey().toUUIDKey()")
     public TaskStates updateTaskStates(TaskStates taskStates) {
-        logStatus("Storing", taskStates, taskStates.getQueryKey().getQueryId());
+        String queryId = taskStates.getQueryKey().getQueryId();
+        taskStates.incrementVersion();
+        logStatus("Storing", taskStates, queryId);
+        put(getCache(), queryId, taskStates);
+        invalidateNearCache(queryId);
         return taskStates;
     }
     
+    /**
+     * Apply a mutation to the stored task states for a query without taking the task states lock. When the cache is backed by a concurrent map (including a
+     * Hazelcast map), the mutation is applied to a copy of the current task states which is then stored only if the stored version is unchanged, retrying
+     * with a randomized exponential backoff if the task states were modified concurrently. After the configured number of optimistic attempts this falls back
+     * to taking the task states lock, which bounds the number of writers competing for the update under heavy contention.
+     * <p>
+     * Note that whole task states updates made via {@link #updateTaskStates(TaskStates)} are only conditional on the fencing token of a leased lock, so they
+     * should only be made while holding the task states lock and may still overwrite a concurrent optimistic mutation.
+     *
+     * @param queryId
+     *            The query id
+     * @param mutator
+     *            The mutation to apply
+     * @return true if the task states existed and were changed by the mutation, false otherwise
+     */
+    public boolean mutateTaskStates(String queryId, TaskStatesMutator mutator) {
+        String key = QueryKey.toUUIDKey(queryId);
+        Cache cache = getCache();
+        
+        MutationResult result = MutationResult.UNSUPPORTED;
+        Object nativeCache = cache.getNativeCache();
+        if (nativeCache instanceof ConcurrentMap) {
+            ConcurrentMap<Object,Object> map = (ConcurrentMap<Object,Object>) nativeCache;
+            result = compareAndSetTaskStates(map, key, mutator);
+            for (int attempt = 2; result == MutationResult.CONFLICT && attempt <= optimisticAttempts; attempt++) {
+                backoff(attempt);
+                result = compareAndSetTaskStates(map, key, mutator);
+            }
+            if (result == MutationResult.CONFLICT && log.isDebugEnabled()) {
+                log.debug("Falling back to locking the task states for " + queryId + " after " + optimisticAttempts + " conflicting updates");
+            }
+        }
+        if (result == MutationResult.CONFLICT || result == MutationResult.UNSUPPORTED) {
+            result = lockedMutateTaskStates(cache, queryId, mutator);
+        }
+        
+        if (result == MutationResult.UPDATED) {
+            invalidateNearCache(queryId);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Mutation of task states for " + queryId + ": " + result);
+        }
+        return result == MutationResult.UPDATED;
+    }
+    
+    private MutationResult compareAndSetTaskStates(ConcurrentMap<Object,Object> map, String key, TaskStatesMutator mutator) {
+        Object current = map.get(key);
+        if (current == null) {
+            return MutationResult.NOT_FOUND;
+        } else if (!(current instanceof TaskStates)) {
+            // the cache is storing serialized values, so we cannot compare and set
+            return MutationResult.UNSUPPORTED;
+        }
+        
+        TaskStates updated = new TaskStates((TaskStates) current);
+        if (!mutator.mutate(updated)) {
+            return MutationResult.UNCHANGED;
+        }
+        updated.incrementVersion();
+        
+        boolean replaced;
+        if (map instanceof IMap) {
+            // compare the version on the member which owns the task states, since a conditional replace compares with equals under the OBJECT format
+            long expectedVersion = ((TaskStates) current).getVersion();
+            replaced = Boolean.TRUE.equals(((IMap<Object,Object>) map).executeOnKey(key, new TaskStatesReplaceEntryProcessor(expectedVersion, updated)));
+        } else {
+            // task states equality ignores the next task id and version, so compare by identity instead
+            replaced = (map.computeIfPresent(key, (k, v) -> v == current ? updated : v) == updated);
+        }
+        return replaced ? MutationResult.UPDATED : MutationResult.CONFLICT;
+    }
+    
+    private MutationResult lockedMutateTaskStates(Cache cache, String queryId, TaskStatesMutator mutator) {
+        QueryStorageLock lock = getTaskStatesLock(queryId);
+        lock.lock();
+        try {
+            Object nativeCache = cache.getNativeCache();
+            if (nativeCache instanceof ConcurrentMap) {
+                // optimistic writers do not take the lock, so we still need to compare and set while holding it
+                MutationResult result;
+                do {
+                    result = compareAndSetTaskStates((ConcurrentMap<Object,Object>) nativeCache, QueryKey.toUUIDKey(queryId), mutator);
+                } while (result == MutationResult.CONFLICT);
+                if (result != MutationResult.UNSUPPORTED) {
+                    return result;
+                }
+            }
+            
+            TaskStates taskStates = getTaskStates(queryId);
+            if (taskStates == null) {
+                return MutationResult.NOT_FOUND;
+            } else if (!mutator.mutate(taskStates)) {
+                return MutationResult.UNCHANGED;
+            }
+            taskStates.incrementVersion();
+            put(cache, queryId, taskStates);
+            return MutationResult.UPDATED;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Store the task states, fencing the write with the token of the task states lease if the current thread holds it
+     *
+     * @param cache
+     *            the cache
+     * @param queryId
+     *            the query id
+     * @param taskStates
+     *            the task states
+     */
+    private void put(Cache cache, String queryId, TaskStates taskStates) {
+        String key = QueryKey.toUUIDKey(queryId);
+        QueryStorageFencing.put(cache, key, taskStates, locks.getFencingToken(CACHE_NAME, key));
+    }
+    
+    private Cache getCache() {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache == null) {
+            throw new IllegalStateException("Could not find the " + CACHE_NAME + " cache");
+        }
+        return cache;
+    }
+    
+    private static void backoff(int attempt) {
+        // randomized exponential backoff, capped at about a millisecond
+        long maxNanos = TimeUnit.MICROSECONDS.toNanos(1L << Math.min(attempt, 10));
+        LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(maxNanos / 2, maxNanos + 1));
+    }
+    
     /**
      * Delete the task states for a query
      * 
      * @param queryId
      *            The query id
      */
-    @CacheEvict(key = "T(datawave.core.query.logic.QueryKey).toUUIDKey(#queryId)")
+    @CacheEvict(key = "T(datawave.core.query.logic.QueryKey).toUUIDKey(#queryId)", beforeInvocation = true)
     public void deleteTaskStates(String queryId) {
+        invalidateNearCache(queryId);
+        locks.deleteLease(CACHE_NAME, QueryKey.toUUIDKey(queryId));
         if (log.isDebugEnabled()) {
             log.debug("Deleted task statuses for " + queryId);
         }
@@ -60,6 +222,21 @@ public class TaskStatesCache {
         return states;
     }
     
+    /**
+     * Return the task states for a query, allowing a locally cached copy to be returned if the near cache is enabled. The task states may be stale by up to
+     * the configured max staleness, and they should not be modified.
+     *
+     * @param queryId
+     *            The query id
+     * @return The task states
+     */
+    public TaskStates getCachedTaskStates(String queryId) {
+        if (nearCache == null) {
+            return getTaskStates(queryId);
+        }
+        return nearCache.get(QueryKey.toUUIDKey(queryId), key -> getTaskStates(queryId));
+    }
+    
     /**
      * Clear out the cache
      *
@@ -67,9 +244,18 @@ public class TaskStatesCache {
      */
     @CacheEvict(allEntries = true, beforeInvocation = true)
     public String clear() {
+        if (nearCache != null) {
+            nearCache.invalidateAll();
+        }
         return "Cleared " + CACHE_NAME + " cache";
     }
     
+    private void invalidateNearCache(String queryId) {
+        if (nearCache != null) {
+            nearCache.invalidate(QueryKey.toUUIDKey(queryId));
+        }
+    }
+    
     /**
      * A convenience method for logging task statuses
      *
@@ -96,7 +282,7 @@ public class TaskStatesCache {
      * @return a task states lock
      */
     public QueryStorageLock getTaskStatesLock(String queryId) {
-        return new TaskStatesLock(queryId);
+        return locks.getLock(CACHE_NAME, QueryKey.toUUIDKey(queryId), () -> new TaskStatesLock(queryId));
     }
     
     /**
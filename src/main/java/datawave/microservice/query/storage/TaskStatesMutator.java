@@ -0,0 +1,17 @@
+package datawave.microservice.query.storage;
+
+/**
+ * A mutation that can be applied to stored task states. The mutation may be applied more than once if the task states are modified concurrently, so it should
+ * not have side effects outside of the task states.
+ */
+@FunctionalInterface
+public interface TaskStatesMutator {
+    /**
+     * Apply this mutation to the task states
+     * 
+     * @param taskStates
+     *            the task states to update
+     * @return true if the task states were changed and should be stored, false otherwise
+     */
+    boolean mutate(TaskStates taskStates);
+}
@@ -0,0 +1,38 @@
+package datawave.microservice.query.storage;
+
+import java.util.Map;
+
+import com.hazelcast.map.EntryProcessor;
+
+/**
+ * A Hazelcast entry processor which replaces the stored task states only if they are still at the expected version. Unlike {@code IMap.replace(key, old, new)}
+ * this does not depend on the map's in-memory format, which compares values with {@link TaskStates#equals(Object)} (ignoring the next task id and version)
+ * when the format is OBJECT.
+ */
+public class TaskStatesReplaceEntryProcessor implements EntryProcessor<Object,Object,Boolean> {
+    private static final long serialVersionUID = 4485530826135185873L;
+    
+    private final long expectedVersion;
+    private final TaskStates taskStates;
+    
+    public TaskStatesReplaceEntryProcessor(long expectedVersion, TaskStates taskStates) {
+        this.expectedVersion = expectedVersion;
+        this.taskStates = taskStates;
+    }
+    
+    /**
+     * Replace the task states if they are at the expected version
+     * 
+     * @param entry
+     *            the task states entry
+     * @return true if the task states were replaced, false otherwise
+     */
+    @Override
+    public Boolean process(Map.Entry<Object,Object> entry) {
+        if (entry.getValue() instanceof TaskStates && ((TaskStates) entry.getValue()).getVersion() == expectedVersion) {
+            entry.setValue(taskStates);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,98 @@
+package datawave.microservice.query.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A query storage lock which records how long callers wait to acquire the lock and how long the lock is held
+ */
+public class TimedQueryStorageLock implements QueryStorageLock {
+    private final QueryStorageLock lock;
+    private final Timer waitTimer;
+    private final Timer holdTimer;
+    
+    // the lock may be reentrant, so the hold time is measured from the first acquisition to the last release
+    private int holdCount = 0;
+    private long acquiredNanos;
+    
+    public TimedQueryStorageLock(QueryStorageLock lock, Timer waitTimer, Timer holdTimer) {
+        this.lock = lock;
+        this.waitTimer = waitTimer;
+        this.holdTimer = holdTimer;
+    }
+    
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        lock.lock();
+        acquired(start, true);
+    }
+    
+    @Override
+    public void lock(long leaseTimeMillis) {
+        long start = System.nanoTime();
+        lock.lock(leaseTimeMillis);
+        acquired(start, true);
+    }
+    
+    @Override
+    public boolean tryLock() {
+        long start = System.nanoTime();
+        return acquired(start, lock.tryLock());
+    }
+    
+    @Override
+    public boolean isLocked() {
+        return lock.isLocked();
+    }
+    
+    @Override
+    public boolean tryLock(long waitTimeMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        return acquired(start, lock.tryLock(waitTimeMillis));
+    }
+    
+    @Override
+    public boolean tryLock(long waitTimeMillis, long leaseTimeMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        return acquired(start, lock.tryLock(waitTimeMillis, leaseTimeMillis));
+    }
+    
+    @Override
+    public void unlock() {
+        lock.unlock();
+        if (holdCount > 0 && --holdCount == 0) {
+            holdTimer.record(System.nanoTime() - acquiredNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    @Override
+    public void forceUnlock() {
+        lock.forceUnlock();
+        if (holdCount > 0) {
+            holdCount = 0;
+            holdTimer.record(System.nanoTime() - acquiredNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    @Override
+    public long getFencingToken() {
+        return lock.getFencingToken();
+    }
+    
+    @Override
+    public boolean isFencingTokenValid() {
+        return lock.isFencingTokenValid();
+    }
+    
+    private boolean acquired(long startNanos, boolean locked) {
+        long now = System.nanoTime();
+        // failed attempts are recorded as well since the time spent waiting is what shows contention
+        waitTimer.record(now - startNanos, TimeUnit.NANOSECONDS);
+        if (locked && holdCount++ == 0) {
+            acquiredNanos = now;
+        }
+        return locked;
+    }
+}
@@ -4,32 +4,48 @@ import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.hazelcast.client.config.ClientConfig;
+import com.hazelcast.config.Config;
 import com.hazelcast.spring.cache.HazelcastCacheManager;
 
 import datawave.microservice.cached.CacheInspector;
 import datawave.microservice.cached.LockableCacheInspector;
 import datawave.microservice.cached.LockableHazelcastCacheInspector;
 import datawave.microservice.cached.UniversalLockableCacheInspector;
+import datawave.microservice.query.storage.QueryStatus;
 import datawave.microservice.query.storage.QueryStatusCache;
+import datawave.microservice.query.storage.QueryStorageLocks;
+import datawave.microservice.query.storage.QueryStorageNearCache;
 import datawave.microservice.query.storage.TaskCache;
+import datawave.microservice.query.storage.TaskStates;
 import datawave.microservice.query.storage.TaskStatesCache;
+import datawave.microservice.query.storage.serialization.QueryStorageSerializers;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 @Configuration
 @EnableCaching
+@EnableConfigurationProperties(QueryStorageProperties.class)
 @ConditionalOnProperty(name = "datawave.query.storage.cache.enabled", havingValue = "true", matchIfMissing = true)
 public class QueryStorageConfiguration {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
     @Bean
     public QueryStatusCache queryStatusCache(@Qualifier("cacheInspectorFactory") Function<CacheManager,CacheInspector> cacheInspectorFactory,
-                    CacheManager cacheManager) {
+                    CacheManager cacheManager, QueryStorageProperties queryStorageProperties, ObjectProvider<MeterRegistry> meterRegistry,
+                    QueryStorageLocks queryStorageLocks) {
         log.debug("Using " + cacheManager.getClass() + " for caching");
         LockableCacheInspector lockableCacheInspector;
         if (cacheManager instanceof HazelcastCacheManager) {
@@ -37,12 +53,15 @@ public class QueryStorageConfiguration {
         } else {
             lockableCacheInspector = new UniversalLockableCacheInspector(cacheInspectorFactory.apply(cacheManager));
         }
-        return new QueryStatusCache(lockableCacheInspector);
+        QueryStorageNearCache<QueryStatus> nearCache = createNearCache("QueryStatusNearCache", cacheManager, queryStorageProperties, meterRegistry,
+                        QueryStatusCache.CACHE_NAME, QueryStatusCache.COUNTERS_CACHE_NAME);
+        return new QueryStatusCache(lockableCacheInspector, cacheManager, queryStorageProperties, nearCache, queryStorageLocks);
     }
     
     @Bean
     public TaskStatesCache taskStatesCache(@Qualifier("cacheInspectorFactory") Function<CacheManager,CacheInspector> cacheInspectorFactory,
-                    CacheManager cacheManager) {
+                    CacheManager cacheManager, QueryStorageProperties queryStorageProperties, ObjectProvider<MeterRegistry> meterRegistry,
+                    QueryStorageLocks queryStorageLocks) {
         log.debug("Using " + cacheManager.getClass() + " for caching");
         LockableCacheInspector lockableCacheInspector;
         if (cacheManager instanceof HazelcastCacheManager) {
@@ -50,11 +69,21 @@ public class QueryStorageConfiguration {
         } else {
             lockableCacheInspector = new UniversalLockableCacheInspector(cacheInspectorFactory.apply(cacheManager));
         }
-        return new TaskStatesCache(lockableCacheInspector);
+        QueryStorageNearCache<TaskStates> nearCache = createNearCache("TaskStatesNearCache", cacheManager, queryStorageProperties, meterRegistry,
+                        TaskStatesCache.CACHE_NAME);
+        return new TaskStatesCache(lockableCacheInspector, cacheManager, queryStorageProperties, nearCache, queryStorageLocks);
     }
     
     @Bean
-    public TaskCache taskCache(@Qualifier("cacheInspectorFactory") Function<CacheManager,CacheInspector> cacheInspectorFactory, CacheManager cacheManager) {
+    public QueryStorageLocks queryStorageLocks(CacheManager cacheManager, QueryStorageProperties queryStorageProperties,
+                    ObjectProvider<MeterRegistry> meterRegistry) {
+        Cache leaseCache = (queryStorageProperties.getLock().isLeased() ? cacheManager.getCache(QueryStorageLocks.LEASE_CACHE_NAME) : null);
+        return new QueryStorageLocks(leaseCache, queryStorageProperties.getLock(), meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+    }
+    
+    @Bean
+    public TaskCache taskCache(@Qualifier("cacheInspectorFactory") Function<CacheManager,CacheInspector> cacheInspectorFactory, CacheManager cacheManager,
+                    TaskStatesCache taskStatesCache) {
         log.debug("Using " + cacheManager.getClass() + " for caching");
         LockableCacheInspector lockableCacheInspector;
         if (cacheManager instanceof HazelcastCacheManager) {
@@ -62,6 +91,40 @@ public class QueryStorageConfiguration {
         } else {
             lockableCacheInspector = new UniversalLockableCacheInspector(cacheInspectorFactory.apply(cacheManager));
         }
-        return new TaskCache(lockableCacheInspector);
+        return new TaskCache(lockableCacheInspector, cacheManager, taskStatesCache);
+    }
+    
+    /**
+     * Registers the compact query storage serializers with any hazelcast member or client configuration defined in the application context before the
+     * hazelcast instance is created.
+     * 
+     * @return the bean post processor
+     */
+    @Bean
+    @ConditionalOnProperty(name = "datawave.query.storage.compact-serialization", havingValue = "true")
+    public static BeanPostProcessor queryStorageSerializerRegistrar() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof Config) {
+                    QueryStorageSerializers.register(((Config) bean).getSerializationConfig());
+                } else if (bean instanceof ClientConfig) {
+                    QueryStorageSerializers.register(((ClientConfig) bean).getSerializationConfig());
+                }
+                return bean;
+            }
+        };
+    }
+    
+    private <V> QueryStorageNearCache<V> createNearCache(String name, CacheManager cacheManager, QueryStorageProperties queryStorageProperties,
+                    ObjectProvider<MeterRegistry> meterRegistry, String... cacheNames) {
+        QueryStorageNearCache<V> nearCache = null;
+        if (queryStorageProperties.getNearCache().isEnabled()) {
+            nearCache = new QueryStorageNearCache<>(name, queryStorageProperties.getNearCache(), meterRegistry.getIfAvailable(() -> Metrics.globalRegistry));
+            for (String cacheName : cacheNames) {
+                nearCache.listenTo(cacheManager.getCache(cacheName));
+            }
+        }
+        return nearCache;
     }
 }
@@ -0,0 +1,175 @@
+package datawave.microservice.query.storage.config;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "datawave.query.storage")
+public class QueryStorageProperties {
+    // Whether query status updates should be applied atomically without taking the query status lock (e.g. using a hazelcast entry processor)
+    private boolean atomicUpdates = false;
+    // Whether the frequently updated query status counters should be stored separately from the rest of the query status
+    private boolean splitCounters = false;
+    // Whether the query storage cache values should be stored in hazelcast using the versioned compact serializers rather than java serialization
+    private boolean compactSerialization = false;
+    // Whether task state transitions should be applied optimistically using a conditional replace rather than taking the task states lock
+    private boolean optimisticTaskStates = false;
+    // The number of optimistic attempts to make before falling back to taking the task states lock
+    @Positive
+    private int optimisticAttempts = 8;
+    
+    @Valid
+    private NearCacheProperties nearCache = new NearCacheProperties();
+    
+    @Valid
+    private LockProperties lock = new LockProperties();
+    
+    public boolean isAtomicUpdates() {
+        return atomicUpdates;
+    }
+    
+    public void setAtomicUpdates(boolean atomicUpdates) {
+        this.atomicUpdates = atomicUpdates;
+    }
+    
+    public boolean isSplitCounters() {
+        return splitCounters;
+    }
+    
+    public void setSplitCounters(boolean splitCounters) {
+        this.splitCounters = splitCounters;
+    }
+    
+    public boolean isCompactSerialization() {
+        return compactSerialization;
+    }
+    
+    public void setCompactSerialization(boolean compactSerialization) {
+        this.compactSerialization = compactSerialization;
+    }
+    
+    public boolean isOptimisticTaskStates() {
+        return optimisticTaskStates;
+    }
+    
+    public void setOptimisticTaskStates(boolean optimisticTaskStates) {
+        this.optimisticTaskStates = optimisticTaskStates;
+    }
+    
+    public int getOptimisticAttempts() {
+        return optimisticAttempts;
+    }
+    
+    public void setOptimisticAttempts(int optimisticAttempts) {
+        this.optimisticAttempts = optimisticAttempts;
+    }
+    
+    public NearCacheProperties getNearCache() {
+        return nearCache;
+    }
+    
+    public void setNearCache(NearCacheProperties nearCache) {
+        this.nearCache = nearCache;
+    }
+    
+    public LockProperties getLock() {
+        return lock;
+    }
+    
+    public void setLock(LockProperties lock) {
+        this.lock = lock;
+    }
+    
+    public final static class NearCacheProperties {
+        // whether reads which tolerate staleness may be served from a local near cache of query status and task states
+        private boolean enabled = false;
+        // the maximum amount of time that a near cache entry will be used before it is reloaded
+        @Positive
+        private long maxStaleness = 1;
+        @NotNull
+        private TimeUnit maxStalenessUnit = TimeUnit.SECONDS;
+        // the maximum number of entries in each near cache
+        @Positive
+        private long maximumSize = 10000;
+        
+        public boolean isEnabled() {
+            return enabled;
+        }
+        
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        
+        public long getMaxStaleness() {
+            return maxStaleness;
+        }
+        
+        public long getMaxStalenessMillis() {
+            return maxStalenessUnit.toMillis(maxStaleness);
+        }
+        
+        public void setMaxStaleness(long maxStaleness) {
+            this.maxStaleness = maxStaleness;
+        }
+        
+        public TimeUnit getMaxStalenessUnit() {
+            return maxStalenessUnit;
+        }
+        
+        public void setMaxStalenessUnit(TimeUnit maxStalenessUnit) {
+            this.maxStalenessUnit = maxStalenessUnit;
+        }
+        
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+        
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+    
+    public final static class LockProperties {
+        // whether the query status and task states locks should be leases with fencing tokens rather than cache locks
+        private boolean leased = false;
+        // the lease time used when a lock is acquired without an explicit lease time. The lease is renewed in the background until the lock is released.
+        @Positive
+        private long leaseTime = 10;
+        @NotNull
+        private TimeUnit leaseTimeUnit = TimeUnit.SECONDS;
+        
+        public boolean isLeased() {
+            return leased;
+        }
+        
+        public void setLeased(boolean leased) {
+            this.leased = leased;
+        }
+        
+        public long getLeaseTime() {
+            return leaseTime;
+        }
+        
+        public long getLeaseTimeMillis() {
+            return leaseTimeUnit.toMillis(leaseTime);
+        }
+        
+        public void setLeaseTime(long leaseTime) {
+            this.leaseTime = leaseTime;
+        }
+        
+        public TimeUnit getLeaseTimeUnit() {
+            return leaseTimeUnit;
+        }
+        
+        public void setLeaseTimeUnit(TimeUnit leaseTimeUnit) {
+            this.leaseTimeUnit = leaseTimeUnit;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.microservice.query.executor.status.cache.ExecutorPoolStatus;
+
+/**
+ * A versioned serializer for the executor pool status
+ */
+public class ExecutorPoolStatusSerializer extends VersionedStreamSerializer<ExecutorPoolStatus> {
+    public static final int VERSION = 1;
+    
+    public ExecutorPoolStatusSerializer() {
+        super(QueryStorageSerializers.EXECUTOR_POOL_STATUS_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, ExecutorPoolStatus status) throws IOException {
+        out.writeString(status.getPoolName());
+        Map<String,Long> executorHeartbeat = status.getExecutorHeartbeat();
+        out.writeInt(executorHeartbeat.size());
+        for (Map.Entry<String,Long> entry : executorHeartbeat.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        Map<String,Integer> queryCounts = status.getQueryCountByConnectionPool();
+        out.writeInt(queryCounts.size());
+        for (Map.Entry<String,Integer> entry : queryCounts.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+    
+    @Override
+    protected ExecutorPoolStatus readData(ObjectDataInput in, byte version) throws IOException {
+        ExecutorPoolStatus status = new ExecutorPoolStatus(in.readString());
+        int size = in.readInt();
+        Map<String,Long> executorHeartbeat = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            executorHeartbeat.put(in.readString(), in.readLong());
+        }
+        status.setExecutorHeartbeat(executorHeartbeat);
+        size = in.readInt();
+        Map<String,Integer> queryCounts = new LinkedHashMap<>(size);
+        for (int i = 0; i < size; i++) {
+            queryCounts.put(in.readString(), in.readInt());
+        }
+        status.setQueryCountByConnectionPool(queryCounts);
+        return status;
+    }
+}
@@ -0,0 +1,144 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.accumulo.core.security.Authorizations;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.core.query.configuration.GenericQueryConfiguration;
+import datawave.microservice.authorization.user.DatawaveUserDetails;
+import datawave.microservice.query.Query;
+import datawave.microservice.query.storage.QueryStatus;
+import datawave.microservice.querymetric.BaseQueryMetric.Prediction;
+import datawave.webservice.query.exception.DatawaveErrorCode;
+
+/**
+ * A versioned serializer for the query status. The frequently updated state and counters are written as primitives while the query, configuration and user
+ * are delegated to the serializers Hazelcast has registered for them.
+ * <p>
+ * Version 2 appends the calculated authorizations of each entity on their own. Version 1 only wrote the flattened calculated auths, which merge every entity's
+ * authorizations into one set, so a status read from version 1 has a single merged set of authorizations. Version 3 appends the fencing token, and version 4
+ * the query status version.
+ */
+public class QueryStatusSerializer extends VersionedStreamSerializer<QueryStatus> {
+    public static final int VERSION = 4;
+    
+    public QueryStatusSerializer() {
+        super(QueryStorageSerializers.QUERY_STATUS_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, QueryStatus queryStatus) throws IOException {
+        writeQueryKey(out, queryStatus.getQueryKey());
+        writeEnum(out, queryStatus.getQueryState());
+        writeEnum(out, queryStatus.getCreateStage());
+        
+        out.writeLong(queryStatus.getNumResultsReturned());
+        out.writeLong(queryStatus.getNumResultsConsumed());
+        out.writeLong(queryStatus.getNumResultsGenerated());
+        out.writeInt(queryStatus.getActiveNextCalls());
+        out.writeInt(queryStatus.getMaxConcurrentNextCalls());
+        out.writeLong(queryStatus.getLastPageNumber());
+        out.writeBoolean(queryStatus.isAllowLongRunningQueryEmptyPages());
+        out.writeLong(queryStatus.getNextCount());
+        out.writeLong(queryStatus.getSeekCount());
+        out.writeLong(queryStatus.getQueryStartMillis());
+        out.writeLong(queryStatus.getLastUsedMillis());
+        out.writeLong(queryStatus.getLastUpdatedMillis());
+        
+        writeStrings(out, queryStatus.getCalculatedAuths());
+        out.writeString(queryStatus.getPlan());
+        // the error code comes from another library, so it is written by name rather than by ordinal
+        out.writeString(queryStatus.getErrorCode() == null ? null : queryStatus.getErrorCode().name());
+        out.writeString(queryStatus.getFailureMessage());
+        out.writeString(queryStatus.getStackTrace());
+        
+        out.writeObject(queryStatus.getPredictions());
+        out.writeObject(queryStatus.getCurrentUser());
+        out.writeObject(queryStatus.getQuery());
+        out.writeObject(queryStatus.getConfig());
+        
+        // version 2
+        Set<Authorizations> calculatedAuthorizations = queryStatus.getCalculatedAuthorizations();
+        out.writeInt(calculatedAuthorizations == null ? -1 : calculatedAuthorizations.size());
+        if (calculatedAuthorizations != null) {
+            for (Authorizations authorizations : calculatedAuthorizations) {
+                List<String> auths = new ArrayList<>();
+                for (byte[] auth : authorizations.getAuthorizations()) {
+                    auths.add(new String(auth, StandardCharsets.UTF_8));
+                }
+                writeStrings(out, auths);
+            }
+        }
+        
+        // version 3
+        out.writeLong(queryStatus.getFencingToken());
+        
+        // version 4
+        out.writeLong(queryStatus.getVersion());
+    }
+    
+    @Override
+    protected QueryStatus readData(ObjectDataInput in, byte version) throws IOException {
+        QueryStatus queryStatus = new QueryStatus(readQueryKey(in));
+        queryStatus.setQueryState(readEnum(in, QueryStatus.QUERY_STATE.class));
+        queryStatus.setCreateStage(readEnum(in, QueryStatus.CREATE_STAGE.class));
+        
+        queryStatus.setNumResultsReturned(in.readLong());
+        queryStatus.setNumResultsConsumed(in.readLong());
+        queryStatus.setNumResultsGenerated(in.readLong());
+        queryStatus.setActiveNextCalls(in.readInt());
+        queryStatus.setMaxConcurrentNextCalls(in.readInt());
+        queryStatus.setLastPageNumber(in.readLong());
+        queryStatus.setAllowLongRunningQueryEmptyPages(in.readBoolean());
+        queryStatus.setNextCount(in.readLong());
+        queryStatus.setSeekCount(in.readLong());
+        queryStatus.setQueryStartMillis(in.readLong());
+        queryStatus.setLastUsedMillis(in.readLong());
+        queryStatus.setLastUpdatedMillis(in.readLong());
+        
+        Set<String> calculatedAuths = readStringSet(in);
+        if (calculatedAuths != null) {
+            queryStatus.setCalculatedAuths(calculatedAuths);
+        }
+        queryStatus.setPlan(in.readString());
+        String errorCode = in.readString();
+        queryStatus.setErrorCode(errorCode == null ? null : DatawaveErrorCode.valueOf(errorCode));
+        queryStatus.setFailureMessage(in.readString());
+        queryStatus.setStackTrace(in.readString());
+        
+        Set<Prediction> predictions = in.readObject();
+        queryStatus.setPredictions(predictions);
+        DatawaveUserDetails currentUser = in.readObject();
+        queryStatus.setCurrentUser(currentUser);
+        Query query = in.readObject();
+        queryStatus.setQuery(query);
+        GenericQueryConfiguration config = in.readObject();
+        queryStatus.setConfig(config);
+        
+        if (version >= 2) {
+            int size = in.readInt();
+            if (size >= 0) {
+                Set<Authorizations> calculatedAuthorizations = new LinkedHashSet<>(size);
+                for (int i = 0; i < size; i++) {
+                    calculatedAuthorizations.add(new Authorizations(readStringSet(in).toArray(new String[0])));
+                }
+                queryStatus.setCalculatedAuthorizations(calculatedAuthorizations);
+            }
+        }
+        if (version >= 3) {
+            queryStatus.setFencingToken(in.readLong());
+        }
+        if (version >= 4) {
+            queryStatus.setVersion(in.readLong());
+        }
+        return queryStatus;
+    }
+}
@@ -0,0 +1,54 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+
+import datawave.microservice.query.executor.status.cache.ExecutorPoolStatus;
+import datawave.microservice.query.storage.QueryStatus;
+import datawave.microservice.query.storage.QueryTask;
+import datawave.microservice.query.storage.TaskStates;
+
+/**
+ * The compact serializers for the values stored in the query storage caches. These must be registered on every Hazelcast member and client which reads or
+ * writes the caches, so a cluster should be fully upgraded to a release containing these serializers before they are enabled.
+ */
+public class QueryStorageSerializers {
+    public static final int QUERY_STATUS_TYPE_ID = 7401;
+    public static final int TASK_STATES_TYPE_ID = 7402;
+    public static final int QUERY_TASK_TYPE_ID = 7403;
+    public static final int EXECUTOR_POOL_STATUS_TYPE_ID = 7404;
+    
+    private QueryStorageSerializers() {}
+    
+    /**
+     * Get the serializer configurations for the query storage cache values
+     * 
+     * @return the serializer configurations
+     */
+    public static List<SerializerConfig> getSerializerConfigs() {
+        // @formatter:off
+        return Arrays.asList(
+                new SerializerConfig().setTypeClass(QueryStatus.class).setImplementation(new QueryStatusSerializer()),
+                new SerializerConfig().setTypeClass(TaskStates.class).setImplementation(new TaskStatesSerializer()),
+                new SerializerConfig().setTypeClass(QueryTask.class).setImplementation(new QueryTaskSerializer()),
+                new SerializerConfig().setTypeClass(ExecutorPoolStatus.class).setImplementation(new ExecutorPoolStatusSerializer()));
+        // @formatter:on
+    }
+    
+    /**
+     * Register the query storage serializers with a Hazelcast member or client serialization config
+     * 
+     * @param serializationConfig
+     *            the serialization config
+     * @return the serialization config
+     */
+    public static SerializationConfig register(SerializationConfig serializationConfig) {
+        for (SerializerConfig serializerConfig : getSerializerConfigs()) {
+            serializationConfig.addSerializerConfig(serializerConfig);
+        }
+        return serializationConfig;
+    }
+}
@@ -0,0 +1,54 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.core.query.configuration.QueryData;
+import datawave.core.query.logic.QueryCheckpoint;
+import datawave.core.query.logic.QueryKey;
+import datawave.microservice.query.remote.QueryRequest;
+import datawave.microservice.query.storage.QueryTask;
+
+/**
+ * A versioned serializer for query tasks. The task id, action and query key are written directly and the checkpointed query data is delegated to the
+ * serializers Hazelcast has registered for it.
+ */
+public class QueryTaskSerializer extends VersionedStreamSerializer<QueryTask> {
+    public static final int VERSION = 1;
+    
+    public QueryTaskSerializer() {
+        super(QueryStorageSerializers.QUERY_TASK_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, QueryTask task) throws IOException {
+        out.writeInt(task.getTaskId());
+        writeEnum(out, task.getAction());
+        out.writeLong(task.getLastUpdatedMillis());
+        QueryCheckpoint checkpoint = task.getQueryCheckpoint();
+        out.writeBoolean(checkpoint != null);
+        if (checkpoint != null) {
+            writeQueryKey(out, checkpoint.getQueryKey());
+            out.writeObject(checkpoint.getQueries());
+        }
+    }
+    
+    @Override
+    protected QueryTask readData(ObjectDataInput in, byte version) throws IOException {
+        int taskId = in.readInt();
+        QueryRequest.Method action = readEnum(in, QueryRequest.Method.class);
+        long lastUpdatedMillis = in.readLong();
+        QueryCheckpoint checkpoint = null;
+        if (in.readBoolean()) {
+            QueryKey queryKey = readQueryKey(in);
+            Collection<QueryData> queries = in.readObject();
+            checkpoint = new QueryCheckpoint(queryKey, queries);
+        }
+        QueryTask task = new QueryTask(taskId, action, checkpoint);
+        task.setLastUpdatedMillis(lastUpdatedMillis);
+        return task;
+    }
+}
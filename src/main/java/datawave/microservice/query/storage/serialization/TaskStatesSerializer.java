@@ -0,0 +1,44 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+
+import datawave.microservice.query.storage.TaskStates;
+
+/**
+ * A versioned serializer for task states which writes the task ids for each state using the compact encoding from {@link TaskStates#writeTaskStates}.
+ */
+public class TaskStatesSerializer extends VersionedStreamSerializer<TaskStates> {
+    // version 2 added the task states version, and version 3 the fencing token
+    public static final int VERSION = 3;
+    
+    public TaskStatesSerializer() {
+        super(QueryStorageSerializers.TASK_STATES_TYPE_ID, VERSION);
+    }
+    
+    @Override
+    protected void writeData(ObjectDataOutput out, TaskStates taskStates) throws IOException {
+        writeQueryKey(out, taskStates.getQueryKey());
+        out.writeInt(taskStates.getMaxRunning());
+        out.writeInt(taskStates.getNextTaskId());
+        taskStates.writeTaskStates(out);
+        out.writeLong(taskStates.getVersion());
+        out.writeLong(taskStates.getFencingToken());
+    }
+    
+    @Override
+    protected TaskStates readData(ObjectDataInput in, byte version) throws IOException {
+        TaskStates taskStates = new TaskStates(readQueryKey(in), in.readInt());
+        taskStates.setNextTaskId(in.readInt());
+        taskStates.readTaskStates(in);
+        if (version >= 2) {
+            taskStates.setVersion(in.readLong());
+        }
+        if (version >= 3) {
+            taskStates.setFencingToken(in.readLong());
+        }
+        return taskStates;
+    }
+}
@@ -0,0 +1,134 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import datawave.core.query.logic.QueryKey;
+
+/**
+ * A Hazelcast stream serializer which prefixes every value with a schema version. New fields may only be appended to the end of the schema along with a version
+ * bump. Readers are given the version that was written so that they can supply defaults for fields missing from older versions, so a member can always read
+ * values written by members running an older version. Values are not length prefixed, so the reverse is not guaranteed: an older member leaves the fields it
+ * does not know about unread, which is only harmless for a value read on its own, and an added enum constant can not be read at all.
+ * 
+ * @param <T>
+ *            the serialized type
+ */
+public abstract class VersionedStreamSerializer<T> implements StreamSerializer<T> {
+    private final int typeId;
+    private final byte version;
+    
+    protected VersionedStreamSerializer(int typeId, int version) {
+        this.typeId = typeId;
+        this.version = (byte) version;
+    }
+    
+    @Override
+    public int getTypeId() {
+        return typeId;
+    }
+    
+    public byte getVersion() {
+        return version;
+    }
+    
+    @Override
+    public void write(ObjectDataOutput out, T object) throws IOException {
+        out.writeByte(version);
+        writeData(out, object);
+    }
+    
+    @Override
+    public T read(ObjectDataInput in) throws IOException {
+        byte writtenVersion = in.readByte();
+        if (writtenVersion < 1) {
+            throw new IOException("Invalid schema version " + writtenVersion + " for serializer type " + typeId);
+        }
+        return readData(in, writtenVersion);
+    }
+    
+    /**
+     * Write the fields of the object using the current schema version
+     * 
+     * @param out
+     *            the output
+     * @param object
+     *            the object
+     * @throws IOException
+     *             if the write fails
+     */
+    protected abstract void writeData(ObjectDataOutput out, T object) throws IOException;
+    
+    /**
+     * Read the fields of an object written with the specified schema version
+     * 
+     * @param in
+     *            the input
+     * @param version
+     *            the schema version the object was written with, which may be newer than the current version
+     * @return the object
+     * @throws IOException
+     *             if the read fails
+     */
+    protected abstract T readData(ObjectDataInput in, byte version) throws IOException;
+    
+    protected static void writeQueryKey(ObjectDataOutput out, QueryKey queryKey) throws IOException {
+        out.writeBoolean(queryKey != null);
+        if (queryKey != null) {
+            out.writeString(queryKey.getQueryPool());
+            out.writeString(queryKey.getQueryId());
+            out.writeString(queryKey.getQueryLogic());
+        }
+    }
+    
+    protected static QueryKey readQueryKey(ObjectDataInput in) throws IOException {
+        if (in.readBoolean()) {
+            return new QueryKey(in.readString(), in.readString(), in.readString());
+        }
+        return null;
+    }
+    
+    // enums are written by ordinal, so adding, reordering or removing constants requires a schema version bump
+    protected static void writeEnum(ObjectDataOutput out, Enum<?> value) throws IOException {
+        out.writeByte(value == null ? -1 : value.ordinal());
+    }
+    
+    protected static <E extends Enum<E>> E readEnum(ObjectDataInput in, Class<E> enumClass) throws IOException {
+        byte ordinal = in.readByte();
+        if (ordinal < 0) {
+            return null;
+        }
+        E[] values = enumClass.getEnumConstants();
+        if (ordinal >= values.length) {
+            throw new IOException("Unknown " + enumClass.getSimpleName() + " ordinal " + ordinal + ", which was probably written by a newer version");
+        }
+        return values[ordinal];
+    }
+    
+    protected static void writeStrings(ObjectDataOutput out, Collection<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String value : values) {
+                out.writeString(value);
+            }
+        }
+    }
+    
+    protected static Set<String> readStringSet(ObjectDataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Set<String> values = new LinkedHashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readString());
+        }
+        return values;
+    }
+}
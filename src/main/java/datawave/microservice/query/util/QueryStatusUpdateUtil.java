@@ -5,6 +5,8 @@ import static datawave.microservice.query.storage.QueryStatus.QUERY_STATE.CREATE
 import datawave.microservice.query.config.QueryProperties;
 import datawave.microservice.query.messaging.QueryResultsManager;
 import datawave.microservice.query.storage.QueryStatus;
+import datawave.microservice.query.storage.QueryStatusCountersMutator;
+import datawave.microservice.query.storage.QueryStatusMutator;
 import datawave.microservice.query.storage.QueryStorageCache;
 import datawave.microservice.query.storage.QueryStorageLock;
 import datawave.webservice.query.exception.DatawaveErrorCode;
@@ -55,18 +57,33 @@ public class QueryStatusUpdateUtil {
         }
     }
     
+    /**
+     * Lock, retrieve, update, and store the query status. Mutations made via {@link #atomicUpdate(String, QueryStatusMutator)} do not take the query status
+     * lock when atomic updates are enabled, so the query status is only replaced if it has not been updated since it was retrieved. Otherwise it is retrieved
+     * and the updater is applied again, so the updater may be applied more than once.
+     *
+     * @param queryUUID
+     *            the query id
+     * @param updater
+     *            the update to apply
+     * @return the updated query status, or null if the lock could not be acquired and the updater did not throw
+     * @throws QueryException
+     *             if the query status does not exist, or the updater fails
+     * @throws InterruptedException
+     *             if interrupted while waiting for the lock
+     */
     public QueryStatus lockedUpdate(String queryUUID, QueryStatusUpdater updater) throws QueryException, InterruptedException {
         QueryStatus queryStatus = null;
         QueryStorageLock statusLock = queryStorageCache.getQueryStatusLock(queryUUID);
         if (statusLock.tryLock(queryProperties.getLockWaitTimeMillis(), queryProperties.getLockLeaseTimeMillis())) {
             try {
-                queryStatus = queryStorageCache.getQueryStatus(queryUUID);
-                if (queryStatus != null) {
+                do {
+                    queryStatus = queryStorageCache.getQueryStatus(queryUUID);
+                    if (queryStatus == null) {
+                        throw new NotFoundQueryException(DatawaveErrorCode.NO_QUERY_OBJECT_MATCH, "Unable to find query status in cache.");
+                    }
                     updater.apply(queryStatus);
-                    queryStorageCache.updateQueryStatus(queryStatus);
-                } else {
-                    throw new NotFoundQueryException(DatawaveErrorCode.NO_QUERY_OBJECT_MATCH, "Unable to find query status in cache.");
-                }
+                } while (!queryStorageCache.replaceQueryStatus(queryStatus));
             } finally {
                 statusLock.unlock();
             }
@@ -75,4 +92,38 @@ public class QueryStatusUpdateUtil {
         }
         return queryStatus;
     }
+    
+    /**
+     * Apply a mutation to the query status. Unlike {@link #lockedUpdate(String, QueryStatusUpdater)}, this does not retrieve the query status and if atomic
+     * updates are enabled then it does not take the query status lock either, which makes it suitable for updating counters (e.g. the number of results
+     * returned, active next calls, or last used time).
+     *
+     * @param queryUUID
+     *            the query id
+     * @param mutator
+     *            the mutation to apply
+     * @throws QueryException
+     *             if the query status does not exist
+     */
+    public void atomicUpdate(String queryUUID, QueryStatusMutator mutator) throws QueryException {
+        if (!queryStorageCache.updateQueryStatus(queryUUID, mutator)) {
+            throw new NotFoundQueryException(DatawaveErrorCode.NO_QUERY_OBJECT_MATCH, "Unable to find query status in cache.");
+        }
+    }
+    
+    /**
+     * Apply a mutation to the query status counters. If split counters are enabled, then only the counters are rewritten.
+     *
+     * @param queryUUID
+     *            the query id
+     * @param mutator
+     *            the mutation to apply
+     * @throws QueryException
+     *             if the query status does not exist
+     */
+    public void countersUpdate(String queryUUID, QueryStatusCountersMutator mutator) throws QueryException {
+        if (!queryStorageCache.updateQueryStatusCounters(queryUUID, mutator)) {
+            throw new NotFoundQueryException(DatawaveErrorCode.NO_QUERY_OBJECT_MATCH, "Unable to find query status in cache.");
+        }
+    }
 }
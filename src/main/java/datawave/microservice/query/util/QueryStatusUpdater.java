@@ -5,6 +5,14 @@ import datawave.webservice.query.exception.DatawaveErrorCode;
 import datawave.webservice.query.exception.QueryException;
 
 public interface QueryStatusUpdater {
+    /**
+     * Apply this update to the query status. The update may be applied more than once if the query status was mutated concurrently.
+     *
+     * @param queryStatus
+     *            the query status to update
+     * @throws QueryException
+     *             if the update cannot be applied
+     */
     void apply(QueryStatus queryStatus) throws QueryException;
     
     default void onLockFailed() throws QueryException {
@@ -0,0 +1,87 @@
+package datawave.microservice.query.messaging;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AcknowledgementTrackerTest {
+    
+    @Test
+    public void testOutOfOrderAcknowledgements() {
+        AcknowledgementTracker<String,String> tracker = new AcknowledgementTracker<>();
+        for (long position = 1; position <= 5; position++) {
+            tracker.delivered("partition", position, "record" + position);
+        }
+        Assertions.assertEquals(5, tracker.getOutstanding());
+        
+        // later positions can't be committed until the earlier ones are acknowledged
+        Assertions.assertNull(tracker.acknowledge("partition", 3));
+        Assertions.assertNull(tracker.acknowledge("partition", 2));
+        Assertions.assertEquals("record3", tracker.acknowledge("partition", 1));
+        Assertions.assertEquals(2, tracker.getOutstanding());
+        
+        // acknowledging an unknown or already committed position does nothing
+        Assertions.assertNull(tracker.acknowledge("partition", 1));
+        Assertions.assertNull(tracker.acknowledge("other", 1));
+        
+        Assertions.assertNull(tracker.acknowledge("partition", 5));
+        Assertions.assertEquals("record5", tracker.acknowledge("partition", 4));
+        Assertions.assertEquals(0, tracker.getOutstanding());
+    }
+    
+    @Test
+    public void testDiscard() {
+        AcknowledgementTracker<String,String> tracker = new AcknowledgementTracker<>();
+        tracker.delivered("channel", 1, "delivery1");
+        tracker.delivered("channel", 2, "delivery2");
+        tracker.delivered("channel", 3, "delivery3");
+        
+        Assertions.assertNull(tracker.acknowledge("channel", 2));
+        Assertions.assertNull(tracker.acknowledge("channel", 3));
+        
+        // discarding the head of the group allows the watermark to advance past it
+        Assertions.assertEquals("delivery3", tracker.discard("channel", 1));
+        Assertions.assertEquals(0, tracker.getOutstanding());
+    }
+    
+    @Test
+    public void testDiscardAll() {
+        AcknowledgementTracker<String,String> tracker = new AcknowledgementTracker<>();
+        tracker.delivered("revoked", 1, "delivery1");
+        tracker.delivered("revoked", 2, "delivery2");
+        tracker.delivered("retained", 1, "delivery1");
+        Assertions.assertEquals(3, tracker.getOutstanding());
+        
+        // acknowledging a result from a discarded group does nothing
+        tracker.discardAll("revoked");
+        Assertions.assertEquals(1, tracker.getOutstanding());
+        Assertions.assertNull(tracker.acknowledge("revoked", 1));
+        Assertions.assertEquals("delivery1", tracker.acknowledge("retained", 1));
+    }
+    
+    @Test
+    public void testSettled() {
+        AcknowledgementTracker<String,String> tracker = new AcknowledgementTracker<>();
+        
+        // with nothing outstanding a settled position can be committed right away, and is not tracked
+        Assertions.assertEquals("skipped1", tracker.settled("partition", 1, "skipped1"));
+        Assertions.assertEquals(0, tracker.getOutstanding());
+        
+        // otherwise it waits for the earlier positions
+        tracker.delivered("partition", 2, "record2");
+        Assertions.assertNull(tracker.settled("partition", 3, "skipped3"));
+        Assertions.assertEquals("skipped3", tracker.acknowledge("partition", 2));
+        Assertions.assertEquals(0, tracker.getOutstanding());
+    }
+    
+    @Test
+    public void testGroupsAreIndependent() {
+        AcknowledgementTracker<Integer,Long> tracker = new AcknowledgementTracker<>();
+        tracker.delivered(0, 10, 10L);
+        tracker.delivered(1, 10, 10L);
+        tracker.delivered(1, 11, 11L);
+        
+        Assertions.assertNull(tracker.acknowledge(1, 11));
+        Assertions.assertEquals(10L, tracker.acknowledge(0, 10));
+        Assertions.assertEquals(11L, tracker.acknowledge(1, 10));
+    }
+}
@@ -0,0 +1,83 @@
+package datawave.microservice.query.messaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PublishWindowTest {
+    
+    @Test
+    public void testAcquireAndComplete() throws Exception {
+        PublishWindow window = new PublishWindow(2);
+        String first = window.nextCorrelationId("result");
+        String second = window.nextCorrelationId("result");
+        Assertions.assertNotEquals(first, second);
+        
+        CompletableFuture<Boolean> firstAck = window.acquire(first, 0, TimeUnit.MILLISECONDS);
+        CompletableFuture<Boolean> secondAck = window.acquire(second, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertNotNull(firstAck);
+        Assertions.assertNotNull(secondAck);
+        Assertions.assertEquals(2, window.getInFlight());
+        
+        // the window is full
+        Assertions.assertNull(window.acquire(window.nextCorrelationId("result"), 10, TimeUnit.MILLISECONDS));
+        
+        // acknowledging a result frees a slot
+        Assertions.assertTrue(window.complete(first, true));
+        Assertions.assertFalse(window.complete(first, true));
+        Assertions.assertTrue(firstAck.get());
+        Assertions.assertEquals(1, window.getInFlight());
+        
+        Assertions.assertTrue(window.complete(second, false));
+        Assertions.assertFalse(PublishWindow.allAcked(Arrays.asList(firstAck, secondAck)).get());
+        Assertions.assertTrue(window.awaitEmpty(0, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void testBackpressure() throws Exception {
+        PublishWindow window = new PublishWindow(1);
+        String first = window.nextCorrelationId("result");
+        Assertions.assertNotNull(window.acquire(first, 0, TimeUnit.MILLISECONDS));
+        
+        // a second publish blocks until the first is acknowledged
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<CompletableFuture<Boolean>> blocked = executor.submit(() -> {
+                started.countDown();
+                return window.acquire(window.nextCorrelationId("result"), 10, TimeUnit.SECONDS);
+            });
+            started.await();
+            Assertions.assertFalse(blocked.isDone());
+            
+            window.complete(first, true);
+            Assertions.assertNotNull(blocked.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, window.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testCancelAll() throws Exception {
+        PublishWindow window = new PublishWindow(10);
+        List<CompletableFuture<Boolean>> acks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            acks.add(window.acquire(window.nextCorrelationId("result" + i), 0, TimeUnit.MILLISECONDS));
+        }
+        Assertions.assertFalse(window.awaitEmpty(10, TimeUnit.MILLISECONDS));
+        
+        window.cancelAll();
+        Assertions.assertFalse(PublishWindow.allAcked(acks).get());
+        Assertions.assertEquals(0, window.getInFlight());
+    }
+}
@@ -0,0 +1,177 @@
+package datawave.microservice.query.messaging;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PublisherPoolTest {
+    
+    private final List<CountingPublisher> created = Collections.synchronizedList(new ArrayList<>());
+    
+    @Test
+    public void testSharedAcrossCallers() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (PublisherPool pool = new PublisherPool("test", this::newPublisher, 60000L, meterRegistry)) {
+            QueryResultsPublisher first = pool.acquire("query1");
+            QueryResultsPublisher second = pool.acquire("query1");
+            QueryResultsPublisher other = pool.acquire("query2");
+            Assertions.assertEquals(2, created.size());
+            Assertions.assertEquals(2, pool.size());
+            
+            Assertions.assertTrue(first.publish(new Result("result1", "payload")));
+            Assertions.assertTrue(second.publish(new Result("result2", "payload")));
+            Assertions.assertEquals(2, created.get(0).published);
+            
+            // releasing every reference leaves the publisher open until it has been idle for the timeout
+            first.close();
+            second.close();
+            other.close();
+            Assertions.assertEquals(0, pool.evictIdle());
+            Assertions.assertEquals(0, created.get(0).closed);
+            
+            // a released publisher can't be used, but the query's next caller reuses the pooled publisher
+            Assertions.assertThrows(IllegalStateException.class, () -> first.publish(new Result("result3", "payload")));
+            QueryResultsPublisher third = pool.acquire("query1");
+            Assertions.assertEquals(2, created.size());
+            third.close();
+            
+            Assertions.assertEquals(2.0, meterRegistry.get("query.messaging.publisher.pool.requests").tag("result", "created").counter().count());
+            Assertions.assertEquals(2.0, meterRegistry.get("query.messaging.publisher.pool.requests").tag("result", "reused").counter().count());
+            Assertions.assertEquals(2.0, meterRegistry.get("query.messaging.publisher.pool.size").gauge().value());
+        }
+        
+        // closing the pool closes the pooled publishers
+        for (CountingPublisher publisher : created) {
+            Assertions.assertEquals(1, publisher.closed);
+        }
+    }
+    
+    @Test
+    public void testCloseWhenUnused() throws Exception {
+        try (PublisherPool pool = new PublisherPool("test", this::newPublisher, 0L, new SimpleMeterRegistry())) {
+            QueryResultsPublisher first = pool.acquire("query1");
+            QueryResultsPublisher second = pool.acquire("query1");
+            
+            // closing a publisher more than once only releases it once
+            first.close();
+            first.close();
+            Assertions.assertEquals(1, pool.size());
+            Assertions.assertEquals(0, created.get(0).closed);
+            
+            second.close();
+            Assertions.assertEquals(0, pool.size());
+            Assertions.assertEquals(1, created.get(0).closed);
+        }
+    }
+    
+    @Test
+    public void testEvictIdle() throws Exception {
+        try (PublisherPool pool = new PublisherPool("test", this::newPublisher, 10L, new SimpleMeterRegistry())) {
+            pool.acquire("query1").close();
+            QueryResultsPublisher inUse = pool.acquire("query2");
+            
+            Thread.sleep(50L);
+            pool.evictIdle();
+            
+            Assertions.assertEquals(1, pool.size());
+            Assertions.assertEquals(1, created.get(0).closed);
+            Assertions.assertEquals(0, created.get(1).closed);
+            inUse.close();
+        }
+    }
+    
+    @Test
+    public void testEvictQuery() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        try (PublisherPool pool = new PublisherPool("test", this::newPublisher, 60000L, meterRegistry)) {
+            QueryResultsPublisher publisher = pool.acquire("query1");
+            
+            // deleting the query closes its publisher even though it is still in use
+            pool.evict("query1");
+            Assertions.assertEquals(0, pool.size());
+            Assertions.assertEquals(1, created.get(0).closed);
+            Assertions.assertEquals(1.0, meterRegistry.get("query.messaging.publisher.pool.evictions").tag("reason", "query").counter().count());
+            
+            // a caller still holding the evicted publisher fails clearly rather than publishing to a closed publisher
+            Assertions.assertThrows(IllegalStateException.class, () -> publisher.publish(new Result("result1", "payload")));
+            
+            // releasing the stale reference doesn't affect a new publisher for the query
+            QueryResultsPublisher replacement = pool.acquire("query1");
+            publisher.close();
+            Assertions.assertEquals(1, pool.size());
+            Assertions.assertTrue(replacement.publish(new Result("result1", "payload")));
+            replacement.close();
+        }
+    }
+    
+    @Test
+    public void testSlowCreationDoesNotBlockOtherQueries() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (PublisherPool pool = new PublisherPool("test", queryId -> {
+            if (queryId.equals("slow")) {
+                creating.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return newPublisher(queryId);
+        }, 60000L, new SimpleMeterRegistry())) {
+            CompletableFuture<QueryResultsPublisher> slow = CompletableFuture.supplyAsync(() -> pool.acquire("slow"));
+            Assertions.assertTrue(creating.await(10, TimeUnit.SECONDS));
+            
+            // another query's publisher can be created while the slow one is still being created
+            CompletableFuture.supplyAsync(() -> pool.acquire("fast")).get(10, TimeUnit.SECONDS).close();
+            
+            // and a second caller for the slow query waits for the same publisher
+            CompletableFuture<QueryResultsPublisher> waiting = CompletableFuture.supplyAsync(() -> pool.acquire("slow"));
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS).close();
+            waiting.get(10, TimeUnit.SECONDS).close();
+            Assertions.assertEquals(2, created.size());
+        }
+    }
+    
+    @Test
+    public void testFailedCreation() throws Exception {
+        try (PublisherPool pool = new PublisherPool("test", queryId -> {
+            throw new IllegalArgumentException("Unable to create publisher");
+        }, 60000L, new SimpleMeterRegistry())) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> pool.acquire("query1"));
+            Assertions.assertEquals(0, pool.size());
+        }
+    }
+    
+    private QueryResultsPublisher newPublisher(String queryId) {
+        CountingPublisher publisher = new CountingPublisher();
+        created.add(publisher);
+        return publisher;
+    }
+    
+    private static class CountingPublisher implements QueryResultsPublisher {
+        private int published;
+        private volatile int closed;
+        
+        @Override
+        public boolean publish(Result result, long interval, TimeUnit timeUnit) {
+            published++;
+            return true;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            closed++;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package datawave.microservice.query.messaging;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QueryPreparerTest {
+    
+    private final AtomicInteger prepared = new AtomicInteger();
+    private final AtomicInteger undone = new AtomicInteger();
+    
+    @Test
+    public void testPrepare() throws Exception {
+        try (QueryPreparer preparer = new QueryPreparer("test", 1)) {
+            preparer.prepare("query1", prepared::incrementAndGet, undone::incrementAndGet).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, prepared.get());
+            
+            // deleting a query which has already been prepared leaves the delete to the caller
+            preparer.deleted("query1");
+            Assertions.assertEquals(0, undone.get());
+        }
+    }
+    
+    @Test
+    public void testDeletedBeforePrepared() throws Exception {
+        try (QueryPreparer preparer = new QueryPreparer("test", 1)) {
+            // hold the only thread so that the next preparation is still queued when its query is deleted
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> blocker = preparer.prepare("query1", () -> await(release), () -> {});
+            CompletableFuture<Void> pending = preparer.prepare("query2", prepared::incrementAndGet, undone::incrementAndGet);
+            
+            preparer.deleted("query2");
+            release.countDown();
+            blocker.get(10, TimeUnit.SECONDS);
+            pending.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, prepared.get());
+            Assertions.assertEquals(0, undone.get());
+        }
+    }
+    
+    @Test
+    public void testDeletedWhilePreparing() throws Exception {
+        try (QueryPreparer preparer = new QueryPreparer("test", 1)) {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> preparing = preparer.prepare("query1", () -> {
+                started.countDown();
+                await(release);
+                prepared.incrementAndGet();
+            }, undone::incrementAndGet);
+            
+            Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+            preparer.deleted("query1");
+            release.countDown();
+            preparing.get(10, TimeUnit.SECONDS);
+            
+            // the resources created after the delete are removed again
+            Assertions.assertEquals(1, prepared.get());
+            Assertions.assertEquals(1, undone.get());
+        }
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
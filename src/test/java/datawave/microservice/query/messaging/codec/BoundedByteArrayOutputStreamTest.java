@@ -0,0 +1,85 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.query.messaging.Result;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BoundedByteArrayOutputStreamTest {
+    
+    @Test
+    public void testLimit() {
+        BoundedByteArrayOutputStream out = new BoundedByteArrayOutputStream(16);
+        out.reset(10);
+        out.write(new byte[8], 0, 8);
+        out.write(1);
+        out.write(2);
+        Assertions.assertEquals(10, out.size());
+        
+        BoundedByteArrayOutputStream.LimitExceededException e = Assertions.assertThrows(BoundedByteArrayOutputStream.LimitExceededException.class,
+                        () -> out.write(3));
+        Assertions.assertEquals(10, e.getLimit());
+        
+        // nothing past the limit is buffered
+        Assertions.assertEquals(10, out.size());
+        
+        // the stream is reusable with a new limit
+        out.reset(100);
+        Assertions.assertEquals(0, out.size());
+        out.write(new byte[50], 0, 50);
+        Assertions.assertEquals(50, out.toByteArray().length);
+    }
+    
+    @Test
+    public void testTrim() {
+        BoundedByteArrayOutputStream out = new BoundedByteArrayOutputStream(16);
+        out.reset(Long.MAX_VALUE);
+        byte[] data = new byte[4096];
+        Arrays.fill(data, (byte) 'a');
+        out.write(data, 0, data.length);
+        out.trim(1024);
+        Assertions.assertEquals(0, out.size());
+        
+        out.write(data, 0, 10);
+        Assertions.assertArrayEquals(Arrays.copyOf(data, 10), out.toByteArray());
+    }
+    
+    @Test
+    public void testStreamingEncodeAbortsEarly() throws Exception {
+        char[] chars = new char[1024 * 1024];
+        Arrays.fill(chars, 'a');
+        Result result = new Result("result1", new String(chars));
+        
+        // a wrapping codec without compression streams the wrapped encoding
+        ResultCodec uncompressed = new CompressingResultCodec(JacksonResultCodec.json(),
+                        new PayloadCompressor(Compression.NONE, 0, "test", new SimpleMeterRegistry()));
+        for (ResultCodec codec : new ResultCodec[] {JacksonResultCodec.json(), JacksonResultCodec.smile(), uncompressed}) {
+            BoundedByteArrayOutputStream out = new BoundedByteArrayOutputStream(1024);
+            out.reset(64 * 1024);
+            Exception e = Assertions.assertThrows(Exception.class, () -> codec.encode(result, out));
+            Assertions.assertTrue(BoundedByteArrayOutputStream.isLimitExceeded(e), codec.getName() + " failed with " + e);
+            Assertions.assertTrue(out.size() <= 64 * 1024);
+            
+            // with room to spare, the streamed encoding matches the buffered encoding
+            out.reset(Long.MAX_VALUE);
+            codec.encode(result, out);
+            Assertions.assertArrayEquals(codec.encode(result), out.toByteArray());
+        }
+    }
+    
+    @Test
+    public void testBufferedEncodeAlsoRespectsLimit() throws IOException {
+        ResultCodec codec = new CompressingResultCodec(JacksonResultCodec.json(), new PayloadCompressor(Compression.LZ4, 0, "test", new SimpleMeterRegistry()));
+        Result result = new Result("result1", "a fairly small payload");
+        
+        BoundedByteArrayOutputStream out = new BoundedByteArrayOutputStream(16);
+        out.reset(8);
+        Exception e = Assertions.assertThrows(Exception.class, () -> codec.encode(result, out));
+        Assertions.assertTrue(BoundedByteArrayOutputStream.isLimitExceeded(e));
+        Assertions.assertFalse(BoundedByteArrayOutputStream.isLimitExceeded(new IOException("unrelated")));
+    }
+}
@@ -0,0 +1,244 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.Result;
+
+public class JacksonResultCodecTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private static final int ITERATIONS = 2000;
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (ResultCodec codec : new ResultCodec[] {JacksonResultCodec.json(), JacksonResultCodec.smile()}) {
+            Result result = new Result("result1", createEvent(5));
+            Result copy = codec.decode(codec.encode(result));
+            Assertions.assertEquals(result.getId(), copy.getId());
+            Assertions.assertEquals(result.getPayload(), copy.getPayload());
+            
+            // checked results have no payload
+            copy = codec.decode(codec.encode(new Result("result2", null)));
+            Assertions.assertEquals("result2", copy.getId());
+            Assertions.assertNull(copy.getPayload());
+        }
+    }
+    
+    @Test
+    public void testGeometryWrittenAsWkt() throws Exception {
+        GeometryPayload payload = new GeometryPayload();
+        payload.setGeometry(new WKTReader().read("POINT (1 2)"));
+        
+        ResultCodec json = JacksonResultCodec.json();
+        Assertions.assertTrue(new String(json.encode(new Result("result1", payload))).contains("\"POINT (1 2)\""));
+        for (ResultCodec codec : new ResultCodec[] {json, JacksonResultCodec.smile()}) {
+            Result copy = codec.decode(codec.encode(new Result("result1", payload)));
+            Assertions.assertEquals(payload.getGeometry(), ((GeometryPayload) copy.getPayload()).getGeometry());
+        }
+    }
+    
+    @Test
+    public void testForName() {
+        Assertions.assertEquals(JacksonResultCodec.JSON, JacksonResultCodec.forName("json").getName());
+        Assertions.assertEquals(JacksonResultCodec.SMILE, JacksonResultCodec.forName("SMILE").getName());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> JacksonResultCodec.forName("xml"));
+    }
+    
+    @Test
+    public void testSmileIsSmallerThanJson() throws Exception {
+        ResultCodec json = JacksonResultCodec.json();
+        ResultCodec smile = JacksonResultCodec.smile();
+        
+        // an event page is dominated by repeated field names and visibilities, which smile back-references
+        Result result = new Result("result1", createEvent(200));
+        int jsonBytes = json.encode(result).length;
+        int smileBytes = smile.encode(result).length;
+        long jsonNanos = timeRoundTrip(json, result);
+        long smileNanos = timeRoundTrip(smile, result);
+        log.info("json {} bytes, {} ns per round trip; smile {} bytes, {} ns per round trip", jsonBytes, jsonNanos, smileBytes, smileNanos);
+        Assertions.assertTrue(smileBytes < jsonBytes, "Expected smile (" + smileBytes + ") to be smaller than json (" + jsonBytes + ")");
+    }
+    
+    private long timeRoundTrip(ResultCodec codec, Result result) throws IOException {
+        // warm up before timing
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(codec.encode(result));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(codec.encode(result));
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+    
+    private TestEvent createEvent(int numFields) {
+        TestEvent event = new TestEvent();
+        event.setDataType("csv");
+        event.setRow("20200101_" + numFields);
+        event.setUid("-2kfqq6.uxjkop.-7ohkyz");
+        event.setVisibility("PUBLIC|PRIVATE");
+        List<TestField> fields = new ArrayList<>();
+        for (int i = 0; i < numFields; i++) {
+            fields.add(new TestField("FIELD_NAME_" + (i % 20), "some field value " + i, "PUBLIC", 1577836800000L + i));
+        }
+        event.setFields(fields);
+        return event;
+    }
+    
+    /**
+     * A simplified stand-in for an event, with the same shape as the event payloads sent through the results queues
+     */
+    public static class GeometryPayload {
+        private Geometry geometry;
+        
+        public Geometry getGeometry() {
+            return geometry;
+        }
+        
+        public void setGeometry(Geometry geometry) {
+            this.geometry = geometry;
+        }
+    }
+    
+    public static class TestEvent {
+        private String dataType;
+        private String row;
+        private String uid;
+        private String visibility;
+        private List<TestField> fields;
+        
+        public String getDataType() {
+            return dataType;
+        }
+        
+        public void setDataType(String dataType) {
+            this.dataType = dataType;
+        }
+        
+        public String getRow() {
+            return row;
+        }
+        
+        public void setRow(String row) {
+            this.row = row;
+        }
+        
+        public String getUid() {
+            return uid;
+        }
+        
+        public void setUid(String uid) {
+            this.uid = uid;
+        }
+        
+        public String getVisibility() {
+            return visibility;
+        }
+        
+        public void setVisibility(String visibility) {
+            this.visibility = visibility;
+        }
+        
+        public List<TestField> getFields() {
+            return fields;
+        }
+        
+        public void setFields(List<TestField> fields) {
+            this.fields = fields;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TestEvent that = (TestEvent) o;
+            return Objects.equals(dataType, that.dataType) && Objects.equals(row, that.row) && Objects.equals(uid, that.uid)
+                            && Objects.equals(visibility, that.visibility) && Objects.equals(fields, that.fields);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(dataType, row, uid, visibility, fields);
+        }
+    }
+    
+    public static class TestField {
+        private String name;
+        private String value;
+        private String visibility;
+        private long timestamp;
+        
+        public TestField() {}
+        
+        public TestField(String name, String value, String visibility, long timestamp) {
+            this.name = name;
+            this.value = value;
+            this.visibility = visibility;
+            this.timestamp = timestamp;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+        
+        public String getValue() {
+            return value;
+        }
+        
+        public void setValue(String value) {
+            this.value = value;
+        }
+        
+        public String getVisibility() {
+            return visibility;
+        }
+        
+        public void setVisibility(String visibility) {
+            this.visibility = visibility;
+        }
+        
+        public long getTimestamp() {
+            return timestamp;
+        }
+        
+        public void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TestField that = (TestField) o;
+            return timestamp == that.timestamp && Objects.equals(name, that.name) && Objects.equals(value, that.value)
+                            && Objects.equals(visibility, that.visibility);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, value, visibility, timestamp);
+        }
+    }
+}
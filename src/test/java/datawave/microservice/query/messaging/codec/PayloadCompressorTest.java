@@ -0,0 +1,123 @@
+package datawave.microservice.query.messaging.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.Result;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PayloadCompressorTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = createPayload(64 * 1024);
+        for (Compression compression : Compression.values()) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            PayloadCompressor compressor = new PayloadCompressor(compression, 1024, "test", meterRegistry);
+            
+            byte[] compressed = compressor.compress(data);
+            Assertions.assertEquals(compression.getId(), compressed[0]);
+            Assertions.assertArrayEquals(data, compressor.decompress(compressed));
+            log.info("{} compressed {} bytes to {} bytes", compression, data.length, compressed.length);
+            
+            if (compression != Compression.NONE) {
+                Assertions.assertTrue(compressed.length < data.length, compression + " did not compress the payload");
+                Assertions.assertEquals(1, meterRegistry.get("query.messaging.compression.ratio").summary().count());
+                Assertions.assertEquals(1, meterRegistry.get("query.messaging.compression.time").tag("operation", "compress").timer().count());
+                Assertions.assertEquals(1, meterRegistry.get("query.messaging.compression.time").tag("operation", "decompress").timer().count());
+            }
+        }
+    }
+    
+    @Test
+    public void testBelowThreshold() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PayloadCompressor compressor = new PayloadCompressor(Compression.LZ4, 1024, "test", meterRegistry);
+        
+        byte[] data = createPayload(512);
+        byte[] framed = compressor.compress(data);
+        Assertions.assertEquals(Compression.NONE.getId(), framed[0]);
+        Assertions.assertEquals(data.length + 1, framed.length);
+        Assertions.assertArrayEquals(data, compressor.decompress(framed));
+        Assertions.assertEquals(1.0, meterRegistry.get("query.messaging.compression.skipped").counter().count());
+    }
+    
+    @Test
+    public void testIncompressible() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PayloadCompressor compressor = new PayloadCompressor(Compression.ZSTD, 0, "test", meterRegistry);
+        
+        // random bytes won't shrink, so they should be sent as-is
+        byte[] data = new byte[4096];
+        new Random(0).nextBytes(data);
+        byte[] framed = compressor.compress(data);
+        Assertions.assertEquals(Compression.NONE.getId(), framed[0]);
+        Assertions.assertArrayEquals(data, compressor.decompress(framed));
+    }
+    
+    @Test
+    public void testDecompressWithDifferentConfiguration() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PayloadCompressor snappy = new PayloadCompressor(Compression.SNAPPY, 0, "test", meterRegistry);
+        PayloadCompressor deflate = new PayloadCompressor(Compression.DEFLATE, 0, "test", meterRegistry);
+        
+        // the reader uses the algorithm recorded in the payload rather than its own configuration
+        byte[] data = createPayload(8192);
+        Assertions.assertArrayEquals(data, deflate.decompress(snappy.compress(data)));
+    }
+    
+    @Test
+    public void testCorruptPayload() {
+        PayloadCompressor compressor = new PayloadCompressor(Compression.LZ4, 0, "test", new SimpleMeterRegistry());
+        Assertions.assertThrows(IOException.class, () -> compressor.decompress(new byte[0]));
+        Assertions.assertThrows(IOException.class, () -> compressor.decompress(new byte[] {(byte) 99, 0, 0, 0, 1}));
+        Assertions.assertThrows(IOException.class, () -> compressor.decompress(new byte[] {Compression.LZ4.getId(), 0, 0}));
+    }
+    
+    @Test
+    public void testCompressingResultCodec() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(Compression.LZ4, 0, "test", new SimpleMeterRegistry());
+        ResultCodec codec = new CompressingResultCodec(JacksonResultCodec.smile(), compressor);
+        
+        Result result = new Result("result1", new String(createPayload(16 * 1024), StandardCharsets.UTF_8));
+        byte[] encoded = codec.encode(result);
+        Assertions.assertTrue(encoded.length < JacksonResultCodec.smile().encode(result).length);
+        
+        Result copy = codec.decode(encoded);
+        Assertions.assertEquals(result.getId(), copy.getId());
+        Assertions.assertEquals(result.getPayload(), copy.getPayload());
+    }
+    
+    @Test
+    public void testMixedCompressionReadable() throws Exception {
+        ResultCodec uncompressed = new CompressingResultCodec(JacksonResultCodec.json(),
+                        new PayloadCompressor(Compression.NONE, 0, "test", new SimpleMeterRegistry()));
+        ResultCodec compressed = new CompressingResultCodec(JacksonResultCodec.json(),
+                        new PayloadCompressor(Compression.LZ4, 0, "test", new SimpleMeterRegistry()));
+        Result result = new Result("result1", new String(createPayload(16 * 1024), StandardCharsets.UTF_8));
+        
+        // without compression the wrapped encoding is sent unframed, so it can still be read by services which do not wrap their codec
+        Assertions.assertArrayEquals(JacksonResultCodec.json().encode(result), uncompressed.encode(result));
+        Assertions.assertEquals(JacksonResultCodec.json().getContentType(), uncompressed.getContentType());
+        Assertions.assertEquals(CompressingResultCodec.FRAMED_CONTENT_TYPE, compressed.getContentType());
+        
+        // and services read each other's results regardless of how compression is configured
+        Assertions.assertEquals(result.getPayload(), compressed.decode(uncompressed.encode(result)).getPayload());
+        Assertions.assertEquals(result.getPayload(), uncompressed.decode(compressed.encode(result)).getPayload());
+    }
+    
+    private byte[] createPayload(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("FIELD_NAME_").append(i % 20).append(":some field value ").append(i).append(';');
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
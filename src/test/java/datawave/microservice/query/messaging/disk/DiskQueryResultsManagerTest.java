@@ -0,0 +1,302 @@
+package datawave.microservice.query.messaging.disk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.JacksonResultCodec;
+import datawave.microservice.query.messaging.codec.ResultCodec;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+
+public class DiskQueryResultsManagerTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    @TempDir
+    Path tempDir;
+    
+    private DiskQueryResultsManager manager;
+    
+    @AfterEach
+    public void cleanup() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+    
+    @Test
+    public void testPublishAndReceiveAcrossSegments() throws Exception {
+        manager = createManager(256, 4);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        Assertions.assertFalse(listener.hasResults());
+        
+        List<Result> page = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            page.add(new Result("result" + i, "Some result " + i));
+        }
+        // include a result which is larger than a segment
+        page.add(new Result("large", new String(new char[1024]).replace('\0', 'x')));
+        Assertions.assertTrue(publisher.publish(page));
+        Assertions.assertEquals(101, manager.getNumResultsRemaining("query1"));
+        Assertions.assertTrue(countSegments("query1") > 1);
+        
+        // results come back in order, and consumed segments are deleted
+        List<Result> received = new ArrayList<>();
+        while (received.size() < page.size()) {
+            List<Result> results = listener.receive(7, 0, TimeUnit.MILLISECONDS);
+            Assertions.assertFalse(results.isEmpty());
+            listener.acknowledge(results, AcknowledgementCallback.Status.ACK);
+            received.addAll(results);
+        }
+        for (int i = 0; i < page.size(); i++) {
+            Assertions.assertEquals(page.get(i).getId(), received.get(i).getId());
+            Assertions.assertEquals(page.get(i).getPayload(), received.get(i).getPayload());
+        }
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        Assertions.assertFalse(listener.hasResults());
+        Assertions.assertEquals(1, countSegments("query1"));
+    }
+    
+    @Test
+    public void testUndecodableResultSkipped() throws Exception {
+        ResultCodec json = JacksonResultCodec.json();
+        manager = createManager(4096, 16, new ResultCodec() {
+            @Override
+            public String getName() {
+                return json.getName();
+            }
+            
+            @Override
+            public String getContentType() {
+                return json.getContentType();
+            }
+            
+            @Override
+            public byte[] encode(Result result) throws IOException {
+                return json.encode(result);
+            }
+            
+            @Override
+            public Result decode(byte[] data) throws IOException {
+                Result result = json.decode(data);
+                if (result.getId().equals("result2")) {
+                    throw new IOException("Unable to decode " + result.getId());
+                }
+                return result;
+            }
+        });
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        
+        List<Result> page = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            page.add(new Result("result" + i, "Some result " + i));
+        }
+        Assertions.assertTrue(publisher.publish(page));
+        
+        // the undecodable result is dropped without cutting the page short
+        List<Result> results = listener.receive(10, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals(4, results.size());
+        Assertions.assertTrue(results.stream().noneMatch(result -> result.getId().equals("result2")));
+    }
+    
+    @Test
+    public void testNackRedelivers() throws Exception {
+        manager = createManager(4096, 16);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        publisher.publish(new Result("result1", "payload1"));
+        publisher.publish(new Result("result2", "payload2"));
+        
+        Result first = listener.receive(0, TimeUnit.MILLISECONDS);
+        first.acknowledge(AcknowledgementCallback.Status.NACK);
+        Assertions.assertEquals(2, manager.getNumResultsRemaining("query1"));
+        
+        // the negatively acknowledged result comes back before the rest
+        Result redelivered = listener.receive(0, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals("result1", redelivered.getId());
+        Assertions.assertEquals("payload1", redelivered.getPayload());
+        redelivered.acknowledge(AcknowledgementCallback.Status.ACK);
+        listener.receive(0, TimeUnit.MILLISECONDS).acknowledge(AcknowledgementCallback.Status.ACK);
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+    }
+    
+    @Test
+    public void testWaitingListener() throws Exception {
+        manager = createManager(4096, 16);
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Result> received = executor.submit(() -> listener.receive(10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            
+            Assertions.assertTrue(manager.createPublisher("query1").publish(new Result("result1", "payload")));
+            Assertions.assertEquals("result1", received.get(10, TimeUnit.SECONDS).getId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testPublishWaitsForRoom() throws Exception {
+        manager = createManager(4096, 4, 1024L, JacksonResultCodec.json());
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        
+        // a batch larger than the cap is accepted when nothing is waiting to be read
+        List<Result> page = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            page.add(new Result("result" + i, "Some result " + i));
+        }
+        Assertions.assertTrue(publisher.publish(page, 0, TimeUnit.MILLISECONDS));
+        
+        // but nothing more is accepted until the unread results are read
+        Assertions.assertFalse(publisher.publish(new Result("blocked", "payload"), 50, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(50, manager.getNumResultsRemaining("query1"));
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> published = executor.submit(() -> publisher.publish(new Result("waiting", "payload"), 10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            Assertions.assertFalse(published.isDone());
+            
+            // reading the results makes room for the waiting publisher
+            List<Result> received = new ArrayList<>();
+            while (received.size() <= page.size()) {
+                List<Result> results = listener.receive(10, 1, TimeUnit.SECONDS);
+                Assertions.assertFalse(results.isEmpty());
+                listener.acknowledge(results, AcknowledgementCallback.Status.ACK);
+                received.addAll(results);
+            }
+            Assertions.assertTrue(published.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals("waiting", received.get(page.size()).getId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testEmptyAndDeleteQuery() throws Exception {
+        manager = createManager(256, 4);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        for (int i = 0; i < 50; i++) {
+            publisher.publish(new Result("result" + i, "Some result " + i));
+        }
+        Result unacknowledged = listener.receive(0, TimeUnit.MILLISECONDS);
+        
+        manager.emptyQuery("query1");
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        Assertions.assertNull(listener.receive(0, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(1, countSegments("query1"));
+        
+        // acknowledging a result delivered before the query was emptied doesn't affect the count
+        unacknowledged.acknowledge(AcknowledgementCallback.Status.NACK);
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        
+        // the stream is still usable after being emptied
+        publisher.publish(new Result("result50", "Some result 50"));
+        Assertions.assertEquals("result50", listener.receive(0, TimeUnit.MILLISECONDS).getId());
+        
+        manager.deleteQuery("query1");
+        Assertions.assertFalse(Files.exists(manager.getDirectory().resolve("query1")));
+        Assertions.assertFalse(publisher.publish(new Result("result51", "Some result 51")));
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+    }
+    
+    @Test
+    public void testInvalidQueryId() throws Exception {
+        manager = createManager(4096, 16);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> manager.createPublisher("../query1"));
+    }
+    
+    /**
+     * Buffers ten million results for a single query and reports how much of the heap they use. Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkHeapUsage() throws Exception {
+        int numResults = 10_000_000;
+        int batchSize = 1000;
+        manager = createManager(64 * 1024 * 1024, 1000);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < numResults; i += batchSize) {
+            List<Result> batch = new ArrayList<>(batchSize);
+            for (int j = i; j < i + batchSize; j++) {
+                batch.add(new Result("result" + j, "FIELD_NAME_" + (j % 20) + ":some field value " + j));
+            }
+            Assertions.assertTrue(publisher.publish(batch));
+        }
+        long publishMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long heapBuffered = usedHeap() - heapBefore;
+        log.info("Buffered {} results in {} ms using {} MiB of heap and {} segments on disk", numResults, publishMillis, heapBuffered / (1024 * 1024),
+                        countSegments("query1"));
+        Assertions.assertEquals(numResults, manager.getNumResultsRemaining("query1"));
+        Assertions.assertTrue(heapBuffered < 64L * 1024 * 1024, "Buffered results used " + heapBuffered + " bytes of heap");
+        
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        start = System.nanoTime();
+        int received = 0;
+        List<Result> results;
+        while (!(results = listener.receive(batchSize, 0, TimeUnit.MILLISECONDS)).isEmpty()) {
+            listener.acknowledge(results, AcknowledgementCallback.Status.ACK);
+            received += results.size();
+        }
+        log.info("Received {} results in {} ms", received, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Assertions.assertEquals(numResults, received);
+    }
+    
+    private long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    private long countSegments(String queryId) throws IOException {
+        try (Stream<Path> segments = Files.list(manager.getDirectory().resolve(queryId))) {
+            return segments.count();
+        }
+    }
+    
+    private DiskQueryResultsManager createManager(int segmentSizeBytes, int headBufferSize) throws IOException {
+        return createManager(segmentSizeBytes, headBufferSize, JacksonResultCodec.json());
+    }
+    
+    private DiskQueryResultsManager createManager(int segmentSizeBytes, int headBufferSize, ResultCodec resultCodec) throws IOException {
+        return createManager(segmentSizeBytes, headBufferSize, new MessagingProperties.DiskProperties().getMaxUnreadBytes(), resultCodec);
+    }
+    
+    private DiskQueryResultsManager createManager(int segmentSizeBytes, int headBufferSize, long maxUnreadBytes, ResultCodec resultCodec) throws IOException {
+        MessagingProperties messagingProperties = new MessagingProperties();
+        messagingProperties.getDisk().setDirectory(tempDir.toString());
+        messagingProperties.getDisk().setSegmentSizeBytes(segmentSizeBytes);
+        messagingProperties.getDisk().setHeadBufferSize(headBufferSize);
+        messagingProperties.getDisk().setMaxUnreadBytes(maxUnreadBytes);
+        return new DiskQueryResultsManager(messagingProperties, resultCodec);
+    }
+}
@@ -0,0 +1,155 @@
+package datawave.microservice.query.messaging.filesystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import datawave.microservice.query.messaging.ClaimCheckCallback;
+import datawave.microservice.query.messaging.codec.Compression;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class FileSystemClaimCheckTest {
+    @TempDir
+    Path tempDir;
+    
+    private MessagingProperties messagingProperties;
+    private FileSystemClaimCheck claimCheck;
+    
+    @BeforeEach
+    public void setup() throws IOException {
+        messagingProperties = new MessagingProperties();
+        messagingProperties.getClaimCheck().setDirectory(tempDir.toString());
+        messagingProperties.getClaimCheck().setTimeoutMillis(500L);
+        claimCheck = createClaimCheck();
+    }
+    
+    private FileSystemClaimCheck createClaimCheck() throws IOException {
+        return new FileSystemClaimCheck(messagingProperties, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    }
+    
+    @AfterEach
+    public void cleanup() {
+        claimCheck.close();
+    }
+    
+    @Test
+    public void testClaimByResultId() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.check("query1", "result2", "payload2");
+        
+        // payloads are matched to their results regardless of the order they are claimed in
+        Assertions.assertEquals("payload2", claimCheck.claim("query1", "result2"));
+        Assertions.assertEquals("payload1", claimCheck.claim("query1", "result1"));
+        
+        // and can be claimed again until they are released, e.g. when a result is redelivered
+        Assertions.assertEquals("payload1", claimCheck.claim("query1", "result1"));
+    }
+    
+    @Test
+    public void testCompressedPayload() throws Exception {
+        messagingProperties.getCompression().setAlgorithm(Compression.LZ4);
+        messagingProperties.getCompression().setThresholdBytes(0);
+        claimCheck.close();
+        claimCheck = createClaimCheck();
+        
+        String payload = new String(new char[10000]).replace('\0', 'x');
+        claimCheck.check("query1", "result1", payload);
+        Assertions.assertTrue(totalSize() < payload.length());
+        Assertions.assertEquals(payload, claimCheck.claim("query1", "result1"));
+    }
+    
+    @Test
+    public void testUncompressedPayload() throws Exception {
+        String payload = new String(new char[10000]).replace('\0', 'x');
+        claimCheck.check("query1", "result1", payload);
+        Assertions.assertTrue(totalSize() > payload.length());
+        Assertions.assertEquals(payload, claimCheck.claim("query1", "result1"));
+    }
+    
+    @Test
+    public void testPrefetchWaitsForCheck() throws Exception {
+        ClaimCheckCallback callback = claimCheck.prefetch("query1", "result1");
+        Thread.sleep(50);
+        claimCheck.check("query1", "result1", "payload1");
+        Assertions.assertEquals("payload1", callback.getPayload());
+    }
+    
+    @Test
+    public void testMissingPayloadTimesOut() {
+        CompletableFuture<Object> claimed = claimCheck.claimAsync("query1", "result1");
+        Assertions.assertThrows(IOException.class, () -> claimCheck.claim("query1", "result2"));
+        Assertions.assertTrue(claimed.isCompletedExceptionally());
+    }
+    
+    @Test
+    public void testRelease() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.release("query1", "result1");
+        
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (countFiles() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(0, countFiles());
+    }
+    
+    @Test
+    public void testEmptyAndDelete() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.check("query2", "result1", "payload2");
+        
+        claimCheck.empty("query1");
+        messagingProperties.getClaimCheck().setTimeoutMillis(50L);
+        Assertions.assertThrows(IOException.class, () -> claimCheck.claim("query1", "result1"));
+        Assertions.assertEquals("payload2", claimCheck.claim("query2", "result1"));
+        
+        claimCheck.delete("query2");
+        try (Stream<Path> paths = Files.list(tempDir)) {
+            Assertions.assertEquals(1, paths.count());
+        }
+    }
+    
+    @Test
+    public void testIdsStayInsideDirectory() throws Exception {
+        claimCheck.check("../query1", "../../result1", "payload1");
+        Assertions.assertEquals(1, countFiles());
+        Assertions.assertEquals("payload1", claimCheck.claim("../query1", "../../result1"));
+        
+        claimCheck.delete("../query1");
+        Assertions.assertTrue(Files.isDirectory(tempDir));
+    }
+    
+    @Test
+    public void testDeleteExpired() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.deleteExpired();
+        Assertions.assertEquals(1, countFiles());
+        
+        messagingProperties.getClaimCheck().setTtlSeconds(1);
+        Thread.sleep(1500L);
+        claimCheck.deleteExpired();
+        Assertions.assertEquals(0, countFiles());
+    }
+    
+    private long countFiles() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+    
+    private long totalSize() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+}
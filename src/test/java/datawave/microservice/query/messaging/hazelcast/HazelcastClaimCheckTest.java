@@ -0,0 +1,112 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import static datawave.microservice.query.messaging.hazelcast.HazelcastClaimCheck.CLAIM_CHECK_PREFIX;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+import datawave.microservice.query.messaging.ClaimCheckCallback;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+
+public class HazelcastClaimCheckTest {
+    private static HazelcastInstance hazelcastInstance;
+    
+    private MessagingProperties messagingProperties;
+    private HazelcastClaimCheck claimCheck;
+    
+    @BeforeAll
+    public static void startHazelcast() {
+        Config config = new Config();
+        config.setClusterName("HazelcastClaimCheckTest");
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        hazelcastInstance = Hazelcast.newHazelcastInstance(config);
+    }
+    
+    @AfterAll
+    public static void stopHazelcast() {
+        hazelcastInstance.shutdown();
+    }
+    
+    @BeforeEach
+    public void setup() {
+        messagingProperties = new MessagingProperties();
+        messagingProperties.getClaimCheck().setChunkSizeBytes(64);
+        messagingProperties.getClaimCheck().setTimeoutMillis(500L);
+        claimCheck = new HazelcastClaimCheck(messagingProperties, hazelcastInstance, new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+    }
+    
+    @AfterEach
+    public void cleanup() {
+        claimCheck.delete("query1");
+        claimCheck.close();
+    }
+    
+    @Test
+    public void testClaimByResultId() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.check("query1", "result2", "payload2");
+        
+        // payloads are matched to their results regardless of the order they are claimed in
+        Assertions.assertEquals("payload2", claimCheck.claim("query1", "result2"));
+        Assertions.assertEquals("payload1", claimCheck.claim("query1", "result1"));
+        
+        // and can be claimed again until they are released, e.g. when a result is redelivered
+        Assertions.assertEquals("payload1", claimCheck.claim("query1", "result1"));
+    }
+    
+    @Test
+    public void testChunkedPayload() throws Exception {
+        String payload = new String(new char[1000]).replace('\0', 'x');
+        claimCheck.check("query1", "result1", payload);
+        Assertions.assertTrue(hazelcastInstance.getMap(CLAIM_CHECK_PREFIX + "query1").size() > 2);
+        Assertions.assertEquals(payload, claimCheck.claim("query1", "result1"));
+        
+        // releasing the payload removes every chunk
+        claimCheck.release("query1", "result1");
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!hazelcastInstance.getMap(CLAIM_CHECK_PREFIX + "query1").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(hazelcastInstance.getMap(CLAIM_CHECK_PREFIX + "query1").isEmpty());
+    }
+    
+    @Test
+    public void testPrefetchWaitsForCheck() throws Exception {
+        ClaimCheckCallback callback = claimCheck.prefetch("query1", "result1");
+        Thread.sleep(50);
+        claimCheck.check("query1", "result1", "payload1");
+        Assertions.assertEquals("payload1", callback.getPayload());
+    }
+    
+    @Test
+    public void testMissingPayloadTimesOut() {
+        CompletableFuture<Object> claimed = claimCheck.claimAsync("query1", "result1");
+        Assertions.assertThrows(IOException.class, () -> claimCheck.claim("query1", "result2"));
+        Assertions.assertTrue(claimed.isCompletedExceptionally());
+    }
+    
+    @Test
+    public void testEmpty() throws Exception {
+        claimCheck.check("query1", "result1", "payload1");
+        claimCheck.empty("query1");
+        
+        messagingProperties.getClaimCheck().setTimeoutMillis(50L);
+        long start = System.nanoTime();
+        Assertions.assertThrows(IOException.class, () -> claimCheck.claim("query1", "result1"));
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000L);
+    }
+}
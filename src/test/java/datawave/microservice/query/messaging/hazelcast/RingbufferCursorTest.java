@@ -0,0 +1,162 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RingbufferCursorTest {
+    private static final long ACK_TIMEOUT_MILLIS = 60000L;
+    
+    @Test
+    public void testClaimOnlyWhatWasRead() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        Assertions.assertTrue(cursor.reserve(10, 100));
+        Assertions.assertTrue(cursor.hasResults());
+        Assertions.assertEquals(10, cursor.getNumResultsRemaining());
+        
+        // a listener which hasn't read anything yet only learns where to read from
+        RingbufferClaim claim = cursor.claim("listener1", -1L, -1L, 5, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(0, claim.size());
+        Assertions.assertEquals(0L, claim.getNextSequence());
+        
+        claim = cursor.claim("listener1", 0L, 10L, 5, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(0L, claim.getFrom());
+        Assertions.assertEquals(5L, claim.getTo());
+        Assertions.assertEquals(5L, claim.getNextSequence());
+        
+        // a competing listener which read the same range only gets what is left of it
+        claim = cursor.claim("listener2", 0L, 10L, 10, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(5L, claim.getFrom());
+        Assertions.assertEquals(10L, claim.getTo());
+        
+        claim = cursor.claim("listener1", 0L, 10L, 10, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(0, claim.size());
+        Assertions.assertFalse(cursor.hasResults());
+        Assertions.assertEquals(10, cursor.getNumResultsRemaining());
+    }
+    
+    @Test
+    public void testSettle() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        cursor.reserve(4, 100);
+        RingbufferClaim claim = cursor.claim("listener1", 0L, 4L, 4, ACK_TIMEOUT_MILLIS);
+        
+        cursor.settle("listener1", claim.getGeneration(), new long[] {0L, 1L}, true);
+        Assertions.assertEquals(2, cursor.getNumResultsRemaining());
+        
+        // another listener can't settle our claims
+        cursor.settle("listener2", claim.getGeneration(), new long[] {2L}, true);
+        Assertions.assertEquals(2, cursor.getNumResultsRemaining());
+        
+        // rejected results are redelivered before anything new
+        cursor.settle("listener1", claim.getGeneration(), new long[] {2L, 3L}, false);
+        Assertions.assertTrue(cursor.hasResults());
+        cursor.reserve(1, 100);
+        claim = cursor.claim("listener2", 4L, 5L, 2, ACK_TIMEOUT_MILLIS);
+        Assertions.assertArrayEquals(new long[] {2L, 3L}, claim.getRedeliveries());
+        Assertions.assertEquals(0, claim.getTo() - claim.getFrom());
+        
+        claim = cursor.claim("listener2", 4L, 5L, 2, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(0, claim.getRedeliveries().length);
+        Assertions.assertEquals(4L, claim.getFrom());
+        Assertions.assertEquals(5L, claim.getTo());
+    }
+    
+    @Test
+    public void testClaimsKeptAsRanges() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        cursor.reserve(1000, 1000);
+        RingbufferClaim claim = cursor.claim("listener1", 0L, 1000L, 1000, ACK_TIMEOUT_MILLIS);
+        
+        // acknowledging results one at a time in order keeps a single range
+        for (long sequence = 0; sequence < 500; sequence++) {
+            cursor.settle("listener1", claim.getGeneration(), new long[] {sequence}, true);
+            Assertions.assertEquals(1, cursor.getClaims().get("listener1").size());
+        }
+        Assertions.assertEquals(500, cursor.getNumResultsRemaining());
+        Assertions.assertEquals(500L, cursor.getLowWatermark());
+        
+        // settling from the middle splits the range, and rejected runs are redelivered as one range
+        cursor.settle("listener1", claim.getGeneration(), new long[] {702L, 700L, 701L}, false);
+        cursor.settle("listener1", claim.getGeneration(), new long[] {703L}, false);
+        Assertions.assertEquals(2, cursor.getClaims().get("listener1").size());
+        Assertions.assertEquals(1, cursor.getRedeliveries().size());
+        Assertions.assertEquals(500, cursor.getNumResultsRemaining());
+        
+        // settling sequences which were never claimed does nothing
+        cursor.settle("listener1", claim.getGeneration(), new long[] {100L, 701L}, true);
+        Assertions.assertEquals(500, cursor.getNumResultsRemaining());
+        
+        cursor.release("listener1");
+        Assertions.assertNull(cursor.getClaims().get("listener1"));
+        Assertions.assertEquals(1, cursor.getRedeliveries().size());
+        claim = cursor.claim("listener2", 1000L, 1000L, 1000, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(500, claim.getRedeliveries().length);
+        Assertions.assertEquals(500L, claim.getRedeliveries()[0]);
+        Assertions.assertEquals(999L, claim.getRedeliveries()[499]);
+    }
+    
+    @Test
+    public void testReleaseAndTimeout() throws Exception {
+        RingbufferCursor cursor = new RingbufferCursor();
+        cursor.reserve(4, 100);
+        cursor.claim("listener1", 0L, 2L, 2, ACK_TIMEOUT_MILLIS);
+        cursor.claim("listener2", 2L, 4L, 2, ACK_TIMEOUT_MILLIS);
+        
+        // a closed listener's claims are redelivered
+        cursor.release("listener1");
+        RingbufferClaim claim = cursor.claim("listener3", 4L, 4L, 10, ACK_TIMEOUT_MILLIS);
+        Assertions.assertArrayEquals(new long[] {0L, 1L}, claim.getRedeliveries());
+        
+        // claims which go unsettled for too long are redelivered
+        Thread.sleep(5);
+        claim = cursor.claim("listener3", 4L, 4L, 10, 1L);
+        Assertions.assertArrayEquals(new long[] {0L, 1L, 2L, 3L}, claim.getRedeliveries());
+        
+        // and a late acknowledgement from the original listener is ignored
+        cursor.settle("listener2", claim.getGeneration(), new long[] {2L, 3L}, true);
+        Assertions.assertEquals(4, cursor.getNumResultsRemaining());
+    }
+    
+    @Test
+    public void testBackpressure() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        Assertions.assertTrue(cursor.reserve(8, 10));
+        Assertions.assertFalse(cursor.reserve(3, 10));
+        
+        // claiming results doesn't make room for more, but acknowledging the oldest ones does
+        RingbufferClaim claim = cursor.claim("listener1", 0L, 8L, 8, ACK_TIMEOUT_MILLIS);
+        Assertions.assertFalse(cursor.reserve(3, 10));
+        cursor.settle("listener1", claim.getGeneration(), new long[] {1L, 2L, 3L}, true);
+        Assertions.assertFalse(cursor.reserve(3, 10));
+        cursor.settle("listener1", claim.getGeneration(), new long[] {0L}, true);
+        Assertions.assertTrue(cursor.reserve(3, 10));
+        Assertions.assertEquals(4L, cursor.getLowWatermark());
+        
+        // room which was reserved but not used can be given back
+        cursor.unreserve(3);
+        Assertions.assertTrue(cursor.reserve(6, 10));
+    }
+    
+    @Test
+    public void testClear() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        cursor.reserve(10, 100);
+        RingbufferClaim claim = cursor.claim("listener1", 0L, 5L, 5, ACK_TIMEOUT_MILLIS);
+        cursor.settle("listener1", claim.getGeneration(), new long[] {0L}, false);
+        
+        cursor.clear();
+        Assertions.assertEquals(0, cursor.getNumResultsRemaining());
+        Assertions.assertFalse(cursor.hasResults());
+        Assertions.assertEquals(10L, cursor.getLowWatermark());
+        
+        // settling a claim from before the results were emptied does nothing
+        cursor.settle("listener1", claim.getGeneration(), new long[] {1L}, false);
+        Assertions.assertFalse(cursor.hasResults());
+        
+        // and listeners skip ahead to the results published afterwards
+        cursor.reserve(1, 100);
+        claim = cursor.claim("listener1", 5L, 11L, 10, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(10L, claim.getFrom());
+        Assertions.assertEquals(11L, claim.getTo());
+    }
+}
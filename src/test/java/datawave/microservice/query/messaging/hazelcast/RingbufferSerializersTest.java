@@ -0,0 +1,104 @@
+package datawave.microservice.query.messaging.hazelcast;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.internal.serialization.Data;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+
+public class RingbufferSerializersTest {
+    private static final long ACK_TIMEOUT_MILLIS = 60000L;
+    
+    private InternalSerializationService javaSerialization;
+    private InternalSerializationService compactSerialization;
+    
+    @BeforeEach
+    public void setup() {
+        javaSerialization = new DefaultSerializationServiceBuilder().setConfig(new SerializationConfig()).build();
+        compactSerialization = new DefaultSerializationServiceBuilder().setConfig(RingbufferSerializers.register(new SerializationConfig())).build();
+    }
+    
+    @Test
+    public void testRingbufferCursor() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        cursor.reserve(1000, 10000);
+        RingbufferClaim claim = cursor.claim("listener1", 0L, 500L, 500, ACK_TIMEOUT_MILLIS);
+        cursor.claim("listener2", 0L, 800L, 300, ACK_TIMEOUT_MILLIS);
+        for (long sequence = 0; sequence < 100; sequence++) {
+            cursor.settle("listener1", claim.getGeneration(), new long[] {sequence}, true);
+        }
+        cursor.settle("listener1", claim.getGeneration(), new long[] {200L, 201L, 202L}, false);
+        
+        RingbufferCursor copy = roundTrip(cursor);
+        Assertions.assertEquals(cursor.getNumResultsRemaining(), copy.getNumResultsRemaining());
+        Assertions.assertEquals(cursor.getLowWatermark(), copy.getLowWatermark());
+        Assertions.assertEquals(cursor.getNextSequence(), copy.getNextSequence());
+        Assertions.assertEquals(cursor.getGeneration(), copy.getGeneration());
+        Assertions.assertEquals(cursor.getRedeliveries(), copy.getRedeliveries());
+        Assertions.assertEquals(cursor.getClaims().keySet(), copy.getClaims().keySet());
+        
+        // the copy carries on where the original left off
+        Assertions.assertArrayEquals(new long[] {200L, 201L, 202L}, copy.claim("listener3", 800L, 800L, 10, ACK_TIMEOUT_MILLIS).getRedeliveries());
+        copy.release("listener2");
+        claim = copy.claim("listener3", 800L, 1000L, 1000, ACK_TIMEOUT_MILLIS);
+        Assertions.assertEquals(300, claim.getRedeliveries().length);
+        Assertions.assertEquals(800L, claim.getFrom());
+        Assertions.assertEquals(1000L, claim.getTo());
+        assertSmaller("RingbufferCursor", cursor);
+    }
+    
+    @Test
+    public void testEntryProcessors() {
+        RingbufferCursor cursor = new RingbufferCursor();
+        apply(new RingbufferCursorEntryProcessor.Reserve(10, 100), cursor);
+        apply(new RingbufferCursorEntryProcessor.Unreserve(2), cursor);
+        Assertions.assertEquals(8, cursor.getNumResultsRemaining());
+        
+        RingbufferClaim claim = apply(new RingbufferCursorEntryProcessor.Claim("listener1", 0L, 8L, 8, ACK_TIMEOUT_MILLIS), cursor);
+        Assertions.assertEquals(8, claim.size());
+        apply(new RingbufferCursorEntryProcessor.Settle("listener1", claim.getGeneration(), new long[] {0L, 1L, 2L}, true), cursor);
+        Assertions.assertEquals(5, cursor.getNumResultsRemaining());
+        apply(new RingbufferCursorEntryProcessor.Release("listener1"), cursor);
+        Assertions.assertTrue(cursor.hasResults());
+        apply(new RingbufferCursorEntryProcessor.Clear(), cursor);
+        Assertions.assertEquals(0, cursor.getNumResultsRemaining());
+    }
+    
+    @Test
+    public void testRingbufferClaim() {
+        RingbufferClaim claim = new RingbufferClaim(3, new long[] {4L, 5L, 9L}, 20L, 30L, 30L);
+        RingbufferClaim copy = roundTrip(claim);
+        Assertions.assertEquals(claim.getGeneration(), copy.getGeneration());
+        Assertions.assertArrayEquals(claim.getRedeliveries(), copy.getRedeliveries());
+        Assertions.assertEquals(claim.getFrom(), copy.getFrom());
+        Assertions.assertEquals(claim.getTo(), copy.getTo());
+        Assertions.assertEquals(claim.getNextSequence(), copy.getNextSequence());
+    }
+    
+    private <R> R apply(RingbufferCursorEntryProcessor<R> processor, RingbufferCursor cursor) {
+        RingbufferCursorEntryProcessor<R> copy = roundTrip(processor);
+        Assertions.assertSame(processor.getClass(), copy.getClass());
+        Map.Entry<String,RingbufferCursor> entry = new AbstractMap.SimpleEntry<>("query1", cursor);
+        return copy.process(entry);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T object) {
+        Data data = compactSerialization.toData(object);
+        Assertions.assertEquals(RingbufferSerializers.getSerializerConfigs().stream().filter(c -> c.getTypeClass().isInstance(object)).findFirst().get()
+                        .getImplementation().getTypeId(), data.getType());
+        return (T) compactSerialization.toObject(data);
+    }
+    
+    private void assertSmaller(String name, Object object) {
+        int javaBytes = javaSerialization.toData(object).totalSize();
+        int compactBytes = compactSerialization.toData(object).totalSize();
+        Assertions.assertTrue(compactBytes < javaBytes, "Expected compact " + name + " (" + compactBytes + ") to be smaller than java (" + javaBytes + ")");
+    }
+}
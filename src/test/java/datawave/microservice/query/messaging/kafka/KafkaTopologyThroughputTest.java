@@ -0,0 +1,187 @@
+package datawave.microservice.query.messaging.kafka;
+
+import static org.apache.kafka.clients.admin.AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.codec.JacksonResultCodec;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Compares the per-query topic and shared topic modes against an embedded broker. Each run creates several concurrent queries, publishes a batch of results for
+ * each, and consumes them all, which exercises topic creation and consumer group setup on the query path as well as the key filtering of the shared topics.
+ */
+@EmbeddedKafka
+public class KafkaTopologyThroughputTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private static final int NUM_QUERIES = 8;
+    private static final int RESULTS_PER_QUERY = 250;
+    
+    @Test
+    public void testPerQueryTopics(EmbeddedKafkaBroker broker) throws Exception {
+        runQueries(broker, false);
+    }
+    
+    @Test
+    public void testSharedTopics(EmbeddedKafkaBroker broker) throws Exception {
+        runQueries(broker, true);
+    }
+    
+    @Test
+    public void testPrepareQuery(EmbeddedKafkaBroker broker) throws Exception {
+        KafkaQueryResultsManager manager = createManager(broker, new MessagingProperties());
+        String queryId = UUID.randomUUID().toString();
+        
+        manager.prepareQuery(queryId).get(30, TimeUnit.SECONDS);
+        try (AdminClient adminClient = createAdminClient(broker)) {
+            Assertions.assertTrue(adminClient.listTopics().names().get().contains(KafkaQueryResultsManager.TOPIC_PREFIX + queryId));
+            
+            
+            // the publisher and listener reuse the prepared topic
+            try (QueryResultsPublisher publisher = manager.createPublisher(queryId);
+                            QueryResultsListener listener = manager.createListener("listener", queryId)) {
+                Assertions.assertTrue(publisher.publish(new Result("result1", "payload"), 30, TimeUnit.SECONDS));
+                Assertions.assertEquals(1, listener.receive(1, 30, TimeUnit.SECONDS).size());
+            }
+        } finally {
+            manager.deleteQuery(queryId);
+        }
+    }
+    
+    @Test
+    public void testInitializeQueryOnlySeedsOnce(EmbeddedKafkaBroker broker) throws Exception {
+        MessagingProperties messagingProperties = new MessagingProperties();
+        messagingProperties.getKafka().setUseSharedTopics(true);
+        messagingProperties.getKafka().setSharedTopicCount(1);
+        messagingProperties.getKafka().setSharedTopicPartitions(1);
+        KafkaQueryResultsManager manager = createManager(broker, messagingProperties);
+        String queryId = UUID.randomUUID().toString();
+        
+        manager.initializeQuery(queryId);
+        try (QueryResultsPublisher publisher = manager.createPublisher(queryId)) {
+            Assertions.assertTrue(publisher.publish(new Result("result1", "payload"), 30, TimeUnit.SECONDS));
+            
+            // initializing again must not skip the group past the result which was just published
+            manager.initializeQuery(queryId);
+            try (QueryResultsListener listener = manager.createListener("listener", queryId)) {
+                List<Result> results = listener.receive(1, 30, TimeUnit.SECONDS);
+                Assertions.assertEquals(1, results.size());
+                Assertions.assertEquals("result1", results.get(0).getId());
+                listener.acknowledge(results, AcknowledgementCallback.Status.ACK);
+            }
+        } finally {
+            manager.deleteQuery(queryId);
+        }
+    }
+    
+    private void runQueries(EmbeddedKafkaBroker broker, boolean useSharedTopics) throws Exception {
+        MessagingProperties messagingProperties = new MessagingProperties();
+        messagingProperties.getKafka().setUseSharedTopics(useSharedTopics);
+        messagingProperties.getKafka().setSharedTopicCount(2);
+        messagingProperties.getKafka().setSharedTopicPartitions(4);
+        
+        KafkaQueryResultsManager manager = createManager(broker, messagingProperties);
+        String mode = useSharedTopics ? "shared topics" : "per-query topics";
+        
+        List<String> queryIds = new ArrayList<>();
+        List<QueryResultsPublisher> publishers = new ArrayList<>();
+        List<QueryResultsListener> listeners = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                String queryId = UUID.randomUUID().toString();
+                queryIds.add(queryId);
+                manager.initializeQuery(queryId);
+                publishers.add(manager.createPublisher(queryId));
+                listeners.add(manager.createListener("listener" + i, queryId));
+            }
+            long setupNanos = System.nanoTime() - start;
+            
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                List<Result> results = new ArrayList<>();
+                for (int j = 0; j < RESULTS_PER_QUERY; j++) {
+                    results.add(new Result("result" + j, queryIds.get(i) + ":" + j));
+                }
+                Assertions.assertTrue(publishers.get(i).publish(results, 30, TimeUnit.SECONDS));
+            }
+            
+            // every listener should receive exactly its own query's results
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                int received = 0;
+                while (received < RESULTS_PER_QUERY) {
+                    List<Result> results = listeners.get(i).receive(RESULTS_PER_QUERY, 30, TimeUnit.SECONDS);
+                    Assertions.assertFalse(results.isEmpty(), "Timed out waiting for results with " + mode);
+                    for (Result result : results) {
+                        Assertions.assertTrue(((String) result.getPayload()).startsWith(queryIds.get(i) + ":"), "Received another query's result");
+                    }
+                    received += results.size();
+                    listeners.get(i).acknowledge(results, AcknowledgementCallback.Status.ACK);
+                }
+                Assertions.assertEquals(RESULTS_PER_QUERY, received);
+            }
+            long totalNanos = System.nanoTime() - start;
+            
+            double seconds = totalNanos / 1e9;
+            log.info("{}: {} queries x {} results in {} ms ({} results/sec), including {} ms to create the publishers and listeners", mode, NUM_QUERIES,
+                            RESULTS_PER_QUERY, TimeUnit.NANOSECONDS.toMillis(totalNanos), (long) (NUM_QUERIES * RESULTS_PER_QUERY / seconds),
+                            TimeUnit.NANOSECONDS.toMillis(setupNanos));
+        } finally {
+            for (QueryResultsListener listener : listeners) {
+                listener.close();
+            }
+            for (QueryResultsPublisher publisher : publishers) {
+                publisher.close();
+            }
+            for (String queryId : queryIds) {
+                manager.deleteQuery(queryId);
+            }
+        }
+    }
+    
+    private KafkaQueryResultsManager createManager(EmbeddedKafkaBroker broker, MessagingProperties messagingProperties) {
+        Map<String,Object> producerProps = KafkaTestUtils.producerProps(broker);
+        Map<String,Object> consumerProps = KafkaTestUtils.consumerProps("unused", "false", broker);
+        
+        // @formatter:off
+        return new KafkaQueryResultsManager(
+                messagingProperties,
+                createAdminClient(broker),
+                new DefaultKafkaProducerFactory<>(producerProps, new StringSerializer(), new ByteArraySerializer()),
+                new DefaultKafkaConsumerFactory<>(consumerProps, new StringDeserializer(), new ByteArrayDeserializer()),
+                JacksonResultCodec.json(),
+                new SimpleMeterRegistry());
+        // @formatter:on
+    }
+    
+    private AdminClient createAdminClient(EmbeddedKafkaBroker broker) {
+        Map<String,Object> adminProps = new HashMap<>(Collections.singletonMap(BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString()));
+        return AdminClient.create(adminProps);
+    }
+}
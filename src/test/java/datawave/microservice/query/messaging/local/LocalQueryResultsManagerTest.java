@@ -0,0 +1,194 @@
+package datawave.microservice.query.messaging.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.query.messaging.AcknowledgementCallback;
+import datawave.microservice.query.messaging.QueryResultsListener;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
+import datawave.microservice.query.messaging.Result;
+import datawave.microservice.query.messaging.config.MessagingProperties;
+
+public class LocalQueryResultsManagerTest {
+    
+    @Test
+    public void testRingBuffer() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        Assertions.assertEquals(4, buffer.capacity());
+        Assertions.assertNull(buffer.poll());
+        
+        // wrap around the ring a few times
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertTrue(buffer.offer(i));
+            }
+            Assertions.assertFalse(buffer.offer(4));
+            Assertions.assertEquals(4, buffer.size());
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertEquals(i, buffer.poll());
+            }
+            Assertions.assertTrue(buffer.isEmpty());
+        }
+    }
+    
+    @Test
+    public void testPublishAndReceive() throws Exception {
+        LocalQueryResultsManager manager = createManager(16);
+        Object payload = new ArrayList<>(Arrays.asList("a", "b"));
+        
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        Assertions.assertFalse(listener.hasResults());
+        Assertions.assertTrue(publisher.publish(new Result("result1", payload)));
+        
+        // the payload is handed over as-is
+        Result result = listener.receive(0, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals("result1", result.getId());
+        Assertions.assertSame(payload, result.getPayload());
+        Assertions.assertEquals(1, manager.getNumResultsRemaining("query1"));
+        
+        result.acknowledge(AcknowledgementCallback.Status.ACK);
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        Assertions.assertNull(listener.receive(10, TimeUnit.MILLISECONDS));
+        
+        // another query's results are separate
+        Assertions.assertTrue(manager.createPublisher("query2").publish(new Result("result2", "payload")));
+        Assertions.assertTrue(manager.createListener("listener2", "query2").hasResults());
+        Assertions.assertFalse(listener.hasResults());
+    }
+    
+    @Test
+    public void testNackRedelivers() throws Exception {
+        LocalQueryResultsManager manager = createManager(16);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        publisher.publish(Arrays.asList(new Result("result1", "payload1"), new Result("result2", "payload2")));
+        
+        List<Result> results = listener.receive(10, 0, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals(2, results.size());
+        results.get(0).acknowledge(AcknowledgementCallback.Status.ACK);
+        results.get(1).acknowledge(AcknowledgementCallback.Status.NACK);
+        
+        // only the first acknowledgement of a delivery counts
+        results.get(1).acknowledge(AcknowledgementCallback.Status.NACK);
+        Assertions.assertEquals(1, manager.getNumResultsRemaining("query1"));
+        
+        Result redelivered = listener.receive(0, TimeUnit.MILLISECONDS);
+        Assertions.assertEquals("result2", redelivered.getId());
+        Assertions.assertNull(listener.receive(0, TimeUnit.MILLISECONDS));
+        redelivered.acknowledge(AcknowledgementCallback.Status.ACK);
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+    }
+    
+    @Test
+    public void testBlockingWhenFull() throws Exception {
+        LocalQueryResultsManager manager = createManager(2);
+        QueryResultsPublisher publisher = manager.createPublisher("query1");
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        
+        Assertions.assertTrue(publisher.publish(Arrays.asList(new Result("result1", "payload"), new Result("result2", "payload"))));
+        Assertions.assertFalse(publisher.publish(new Result("result3", "payload"), 10, TimeUnit.MILLISECONDS));
+        
+        // a waiting publisher is released when a listener makes room
+        CompletableFuture<Boolean> pending = publisher.publishAsync(new Result("result3", "payload"));
+        Assertions.assertFalse(pending.isDone());
+        listener.receive(0, TimeUnit.MILLISECONDS).acknowledge(AcknowledgementCallback.Status.ACK);
+        Assertions.assertTrue(pending.get(10, TimeUnit.SECONDS));
+        
+        // a waiting listener is released when a publisher adds a result
+        manager.emptyQuery("query1");
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        Future<Result> received = Executors.newSingleThreadExecutor().submit(() -> listener.receive(10, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assertions.assertTrue(publisher.publish(new Result("result4", "payload")));
+        Assertions.assertEquals("result4", received.get(10, TimeUnit.SECONDS).getId());
+    }
+    
+    @Test
+    public void testDeleteReleasesWaiters() throws Exception {
+        LocalQueryResultsManager manager = createManager(2);
+        QueryResultsListener listener = manager.createListener("listener1", "query1");
+        Future<Result> received = Executors.newSingleThreadExecutor().submit(() -> listener.receive(1, TimeUnit.MINUTES));
+        Thread.sleep(50);
+        
+        manager.deleteQuery("query1");
+        Assertions.assertNull(received.get(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+    }
+    
+    @Test
+    public void testConcurrentPublishersAndListeners() throws Exception {
+        int numThreads = 4;
+        int resultsPerPublisher = 10000;
+        LocalQueryResultsManager manager = createManager(64);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads * 2);
+        try {
+            List<Future<Boolean>> published = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                int publisherId = t;
+                published.add(executor.submit(() -> {
+                    QueryResultsPublisher publisher = manager.createPublisher("query1");
+                    for (int i = 0; i < resultsPerPublisher; i++) {
+                        if (!publisher.publish(new Result(publisherId + "-" + i, i), 10, TimeUnit.SECONDS)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            
+            List<Future<Set<String>>> received = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                int listenerId = t;
+                received.add(executor.submit(() -> {
+                    Set<String> ids = new HashSet<>();
+                    QueryResultsListener listener = manager.createListener("listener" + listenerId, "query1");
+                    List<Result> results;
+                    while (!(results = listener.receive(100, 2, TimeUnit.SECONDS)).isEmpty()) {
+                        for (Result result : results) {
+                            ids.add(result.getId());
+                        }
+                        listener.acknowledge(results, AcknowledgementCallback.Status.ACK);
+                    }
+                    return ids;
+                }));
+            }
+            
+            for (Future<Boolean> future : published) {
+                Assertions.assertTrue(future.get(1, TimeUnit.MINUTES));
+            }
+            
+            // every result is received exactly once
+            Set<String> ids = new HashSet<>();
+            int total = 0;
+            for (Future<Set<String>> future : received) {
+                Set<String> listenerIds = future.get(1, TimeUnit.MINUTES);
+                total += listenerIds.size();
+                ids.addAll(listenerIds);
+            }
+            Assertions.assertEquals(numThreads * resultsPerPublisher, total);
+            Assertions.assertEquals(numThreads * resultsPerPublisher, ids.size());
+            Assertions.assertEquals(0, manager.getNumResultsRemaining("query1"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private LocalQueryResultsManager createManager(int capacity) {
+        MessagingProperties messagingProperties = new MessagingProperties();
+        messagingProperties.getLocal().setCapacity(capacity);
+        return new LocalQueryResultsManager(messagingProperties);
+    }
+}
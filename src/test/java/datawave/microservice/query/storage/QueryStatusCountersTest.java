@@ -0,0 +1,141 @@
+package datawave.microservice.query.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import datawave.core.query.logic.QueryKey;
+import datawave.microservice.query.Query;
+import datawave.microservice.query.QueryImpl;
+import datawave.query.config.ShardQueryConfiguration;
+import datawave.webservice.query.exception.DatawaveErrorCode;
+
+public class QueryStatusCountersTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    @Test
+    public void testApplyCounters() throws ParseException {
+        QueryStatus queryStatus = createQueryStatus();
+        QueryStatusCounters counters = new QueryStatusCounters(queryStatus);
+        Assertions.assertEquals(queryStatus.getQueryKey().getQueryId(), counters.getQueryId());
+        
+        counters.incrementNumResultsReturned(10);
+        counters.incrementNumResultsConsumed(9);
+        counters.incrementNumResultsGenerated(11);
+        counters.setActiveNextCalls(1);
+        counters.setLastPageNumber(2);
+        counters.incrementNextCount(100);
+        counters.incrementSeekCount(5);
+        counters.setLastUsedMillis(1000L);
+        counters.setLastUpdatedMillis(2000L);
+        Assertions.assertEquals(counters, new QueryStatusCounters(counters));
+        
+        counters.applyTo(queryStatus);
+        Assertions.assertEquals(counters, new QueryStatusCounters(queryStatus));
+        Assertions.assertEquals(10, queryStatus.getNumResultsReturned());
+        Assertions.assertEquals(9, queryStatus.getNumResultsConsumed());
+        Assertions.assertEquals(11, queryStatus.getNumResultsGenerated());
+        Assertions.assertEquals(1, queryStatus.getActiveNextCalls());
+        Assertions.assertEquals(2, queryStatus.getLastPageNumber());
+        Assertions.assertEquals(100, queryStatus.getNextCount());
+        Assertions.assertEquals(5, queryStatus.getSeekCount());
+        Assertions.assertEquals(1000L, queryStatus.getLastUsedMillis());
+        Assertions.assertEquals(2000L, queryStatus.getLastUpdatedMillis());
+    }
+    
+    @Test
+    public void testLazyCounters() throws ParseException {
+        QueryStatus queryStatus = createQueryStatus();
+        QueryStatusCounters stored = new QueryStatusCounters(queryStatus);
+        stored.incrementNumResultsReturned(10);
+        
+        // the counters are not loaded until one of them is accessed
+        int[] loads = new int[1];
+        queryStatus.setCountersLoader(() -> {
+            loads[0]++;
+            return stored;
+        });
+        queryStatus.setPlan("a plan");
+        Assertions.assertEquals(0, loads[0]);
+        Assertions.assertTrue(queryStatus.isCountersPending());
+        
+        Assertions.assertEquals(10, queryStatus.getNumResultsReturned());
+        queryStatus.incrementNumResultsReturned(1);
+        Assertions.assertEquals(1, loads[0]);
+        Assertions.assertFalse(queryStatus.isCountersPending());
+        Assertions.assertEquals(stored, queryStatus.getLoadedCounters());
+        Assertions.assertEquals(11, new QueryStatusCounters(queryStatus).getNumResultsReturned());
+    }
+    
+    @Test
+    public void testMergeCounters() throws ParseException {
+        QueryStatus queryStatus = createQueryStatus();
+        QueryStatusCounters original = new QueryStatusCounters(queryStatus);
+        original.setLastUsedMillis(1000L);
+        
+        // another writer mutates the stored counters after they were read
+        QueryStatusCounters stored = new QueryStatusCounters(original);
+        stored.incrementNumResultsReturned(5);
+        stored.setLastUsedMillis(3000L);
+        
+        QueryStatusCounters updated = new QueryStatusCounters(original);
+        updated.incrementNumResultsReturned(2);
+        updated.setActiveNextCalls(1);
+        updated.setLastUsedMillis(2000L);
+        
+        new QueryStatusMutators.MergeCounters(original, updated).mutate(stored);
+        Assertions.assertEquals(7, stored.getNumResultsReturned());
+        Assertions.assertEquals(1, stored.getActiveNextCalls());
+        Assertions.assertEquals(3000L, stored.getLastUsedMillis());
+    }
+    
+    @Test
+    public void testBytesPerUpdate() throws ParseException, IOException {
+        QueryStatus queryStatus = createQueryStatus();
+        
+        // a heartbeat used to rewrite the entire query status, but with split counters only the counters are rewritten
+        queryStatus.incrementNumResultsReturned(1);
+        queryStatus.setLastUsedMillis(System.currentTimeMillis());
+        int statusBytes = serializedSize(queryStatus);
+        int countersBytes = serializedSize(new QueryStatusCounters(queryStatus));
+        
+        log.info("Bytes per query status update: {} for the full query status, {} for the query status counters", statusBytes, countersBytes);
+        Assertions.assertTrue(countersBytes * 4 < statusBytes, "Expected counters (" + countersBytes + ") to be much smaller than status (" + statusBytes + ")");
+    }
+    
+    private QueryStatus createQueryStatus() throws ParseException {
+        Query query = new QueryImpl();
+        query.setQuery("FOO == 'bar' && BAZ == 'qux'");
+        query.setQueryLogicName("EventQuery");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyyMMdd").parse("20210101"));
+        ShardQueryConfiguration config = new ShardQueryConfiguration();
+        config.setQuery(query);
+        
+        QueryStatus queryStatus = new QueryStatus(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"));
+        queryStatus.setQuery(query);
+        queryStatus.setConfig(config);
+        queryStatus.setCalculatedAuthorizations(Collections.singleton(new Authorizations("FOO", "BAR")));
+        queryStatus.setFailure(DatawaveErrorCode.QUERY_EXECUTION_ERROR, new IllegalStateException("A previous failure"));
+        return queryStatus;
+    }
+    
+    private int serializedSize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+}
@@ -4,38 +4,45 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.lang3.SerializationUtils;
 import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.Disabled;
-import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.kafka.test.context.EmbeddedKafka;
-import org.springframework.test.annotation.DirtiesContext;
-import org.springframework.test.context.ActiveProfiles;
-import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
 
 import com.hazelcast.config.Config;
 import com.hazelcast.core.Hazelcast;
@@ -46,89 +53,106 @@ import datawave.core.query.logic.QueryCheckpoint;
 import datawave.core.query.logic.QueryKey;
 import datawave.microservice.query.Query;
 import datawave.microservice.query.QueryImpl;
+import datawave.microservice.query.messaging.AcknowledgementCallback;
 import datawave.microservice.query.messaging.QueryResultsListener;
 import datawave.microservice.query.messaging.QueryResultsManager;
+import datawave.microservice.query.messaging.QueryResultsPublisher;
 import datawave.microservice.query.messaging.Result;
 import datawave.microservice.query.remote.QueryRequest;
 import datawave.query.config.ShardQueryConfiguration;
 
-@ExtendWith(SpringExtension.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
-public abstract class QueryStorageCacheTest {
+/**
+ * Runs the query storage tests against each of the cache profiles below. Each profile selects a messaging backend, and optionally some storage or messaging
+ * options, and every test starts a fresh application context for the profile it is given.
+ */
+@EmbeddedKafka
+public class QueryStorageCacheTest {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
-    @ActiveProfiles({"QueryStarterDefaults", "QueryStorageCacheTest", "use-test"})
-    @ContextConfiguration(classes = QueryStorageCacheTestConfiguration.class)
-    public static class LocalQueryStorageCacheTest extends QueryStorageCacheTest {}
-    
-    @EmbeddedKafka
-    @ActiveProfiles({"QueryStarterDefaults", "QueryStorageCacheTest", "use-embedded-kafka"})
-    @ContextConfiguration(classes = QueryStorageCacheTestConfiguration.class)
-    public static class EmbeddedKafkaQueryStorageCacheTest extends QueryStorageCacheTest {}
-    
-    @ActiveProfiles({"QueryStarterDefaults", "QueryStorageCacheTest", "use-hazelcast"})
-    @ContextConfiguration(classes = QueryStorageCacheTestConfiguration.class)
-    public static class HazelcastQueryStorageCacheTest extends QueryStorageCacheTest {
-        @DirtiesContext
-        @Test
-        public void testStorageErrorHandler() throws ParseException, IOException {
-            Query query = new QueryImpl();
-            query.setQuery("foo == bar");
-            query.setQueryLogicName("EventQuery");
-            query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
-            query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
-            String queryPool = TEST_POOL;
-            Set<Authorizations> auths = new HashSet<>();
-            auths.add(new Authorizations("FOO", "BAR"));
-            TaskKey key = storageService.createQuery(queryPool, query, null, auths, 3);
-            QueryStatus queryStatus = storageService.getQueryStatus(key.getQueryId());
-            queryStatus.setConfig(new ThisClassIsUnserializableOnPurposeToTestErrorHandling());
-            try {
-                storageService.updateQueryStatus(queryStatus);
-                fail("Expected unserializable configuration to fail storage");
-            } catch (Exception e) {
-                // expected
-            }
+    public enum CacheProfile {
+        // @formatter:off
+        LOCAL("use-test"),
+        EMBEDDED_KAFKA("use-embedded-kafka"),
+        SHARED_TOPICS_EMBEDDED_KAFKA("use-embedded-kafka", "datawave.query.messaging.kafka.useSharedTopics=true"),
+        HAZELCAST("use-hazelcast"),
+        ATOMIC_LOCAL("use-test", "datawave.query.storage.atomic-updates=true"),
+        ATOMIC_HAZELCAST("use-hazelcast", "datawave.query.storage.atomic-updates=true"),
+        SPLIT_COUNTERS_LOCAL("use-test", "datawave.query.storage.split-counters=true"),
+        ATOMIC_SPLIT_COUNTERS_HAZELCAST("use-hazelcast", "datawave.query.storage.atomic-updates=true", "datawave.query.storage.split-counters=true"),
+        NEAR_CACHE_HAZELCAST("use-hazelcast", "datawave.query.storage.near-cache.enabled=true"),
+        COMPACT_SERIALIZATION_HAZELCAST("use-hazelcast", "datawave.query.storage.compact-serialization=true",
+                "datawave.query.storage.atomic-updates=true"),
+        LEASED_LOCKS_HAZELCAST("use-hazelcast", "datawave.query.storage.lock.leased=true", "datawave.query.storage.lock.lease-time=1"),
+        OPTIMISTIC_LOCAL("use-test", "datawave.query.storage.optimistic-task-states=true"),
+        OPTIMISTIC_HAZELCAST("use-hazelcast", "datawave.query.storage.optimistic-task-states=true"),
+        SMILE_CODEC_HAZELCAST("use-hazelcast", "datawave.query.messaging.codec=smile"),
+        LZ4_COMPRESSION_HAZELCAST("use-hazelcast", "datawave.query.messaging.compression.algorithm=lz4", "datawave.query.messaging.compression.thresholdBytes=0"),
+        HAZELCAST_RINGBUFFER("use-hazelcast-ringbuffer"),
+        LOCAL_MESSAGING("use-local"),
+        DISK_MESSAGING("use-disk"),
+        RABBIT("RabbitMQ", "use-rabbit"),
+        KAFKA("Kafka", "use-kafka");
+        // @formatter:on
+        
+        private final String externalService;
+        private final String profile;
+        private final String[] properties;
+        
+        CacheProfile(String profile, String... properties) {
+            this(null, profile, properties);
+        }
+        
+        CacheProfile(String externalService, String profile, String... properties) {
+            this.externalService = externalService;
+            this.profile = profile;
+            this.properties = properties;
         }
         
+        /**
+         * Start an application context for this profile. The properties are passed as command line arguments so that they override the profile configuration.
+         *
+         * @return the application context
+         */
+        public ConfigurableApplicationContext start() {
+            assumeTrue(externalService == null, "Cannot run this test without an externally deployed " + externalService + " instance.");
+            // @formatter:off
+            return new SpringApplicationBuilder(QueryStorageCacheTestConfiguration.class)
+                    .contextFactory(webApplicationType -> new GenericWebApplicationContext(new MockServletContext()))
+                    .profiles("QueryStarterDefaults", "QueryStorageCacheTest", profile)
+                    .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+            // @formatter:on
+        }
     }
     
-    @Disabled("Cannot run this test without an externally deployed RabbitMQ instance.")
-    @ActiveProfiles({"QueryStarterDefaults", "QueryStorageCacheTest", "use-rabbit"})
-    @ContextConfiguration(classes = QueryStorageCacheTestConfiguration.class)
-    public static class RabbitQueryStorageCacheTest extends QueryStorageCacheTest {}
-    
-    @Disabled("Cannot run this test without an externally deployed Kafka instance.")
-    @ActiveProfiles({"QueryStarterDefaults", "QueryStorageCacheTest", "use-kafka"})
-    @ContextConfiguration(classes = QueryStorageCacheTestConfiguration.class)
-    public static class KafkaQueryStorageCacheTest extends QueryStorageCacheTest {}
-    
     @Configuration
     @Profile("QueryStorageCacheTest")
     @ComponentScan(basePackages = "datawave.microservice")
     public static class QueryStorageCacheTestConfiguration {
         @Profile("use-hazelcast")
         @Bean
-        public HazelcastInstance hazelcastInstance() {
+        public Config hazelcastConfig() {
             Config config = new Config();
             config.setClusterName(UUID.randomUUID().toString());
-            return Hazelcast.newHazelcastInstance(config);
+            return config;
+        }
+        
+        @Profile("use-hazelcast")
+        @Bean
+        public HazelcastInstance hazelcastInstance(Config hazelcastConfig) {
+            return Hazelcast.newHazelcastInstance(hazelcastConfig);
         }
     }
     
-    @Autowired
+    protected ConfigurableApplicationContext context;
+    
     protected QueryStatusCache queryStatusCache;
     
-    @Autowired
     protected TaskStatesCache taskStatesCache;
     
-    @Autowired
     protected TaskCache taskCache;
     
-    @Autowired
     protected QueryStorageCache storageService;
     
-    @Autowired
     protected QueryResultsManager queueManager;
     
     public String TEST_POOL = "TestPool";
@@ -136,23 +160,41 @@ public abstract class QueryStorageCacheTest {
     protected final Queue<QueryResultsListener> listeners = new LinkedList<>();
     protected final Queue<String> createdQueries = new LinkedList<>();
     
+    protected void start(CacheProfile cacheProfile) {
+        context = cacheProfile.start();
+        queryStatusCache = context.getBean(QueryStatusCache.class);
+        taskStatesCache = context.getBean(TaskStatesCache.class);
+        taskCache = context.getBean(TaskCache.class);
+        storageService = context.getBean(QueryStorageCache.class);
+        queueManager = context.getBean(QueryResultsManager.class);
+    }
+    
     @AfterEach
     public void cleanup() throws Exception {
-        while (!listeners.isEmpty()) {
-            listeners.remove().close();
+        if (context == null) {
+            return;
         }
-        while (!createdQueries.isEmpty()) {
-            try {
-                storageService.deleteQuery(createdQueries.remove());
-            } catch (Exception e) {
-                log.error("Failed to delete query", e);
+        try {
+            while (!listeners.isEmpty()) {
+                listeners.remove().close();
+            }
+            while (!createdQueries.isEmpty()) {
+                try {
+                    storageService.deleteQuery(createdQueries.remove());
+                } catch (Exception e) {
+                    log.error("Failed to delete query", e);
+                }
             }
+        } finally {
+            context.close();
+            context = null;
         }
     }
     
-    @DirtiesContext
-    @Test
-    public void testLocking() {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testLocking(CacheProfile cacheProfile) {
+        start(cacheProfile);
         String queryId = UUID.randomUUID().toString();
         QueryKey queryKey = new QueryKey("default", queryId, "EventQuery");
         queryStatusCache.updateQueryStatus(new QueryStatus(queryKey));
@@ -176,9 +218,10 @@ public abstract class QueryStorageCacheTest {
         assertFalse(sLock.isLocked());
     }
     
-    @DirtiesContext
-    @Test
-    public void testCreateQuery() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testCreateQuery(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQuery("foo == bar");
         query.setQueryLogicName("EventQuery");
@@ -220,9 +263,10 @@ public abstract class QueryStorageCacheTest {
         queryStatus = storageService.getQueryStatus(key.getQueryId());
     }
     
-    @DirtiesContext
-    @Test
-    public void testStoreTask() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testStoreTask(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -253,6 +297,85 @@ public abstract class QueryStorageCacheTest {
         storageService.deleteTask(task.getTaskKey());
     }
     
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testStoreTasks(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        ShardQueryConfiguration config = new ShardQueryConfiguration();
+        config.setQuery(query);
+        String queryId = UUID.randomUUID().toString();
+        createdQueries.add(queryId);
+        String queryPool = TEST_POOL;
+        QueryKey queryKey = new QueryKey(queryPool, queryId, query.getQueryLogicName());
+        taskStatesCache.updateTaskStates(new TaskStates(queryKey, 10));
+        
+        // create one task first so that the batch does not start at the first task id
+        TaskKey firstKey = storageService.createTask(QueryRequest.Method.NEXT, new QueryCheckpoint(queryKey, config.getQueries())).getTaskKey();
+        
+        List<QueryCheckpoint> checkpoints = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            checkpoints.add(new QueryCheckpoint(queryKey, config.getQueries()));
+        }
+        List<QueryTask> tasks = storageService.createTasks(QueryRequest.Method.NEXT, checkpoints);
+        assertEquals(checkpoints.size(), tasks.size());
+        
+        TaskStates states = storageService.getTaskStates(queryId);
+        assertEquals(checkpoints.size() + 1, states.getReadyTaskCount());
+        for (int i = 0; i < tasks.size(); i++) {
+            TaskKey key = tasks.get(i).getTaskKey();
+            assertEquals(firstKey.getTaskId() + 1 + i, key.getTaskId());
+            assertEquals(TaskStates.TASK_STATE.READY, states.getState(key.getTaskId()));
+            assertQueryTask(key, QueryRequest.Method.NEXT, storageService.getTask(key));
+        }
+        assertEquals(checkpoints.size() + 1, storageService.getTasks(queryId).size());
+        
+        // an empty batch is a no-op
+        assertTrue(storageService.createTasks(QueryRequest.Method.NEXT, new ArrayList<>()).isEmpty());
+        
+        // checkpoints for different queries cannot be mixed
+        checkpoints.add(new QueryCheckpoint(new QueryKey(queryPool, UUID.randomUUID().toString(), query.getQueryLogicName()), config.getQueries()));
+        try {
+            storageService.createTasks(QueryRequest.Method.NEXT, checkpoints);
+            fail("Expected storage service to fail creating tasks for multiple queries");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(tasks.size() + 1, storageService.getTaskStates(queryId).getReadyTaskCount());
+        
+        // tasks cannot be created for a query without task states
+        QueryKey otherKey = new QueryKey(queryPool, UUID.randomUUID().toString(), query.getQueryLogicName());
+        assertThrows(IllegalStateException.class, () -> storageService.createTasks(QueryRequest.Method.NEXT,
+                        Collections.singletonList(new QueryCheckpoint(otherKey, config.getQueries()))));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(value = CacheProfile.class, names = "HAZELCAST")
+    public void testStorageErrorHandler(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQuery("foo == bar");
+        query.setQueryLogicName("EventQuery");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey key = storageService.createQuery(queryPool, query, null, auths, 3);
+        QueryStatus queryStatus = storageService.getQueryStatus(key.getQueryId());
+        queryStatus.setConfig(new ThisClassIsUnserializableOnPurposeToTestErrorHandling());
+        try {
+            storageService.updateQueryStatus(queryStatus);
+            fail("Expected unserializable configuration to fail storage");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+    
     public static class ThisClassIsUnserializableOnPurposeToTestErrorHandling extends GenericQueryConfiguration {
         private ThisSubclassIsUnserializableOnPurposeToTestErrorHandling obj = new ThisSubclassIsUnserializableOnPurposeToTestErrorHandling();
         
@@ -278,9 +401,10 @@ public abstract class QueryStorageCacheTest {
         
     }
     
-    @DirtiesContext
-    @Test
-    public void testCheckpointTask() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testCheckpointTask(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -333,9 +457,10 @@ public abstract class QueryStorageCacheTest {
         assertEquals(checkpoint, task2.getQueryCheckpoint());
     }
     
-    @DirtiesContext
-    @Test
-    public void testGetAndDeleteTask() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testGetAndDeleteTask(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -363,9 +488,10 @@ public abstract class QueryStorageCacheTest {
         assertNull(task);
     }
     
-    @DirtiesContext
-    @Test
-    public void testGetAndDeleteQueryTasks() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testGetAndDeleteQueryTasks(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -398,9 +524,139 @@ public abstract class QueryStorageCacheTest {
         assertEquals(0, tasks.size());
     }
     
-    @DirtiesContext
-    @Test
-    public void testGetAndDeleteTypeTasks() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testConcurrentTaskStateUpdates(CacheProfile cacheProfile) throws Exception {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        ShardQueryConfiguration config = new ShardQueryConfiguration();
+        config.setQuery(query);
+        
+        final int tasksPerUpdater = 10;
+        for (int updaters : new int[] {1, 8, 64}) {
+            String queryId = UUID.randomUUID().toString();
+            createdQueries.add(queryId);
+            QueryKey queryKey = new QueryKey(TEST_POOL, queryId, query.getQueryLogicName());
+            taskStatesCache.updateTaskStates(new TaskStates(queryKey, updaters));
+            
+            List<QueryCheckpoint> checkpoints = new ArrayList<>();
+            for (int i = 0; i < updaters * tasksPerUpdater; i++) {
+                checkpoints.add(new QueryCheckpoint(queryKey, config.getQueries()));
+            }
+            List<QueryTask> tasks = storageService.createTasks(QueryRequest.Method.NEXT, checkpoints);
+            
+            // each updater runs and then completes its own tasks, one at a time, so there is always a running slot available
+            ExecutorService executor = Executors.newFixedThreadPool(updaters);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int updater = 0; updater < updaters; updater++) {
+                List<QueryTask> updaterTasks = tasks.subList(updater * tasksPerUpdater, (updater + 1) * tasksPerUpdater);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (QueryTask task : updaterTasks) {
+                        assertTrue(storageService.updateTaskState(task.getTaskKey(), TaskStates.TASK_STATE.RUNNING));
+                        assertTrue(storageService.updateTaskState(task.getTaskKey(), TaskStates.TASK_STATE.COMPLETED));
+                    }
+                    return null;
+                }));
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            executor.shutdown();
+            
+            int transitions = updaters * tasksPerUpdater * 2;
+            log.info("{} concurrent updaters: {} task state transitions/second", updaters, (long) (transitions / (elapsedNanos / 1e9)));
+            
+            // no transitions may be lost
+            TaskStates taskStates = storageService.getTaskStates(queryId);
+            assertEquals(updaters * tasksPerUpdater, taskStates.getCompletedTaskCount());
+            assertEquals(0, taskStates.getRunningTaskCount());
+            assertEquals(0, taskStates.getReadyTaskCount());
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testTaskIndex(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        ShardQueryConfiguration config = new ShardQueryConfiguration();
+        config.setQuery(query);
+        String queryId = UUID.randomUUID().toString();
+        createdQueries.add(queryId);
+        String queryPool = TEST_POOL;
+        QueryKey queryKey = new QueryKey(queryPool, queryId, query.getQueryLogicName());
+        taskStatesCache.updateTaskStates(new TaskStates(queryKey, 10));
+        
+        // tasks for another query must not be picked up
+        String otherQueryId = UUID.randomUUID().toString();
+        createdQueries.add(otherQueryId);
+        QueryKey otherQueryKey = new QueryKey(queryPool, otherQueryId, query.getQueryLogicName());
+        taskStatesCache.updateTaskStates(new TaskStates(otherQueryKey, 10));
+        storageService.createTask(QueryRequest.Method.NEXT, new QueryCheckpoint(otherQueryKey, config.getQueries()));
+        
+        List<QueryCheckpoint> checkpoints = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            checkpoints.add(new QueryCheckpoint(queryKey, config.getQueries()));
+        }
+        List<QueryTask> created = storageService.createTasks(QueryRequest.Method.NEXT, checkpoints);
+        storageService.deleteTask(created.get(0).getTaskKey());
+        
+        List<QueryTask> tasks = taskCache.getTasks(queryId);
+        assertEquals(4, tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals(created.get(i + 1), tasks.get(i));
+        }
+        assertEquals(4, taskCache.getTasks(queryKey).size());
+        assertEquals(4, taskCache.getTaskCounts(queryKey).get(QueryRequest.Method.NEXT).intValue());
+        assertEquals(1, taskCache.getTasks(otherQueryId).size());
+        
+        // without the task states the tasks are found by scanning the cache
+        taskStatesCache.deleteTaskStates(queryId);
+        assertEquals(4, taskCache.getTasks(queryId).size());
+        assertEquals(4, taskCache.getTasks(queryKey).size());
+        
+        taskCache.deleteTasks(queryId);
+        assertEquals(0, taskCache.getTasks(queryId).size());
+        assertEquals(1, taskCache.getTasks(otherQueryId).size());
+        
+        // deleting the query deletes its tasks through the task states
+        storageService.deleteQuery(otherQueryId);
+        createdQueries.remove(otherQueryId);
+        assertEquals(0, taskCache.getTasks(otherQueryId).size());
+        
+        // tasks which were stored but never given a state are deleted as well
+        String unreadyQueryId = UUID.randomUUID().toString();
+        createdQueries.add(unreadyQueryId);
+        QueryKey unreadyQueryKey = new QueryKey(queryPool, unreadyQueryId, query.getQueryLogicName());
+        TaskStates unreadyStates = new TaskStates(unreadyQueryKey, 10);
+        int firstTaskId = unreadyStates.getAndAddNextTaskIds(2);
+        taskStatesCache.updateTaskStates(unreadyStates);
+        List<QueryTask> unready = taskCache.addQueryTasks(firstTaskId, QueryRequest.Method.NEXT,
+                        Arrays.asList(new QueryCheckpoint(unreadyQueryKey, config.getQueries()), new QueryCheckpoint(unreadyQueryKey, config.getQueries())));
+        for (QueryTask task : unready) {
+            assertNotNull(taskCache.getTask(task.getTaskKey()));
+        }
+        taskCache.deleteTasks(unreadyQueryId);
+        for (QueryTask task : unready) {
+            assertNull(taskCache.getTask(task.getTaskKey()));
+        }
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testGetAndDeleteTypeTasks(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -436,9 +692,10 @@ public abstract class QueryStorageCacheTest {
         assertEquals(0, queries.size());
     }
     
-    @DirtiesContext
-    @Test
-    public void testTaskStateUpdate() throws ParseException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testTaskStateUpdate(CacheProfile cacheProfile) throws ParseException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -470,9 +727,10 @@ public abstract class QueryStorageCacheTest {
         assertTrue(storageService.updateTaskState(key3, TaskStates.TASK_STATE.RUNNING));
     }
     
-    @DirtiesContext
-    @Test
-    public void testQueryStateUpdate() throws ParseException, IOException {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testQueryStateUpdate(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQueryLogicName("EventQuery");
         query.setQuery("foo == bar");
@@ -490,9 +748,163 @@ public abstract class QueryStorageCacheTest {
         assertEquals(QueryStatus.QUERY_STATE.CANCEL, storageService.getQueryStatus(queryId).getQueryState());
     }
     
-    @DirtiesContext
-    @Test
-    public void testResultsQueue() throws Exception {
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testQueryStatusMutation(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey taskKey = storageService.createQuery(queryPool, query, null, auths, 2);
+        String queryId = taskKey.getQueryId();
+        createdQueries.add(queryId);
+        
+        assertTrue(storageService.updateQueryStatus(queryId, status -> {
+            status.incrementNumResultsReturned(10);
+            status.setActiveNextCalls(status.getActiveNextCalls() + 1);
+        }));
+        assertTrue(storageService.updateQueryStatus(queryId, status -> status.incrementNumResultsReturned(5)));
+        
+        QueryStatus queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals(15, queryStatus.getNumResultsReturned());
+        assertEquals(1, queryStatus.getActiveNextCalls());
+        assertEquals(query.getQuery(), queryStatus.getQuery().getQuery());
+        
+        storageService.updateCreateStage(queryId, QueryStatus.CREATE_STAGE.TASK);
+        storageService.updateFailedQueryStatus(queryId, new IllegalStateException("failed on purpose"));
+        queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals(QueryStatus.CREATE_STAGE.TASK, queryStatus.getCreateStage());
+        assertEquals(QueryStatus.QUERY_STATE.FAIL, queryStatus.getQueryState());
+        assertEquals("failed on purpose", queryStatus.getFailureMessage());
+        
+        // a missing query status is not created
+        assertFalse(storageService.updateQueryStatus(UUID.randomUUID().toString(), status -> status.incrementNumResultsReturned(1)));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testQueryStatusReplace(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey taskKey = storageService.createQuery(queryPool, query, null, auths, 2);
+        String queryId = taskKey.getQueryId();
+        createdQueries.add(queryId);
+        
+        // a query status read before a mutation cannot be written back over it
+        QueryStatus stale = SerializationUtils.clone(storageService.getQueryStatus(queryId));
+        assertTrue(storageService.updateQueryStatus(queryId, status -> status.incrementNumResultsReturned(10)));
+        stale.setPlan("stale plan");
+        assertFalse(storageService.replaceQueryStatus(stale));
+        
+        QueryStatus queryStatus = SerializationUtils.clone(storageService.getQueryStatus(queryId));
+        queryStatus.setPlan("current plan");
+        assertTrue(storageService.replaceQueryStatus(queryStatus));
+        queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals("current plan", queryStatus.getPlan());
+        assertEquals(10, queryStatus.getNumResultsReturned());
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testQueryStatusCountersMutation(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey taskKey = storageService.createQuery(queryPool, query, null, auths, 2);
+        String queryId = taskKey.getQueryId();
+        createdQueries.add(queryId);
+        
+        assertTrue(storageService.updateQueryStatusCounters(queryId, counters -> {
+            counters.incrementNumResultsReturned(10);
+            counters.setActiveNextCalls(counters.getActiveNextCalls() + 1);
+            counters.setLastUsedMillis(1000L);
+        }));
+        assertTrue(storageService.updateQueryStatusCounters(queryId, counters -> counters.setActiveNextCalls(counters.getActiveNextCalls() - 1)));
+        
+        QueryStatus queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals(10, queryStatus.getNumResultsReturned());
+        assertEquals(0, queryStatus.getActiveNextCalls());
+        assertEquals(1000L, queryStatus.getLastUsedMillis());
+        assertEquals(query.getQuery(), queryStatus.getQuery().getQuery());
+        
+        // the counters must survive a full query status update
+        storageService.updateQueryStatus(queryId, QueryStatus.QUERY_STATE.CLOSE);
+        queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals(QueryStatus.QUERY_STATE.CLOSE, queryStatus.getQueryState());
+        assertEquals(10, queryStatus.getNumResultsReturned());
+        assertEquals(10, storageService.getQueryStatus().get(0).getNumResultsReturned());
+        
+        // a query status written back only applies its own changes to the counters, keeping a concurrent counters mutation
+        queryStatus = SerializationUtils.clone(storageService.getQueryStatus(queryId));
+        queryStatus.setActiveNextCalls(queryStatus.getActiveNextCalls() + 1);
+        assertTrue(storageService.updateQueryStatusCounters(queryId, counters -> counters.incrementNumResultsReturned(5)));
+        if (!storageService.replaceQueryStatus(queryStatus)) {
+            // the counters are stored with the query status, so the mutation conflicts with the write instead
+            queryStatus = SerializationUtils.clone(storageService.getQueryStatus(queryId));
+            queryStatus.setActiveNextCalls(queryStatus.getActiveNextCalls() + 1);
+            assertTrue(storageService.replaceQueryStatus(queryStatus));
+        }
+        queryStatus = storageService.getQueryStatus(queryId);
+        assertEquals(15, queryStatus.getNumResultsReturned());
+        assertEquals(1, queryStatus.getActiveNextCalls());
+        
+        // a missing query status is not created
+        assertFalse(storageService.updateQueryStatusCounters(UUID.randomUUID().toString(), counters -> counters.incrementNumResultsReturned(1)));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testCachedReads(CacheProfile cacheProfile) throws ParseException, IOException {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQueryLogicName("EventQuery");
+        query.setQuery("foo == bar");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey taskKey = storageService.createQuery(queryPool, query, null, auths, 2);
+        String queryId = taskKey.getQueryId();
+        createdQueries.add(queryId);
+        
+        assertEquals(storageService.getQueryStatus(queryId), storageService.getCachedQueryStatus(queryId));
+        assertEquals(storageService.getTaskStates(queryId), storageService.getCachedTaskStates(queryId));
+        
+        // local updates are visible to cached reads immediately
+        storageService.updateQueryStatus(queryId, QueryStatus.QUERY_STATE.CLOSE);
+        assertEquals(QueryStatus.QUERY_STATE.CLOSE, storageService.getCachedQueryStatus(queryId).getQueryState());
+        assertTrue(storageService.updateTaskState(taskKey, TaskStates.TASK_STATE.RUNNING));
+        assertEquals(TaskStates.TASK_STATE.RUNNING, storageService.getCachedTaskStates(queryId).getState(taskKey.getTaskId()));
+        
+        storageService.deleteQuery(queryId);
+        createdQueries.remove(queryId);
+        assertNull(storageService.getCachedQueryStatus(queryId));
+        assertNull(storageService.getCachedTaskStates(queryId));
+    }
+    
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testResultsQueue(CacheProfile cacheProfile) throws Exception {
+        start(cacheProfile);
         Query query = new QueryImpl();
         query.setQuery("foo == bar");
         query.setQueryLogicName("EventQuery");
@@ -520,6 +932,57 @@ public abstract class QueryStorageCacheTest {
         assertEquals(result.getPayload(), msg.getPayload());
     }
     
+    @ParameterizedTest
+    @EnumSource(CacheProfile.class)
+    public void testBatchResultsQueue(CacheProfile cacheProfile) throws Exception {
+        start(cacheProfile);
+        Query query = new QueryImpl();
+        query.setQuery("foo == bar");
+        query.setQueryLogicName("EventQuery");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyMMdd").parse("20210101"));
+        String queryPool = TEST_POOL;
+        Set<Authorizations> auths = new HashSet<>();
+        auths.add(new Authorizations("FOO", "BAR"));
+        TaskKey key = storageService.createQuery(queryPool, query, null, auths, 3);
+        createdQueries.add(key.getQueryId());
+        assertNotNull(key);
+        
+        // setup a listener for this query's result queue
+        QueryResultsListener listener = queueManager.createListener("TestListener", key.getQueryId());
+        listeners.add(listener);
+        
+        // send a page of results synchronously, and another asynchronously
+        List<Result> page = new ArrayList<>();
+        List<Result> asyncPage = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            page.add(new Result("result" + i, "Some result " + i));
+            asyncPage.add(new Result("asyncResult" + i, "Some async result " + i));
+        }
+        QueryResultsPublisher publisher = queueManager.createPublisher(key.getQueryId());
+        assertTrue(publisher.publish(page, 10000, TimeUnit.MILLISECONDS));
+        assertTrue(publisher.publishAsync(asyncPage).get(10000, TimeUnit.MILLISECONDS));
+        
+        // receive the messages
+        Set<Object> expected = new HashSet<>();
+        for (Result result : page) {
+            expected.add(result.getPayload());
+        }
+        for (Result result : asyncPage) {
+            expected.add(result.getPayload());
+        }
+        Set<Object> received = new HashSet<>();
+        while (received.size() < expected.size()) {
+            List<Result> msgs = listener.receive(expected.size(), 10000, TimeUnit.MILLISECONDS);
+            assertFalse(msgs.isEmpty(), "Got no result messages");
+            for (Result msg : msgs) {
+                received.add(msg.getPayload());
+            }
+            listener.acknowledge(msgs, AcknowledgementCallback.Status.ACK);
+        }
+        assertEquals(expected, received);
+    }
+    
     private void assertQueryCreate(String queryId, String queryPool, QueryStatus status) {
         assertEquals(queryId, status.getQueryKey().getQueryId());
         assertEquals(queryPool, status.getQueryKey().getQueryPool());
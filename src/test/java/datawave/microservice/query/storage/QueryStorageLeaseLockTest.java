@@ -0,0 +1,195 @@
+package datawave.microservice.query.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+import datawave.microservice.query.storage.config.QueryStorageProperties.LockProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class QueryStorageLeaseLockTest {
+    private static final String CACHE_NAME = "TestCache";
+    
+    private SimpleMeterRegistry meterRegistry;
+    private ConcurrentMapCache leaseCache;
+    private QueryStorageLocks locks;
+    
+    @BeforeEach
+    public void setup() {
+        LockProperties lockProperties = new LockProperties();
+        lockProperties.setLeased(true);
+        lockProperties.setLeaseTime(300);
+        lockProperties.setLeaseTimeUnit(TimeUnit.MILLISECONDS);
+        meterRegistry = new SimpleMeterRegistry();
+        leaseCache = new ConcurrentMapCache(QueryStorageLocks.LEASE_CACHE_NAME);
+        locks = new QueryStorageLocks(leaseCache, lockProperties, meterRegistry);
+    }
+    
+    @AfterEach
+    public void cleanup() {
+        locks.close();
+    }
+    
+    @Test
+    public void testFencingTokensIncrease() {
+        QueryStorageLock lock = getLock("query1");
+        Assertions.assertEquals(-1L, lock.getFencingToken());
+        Assertions.assertFalse(lock.isLocked());
+        
+        lock.lock();
+        Assertions.assertTrue(lock.isLocked());
+        Assertions.assertTrue(lock.isFencingTokenValid());
+        long token = lock.getFencingToken();
+        lock.unlock();
+        Assertions.assertFalse(lock.isLocked());
+        Assertions.assertFalse(lock.isFencingTokenValid());
+        
+        lock.lock();
+        Assertions.assertTrue(lock.getFencingToken() > token);
+        lock.unlock();
+    }
+    
+    @Test
+    public void testExclusion() throws Exception {
+        QueryStorageLock lock = getLock("query1");
+        Assertions.assertTrue(lock.tryLock());
+        try {
+            Assertions.assertFalse(CompletableFuture.supplyAsync(() -> getLock("query1").tryLock()).get());
+            // a different key is not affected
+            Assertions.assertTrue(CompletableFuture.supplyAsync(() -> getLock("query2").tryLock()).get());
+        } finally {
+            lock.unlock();
+        }
+        Assertions.assertTrue(CompletableFuture.supplyAsync(() -> {
+            QueryStorageLock other = getLock("query1");
+            boolean locked = other.tryLock();
+            other.unlock();
+            return locked;
+        }).get());
+    }
+    
+    @Test
+    public void testReentrant() {
+        QueryStorageLock lock = getLock("query1");
+        lock.lock();
+        long token = lock.getFencingToken();
+        QueryStorageLock nested = getLock("query1");
+        Assertions.assertTrue(nested.tryLock());
+        Assertions.assertEquals(token, nested.getFencingToken());
+        nested.unlock();
+        Assertions.assertTrue(lock.isLocked());
+        lock.unlock();
+        Assertions.assertFalse(lock.isLocked());
+    }
+    
+    @Test
+    public void testLeaseRenewed() throws Exception {
+        QueryStorageLock lock = getLock("query1");
+        lock.lock();
+        try {
+            // wait for several lease times, the watchdog should keep the lease alive
+            Thread.sleep(1000);
+            Assertions.assertTrue(lock.isFencingTokenValid());
+            Assertions.assertFalse(CompletableFuture.supplyAsync(() -> getLock("query1").tryLock()).get());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Test
+    public void testExpiredLeaseFenced() throws Exception {
+        QueryStorageLock lock = getLock("query1");
+        // an explicit lease time is not renewed
+        lock.lock(100);
+        long token = lock.getFencingToken();
+        Thread.sleep(200);
+        Assertions.assertFalse(lock.isLocked());
+        
+        long otherToken = CompletableFuture.supplyAsync(() -> {
+            QueryStorageLock other = getLock("query1");
+            Assertions.assertTrue(other.tryLock());
+            return other.getFencingToken();
+        }).get();
+        Assertions.assertTrue(otherToken > token);
+        
+        // the original holder can tell that it lost the lease, and releasing it does not release the new holder
+        Assertions.assertFalse(lock.isFencingTokenValid());
+        Assertions.assertThrows(IllegalStateException.class, lock::ensureFencingTokenValid);
+        lock.unlock();
+        Assertions.assertTrue(lock.isLocked());
+        
+        lock.forceUnlock();
+        Assertions.assertFalse(lock.isLocked());
+    }
+    
+    @Test
+    public void testStaleWriteRejected() throws Exception {
+        ConcurrentMapCache valueCache = new ConcurrentMapCache(CACHE_NAME);
+        QueryStorageLock lock = getLock("query1");
+        lock.lock(100);
+        long token = lock.getFencingToken();
+        Assertions.assertEquals(token, locks.getFencingToken(CACHE_NAME, "query1"));
+        QueryStorageFencing.put(valueCache, "query1", new QueryStatusCounters(), locks.getFencingToken(CACHE_NAME, "query1"));
+        Thread.sleep(200);
+        
+        // the next holder writes under its own lease
+        long otherToken = CompletableFuture.supplyAsync(() -> {
+            QueryStorageLock other = getLock("query1");
+            Assertions.assertTrue(other.tryLock());
+            QueryStatusCounters counters = new QueryStatusCounters();
+            counters.setNumResultsReturned(10L);
+            QueryStorageFencing.put(valueCache, "query1", counters, locks.getFencingToken(CACHE_NAME, "query1"));
+            return other.getFencingToken();
+        }).get();
+        Assertions.assertTrue(otherToken > token);
+        
+        // the original holder still has its hold, but its write is rejected
+        Assertions.assertEquals(token, locks.getFencingToken(CACHE_NAME, "query1"));
+        Assertions.assertThrows(IllegalStateException.class,
+                        () -> QueryStorageFencing.put(valueCache, "query1", new QueryStatusCounters(), locks.getFencingToken(CACHE_NAME, "query1")));
+        QueryStatusCounters stored = valueCache.get("query1", QueryStatusCounters.class);
+        Assertions.assertEquals(10L, stored.getNumResultsReturned());
+        Assertions.assertEquals(otherToken, stored.getFencingToken());
+        
+        lock.forceUnlock();
+        Assertions.assertEquals(-1L, locks.getFencingToken(CACHE_NAME, "query1"));
+    }
+    
+    @Test
+    public void testDeleteLease() {
+        QueryStorageLock lock = getLock("query1");
+        lock.lock();
+        lock.unlock();
+        ConcurrentMap<?,?> leases = leaseCache.getNativeCache();
+        Assertions.assertEquals(1, leases.size());
+        locks.deleteLease(CACHE_NAME, "query1");
+        Assertions.assertTrue(leases.isEmpty());
+    }
+    
+    @Test
+    public void testLockMetrics() throws InterruptedException {
+        QueryStorageLock lock = getLock("query1");
+        lock.lock();
+        Thread.sleep(20);
+        lock.unlock();
+        
+        Timer waitTimer = meterRegistry.get("query.storage.lock.wait").tag("cache", CACHE_NAME).timer();
+        Timer holdTimer = meterRegistry.get("query.storage.lock.hold").tag("cache", CACHE_NAME).timer();
+        Assertions.assertEquals(1, waitTimer.count());
+        Assertions.assertEquals(1, holdTimer.count());
+        Assertions.assertTrue(holdTimer.totalTime(TimeUnit.MILLISECONDS) >= 20);
+    }
+    
+    private QueryStorageLock getLock(String key) {
+        return locks.getLock(CACHE_NAME, key, () -> {
+            throw new IllegalStateException("Expected a leased lock");
+        });
+    }
+}
@@ -0,0 +1,46 @@
+package datawave.microservice.query.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import datawave.microservice.query.storage.config.QueryStorageProperties.NearCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class QueryStorageNearCacheTest {
+    
+    @Test
+    public void testNearCache() throws InterruptedException {
+        NearCacheProperties properties = new NearCacheProperties();
+        properties.setMaxStaleness(200);
+        properties.setMaxStalenessUnit(TimeUnit.MILLISECONDS);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        QueryStorageNearCache<String> nearCache = new QueryStorageNearCache<>("TestNearCache", properties, meterRegistry);
+        
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals("value", nearCache.get("key", k -> {
+                loads.incrementAndGet();
+                return "value";
+            }));
+        }
+        Assertions.assertEquals(1, loads.get());
+        
+        // missing values are not cached
+        Assertions.assertNull(nearCache.get("missing", k -> null));
+        Assertions.assertEquals("found", nearCache.get("missing", k -> "found"));
+        
+        // invalidation forces a reload
+        nearCache.invalidate("key");
+        Assertions.assertEquals("reloaded", nearCache.get("key", k -> "reloaded"));
+        
+        // entries are never used past the max staleness
+        Thread.sleep(300);
+        Assertions.assertEquals("expired", nearCache.get("key", k -> "expired"));
+        
+        Assertions.assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "TestNearCache").tag("result", "hit").functionCounter().count());
+        Assertions.assertEquals(5.0, meterRegistry.get("cache.gets").tag("cache", "TestNearCache").tag("result", "miss").functionCounter().count());
+    }
+}
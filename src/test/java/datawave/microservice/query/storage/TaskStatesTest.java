@@ -0,0 +1,269 @@
+package datawave.microservice.query.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import datawave.core.query.logic.QueryKey;
+
+public class TaskStatesTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    @Test
+    public void testStateTransitions() {
+        TaskStates states = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), 2);
+        Assertions.assertNull(states.getState(1));
+        Assertions.assertTrue(states.setState(1, TaskStates.TASK_STATE.READY));
+        Assertions.assertTrue(states.setState(2, TaskStates.TASK_STATE.READY));
+        Assertions.assertTrue(states.setState(3, TaskStates.TASK_STATE.READY));
+        Assertions.assertEquals(3, states.getReadyTaskCount());
+        Assertions.assertTrue(states.setState(1, TaskStates.TASK_STATE.RUNNING));
+        Assertions.assertTrue(states.setState(2, TaskStates.TASK_STATE.RUNNING));
+        Assertions.assertFalse(states.setState(3, TaskStates.TASK_STATE.RUNNING));
+        Assertions.assertEquals(TaskStates.TASK_STATE.READY, states.getState(3));
+        Assertions.assertTrue(states.setState(1, TaskStates.TASK_STATE.COMPLETED));
+        Assertions.assertTrue(states.setState(3, TaskStates.TASK_STATE.RUNNING));
+        Assertions.assertEquals(0, states.getReadyTaskCount());
+        Assertions.assertEquals(2, states.getRunningTaskCount());
+        Assertions.assertEquals(1, states.getCompletedTaskCount());
+        
+        int count = 0;
+        for (TaskKey taskKey : states.getTasksForState(TaskStates.TASK_STATE.RUNNING, 10)) {
+            Assertions.assertEquals(TaskStates.TASK_STATE.RUNNING, states.getState(taskKey.getTaskId()));
+            count++;
+        }
+        Assertions.assertEquals(2, count);
+    }
+    
+    @Test
+    public void testCopy() {
+        TaskStates states = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), 2);
+        states.setState(states.getAndIncrementNextTaskId(), TaskStates.TASK_STATE.READY);
+        states.setState(states.getAndIncrementNextTaskId(), TaskStates.TASK_STATE.RUNNING);
+        states.incrementVersion();
+        
+        TaskStates copy = new TaskStates(states);
+        Assertions.assertEquals(states, copy);
+        Assertions.assertEquals(states.getNextTaskId(), copy.getNextTaskId());
+        Assertions.assertEquals(1L, copy.getVersion());
+        
+        // the copy must not share any state with the original
+        Assertions.assertTrue(copy.setState(1, TaskStates.TASK_STATE.COMPLETED));
+        copy.setState(copy.getAndIncrementNextTaskId(), TaskStates.TASK_STATE.READY);
+        Assertions.assertEquals(TaskStates.TASK_STATE.READY, states.getState(1));
+        Assertions.assertNull(states.getState(3));
+        Assertions.assertEquals(1, states.getReadyTaskCount());
+        Assertions.assertEquals(0, states.getCompletedTaskCount());
+    }
+    
+    @Test
+    public void testTaskKeys() {
+        QueryKey queryKey = new QueryKey("default", UUID.randomUUID().toString(), "EventQuery");
+        TaskStates states = new TaskStates(queryKey, 2);
+        states.setState(5, TaskStates.TASK_STATE.COMPLETED);
+        states.setState(2, TaskStates.TASK_STATE.READY);
+        states.setState(9, TaskStates.TASK_STATE.FAILED);
+        states.setState(7, TaskStates.TASK_STATE.RUNNING);
+        states.setState(9, null);
+        Assertions.assertEquals(Arrays.asList(new TaskKey(2, queryKey), new TaskKey(5, queryKey), new TaskKey(7, queryKey)), states.getTaskKeys());
+    }
+    
+    @Test
+    public void testReplaceChecksVersion() {
+        QueryKey queryKey = new QueryKey("default", UUID.randomUUID().toString(), "EventQuery");
+        TaskStates stored = new TaskStates(queryKey, 2);
+        Map.Entry<Object,Object> entry = new AbstractMap.SimpleEntry<>(queryKey.toUUIDKey(), stored);
+        
+        // a concurrent reservation only changes the next task id and version, which equals ignores
+        TaskStates reserved = new TaskStates(stored);
+        reserved.getAndAddNextTaskIds(5);
+        reserved.incrementVersion();
+        Assertions.assertEquals(stored, reserved);
+        Assertions.assertTrue(new TaskStatesReplaceEntryProcessor(stored.getVersion(), reserved).process(entry));
+        Assertions.assertSame(reserved, entry.getValue());
+        
+        // so a replace based on the earlier version must be rejected
+        TaskStates stale = new TaskStates(stored);
+        stale.getAndAddNextTaskIds(5);
+        stale.incrementVersion();
+        Assertions.assertFalse(new TaskStatesReplaceEntryProcessor(stored.getVersion(), stale).process(entry));
+        Assertions.assertSame(reserved, entry.getValue());
+    }
+    
+    @Test
+    public void testAllocatedTaskKeys() {
+        QueryKey queryKey = new QueryKey("default", UUID.randomUUID().toString(), "EventQuery");
+        TaskStates states = new TaskStates(queryKey, 2);
+        Assertions.assertTrue(states.getAllocatedTaskKeys().isEmpty());
+        
+        // allocated tasks are included before they are given a state
+        int firstTaskId = states.getAndAddNextTaskIds(3);
+        Assertions.assertEquals(1, firstTaskId);
+        states.setState(firstTaskId, TaskStates.TASK_STATE.READY);
+        Assertions.assertEquals(Arrays.asList(new TaskKey(1, queryKey), new TaskKey(2, queryKey), new TaskKey(3, queryKey)), states.getAllocatedTaskKeys());
+    }
+    
+    @Test
+    public void testStateIndexRebuilt() throws IOException, ClassNotFoundException {
+        TaskStates states = createTaskStates(1000, new Random(7));
+        for (TaskStates other : new TaskStates[] {deserialize(serialize(states)), copyTaskStates(states)}) {
+            for (int taskId = 0; taskId <= 1001; taskId++) {
+                Assertions.assertEquals(states.getState(taskId), other.getState(taskId));
+            }
+            for (TaskStates.TASK_STATE state : TaskStates.TASK_STATE.values()) {
+                Assertions.assertEquals(states.getTaskStates().getOrDefault(state, new TreeSet<>()).size(), other.getTaskCountForState(state));
+            }
+        }
+        
+        // transitions on the rebuilt index must keep the counts in sync
+        TaskStates other = deserialize(serialize(states));
+        int ready = other.getReadyTaskCount();
+        int completed = other.getCompletedTaskCount();
+        for (TaskKey taskKey : other.getTasksForState(TaskStates.TASK_STATE.READY, ready)) {
+            Assertions.assertTrue(other.setState(taskKey.getTaskId(), TaskStates.TASK_STATE.COMPLETED));
+        }
+        Assertions.assertEquals(0, other.getReadyTaskCount());
+        Assertions.assertFalse(other.hasReadyTasks());
+        Assertions.assertEquals(ready + completed, other.getCompletedTaskCount());
+        
+        // task ids beyond the current index grow the index
+        Assertions.assertTrue(other.setState(100000, TaskStates.TASK_STATE.READY));
+        Assertions.assertEquals(TaskStates.TASK_STATE.READY, other.getState(100000));
+        Assertions.assertTrue(other.setState(100000, null));
+        Assertions.assertNull(other.getState(100000));
+        Assertions.assertEquals(0, other.getReadyTaskCount());
+    }
+    
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        TaskStates states = createTaskStates(1000, new Random(42));
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = objectMapper.writeValueAsString(states);
+        TaskStates other = objectMapper.readerFor(TaskStates.class).readValue(json);
+        Assertions.assertEquals(states, other);
+        Assertions.assertEquals(states.getTaskStates(), other.getTaskStates());
+    }
+    
+    @Test
+    public void testLegacyJsonFormat() throws IOException {
+        String json = "{\"queryKey\":null,\"maxRunning\":3,\"nextTaskId\":6,\"taskStates\":{\"READY\":\"1,2,3\",\"COMPLETED\":\"4,5\"}}";
+        TaskStates states = new ObjectMapper().readerFor(TaskStates.class).readValue(json);
+        Assertions.assertEquals(3, states.getReadyTaskCount());
+        Assertions.assertEquals(2, states.getCompletedTaskCount());
+        Assertions.assertEquals("1-3", states.getTaskStatesAsStrings().get(TaskStates.TASK_STATE.READY));
+        Assertions.assertEquals("4-5", states.getTaskStatesAsStrings().get(TaskStates.TASK_STATE.COMPLETED));
+    }
+    
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        Random random = new Random(42);
+        for (int numTasks : new int[] {1000, 100000, 1000000}) {
+            TaskStates states = createTaskStates(numTasks, random);
+            
+            long start = System.nanoTime();
+            byte[] bytes = serialize(states);
+            long serializeNanos = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            TaskStates other = deserialize(bytes);
+            long deserializeNanos = System.nanoTime() - start;
+            
+            Assertions.assertEquals(states, other);
+            for (TaskStates.TASK_STATE state : TaskStates.TASK_STATE.values()) {
+                Assertions.assertEquals(states.getTaskCountForState(state), other.getTaskCountForState(state));
+            }
+            
+            // compare against the previous java serialized form, which held a TreeSet of boxed task ids per state
+            int legacySize = serialize(new datawave.microservice.query.storage.legacy.TaskStates(states)).length;
+            log.info("{} tasks: {} bytes (previous serialized form {} bytes), serialize {}us, deserialize {}us", numTasks, bytes.length, legacySize,
+                            serializeNanos / 1000, deserializeNanos / 1000);
+            Assertions.assertTrue(bytes.length < legacySize);
+        }
+    }
+    
+    @Test
+    public void testReadPreviousSerializedForm() throws Exception {
+        TaskStates states = createTaskStates(1000, new Random(42));
+        states.setNextTaskId(1001);
+        byte[] bytes = serialize(new datawave.microservice.query.storage.legacy.TaskStates(states));
+        
+        // the previous form was written under this class name, so resolve the stand in to it
+        TaskStates other;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                if (desc.getName().equals(datawave.microservice.query.storage.legacy.TaskStates.class.getName())) {
+                    return TaskStates.class;
+                }
+                return super.resolveClass(desc);
+            }
+        }) {
+            other = (TaskStates) in.readObject();
+        }
+        
+        Assertions.assertEquals(states, other);
+        Assertions.assertEquals(1001, other.getNextTaskId());
+        Assertions.assertEquals(0L, other.getVersion());
+        for (TaskStates.TASK_STATE state : TaskStates.TASK_STATE.values()) {
+            Assertions.assertEquals(states.getTaskCountForState(state), other.getTaskCountForState(state));
+        }
+        Assertions.assertEquals(states.getTaskKeys(), other.getTaskKeys());
+    }
+    
+    private TaskStates createTaskStates(int numTasks, Random random) {
+        TaskStates states = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            int taskId = states.getAndIncrementNextTaskId();
+            // most tasks complete in order, with some scattered running, ready and failed tasks
+            int roll = random.nextInt(100);
+            if (i < numTasks / 2 && roll < 95) {
+                states.setState(taskId, TaskStates.TASK_STATE.COMPLETED);
+            } else if (roll < 2) {
+                states.setState(taskId, TaskStates.TASK_STATE.FAILED);
+            } else if (roll < 10) {
+                states.setState(taskId, TaskStates.TASK_STATE.RUNNING);
+            } else {
+                states.setState(taskId, TaskStates.TASK_STATE.READY);
+            }
+        }
+        return states;
+    }
+    
+    private TaskStates copyTaskStates(TaskStates states) {
+        TaskStates copy = new TaskStates(states.getQueryKey(), states.getMaxRunning());
+        copy.setNextTaskId(states.getNextTaskId());
+        copy.setTaskStates(states.getTaskStates());
+        return copy;
+    }
+    
+    private byte[] serialize(Serializable states) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(states);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private TaskStates deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (TaskStates) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package datawave.microservice.query.storage.legacy;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import datawave.core.query.logic.QueryKey;
+
+/**
+ * The serialized form of {@link datawave.microservice.query.storage.TaskStates} before task ids were kept as bitmaps, used to verify that the current class can
+ * still read it and to compare encoded sizes.
+ */
+public class TaskStates implements Serializable {
+    private static final long serialVersionUID = 1361359960334155427L;
+    
+    private QueryKey queryKey;
+    private int maxRunning;
+    private int nextTaskId;
+    private Map<datawave.microservice.query.storage.TaskStates.TASK_STATE,SortedSet<Integer>> taskStates = new HashMap<>();
+    
+    public TaskStates(datawave.microservice.query.storage.TaskStates current) {
+        this.queryKey = current.getQueryKey();
+        this.maxRunning = current.getMaxRunning();
+        this.nextTaskId = current.getNextTaskId();
+        for (Map.Entry<datawave.microservice.query.storage.TaskStates.TASK_STATE,SortedSet<Integer>> entry : current.getTaskStates().entrySet()) {
+            taskStates.put(entry.getKey(), new TreeSet<>(entry.getValue()));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package datawave.microservice.query.storage.serialization;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.Data;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.HazelcastSerializationException;
+
+import datawave.core.query.configuration.QueryData;
+import datawave.core.query.logic.QueryCheckpoint;
+import datawave.core.query.logic.QueryKey;
+import datawave.microservice.query.Query;
+import datawave.microservice.query.QueryImpl;
+import datawave.microservice.query.executor.status.cache.ExecutorPoolStatus;
+import datawave.microservice.query.remote.QueryRequest;
+import datawave.microservice.query.storage.QueryStatus;
+import datawave.microservice.query.storage.QueryTask;
+import datawave.microservice.query.storage.TaskStates;
+import datawave.query.config.ShardQueryConfiguration;
+import datawave.webservice.query.exception.DatawaveErrorCode;
+
+public class QueryStorageSerializersTest {
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    
+    private static final int ITERATIONS = 2000;
+    
+    private InternalSerializationService javaSerialization;
+    private InternalSerializationService compactSerialization;
+    
+    @BeforeEach
+    public void setup() {
+        javaSerialization = new DefaultSerializationServiceBuilder().setConfig(new SerializationConfig()).build();
+        compactSerialization = new DefaultSerializationServiceBuilder().setConfig(QueryStorageSerializers.register(new SerializationConfig())).build();
+    }
+    
+    @Test
+    public void testQueryStatus() throws ParseException {
+        QueryStatus queryStatus = createQueryStatus();
+        queryStatus.setFencingToken(42L);
+        queryStatus.setVersion(3L);
+        QueryStatus copy = roundTrip(queryStatus);
+        Assertions.assertEquals(queryStatus, copy);
+        Assertions.assertEquals(queryStatus.getCalculatedAuthorizations(), copy.getCalculatedAuthorizations());
+        Assertions.assertEquals(queryStatus.getStackTrace(), copy.getStackTrace());
+        Assertions.assertEquals(42L, copy.getFencingToken());
+        Assertions.assertEquals(3L, copy.getVersion());
+        assertSmaller("QueryStatus", queryStatus);
+    }
+    
+    @Test
+    public void testQueryStatusPerEntityAuthorizations() throws ParseException {
+        // each entity in a proxied chain keeps its own authorizations, rather than being merged into one wider set
+        QueryStatus queryStatus = createQueryStatus();
+        Set<Authorizations> calculatedAuthorizations = new LinkedHashSet<>();
+        calculatedAuthorizations.add(new Authorizations("FOO", "BAR"));
+        calculatedAuthorizations.add(new Authorizations("FOO"));
+        calculatedAuthorizations.add(new Authorizations("BAR", "BAZ"));
+        queryStatus.setCalculatedAuthorizations(calculatedAuthorizations);
+        
+        QueryStatus copy = roundTrip(queryStatus);
+        Assertions.assertEquals(calculatedAuthorizations, copy.getCalculatedAuthorizations());
+        Assertions.assertEquals(queryStatus.getCalculatedAuths(), copy.getCalculatedAuths());
+    }
+    
+    @Test
+    public void testQueryTask() {
+        QueryKey queryKey = new QueryKey("default", UUID.randomUUID().toString(), "EventQuery");
+        List<QueryData> queries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // @formatter:off
+            queries.add(new QueryData("shard", "FOO == 'bar' && BAZ == 'qux'",
+                    new HashSet<>(Collections.singleton(new Range(new Key("20200101_" + i, "datatype\u0000uid" + i), true, new Key("20200101_" + i + "\uffff"), false))),
+                    new HashSet<>(Arrays.asList("FOO", "BAZ")),
+                    new ArrayList<>(Collections.singletonList(new IteratorSetting(10, "query", "datawave.query.iterator.QueryIterator", Collections.singletonMap("query", "FOO == 'bar'"))))));
+            // @formatter:on
+        }
+        QueryTask task = new QueryTask(12, QueryRequest.Method.NEXT, new QueryCheckpoint(queryKey, queries));
+        QueryTask copy = roundTrip(task);
+        Assertions.assertEquals(task, copy);
+        Assertions.assertEquals(task.getLastUpdatedMillis(), copy.getLastUpdatedMillis());
+        assertSmaller("QueryTask", task);
+    }
+    
+    @Test
+    public void testTaskStates() {
+        TaskStates taskStates = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), 10);
+        for (int i = 0; i < 1000; i++) {
+            int taskId = taskStates.getAndIncrementNextTaskId();
+            taskStates.setState(taskId, i < 900 ? TaskStates.TASK_STATE.COMPLETED : (i % 7 == 0 ? TaskStates.TASK_STATE.RUNNING : TaskStates.TASK_STATE.READY));
+        }
+        taskStates.setFencingToken(7L);
+        TaskStates copy = roundTrip(taskStates);
+        Assertions.assertEquals(taskStates, copy);
+        Assertions.assertEquals(7L, copy.getFencingToken());
+        Assertions.assertEquals(taskStates.getReadyTaskCount(), copy.getReadyTaskCount());
+        Assertions.assertEquals(taskStates.getRunningTaskCount(), copy.getRunningTaskCount());
+        assertSmaller("TaskStates", taskStates);
+    }
+    
+    @Test
+    public void testExecutorPoolStatus() {
+        ExecutorPoolStatus status = new ExecutorPoolStatus("default");
+        status.getExecutorHeartbeat().put("executor-1", System.currentTimeMillis());
+        status.getExecutorHeartbeat().put("executor-2", System.currentTimeMillis());
+        status.getQueryCountByConnectionPool().put("pool-1", 5);
+        ExecutorPoolStatus copy = roundTrip(status);
+        Assertions.assertEquals(status.getPoolName(), copy.getPoolName());
+        Assertions.assertEquals(status.getExecutorHeartbeat(), copy.getExecutorHeartbeat());
+        Assertions.assertEquals(status.getQueryCountByConnectionPool(), copy.getQueryCountByConnectionPool());
+        assertSmaller("ExecutorPoolStatus", status);
+    }
+    
+    @Test
+    public void testNewerVersionReadable() {
+        // a member running a newer release may append fields, which a member running this release ignores when reading a top level value
+        SerializationConfig newerConfig = new SerializationConfig();
+        newerConfig.addSerializerConfig(new SerializerConfig().setTypeClass(TaskStates.class).setImplementation(new TaskStatesSerializer() {
+            @Override
+            public void write(ObjectDataOutput out, TaskStates taskStates) throws IOException {
+                out.writeByte(getVersion() + 1);
+                writeData(out, taskStates);
+                out.writeString("a field added in a later version");
+            }
+        }));
+        InternalSerializationService newerSerialization = new DefaultSerializationServiceBuilder().setConfig(newerConfig).build();
+        
+        TaskStates taskStates = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), 10);
+        taskStates.setState(taskStates.getAndIncrementNextTaskId(), TaskStates.TASK_STATE.READY);
+        TaskStates copy = compactSerialization.toObject(newerSerialization.toData(taskStates));
+        Assertions.assertEquals(taskStates, copy);
+    }
+    
+    @Test
+    public void testNewerEnumConstantRejected() {
+        // a task state added by a newer release can not be read by this release, so the read fails rather than returning the wrong state
+        SerializationConfig newerConfig = new SerializationConfig();
+        newerConfig.addSerializerConfig(new SerializerConfig().setTypeClass(TaskStates.class).setImplementation(new TaskStatesSerializer() {
+            @Override
+            public void write(ObjectDataOutput out, TaskStates taskStates) throws IOException {
+                out.writeByte(getVersion() + 1);
+                writeQueryKey(out, taskStates.getQueryKey());
+                out.writeInt(taskStates.getMaxRunning());
+                out.writeInt(taskStates.getNextTaskId());
+                out.writeByte(1);
+                out.writeByte(TaskStates.TASK_STATE.values().length);
+            }
+        }));
+        InternalSerializationService newerSerialization = new DefaultSerializationServiceBuilder().setConfig(newerConfig).build();
+        
+        TaskStates taskStates = new TaskStates(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"), 10);
+        Data data = newerSerialization.toData(taskStates);
+        Assertions.assertThrows(HazelcastSerializationException.class, () -> compactSerialization.toObject(data));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T object) {
+        Data data = compactSerialization.toData(object);
+        Assertions.assertEquals(QueryStorageSerializers.getSerializerConfigs().stream().filter(c -> c.getTypeClass().isInstance(object)).findFirst().get()
+                        .getImplementation().getTypeId(), data.getType());
+        return (T) compactSerialization.toObject(data);
+    }
+    
+    private void assertSmaller(String name, Object object) {
+        int javaBytes = javaSerialization.toData(object).totalSize();
+        int compactBytes = compactSerialization.toData(object).totalSize();
+        long javaNanos = timeRoundTrip(javaSerialization, object);
+        long compactNanos = timeRoundTrip(compactSerialization, object);
+        log.info("{}: java serialization {} bytes, {} ns per round trip; compact serialization {} bytes, {} ns per round trip", name, javaBytes, javaNanos,
+                        compactBytes, compactNanos);
+        Assertions.assertTrue(compactBytes < javaBytes, "Expected compact " + name + " (" + compactBytes + ") to be smaller than java (" + javaBytes + ")");
+    }
+    
+    private long timeRoundTrip(InternalSerializationService serializationService, Object object) {
+        // warm up before timing
+        for (int i = 0; i < ITERATIONS; i++) {
+            serializationService.toObject(serializationService.toData(object));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            serializationService.toObject(serializationService.toData(object));
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+    
+    private QueryStatus createQueryStatus() throws ParseException {
+        Query query = new QueryImpl();
+        query.setQuery("FOO == 'bar' && BAZ == 'qux'");
+        query.setQueryLogicName("EventQuery");
+        query.setBeginDate(new SimpleDateFormat("yyyyMMdd").parse("20200101"));
+        query.setEndDate(new SimpleDateFormat("yyyyMMdd").parse("20210101"));
+        ShardQueryConfiguration config = new ShardQueryConfiguration();
+        config.setQuery(query);
+        
+        QueryStatus queryStatus = new QueryStatus(new QueryKey("default", UUID.randomUUID().toString(), "EventQuery"));
+        queryStatus.setQuery(query);
+        queryStatus.setConfig(config);
+        queryStatus.setQueryState(QueryStatus.QUERY_STATE.CREATE);
+        queryStatus.setCreateStage(QueryStatus.CREATE_STAGE.RESULTS);
+        queryStatus.setCalculatedAuthorizations(Collections.singleton(new Authorizations("FOO", "BAR")));
+        queryStatus.setPlan("FOO == 'bar' && BAZ == 'qux'");
+        queryStatus.incrementNumResultsReturned(100);
+        queryStatus.incrementNumResultsGenerated(120);
+        queryStatus.setLastPageNumber(4);
+        queryStatus.setQueryStartMillis(System.currentTimeMillis());
+        queryStatus.setLastUsedMillis(System.currentTimeMillis());
+        queryStatus.setLastUpdatedMillis(System.currentTimeMillis());
+        queryStatus.setFailure(DatawaveErrorCode.QUERY_EXECUTION_ERROR, new IllegalStateException("A previous failure"));
+        return queryStatus;
+    }
+}